@@ -0,0 +1,236 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.events;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.sshtools.common.logger.Log;
+
+/**
+ * Delivers events to another listener from a dedicated thread so that a slow listener,
+ * for example one that writes to a database or syslog, does not hold up the thread
+ * that fired the event. Events are placed on a bounded queue and delivered in the order
+ * they were fired, in batches if the listener is a {@link BatchEventListener}.
+ * 
+ * <p>
+ * Register an instance with {@link EventService#addListener(EventListener)} in place of
+ * the listener it wraps. Because events are delivered after they have been fired, the
+ * wrapped listener cannot veto an operation by throwing an {@link EventException}.
+ * Listeners that need to do so should be registered directly.
+ * </p>
+ */
+public class AsynchronousEventListener implements EventListener {
+
+	/**
+	 * What to do with an event when the queue is full.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Discard the event.
+		 */
+		DROP,
+		/**
+		 * Wait for space on the queue, slowing down the thread that fired the event.
+		 */
+		BLOCK,
+		/**
+		 * Once the queue is three quarters full only accept one in every
+		 * {@link AsynchronousEventListener#getSampleRate()} events, and
+		 * discard the event if the queue is full.
+		 */
+		SAMPLE
+	}
+	
+	static final AtomicInteger threadNumber = new AtomicInteger(1);
+	
+	final EventListener listener;
+	final EventRingBuffer queue;
+	final OverflowPolicy overflowPolicy;
+	final Thread thread;
+	final int maximumBatchSize;
+	final List<Event> batch;
+	
+	final AtomicLong sampled = new AtomicLong();
+	final AtomicLong dropped = new AtomicLong();
+	final AtomicLong delivered = new AtomicLong();
+	volatile int maximumLag;
+	volatile boolean waiting;
+	volatile boolean closed;
+	int sampleRate = 10;
+	
+	public AsynchronousEventListener(EventListener listener) {
+		this(listener, 8192, OverflowPolicy.DROP);
+	}
+	
+	public AsynchronousEventListener(EventListener listener, int capacity, OverflowPolicy overflowPolicy) {
+		this(listener, capacity, overflowPolicy, 256);
+	}
+	
+	/**
+	 * Create a listener.
+	 * 
+	 * @param listener the listener to deliver events to
+	 * @param capacity the maximum number of events waiting to be delivered
+	 * @param overflowPolicy what to do when the queue is full
+	 * @param maximumBatchSize the maximum number of events passed to a {@link BatchEventListener} at once
+	 */
+	public AsynchronousEventListener(EventListener listener, int capacity, OverflowPolicy overflowPolicy, int maximumBatchSize) {
+		this.listener = listener;
+		this.queue = new EventRingBuffer(capacity);
+		this.overflowPolicy = overflowPolicy;
+		this.maximumBatchSize = maximumBatchSize;
+		this.batch = new ArrayList<Event>(maximumBatchSize);
+		this.thread = new Thread(this::dispatch, "event-dispatch-" + threadNumber.getAndIncrement());
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	
+	public EventListener getListener() {
+		return listener;
+	}
+	
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+	
+	public int getSampleRate() {
+		return sampleRate;
+	}
+	
+	public void setSampleRate(int sampleRate) {
+		this.sampleRate = Math.max(1, sampleRate);
+	}
+	
+	/**
+	 * The number of events waiting to be delivered.
+	 * 
+	 * @return int
+	 */
+	public int getLag() {
+		return queue.size();
+	}
+	
+	/**
+	 * The highest number of events that have been waiting to be delivered at once.
+	 * 
+	 * @return int
+	 */
+	public int getMaximumLag() {
+		return maximumLag;
+	}
+	
+	/**
+	 * The number of events discarded because the queue was full or by sampling.
+	 * 
+	 * @return long
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+	
+	public long getDelivered() {
+		return delivered.get();
+	}
+	
+	@Override
+	public void processEvent(Event evt) {
+		
+		if(closed) {
+			return;
+		}
+		
+		int size = queue.size();
+		if(overflowPolicy == OverflowPolicy.SAMPLE && size >= queue.capacity() - (queue.capacity() >> 2)
+				&& sampled.getAndIncrement() % sampleRate != 0) {
+			dropped.incrementAndGet();
+			return;
+		}
+		
+		while(!queue.offer(evt)) {
+			if(overflowPolicy != OverflowPolicy.BLOCK || closed) {
+				dropped.incrementAndGet();
+				return;
+			}
+			wakeup();
+			LockSupport.parkNanos(100000L);
+		}
+		
+		if(size + 1 > maximumLag) {
+			maximumLag = size + 1;
+		}
+		wakeup();
+	}
+	
+	private void wakeup() {
+		if(waiting) {
+			LockSupport.unpark(thread);
+		}
+	}
+	
+	/**
+	 * Stop delivering events. Any events still queued are delivered first.
+	 */
+	public void close() {
+		closed = true;
+		LockSupport.unpark(thread);
+	}
+	
+	private void dispatch() {
+		
+		while(true) {
+			Event evt = queue.poll();
+			if(evt == null) {
+				if(closed) {
+					return;
+				}
+				waiting = true;
+				if(queue.size() == 0) {
+					LockSupport.parkNanos(this, 100000000L);
+				}
+				waiting = false;
+				continue;
+			}
+			
+			if(listener instanceof BatchEventListener) {
+				batch.add(evt);
+				while(batch.size() < maximumBatchSize && (evt = queue.poll()) != null) {
+					batch.add(evt);
+				}
+				try {
+					((BatchEventListener)listener).processEvents(batch);
+				} catch(Throwable t) {
+					Log.warn("Caught exception from event listener", t);
+				}
+				delivered.addAndGet(batch.size());
+				batch.clear();
+			} else {
+				try {
+					listener.processEvent(evt);
+				} catch(Throwable t) {
+					Log.warn("Caught exception from event listener", t);
+				}
+				delivered.incrementAndGet();
+			}
+		}
+	}
+}
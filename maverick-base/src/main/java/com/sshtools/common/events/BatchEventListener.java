@@ -0,0 +1,36 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.events;
+
+import java.util.List;
+
+/**
+ * A listener that can receive events in batches when it is wrapped in an
+ * {@link AsynchronousEventListener}.
+ */
+public interface BatchEventListener extends EventListener {
+
+	/**
+	 * Invoked with the events that have been queued since the last batch, in the
+	 * order they were fired. The list is reused and must not be kept.
+	 * 
+	 * @param events
+	 */
+	void processEvents(List<Event> events);
+}
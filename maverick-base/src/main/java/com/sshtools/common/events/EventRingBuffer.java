@@ -0,0 +1,84 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.events;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue of events that any number of threads may add to and a
+ * single thread takes from. Adding an event does not allocate.
+ */
+class EventRingBuffer {
+
+	final int mask;
+	final AtomicReferenceArray<Event> events;
+	final AtomicLongArray sequences;
+	final AtomicLong head = new AtomicLong();
+	final AtomicLong tail = new AtomicLong();
+	
+	EventRingBuffer(int capacity) {
+		int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+		mask = size - 1;
+		events = new AtomicReferenceArray<Event>(size);
+		sequences = new AtomicLongArray(size);
+		for(int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+	
+	int capacity() {
+		return mask + 1;
+	}
+	
+	int size() {
+		return (int) Math.max(0, head.get() - tail.get());
+	}
+	
+	boolean offer(Event evt) {
+		while(true) {
+			long pos = head.get();
+			int idx = (int) (pos & mask);
+			long diff = sequences.get(idx) - pos;
+			if(diff == 0) {
+				if(head.compareAndSet(pos, pos + 1)) {
+					events.set(idx, evt);
+					sequences.set(idx, pos + 1);
+					return true;
+				}
+			} else if(diff < 0) {
+				return false;
+			}
+		}
+	}
+	
+	Event poll() {
+		long pos = tail.get();
+		int idx = (int) (pos & mask);
+		if(sequences.get(idx) != pos + 1) {
+			return null;
+		}
+		Event evt = events.get(idx);
+		events.set(idx, null);
+		tail.set(pos + 1);
+		sequences.set(idx, pos + mask + 1);
+		return evt;
+	}
+}
@@ -26,6 +26,7 @@ import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.sshtools.common.logger.Log;
 
@@ -46,6 +47,7 @@ public class EventServiceImplementation implements EventService {
 	private static StackTraceElement[] gotStack;
     protected final Hashtable<String,EventListener> keyedListeners;
     protected List<EventListener> globalListeners = new ArrayList<EventListener>();
+    protected List<AsynchronousEventListener> asynchronousListeners = new CopyOnWriteArrayList<AsynchronousEventListener>();
     @SuppressWarnings("rawtypes")
     protected List<Class> eventCodeDescriptors = new ArrayList<Class>(Arrays.asList(EventCodes.class));
     boolean processAllEventsOnEventException = false;
@@ -171,18 +173,38 @@ public class EventServiceImplementation implements EventService {
             	throw lastException;
             }
         }
+        
+        // Queue for asynchronous listeners only once no other listener has vetoed the event
+        for(AsynchronousEventListener mListener : asynchronousListeners) {
+        	mListener.processEvent(evt);
+        }
     }
 
     public void setProcessAllEventsOnEventException(boolean processAllEventsOnEventException) {
     	this.processAllEventsOnEventException = processAllEventsOnEventException;
     }
 
+	/**
+	 * Add a listener. An {@link AsynchronousEventListener} is given events without taking
+	 * the lock that serializes delivery to the other listeners.
+	 */
 	public void addListener(EventListener listener) {
-		globalListeners.add(listener);
-
+		if(listener instanceof AsynchronousEventListener) {
+			asynchronousListeners.add((AsynchronousEventListener) listener);
+		} else {
+			synchronized(this) {
+				globalListeners.add(listener);
+			}
+		}
 	}
 
 	public void removeListener(EventListener listener) {
-		globalListeners.remove(listener);
+		if(listener instanceof AsynchronousEventListener) {
+			asynchronousListeners.remove(listener);
+		} else {
+			synchronized(this) {
+				globalListeners.remove(listener);
+			}
+		}
 	}
 }
\ No newline at end of file
@@ -21,12 +21,15 @@ package com.sshtools.common.files;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import com.sshtools.common.permissions.PermissionDeniedException;
 import com.sshtools.common.sftp.SftpFileAttributes;
 
-public class AbstractFileAdapter implements AbstractFile {
+public class AbstractFileAdapter implements AbstractFile, AbstractFileChannel, AbstractFileAsynchronousChannel {
 
 	protected AbstractFile file;
 	
@@ -110,6 +113,20 @@ public class AbstractFileAdapter implements AbstractFile {
 		return file.supportsRandomAccess();
 	}
 
+	public FileChannel openFileChannel(boolean writeAccess) throws IOException {
+		if(file instanceof AbstractFileChannel) {
+			return ((AbstractFileChannel)file).openFileChannel(writeAccess);
+		}
+		return null;
+	}
+	
+	public AsynchronousFileChannel openAsynchronousChannel(boolean writeAccess, ExecutorService executor) throws IOException {
+		if(file instanceof AbstractFileAsynchronousChannel) {
+			return ((AbstractFileAsynchronousChannel)file).openAsynchronousChannel(writeAccess, executor);
+		}
+		return null;
+	}
+	
 	public AbstractFileRandomAccess openFile(boolean writeAccess) throws IOException {
 		return file.openFile(writeAccess);
 	}
@@ -0,0 +1,40 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.files;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Implemented by {@link AbstractFile} implementations that are backed by a local
+ * file and can be read and written through an {@link AsynchronousFileChannel}.
+ */
+public interface AbstractFileAsynchronousChannel {
+
+	/**
+	 * Open an asynchronous channel to the file.
+	 * 
+	 * @param writeAccess open the channel for writing as well as reading
+	 * @param executor the executor that performs the I/O and runs the completion handlers
+	 * @return channel or <code>null</code> if the file cannot be opened as a channel.
+	 * @throws IOException
+	 */
+	AsynchronousFileChannel openAsynchronousChannel(boolean writeAccess, ExecutorService executor) throws IOException;
+}
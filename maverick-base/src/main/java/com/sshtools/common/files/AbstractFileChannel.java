@@ -0,0 +1,70 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.files;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import com.sshtools.common.util.IOUtils;
+
+/**
+ * Implemented by {@link AbstractFile} implementations that are backed by a local
+ * file and can be opened as a {@link FileChannel}. Data can then be copied between
+ * two such files by the operating system without passing through the JVM heap.
+ */
+public interface AbstractFileChannel {
+
+	/**
+	 * Open a channel to the file.
+	 * 
+	 * @param writeAccess open the channel for writing, creating the file if it does not exist
+	 * @return channel or <code>null</code> if the file cannot be opened as a channel.
+	 * @throws IOException
+	 */
+	FileChannel openFileChannel(boolean writeAccess) throws IOException;
+	
+	/**
+	 * Replace the contents of one file with another using channels when both files support them. 
+	 * 
+	 * @param from
+	 * @param to
+	 * @return <code>false</code> if either file cannot be opened as a channel and nothing was copied.
+	 * @throws IOException
+	 */
+	static boolean copyFile(AbstractFile from, AbstractFile to) throws IOException {
+		
+		if(!(from instanceof AbstractFileChannel) || !(to instanceof AbstractFileChannel)) {
+			return false;
+		}
+		
+		try(FileChannel in = ((AbstractFileChannel)from).openFileChannel(false)) {
+			if(in==null) {
+				return false;
+			}
+			try(FileChannel out = ((AbstractFileChannel)to).openFileChannel(true)) {
+				if(out==null) {
+					return false;
+				}
+				long count = IOUtils.transfer(in, 0, in.size(), out, 0);
+				out.truncate(count);
+				return true;
+			}
+		}
+	}
+}
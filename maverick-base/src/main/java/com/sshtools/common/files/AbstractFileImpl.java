@@ -40,8 +40,10 @@ public abstract class AbstractFileImpl<T extends AbstractFile> implements Abstra
 				resolveFile(f.getName()).copyFrom(f);
 			}
 		} else if(src.isFile()) {
-			copy(src.getInputStream(),
-					getOutputStream());
+			if(!AbstractFileChannel.copyFile(src, this)) {
+				copy(src.getInputStream(),
+						getOutputStream());
+			}
 		} else {
 			throw new IOException("Cannot copy object that is not directory or a regular file");
 		}
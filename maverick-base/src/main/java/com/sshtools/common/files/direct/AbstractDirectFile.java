@@ -24,8 +24,16 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.files.AbstractFileAsynchronousChannel;
+import com.sshtools.common.files.AbstractFileChannel;
 import com.sshtools.common.files.AbstractFileFactory;
 import com.sshtools.common.files.AbstractFileImpl;
 import com.sshtools.common.files.AbstractFileRandomAccess;
@@ -33,7 +41,7 @@ import com.sshtools.common.files.RandomAccessImpl;
 import com.sshtools.common.permissions.PermissionDeniedException;
 import com.sshtools.common.sftp.SftpFileAttributes;
 
-public abstract class AbstractDirectFile<T extends AbstractDirectFile<T>> extends AbstractFileImpl<T> {
+public abstract class AbstractDirectFile<T extends AbstractDirectFile<T>> extends AbstractFileImpl<T> implements AbstractFileAsynchronousChannel, AbstractFileChannel {
 
 	protected File f;
 	protected File homeDir;
@@ -141,6 +149,19 @@ public abstract class AbstractDirectFile<T extends AbstractDirectFile<T>> extend
 		return new RandomAccessImpl(f, writeAccess);
 	}
 
+	public AsynchronousFileChannel openAsynchronousChannel(boolean writeAccess, ExecutorService executor) throws IOException {
+		Set<StandardOpenOption> options = writeAccess 
+				? EnumSet.of(StandardOpenOption.READ, StandardOpenOption.WRITE) 
+				: EnumSet.of(StandardOpenOption.READ);
+		return AsynchronousFileChannel.open(f.toPath(), options, executor);
+	}
+	
+	public FileChannel openFileChannel(boolean writeAccess) throws IOException {
+		return writeAccess
+				? FileChannel.open(f.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)
+				: FileChannel.open(f.toPath(), StandardOpenOption.READ);
+	}
+
 
 	public boolean isHidden() {
 		return hidden;
@@ -270,8 +270,8 @@ public class InMemoryFile {
 			
 			@Override
 			public int read(byte[] buf, int off, int len) throws IOException {
-				if (this.pointer > InMemoryFile.this.data.length) {
-					return -1;
+				if (this.pointer >= InMemoryFile.this.data.length) {
+					return len == 0 ? 0 : -1;
 				}
 				
 				int range = len;
@@ -283,8 +283,7 @@ public class InMemoryFile {
 				System.arraycopy(InMemoryFile.this.data, this.pointer, buf, off, range);
 				pointer+= range;
 				
-				int dataPending = InMemoryFile.this.data.length - pointer;
-				return  dataPending <= 0 ? -1 : dataPending;
+				return range;
 			}
 			
 			@Override
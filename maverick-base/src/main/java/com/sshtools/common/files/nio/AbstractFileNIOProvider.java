@@ -23,15 +23,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.AccessDeniedException;
 import java.nio.file.AccessMode;
 import java.nio.file.CopyOption;
 import java.nio.file.DirectoryStream;
 import java.nio.file.DirectoryStream.Filter;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
 import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.ProviderMismatchException;
@@ -48,6 +51,7 @@ import java.util.Objects;
 import java.util.Set;
 
 import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.files.AbstractFileChannel;
 import com.sshtools.common.permissions.PermissionDeniedException;
 import com.sshtools.common.ssh.SshConnection;
 
@@ -132,7 +136,44 @@ public class AbstractFileNIOProvider extends FileSystemProvider {
 	@Override
 	public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs)
 			throws IOException {
-		return new AbstractFileSeekableByteChannel(toAbstractFilePath(path).getAbstractFile());
+		
+		boolean append = options.contains(StandardOpenOption.APPEND);
+		boolean write = append || options.contains(StandardOpenOption.WRITE);
+		boolean truncate = write && options.contains(StandardOpenOption.TRUNCATE_EXISTING);
+		if (append && (options.contains(StandardOpenOption.READ) || truncate))
+			throw new IllegalArgumentException("APPEND not allowed with READ or TRUNCATE_EXISTING");
+		
+		AbstractFile file = toAbstractFilePath(path).getAbstractFile();
+		if (!file.exists()) {
+			if (!write || !(options.contains(StandardOpenOption.CREATE) || options.contains(StandardOpenOption.CREATE_NEW)))
+				throw new NoSuchFileException(path.toString());
+			try {
+				file.createNewFile();
+			} catch (PermissionDeniedException e) {
+				throw new IOException(e);
+			}
+		} else if (write && options.contains(StandardOpenOption.CREATE_NEW)) {
+			throw new FileAlreadyExistsException(path.toString());
+		}
+		
+		// Local files are opened as a FileChannel, which reads and writes at the position directly
+		if (!append && file instanceof AbstractFileChannel) {
+			FileChannel channel = ((AbstractFileChannel)file).openFileChannel(write);
+			if (Objects.nonNull(channel)) {
+				if (truncate) {
+					channel.truncate(0);
+				}
+				return channel;
+			}
+		}
+		
+		if (file.supportsRandomAccess()) {
+			return new AbstractFileSeekableByteChannel(file, write, append, truncate);
+		}
+		if (!write) {
+			return new AbstractFileStreamByteChannel(file);
+		}
+		return new AbstractFileStagedByteChannel(file, append, truncate);
 	}
 
 	@Override
@@ -18,72 +18,166 @@
  */
 package com.sshtools.common.files.nio;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
 import java.nio.channels.SeekableByteChannel;
-import java.nio.file.Files;
+import java.util.Objects;
 
 import com.sshtools.common.files.AbstractFile;
-import com.sshtools.common.util.IOUtils;
+import com.sshtools.common.files.AbstractFileRandomAccess;
 
+/**
+ * A channel that reads and writes a file in place through {@link AbstractFile#openFile(boolean)}.
+ * Each read or write seeks to the channel's position first, so only the data that is asked 
+ * for is transferred.
+ */
 public class AbstractFileSeekableByteChannel implements SeekableByteChannel {
 
-	AbstractFile file;
-	File tmpfile;
-	SeekableByteChannel tmp;
+	final AbstractFileRandomAccess raf;
+	final boolean writable;
+	final boolean append;
+	long position;
+	long size;
+	byte[] buffer;
+	boolean open = true;
 	
-	AbstractFileSeekableByteChannel(AbstractFile file) throws IOException {
-		this.file = file;
-		tmp = Files.newByteChannel((tmpfile = File.createTempFile("abfs", "tmp")).toPath());
+	AbstractFileSeekableByteChannel(AbstractFile file, boolean writable, boolean append, boolean truncate) throws IOException {
+		this.raf = file.openFile(writable);
+		this.writable = writable;
+		this.append = append;
+		try {
+			this.size = file.length();
+			if(truncate && size > 0) {
+				raf.setLength(0);
+				size = 0;
+			}
+		} catch(IOException | RuntimeException e) {
+			raf.close();
+			throw e;
+		}
 	}
 	
 	@Override
 	public boolean isOpen() {
-		return tmp.isOpen();
+		return open;
 	}
 
 	@Override
-	public void close() throws IOException {
-		tmp.close();
-		try(OutputStream out = file.getOutputStream()) {
-			try(InputStream in = new FileInputStream(tmpfile)) {
-				IOUtils.copy(in, out);
-			}
+	public synchronized void close() throws IOException {
+		if(open) {
+			open = false;
+			raf.close();
 		}
 	}
 
 	@Override
-	public int read(ByteBuffer dst) throws IOException {
-		return tmp.read(dst);
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		checkOpen();
+		if(!dst.hasRemaining()) {
+			return 0;
+		}
+		raf.seek(position);
+		int n;
+		if(dst.hasArray()) {
+			n = raf.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+			if(n > 0) {
+				dst.position(dst.position() + n);
+			}
+		} else {
+			byte[] tmp = buffer(dst.remaining());
+			n = raf.read(tmp, 0, Math.min(tmp.length, dst.remaining()));
+			if(n > 0) {
+				dst.put(tmp, 0, n);
+			}
+		}
+		if(n > 0) {
+			position += n;
+		}
+		return n;
 	}
 
 	@Override
-	public int write(ByteBuffer src) throws IOException {
-		return tmp.write(src);
+	public synchronized int write(ByteBuffer src) throws IOException {
+		checkOpen();
+		if(!writable) {
+			throw new NonWritableChannelException();
+		}
+		if(append) {
+			position = size;
+		}
+		raf.seek(position);
+		int n = src.remaining();
+		if(src.hasArray()) {
+			raf.write(src.array(), src.arrayOffset() + src.position(), n);
+			src.position(src.limit());
+		} else {
+			byte[] tmp = buffer(n);
+			for(int remaining = n; remaining > 0;) {
+				int count = Math.min(tmp.length, remaining);
+				src.get(tmp, 0, count);
+				raf.write(tmp, 0, count);
+				remaining -= count;
+			}
+		}
+		position += n;
+		size = Math.max(size, position);
+		return n;
 	}
 
 	@Override
-	public long position() throws IOException {
-		return tmp.position();
+	public synchronized long position() throws IOException {
+		checkOpen();
+		return position;
 	}
 
 	@Override
-	public SeekableByteChannel position(long newPosition) throws IOException {
-		return tmp.position(newPosition);
+	public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+		checkOpen();
+		if(newPosition < 0) {
+			throw new IllegalArgumentException("Position must not be negative");
+		}
+		position = newPosition;
+		return this;
 	}
 
 	@Override
-	public long size() throws IOException {
-		return tmp.size();
+	public synchronized long size() throws IOException {
+		checkOpen();
+		return size;
 	}
 
 	@Override
-	public SeekableByteChannel truncate(long size) throws IOException {
-		return tmp.truncate(size);
+	public synchronized SeekableByteChannel truncate(long newSize) throws IOException {
+		checkOpen();
+		if(newSize < 0) {
+			throw new IllegalArgumentException("Size must not be negative");
+		}
+		if(!writable) {
+			throw new NonWritableChannelException();
+		}
+		if(newSize < size) {
+			raf.setLength(newSize);
+			size = newSize;
+		}
+		if(position > newSize) {
+			position = newSize;
+		}
+		return this;
+	}
+	
+	private void checkOpen() throws IOException {
+		if(!open) {
+			throw new ClosedChannelException();
+		}
+	}
+	
+	private byte[] buffer(int length) {
+		int len = Math.min(length, 65536);
+		if(Objects.isNull(buffer) || buffer.length < len) {
+			buffer = new byte[len];
+		}
+		return buffer;
 	}
-
 }
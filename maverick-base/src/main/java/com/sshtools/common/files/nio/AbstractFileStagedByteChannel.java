@@ -0,0 +1,127 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.files.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.util.IOUtils;
+
+/**
+ * A writable channel for files that do not support random access. The file is copied to a 
+ * temporary file that the channel reads and writes, and the temporary file is copied back 
+ * when the channel is closed if it has been changed.
+ */
+public class AbstractFileStagedByteChannel implements SeekableByteChannel {
+
+	AbstractFile file;
+	File tmpfile;
+	SeekableByteChannel tmp;
+	boolean modified;
+	
+	AbstractFileStagedByteChannel(AbstractFile file, boolean append, boolean truncate) throws IOException {
+		this.file = file;
+		this.tmpfile = File.createTempFile("abfs", "tmp");
+		try {
+			if(truncate) {
+				modified = true;
+			} else {
+				try(InputStream in = file.getInputStream()) {
+					Files.copy(in, tmpfile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			tmp = append 
+					? Files.newByteChannel(tmpfile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+					: Files.newByteChannel(tmpfile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		} catch(IOException | RuntimeException e) {
+			tmpfile.delete();
+			throw e;
+		}
+	}
+	
+	@Override
+	public boolean isOpen() {
+		return tmp.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(!tmp.isOpen()) {
+			return;
+		}
+		tmp.close();
+		try {
+			if(modified) {
+				try(OutputStream out = file.getOutputStream()) {
+					try(InputStream in = Channels.newInputStream(Files.newByteChannel(tmpfile.toPath()))) {
+						IOUtils.copy(in, out);
+					}
+				}
+			}
+		} finally {
+			tmpfile.delete();
+		}
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		return tmp.read(dst);
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		modified = true;
+		return tmp.write(src);
+	}
+
+	@Override
+	public long position() throws IOException {
+		return tmp.position();
+	}
+
+	@Override
+	public SeekableByteChannel position(long newPosition) throws IOException {
+		tmp.position(newPosition);
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		return tmp.size();
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) throws IOException {
+		if(size < tmp.size()) {
+			modified = true;
+		}
+		tmp.truncate(size);
+		return this;
+	}
+
+}
@@ -0,0 +1,159 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.files.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Objects;
+
+import com.sshtools.common.files.AbstractFile;
+
+/**
+ * A read-only channel for files that do not support random access. The file's input stream 
+ * is read directly, skipping forwards to the channel's position. Moving the position 
+ * backwards opens the stream again.
+ */
+public class AbstractFileStreamByteChannel implements SeekableByteChannel {
+
+	final AbstractFile file;
+	InputStream in;
+	long streamPosition;
+	long position;
+	byte[] buffer;
+	boolean open = true;
+	
+	AbstractFileStreamByteChannel(AbstractFile file) {
+		this.file = file;
+	}
+	
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if(open) {
+			open = false;
+			closeStream();
+		}
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		checkOpen();
+		if(!dst.hasRemaining()) {
+			return 0;
+		}
+		
+		if(Objects.nonNull(in) && streamPosition > position) {
+			closeStream();
+		}
+		if(Objects.isNull(in)) {
+			in = file.getInputStream();
+			streamPosition = 0;
+		}
+		
+		while(streamPosition < position) {
+			long skipped = in.skip(position - streamPosition);
+			if(skipped <= 0) {
+				// skip may not report the end of the stream
+				if(in.read() == -1) {
+					return -1;
+				}
+				skipped = 1;
+			}
+			streamPosition += skipped;
+		}
+		
+		int n;
+		if(dst.hasArray()) {
+			n = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+			if(n > 0) {
+				dst.position(dst.position() + n);
+			}
+		} else {
+			int len = Math.min(dst.remaining(), 65536);
+			if(Objects.isNull(buffer) || buffer.length < len) {
+				buffer = new byte[len];
+			}
+			n = in.read(buffer, 0, len);
+			if(n > 0) {
+				dst.put(buffer, 0, n);
+			}
+		}
+		if(n > 0) {
+			position += n;
+			streamPosition += n;
+		}
+		return n;
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		checkOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+		checkOpen();
+		if(newPosition < 0) {
+			throw new IllegalArgumentException("Position must not be negative");
+		}
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		checkOpen();
+		return file.length();
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+	
+	private void checkOpen() throws IOException {
+		if(!open) {
+			throw new ClosedChannelException();
+		}
+	}
+	
+	private void closeStream() throws IOException {
+		if(Objects.nonNull(in)) {
+			try {
+				in.close();
+			} finally {
+				in = null;
+			}
+		}
+	}
+}
@@ -22,7 +22,7 @@ import com.sshtools.common.logger.Log.Level;
 
 public abstract class AbstractLoggingContext implements LoggerContext {
 
-	Level level = Level.INFO;
+	volatile Level level = Level.INFO;
 	
 	public AbstractLoggingContext() {
 		
@@ -40,5 +40,9 @@ public abstract class AbstractLoggingContext implements LoggerContext {
 	public Level getLevel() {
 		return level;
 	}
+	
+	public void setLevel(Level level) {
+		this.level = level;
+	}
 
 }
@@ -30,13 +30,13 @@ import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Collection;
-import java.util.Date;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
@@ -47,8 +47,8 @@ import com.sshtools.common.util.IOUtils;
 
 public class DefaultLoggerContext implements RootLoggerContext {
 
-	Collection<LoggerContext> contexts = new ArrayList<>();
-	static DateFormat df = new SimpleDateFormat("dd MMM yyyy HH:mm:ss,SSS");
+	Collection<LoggerContext> contexts = new CopyOnWriteArrayList<>();
+	static DateTimeFormatter df = DateTimeFormatter.ofPattern("dd MMM yyyy HH:mm:ss,SSS").withZone(ZoneId.systemDefault());
 	Properties props; 
 	File propertiesFile;
 	FileWatcher watcher;
@@ -114,7 +114,8 @@ public class DefaultLoggerContext implements RootLoggerContext {
 			enableFile(Level.valueOf(getProperty("maverick.log.file.level", "INFO")),
 					new File(getProperty("maverick.log.file.path", "synergy.log")),
 					Integer.parseInt(getProperty("maverick.log.file.maxFiles", "10")),
-					IOUtils.fromByteSize(getProperty("maverick.log.file.maxSize", "20MB")));
+					IOUtils.fromByteSize(getProperty("maverick.log.file.maxSize", "20MB")),
+					"true".equalsIgnoreCase(getProperty("maverick.log.file.async", "false")));
 		}
 		
 		log(Level.INFO, "Reloaded logging configuration %s [%s]", null, propertiesFile.getName(), propertiesFile.getAbsolutePath());
@@ -147,8 +148,12 @@ public class DefaultLoggerContext implements RootLoggerContext {
 	}
 	
 	public synchronized void enableFile(Level level, File logFile, int maxFiles, long maxSize) {
+		enableFile(level, logFile, maxFiles, maxSize, false);
+	}
+	
+	public synchronized void enableFile(Level level, File logFile, int maxFiles, long maxSize, boolean async) {
 		try {
-			contexts.add(new FileLoggingContext(level, logFile, maxFiles, maxSize));
+			contexts.add(new FileLoggingContext(level, logFile, maxFiles, maxSize, async));
 		} catch (IOException e) {
 			System.err.println("Error logging to file");
 			e.printStackTrace();
@@ -156,7 +161,7 @@ public class DefaultLoggerContext implements RootLoggerContext {
 	}
 	
 	@Override
-	public synchronized boolean isLogging(Level level) {
+	public boolean isLogging(Level level) {
 		for(LoggerContext context : contexts) {
 			if(context.isLogging(level)) {
 				return true;
@@ -166,9 +171,16 @@ public class DefaultLoggerContext implements RootLoggerContext {
 	}
 
 	public static String prepareLog(Level level, String msg, Throwable e, Object... args) {
+		return prepareLog(System.currentTimeMillis(), Thread.currentThread().getName(), level, msg, e, args);
+	}
+	
+	/**
+	 * Format a message that was logged at an earlier time or on another thread.
+	 */
+	public static String prepareLog(long time, String thread, Level level, String msg, Throwable e, Object... args) {
 		String log = String.format("%s [%20s] %6s - %s%s", 
-				df.format(new Date()), 
-				Thread.currentThread().getName(),
+				df.format(Instant.ofEpochMilli(time)), 
+				thread,
 				level.name(), 
 				String.format(msg, args),
 				System.lineSeparator());
@@ -185,14 +197,16 @@ public class DefaultLoggerContext implements RootLoggerContext {
 	}
 	
 	@Override
-	public synchronized void log(Level level, String msg, Throwable e, Object... args) {
+	public void log(Level level, String msg, Throwable e, Object... args) {
 		for(LoggerContext context : contexts) {
-			context.log(level, msg, e, args);
+			if(context.isLogging(level)) {
+				context.log(level, msg, e, args);
+			}
 		}
 	}
 
 	@Override
-	public synchronized void raw(Level level, String msg) {
+	public void raw(Level level, String msg) {
 		for(LoggerContext context : contexts) {
 			context.raw(level, msg);
 		}
@@ -261,7 +275,7 @@ public class DefaultLoggerContext implements RootLoggerContext {
 	}
 
 	@Override
-	public synchronized void newline() {
+	public void newline() {
 		for(LoggerContext context : contexts) {
 			context.newline();
 		}
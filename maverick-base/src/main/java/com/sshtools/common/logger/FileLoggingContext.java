@@ -24,14 +24,31 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import com.sshtools.common.logger.Log.Level;
 import com.sshtools.common.util.IOUtils;
 import com.sshtools.common.util.RandomAccessOutputStream;
 
+/**
+ * Logs to a file that is rolled over once it reaches a maximum size. 
+ * 
+ * <p>
+ * In asynchronous mode the calling thread only captures the message and a snapshot of
+ * its arguments on a bounded queue. Arguments that may change or are not safe to use
+ * from another thread are converted to strings as they are captured. A background thread
+ * formats the messages, writes them in batches and rolls the file over, so logging does
+ * not hold up the threads doing the work. If the queue is full the caller waits for 
+ * space so that no messages are lost.
+ * </p>
+ */
 public class FileLoggingContext extends AbstractLoggingContext {
 
-
+	static final int QUEUE_SIZE = 8192;
+	static final int MAX_BATCH = 1024;
+	
 	BufferedWriter currentWriter = null;
 	OutputStream currentOut = null;
 	RandomAccessFile currentFile = null;
@@ -40,12 +57,21 @@ public class FileLoggingContext extends AbstractLoggingContext {
 	int maxFiles;
 	File logFile;
 	boolean logging = true;
+	
+	LogRingBuffer queue;
+	Thread writer;
+	volatile boolean waiting;
+	volatile boolean closed;
 
 	public FileLoggingContext(Level level, File logFile) throws IOException {
 		this(level, logFile, 10, 1024 * 1024 * 20L);
 	}
 	
 	public FileLoggingContext(Level level, File logFile, int maxFiles, long maxSize) throws IOException {
+		this(level, logFile, maxFiles, maxSize, false);
+	}
+	
+	public FileLoggingContext(Level level, File logFile, int maxFiles, long maxSize, boolean async) throws IOException {
 		super(level);
 		this.logFile = logFile;
 		if(!logFile.exists()) {
@@ -54,9 +80,15 @@ public class FileLoggingContext extends AbstractLoggingContext {
 		this.maxFiles = maxFiles;
 		this.maxSize = maxSize;
 		createLogFile();
+		if(async) {
+			queue = new LogRingBuffer(QUEUE_SIZE);
+			writer = new Thread(this::writeQueue, "log-writer-" + logFile.getName());
+			writer.setDaemon(true);
+			writer.start();
+		}
 		Runtime.getRuntime().addShutdownHook(new Thread() {
 			public void run() {
-				closeLog();
+				close();
 			}
 		});
 	}
@@ -65,10 +97,13 @@ public class FileLoggingContext extends AbstractLoggingContext {
 		currentFile = new RandomAccessFile(logFile, "rw");
 		currentFile.seek(currentFile.length());
 		currentWriter = new BufferedWriter(new OutputStreamWriter(new RandomAccessOutputStream(currentFile)), 65536);
-		log(Level.INFO, String.format("Logging file %s", logFile.getAbsolutePath()), null);
+		logToFile(DefaultLoggerContext.prepareLog(Level.INFO, String.format("Logging file %s", logFile.getAbsolutePath()), null), true);
 	}
 
-
+	public boolean isAsynchronous() {
+		return queue != null;
+	}
+	
 	@Override
 	public boolean isLogging(Level level) {
 		return logging && super.isLogging(level);
@@ -76,9 +111,135 @@ public class FileLoggingContext extends AbstractLoggingContext {
 	
 	@Override
 	public void log(Level level, String msg, Throwable e, Object... args) {
-		logToFile(DefaultLoggerContext.prepareLog(level, msg, e, args), true);
+		if(queue != null) {
+			enqueue(LogRingBuffer.LOG, level, msg, e, snapshot(args));
+		} else {
+			logToFile(DefaultLoggerContext.prepareLog(level, msg, e, args), true);
+		}
 	}
 
+	/**
+	 * Copy the arguments so the message logs their values at the time of the call. 
+	 * Immutable values are kept so that numeric and other conversions in the 
+	 * format still apply, anything else is converted to a string now as 
+	 * <code>%s</code> would.
+	 */
+	private static Object[] snapshot(Object[] args) {
+		if(args == null || args.length == 0) {
+			return args;
+		}
+		Object[] copy = new Object[args.length];
+		for(int i = 0; i < args.length; i++) {
+			Object arg = args[i];
+			if(arg == null || arg instanceof String || arg instanceof Integer || arg instanceof Long
+					|| arg instanceof Short || arg instanceof Byte || arg instanceof Double 
+					|| arg instanceof Float || arg instanceof Boolean || arg instanceof Character
+					|| arg instanceof BigInteger || arg instanceof BigDecimal || arg instanceof Enum) {
+				copy[i] = arg;
+			} else {
+				copy[i] = String.valueOf(arg);
+			}
+		}
+		return copy;
+	}
+	
+	private void enqueue(int type, Level level, String msg, Throwable e, Object[] args) {
+		if(closed) {
+			return;
+		}
+		if(Thread.currentThread() == writer) {
+			/* The writer cannot wait for itself to make space, so write the message now */
+			if(!queue.offer(type, level, msg, e, args)) {
+				try {
+					write(format(type, System.currentTimeMillis(), writer.getName(), level, msg, e, args));
+				} catch(RuntimeException ex) {
+					write(String.format("Failed to format log message %s: %s%s", msg, ex.getMessage(), System.lineSeparator()));
+				}
+			}
+			return;
+		}
+		while(!queue.offer(type, level, msg, e, args)) {
+			if(closed) {
+				return;
+			}
+			LockSupport.unpark(writer);
+			LockSupport.parkNanos(50000L);
+		}
+		if(waiting) {
+			LockSupport.unpark(writer);
+		}
+	}
+	
+	private void writeQueue() {
+		
+		while(true) {
+			LogRingBuffer.Entry entry;
+			boolean wrote = false;
+			int batch = 0;
+			while(batch++ < MAX_BATCH && (entry = queue.peek()) != null) {
+				try {
+					write(format(entry.type, entry.time, entry.thread, entry.level, entry.msg, entry.e, entry.args));
+				} catch(RuntimeException e) {
+					write(String.format("Failed to format log message %s: %s%s", entry.msg, e.getMessage(), System.lineSeparator()));
+				} finally {
+					queue.release(entry);
+				}
+				wrote = true;
+			}
+			
+			if(wrote) {
+				flush();
+				continue;
+			}
+			
+			if(closed) {
+				return;
+			}
+			
+			waiting = true;
+			if(queue.isEmpty()) {
+				LockSupport.parkNanos(this, 1000000000L);
+			}
+			waiting = false;
+		}
+	}
+	
+	private String format(int type, long time, String thread, Level level, String msg, Throwable e, Object[] args) {
+		switch(type) {
+		case LogRingBuffer.RAW:
+			return DefaultLoggerContext.prepareLog(time, thread, level, "", null) + msg;
+		case LogRingBuffer.NEWLINE:
+			return System.lineSeparator();
+		default:
+			return DefaultLoggerContext.prepareLog(time, thread, level, msg, e, args);
+		}
+	}
+	
+	private synchronized void write(String msg) {
+		try {
+			if(currentFile.getChannel().isOpen()) {
+				currentWriter.write(msg);
+			}
+		} catch (IOException e) {
+			System.err.println(String.format("Failed to log to %s", logFile.getName()));
+			e.printStackTrace();
+			logging = false;
+		}
+	}
+	
+	private synchronized void flush() {
+		try {
+			checkRollingLog();
+			if(currentFile.getChannel().isOpen()) {
+				currentWriter.flush();
+			}
+		} catch (IOException e) {
+			System.err.println(String.format("Failed to log to %s", logFile.getName()));
+			e.printStackTrace();
+			logging = false;
+		}
+	}
+	
 	private synchronized void logToFile(String msg, boolean flush) {
 		try {
 			checkRollingLog();
@@ -111,18 +272,37 @@ public class FileLoggingContext extends AbstractLoggingContext {
 		}
 	}
 
-	public synchronized void close() {
-		closeLog();
+	public void close() {
+		if(writer != null && !closed) {
+			closed = true;
+			LockSupport.unpark(writer);
+			try {
+				writer.join(5000);
+			} catch (InterruptedException e) {
+			}
+		}
+		closed = true;
+		synchronized(this) {
+			closeLog();
+		}
 	}
 
 	@Override
 	public void raw(Level level, String msg) {
-		logToFile(DefaultLoggerContext.prepareLog(level, "", null), false);
-		logToFile(msg, true);
+		if(queue != null) {
+			enqueue(LogRingBuffer.RAW, level, msg, null, null);
+		} else {
+			logToFile(DefaultLoggerContext.prepareLog(level, "", null), false);
+			logToFile(msg, true);
+		}
 	}
 
 	@Override
 	public void newline() {
-		logToFile(System.lineSeparator(), true);
+		if(queue != null) {
+			enqueue(LogRingBuffer.NEWLINE, null, null, null, null);
+		} else {
+			logToFile(System.lineSeparator(), true);
+		}
 	}
 }
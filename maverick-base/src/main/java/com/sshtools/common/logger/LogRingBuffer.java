@@ -0,0 +1,118 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.sshtools.common.logger.Log.Level;
+
+/**
+ * A bounded, lock-free queue of log entries that any number of threads may add to
+ * and a single thread takes from. The entries are allocated up front and reused, so
+ * adding one only captures references to the message and its arguments. Callers must
+ * pass arguments that will not change before the entry is taken.
+ */
+class LogRingBuffer {
+
+	static final int LOG = 0;
+	static final int RAW = 1;
+	static final int NEWLINE = 2;
+	
+	static class Entry {
+		int type;
+		Level level;
+		String msg;
+		Throwable e;
+		Object[] args;
+		long time;
+		String thread;
+		
+		void clear() {
+			msg = null;
+			e = null;
+			args = null;
+			thread = null;
+		}
+	}
+	
+	final int mask;
+	final Entry[] entries;
+	final AtomicLongArray sequences;
+	final AtomicLong head = new AtomicLong();
+	long tail;
+	
+	LogRingBuffer(int capacity) {
+		int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+		mask = size - 1;
+		entries = new Entry[size];
+		sequences = new AtomicLongArray(size);
+		for(int i = 0; i < size; i++) {
+			entries[i] = new Entry();
+			sequences.set(i, i);
+		}
+	}
+	
+	boolean offer(int type, Level level, String msg, Throwable e, Object[] args) {
+		while(true) {
+			long pos = head.get();
+			int idx = (int) (pos & mask);
+			long diff = sequences.get(idx) - pos;
+			if(diff == 0) {
+				if(head.compareAndSet(pos, pos + 1)) {
+					Entry entry = entries[idx];
+					entry.type = type;
+					entry.level = level;
+					entry.msg = msg;
+					entry.e = e;
+					entry.args = args;
+					entry.time = System.currentTimeMillis();
+					entry.thread = Thread.currentThread().getName();
+					sequences.set(idx, pos + 1);
+					return true;
+				}
+			} else if(diff < 0) {
+				return false;
+			}
+		}
+	}
+	
+	/**
+	 * Get the next entry. Only the consuming thread may call this, and it must
+	 * call {@link #release(Entry)} once it has finished with the entry.
+	 */
+	Entry peek() {
+		int idx = (int) (tail & mask);
+		if(sequences.get(idx) != tail + 1) {
+			return null;
+		}
+		return entries[idx];
+	}
+	
+	void release(Entry entry) {
+		entry.clear();
+		int idx = (int) (tail & mask);
+		tail++;
+		sequences.set(idx, tail + mask);
+	}
+	
+	boolean isEmpty() {
+		return peek() == null;
+	}
+}
@@ -0,0 +1,64 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.policy;
+
+/**
+ * A rate in bytes per second shared by every {@link TokenBucket} created from it, so
+ * that changing the rate applies immediately to all connections and channels that use
+ * it. A rate of zero or less is unlimited.
+ */
+public class BandwidthLimit {
+
+	volatile long bytesPerSecond;
+	volatile long burst;
+	
+	public BandwidthLimit() {
+		this(0);
+	}
+	
+	public BandwidthLimit(long bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+	}
+	
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+	
+	public void setBytesPerSecond(long bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+	}
+	
+	/**
+	 * The number of bytes that may be sent at once after a period of inactivity. When
+	 * zero the burst is one second's worth of data at the current rate.
+	 * 
+	 * @return long
+	 */
+	public long getBurst() {
+		return burst;
+	}
+	
+	public void setBurst(long burst) {
+		this.burst = burst;
+	}
+	
+	public boolean isUnlimited() {
+		return bytesPerSecond <= 0;
+	}
+}
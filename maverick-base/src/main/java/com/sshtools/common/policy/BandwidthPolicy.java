@@ -0,0 +1,298 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.policy;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.sshtools.common.ssh.SshConnection;
+
+/**
+ * Shapes the bandwidth of channel data with a hierarchy of token buckets. Data sent or
+ * received on a channel is metered against the channel, its connection, the authenticated
+ * user and finally the global limit, and the most restrictive of these decides how long
+ * the data is held back. Outbound data is delayed before it is written and inbound data is
+ * slowed by delaying the window adjustments sent to the remote side.
+ * 
+ * <p>
+ * Every limit is a {@link BandwidthLimit} and may be changed at any time. The global and
+ * per-user limits are only shared between connections that use the same policy instance,
+ * so set one instance on the context of each connection to apply them server wide.
+ * Channels opened while the policy is not set on the context are not shaped.
+ * </p>
+ * 
+ * <p>
+ * The buckets of a user are kept for as long as the user has a shaped channel open, 
+ * each channel releases them with {@link #releaseBuckets(SshConnection, TokenBucket[])}
+ * when it is freed.
+ * </p>
+ */
+public class BandwidthPolicy {
+
+	static final String CONNECTION_BUCKETS = BandwidthPolicy.class.getName() + ".connection";
+	
+	final BandwidthLimit globalInbound = new BandwidthLimit();
+	final BandwidthLimit globalOutbound = new BandwidthLimit();
+	final BandwidthLimit userInbound = new BandwidthLimit();
+	final BandwidthLimit userOutbound = new BandwidthLimit();
+	final BandwidthLimit connectionInbound = new BandwidthLimit();
+	final BandwidthLimit connectionOutbound = new BandwidthLimit();
+	final BandwidthLimit channelInbound = new BandwidthLimit();
+	final BandwidthLimit channelOutbound = new BandwidthLimit();
+	
+	final TokenBucket globalInboundBucket = new TokenBucket(globalInbound);
+	final TokenBucket globalOutboundBucket = new TokenBucket(globalOutbound);
+	
+	final Map<String,BandwidthLimit[]> userLimits = new ConcurrentHashMap<>();
+	final Map<String,UserBuckets> userBuckets = new ConcurrentHashMap<>();
+	
+	ScheduledExecutorService scheduler;
+	
+	/**
+	 * The limit on data received across all connections.
+	 * 
+	 * @return BandwidthLimit
+	 */
+	public BandwidthLimit getGlobalInboundLimit() {
+		return globalInbound;
+	}
+	
+	/**
+	 * The limit on data sent across all connections.
+	 * 
+	 * @return BandwidthLimit
+	 */
+	public BandwidthLimit getGlobalOutboundLimit() {
+		return globalOutbound;
+	}
+	
+	/**
+	 * The limit on data received from each user that has no limit of its own.
+	 * 
+	 * @return BandwidthLimit
+	 */
+	public BandwidthLimit getUserInboundLimit() {
+		return userInbound;
+	}
+	
+	/**
+	 * The limit on data sent to each user that has no limit of its own.
+	 * 
+	 * @return BandwidthLimit
+	 */
+	public BandwidthLimit getUserOutboundLimit() {
+		return userOutbound;
+	}
+	
+	public BandwidthLimit getConnectionInboundLimit() {
+		return connectionInbound;
+	}
+	
+	public BandwidthLimit getConnectionOutboundLimit() {
+		return connectionOutbound;
+	}
+	
+	public BandwidthLimit getChannelInboundLimit() {
+		return channelInbound;
+	}
+	
+	public BandwidthLimit getChannelOutboundLimit() {
+		return channelOutbound;
+	}
+	
+	/**
+	 * Give a user limits of its own in place of the default per-user limits. The change
+	 * applies to any connections the user already has open.
+	 * 
+	 * @param username
+	 * @param inboundBytesPerSecond
+	 * @param outboundBytesPerSecond
+	 */
+	public void setUserLimit(String username, long inboundBytesPerSecond, long outboundBytesPerSecond) {
+		BandwidthLimit[] limits = userLimits.computeIfAbsent(username, 
+				(u) -> new BandwidthLimit[] { new BandwidthLimit(), new BandwidthLimit() });
+		limits[0].setBytesPerSecond(inboundBytesPerSecond);
+		limits[1].setBytesPerSecond(outboundBytesPerSecond);
+		UserBuckets user = userBuckets.get(username);
+		if(Objects.nonNull(user)) {
+			user.buckets[0].setLimit(limits[0]);
+			user.buckets[1].setLimit(limits[1]);
+		}
+	}
+	
+	/**
+	 * Remove the limits given to a user so that the default per-user limits apply again.
+	 * 
+	 * @param username
+	 */
+	public void removeUserLimit(String username) {
+		userLimits.remove(username);
+		UserBuckets user = userBuckets.get(username);
+		if(Objects.nonNull(user)) {
+			user.buckets[0].setLimit(userInbound);
+			user.buckets[1].setLimit(userOutbound);
+		}
+	}
+	
+	/**
+	 * Get the buckets that a new channel meters its received data against.
+	 * 
+	 * @param con
+	 * @return the channel, connection, user and global buckets.
+	 */
+	public TokenBucket[] getInboundBuckets(SshConnection con) {
+		return getBuckets(con, 0, channelInbound, globalInboundBucket);
+	}
+	
+	/**
+	 * Get the buckets that a new channel meters its sent data against.
+	 * 
+	 * @param con
+	 * @return the channel, connection, user and global buckets.
+	 */
+	public TokenBucket[] getOutboundBuckets(SshConnection con) {
+		return getBuckets(con, 1, channelOutbound, globalOutboundBucket);
+	}
+	
+	private TokenBucket[] getBuckets(SshConnection con, int direction, BandwidthLimit channel, TokenBucket global) {
+		TokenBucket[] connection;
+		synchronized(con) {
+			connection = (TokenBucket[]) con.getProperty(CONNECTION_BUCKETS);
+			if(Objects.isNull(connection)) {
+				connection = new TokenBucket[] { new TokenBucket(connectionInbound), new TokenBucket(connectionOutbound) };
+				con.setProperty(CONNECTION_BUCKETS, connection);
+			}
+		}
+		String username = con.getUsername();
+		if(Objects.isNull(username)) {
+			return new TokenBucket[] { new TokenBucket(channel), connection[direction], global };
+		}
+		UserBuckets user = userBuckets.compute(username, (u, existing) -> {
+			if(Objects.isNull(existing)) {
+				BandwidthLimit[] limits = userLimits.get(u);
+				existing = new UserBuckets(Objects.isNull(limits) 
+						? new TokenBucket[] { new TokenBucket(userInbound), new TokenBucket(userOutbound) }
+						: new TokenBucket[] { new TokenBucket(limits[0]), new TokenBucket(limits[1]) });
+			}
+			existing.references++;
+			return existing;
+		});
+		return new TokenBucket[] { new TokenBucket(channel), connection[direction], user.buckets[direction], global };
+	}
+	
+	/**
+	 * Release the buckets a channel was given by {@link #getInboundBuckets(SshConnection)} or
+	 * {@link #getOutboundBuckets(SshConnection)}. The buckets of a user are discarded once none
+	 * of their channels are using them.
+	 * 
+	 * @param con
+	 * @param buckets
+	 */
+	public void releaseBuckets(SshConnection con, TokenBucket[] buckets) {
+		String username = con.getUsername();
+		if(Objects.isNull(username) || Objects.isNull(buckets) || buckets.length < 4) {
+			return;
+		}
+		userBuckets.computeIfPresent(username, (u, user) -> {
+			if(user.buckets[0]!=buckets[2] && user.buckets[1]!=buckets[2]) {
+				return user;
+			}
+			return --user.references == 0 ? null : user;
+		});
+	}
+	
+	/**
+	 * Get the number of users that currently have buckets.
+	 * 
+	 * @return int
+	 */
+	public int getActiveUsers() {
+		return userBuckets.size();
+	}
+	
+	/**
+	 * Take a number of bytes from each bucket.
+	 * 
+	 * @param buckets
+	 * @param count
+	 * @return the number of nanoseconds to wait to stay within the most restrictive limit.
+	 */
+	public static long consume(TokenBucket[] buckets, long count) {
+		long now = System.nanoTime();
+		long delay = 0;
+		for(int i = 0; i < buckets.length; i++) {
+			delay = Math.max(delay, buckets[i].consume(count, now));
+		}
+		return delay;
+	}
+	
+	/**
+	 * Get the number of nanoseconds until every bucket is out of debt.
+	 * 
+	 * @param buckets
+	 * @return long
+	 */
+	public static long getDelay(TokenBucket[] buckets) {
+		long now = System.nanoTime();
+		long delay = 0;
+		for(int i = 0; i < buckets.length; i++) {
+			delay = Math.max(delay, buckets[i].getDelay(now));
+		}
+		return delay;
+	}
+	
+	/**
+	 * Run a task once the given number of nanoseconds has passed. This is used to send
+	 * the window adjustments that have been held back.
+	 * 
+	 * @param r
+	 * @param delay
+	 */
+	public synchronized void schedule(Runnable r, long delay) {
+		if(Objects.isNull(scheduler)) {
+			scheduler = Executors.newSingleThreadScheduledExecutor((t) -> {
+				Thread thread = new Thread(t, "bandwidth-shaping");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		scheduler.schedule(r, delay, TimeUnit.NANOSECONDS);
+	}
+	
+	static class UserBuckets {
+		
+		final TokenBucket[] buckets;
+		int references;
+		
+		UserBuckets(TokenBucket[] buckets) {
+			this.buckets = buckets;
+		}
+	}
+	
+	public synchronized void shutdown() {
+		if(Objects.nonNull(scheduler)) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+}
@@ -28,9 +28,12 @@ import java.util.Objects;
 import com.sshtools.common.files.AbstractFileFactory;
 import com.sshtools.common.permissions.PermissionDeniedException;
 import com.sshtools.common.permissions.Permissions;
+import com.sshtools.common.sftp.SftpAdmissionControl;
 import com.sshtools.common.sftp.SftpExtension;
 import com.sshtools.common.sftp.SftpExtensionFactory;
+import com.sshtools.common.sftp.SftpFileIOExecutorProvider;
 import com.sshtools.common.sftp.extensions.DefaultSftpExtensionFactory;
+import com.sshtools.common.sftp.extensions.SupportedSftpExtensions;
 import com.sshtools.common.ssh.SshConnection;
 
 public class FileSystemPolicy extends Permissions {
@@ -42,20 +45,26 @@ public class FileSystemPolicy extends Permissions {
 	boolean sftpVersion4Enabled = true;
 	int sftpVersion = 4;
 	boolean sftpReadWriteEvents = false;
+	long sftpReadWriteEventInterval = 0;
+	long sftpReadWriteEventThreshold = 0;
 	boolean scpReadWriteEvents = false;
 	int maxConcurrentTransfers = 50;
-	int maximumSftpRequests = 10;
+	int maximumSftpRequests = 64;
+	long maximumSftpReservedBytes = 8 * 1024 * 1024;
+	SftpAdmissionControl sftpAdmissionControl;
 	String sftpLongnameDateFormat = "MMM dd  yyyy";
 	String sftpLongnameDateFormatWithTime = "MMM dd HH:mm";
 	List<SftpExtensionFactory> sftpExtensionFactories = new ArrayList<SftpExtensionFactory>();
 	boolean closeFileBeforeFailedTransferEvents = false;
+	SftpFileIOExecutorProvider sftpFileIOExecutorProvider;
 	
 	private int sftpMaxPacketSize = 65536;
+	private int sftpMaxMessageLength = 262144;
 	private int sftpMaxWindowSize = 1024000;
 	private int sftpMinWindowSize = 131072;
 	
 	public FileSystemPolicy() {
-		sftpExtensionFactories.add(new DefaultSftpExtensionFactory());
+		sftpExtensionFactories.add(new DefaultSftpExtensionFactory(SupportedSftpExtensions.LIMITS));
 	}
 	
 	public long getConnectionUploadQuota() {
@@ -151,6 +160,41 @@ public class FileSystemPolicy extends Permissions {
 	public boolean isSFTPReadWriteEvents() {
 		return sftpReadWriteEvents;
 	}
+	
+	/**
+	 * Aggregate SFTP read and write events so that at most one event is fired for each
+	 * handle per interval instead of one for every packet. The event carries the bytes
+	 * transferred since the previous one, and any remaining bytes are reported when the
+	 * handle is closed.
+	 * 
+	 * @param sftpReadWriteEventInterval milliseconds, zero to disable
+	 */
+	public void setSFTPReadWriteEventInterval(long sftpReadWriteEventInterval) {
+		this.sftpReadWriteEventInterval = sftpReadWriteEventInterval;
+	}
+	
+	public long getSFTPReadWriteEventInterval() {
+		return sftpReadWriteEventInterval;
+	}
+	
+	/**
+	 * Aggregate SFTP read and write events so that an event is fired each time this many
+	 * bytes have been transferred on a handle instead of one for every packet. May be
+	 * combined with {@link #setSFTPReadWriteEventInterval(long)}.
+	 * 
+	 * @param sftpReadWriteEventThreshold bytes, zero to disable
+	 */
+	public void setSFTPReadWriteEventThreshold(long sftpReadWriteEventThreshold) {
+		this.sftpReadWriteEventThreshold = sftpReadWriteEventThreshold;
+	}
+	
+	public long getSFTPReadWriteEventThreshold() {
+		return sftpReadWriteEventThreshold;
+	}
+	
+	public boolean isSFTPReadWriteEventsAggregated() {
+		return sftpReadWriteEventInterval > 0 || sftpReadWriteEventThreshold > 0;
+	}
 
 	public void setSCPReadWriteEvents(boolean scpReadWriteEvents) {
 		this.scpReadWriteEvents = scpReadWriteEvents;
@@ -160,13 +204,57 @@ public class FileSystemPolicy extends Permissions {
 		return scpReadWriteEvents;
 	}
 	
+	/**
+	 * The maximum number of SFTP requests a session may have in flight before the 
+	 * server stops opening the channel window to the client.
+	 * @return int
+	 */
 	public int getMaximumNumberOfAsyncSFTPRequests() {
 		return maximumSftpRequests;
 	}
 	
+	/**
+	 * Set the maximum number of SFTP requests a session may have in flight. Zero removes the limit.
+	 * @param maximumSftpRequests
+	 */
 	public void setMaximumNumberofAsyncSFTPRequests(int maximumSftpRequests) {
 		this.maximumSftpRequests = maximumSftpRequests;
 	}
+	
+	/**
+	 * The maximum number of bytes a session may reserve for the messages and replies
+	 * of its in flight SFTP requests.
+	 * @return long
+	 */
+	public long getMaximumSFTPReservedBytes() {
+		return maximumSftpReservedBytes;
+	}
+	
+	/**
+	 * Set the maximum number of bytes a session may reserve for its in flight SFTP
+	 * requests. Zero removes the limit.
+	 * @param maximumSftpReservedBytes
+	 */
+	public void setMaximumSFTPReservedBytes(long maximumSftpReservedBytes) {
+		this.maximumSftpReservedBytes = maximumSftpReservedBytes;
+	}
+	
+	/**
+	 * Get the limits shared by every SFTP session that uses this policy.
+	 * @return admission control or <code>null</code> if only the per session limits apply.
+	 */
+	public SftpAdmissionControl getSFTPAdmissionControl() {
+		return sftpAdmissionControl;
+	}
+	
+	/**
+	 * Set limits on the SFTP requests in flight across all sessions. Pass the same 
+	 * instance to the policy of each connection to apply the limit server wide.
+	 * @param sftpAdmissionControl
+	 */
+	public void setSFTPAdmissionControl(SftpAdmissionControl sftpAdmissionControl) {
+		this.sftpAdmissionControl = sftpAdmissionControl;
+	}
 
 	public String getSFTPLongnameDateFormat() {
 		return sftpLongnameDateFormat; //"MMM dd yyyy";
@@ -196,6 +284,39 @@ public class FileSystemPolicy extends Permissions {
 	public void setSFTPCloseFileBeforeFailedTransferEvents(boolean closeFileBeforeFailedTransferEvents) {
 		this.closeFileBeforeFailedTransferEvents = closeFileBeforeFailedTransferEvents;
 	}
+	
+	/**
+	 * Get the provider of the executors that perform SFTP file system calls.
+	 * @return provider or <code>null</code> when file operations run on the connection executor.
+	 */
+	public SftpFileIOExecutorProvider getSFTPFileIOExecutorProvider() {
+		return sftpFileIOExecutorProvider;
+	}
+	
+	/**
+	 * Perform SFTP file system calls on dedicated executors rather than the executor
+	 * shared by all connections. A single {@link com.sshtools.common.sftp.SftpFileIOExecutor} 
+	 * can be passed to use it for every session.
+	 * @param sftpFileIOExecutorProvider
+	 */
+	public void setSFTPFileIOExecutorProvider(SftpFileIOExecutorProvider sftpFileIOExecutorProvider) {
+		this.sftpFileIOExecutorProvider = sftpFileIOExecutorProvider;
+	}
+	
+	/**
+	 * The maximum length of a single SFTP message. The server advertises this, and the
+	 * read and write lengths derived from it, to clients that support the 
+	 * limits@openssh.com extension. 
+	 * @return int
+	 */
+	public int getSftpMaxMessageLength() {
+		return sftpMaxMessageLength;
+	}
+	
+	public void setSftpMaxMessageLength(int sftpMaxMessageLength) {
+		this.sftpMaxMessageLength = sftpMaxMessageLength;
+	}
+	
 	public int getSftpMaxPacketSize() {
 		return sftpMaxPacketSize;
 	}
@@ -0,0 +1,92 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.policy;
+
+/**
+ * A token bucket that meters a flow of bytes against a {@link BandwidthLimit}. The bucket
+ * may go into debt so that a large write is always accepted; the caller is instead told how
+ * long to wait before the debt has been repaid. No objects are created when consuming.
+ */
+public class TokenBucket {
+
+	volatile BandwidthLimit limit;
+	double tokens;
+	long lastRefill;
+	boolean started;
+	
+	public TokenBucket(BandwidthLimit limit) {
+		this.limit = limit;
+	}
+	
+	public BandwidthLimit getLimit() {
+		return limit;
+	}
+	
+	public void setLimit(BandwidthLimit limit) {
+		this.limit = limit;
+	}
+	
+	/**
+	 * Take a number of bytes from the bucket.
+	 * 
+	 * @param count
+	 * @param now the current value of {@link System#nanoTime()}
+	 * @return the number of nanoseconds to wait before sending any more data.
+	 */
+	public synchronized long consume(long count, long now) {
+		long rate = limit.getBytesPerSecond();
+		if(rate <= 0) {
+			started = false;
+			return 0;
+		}
+		refill(rate, now);
+		tokens -= count;
+		return delay(rate);
+	}
+	
+	/**
+	 * Get the time remaining until the bucket is out of debt without taking anything from it.
+	 * 
+	 * @param now the current value of {@link System#nanoTime()}
+	 * @return nanoseconds
+	 */
+	public synchronized long getDelay(long now) {
+		long rate = limit.getBytesPerSecond();
+		if(rate <= 0) {
+			return 0;
+		}
+		refill(rate, now);
+		return delay(rate);
+	}
+	
+	private long delay(long rate) {
+		return tokens >= 0 ? 0 : (long) Math.ceil(-tokens * 1000000000D / rate);
+	}
+	
+	private void refill(long rate, long now) {
+		long burst = limit.getBurst() > 0 ? limit.getBurst() : rate;
+		if(!started) {
+			started = true;
+			tokens = burst;
+		} else {
+			tokens = Math.min(burst, tokens + ((now - lastRefill) * (double) rate / 1000000000D));
+		}
+		lastRefill = now;
+	}
+}
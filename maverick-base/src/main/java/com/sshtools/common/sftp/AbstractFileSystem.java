@@ -25,27 +25,34 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.UUID;
 import java.util.Vector;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.InflaterOutputStream;
 
 import com.sshtools.common.events.Event;
 import com.sshtools.common.events.EventCodes;
 import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.files.AbstractFileAsynchronousChannel;
+import com.sshtools.common.files.AbstractFileChannel;
 import com.sshtools.common.files.AbstractFileFactory;
 import com.sshtools.common.files.AbstractFileRandomAccess;
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.permissions.PermissionDeniedException;
 import com.sshtools.common.policy.FileSystemPolicy;
 import com.sshtools.common.ssh.SshConnection;
-import com.sshtools.common.ssh.SshIOException;
 import com.sshtools.common.util.FileUtils;
+import com.sshtools.common.util.IOUtils;
 import com.sshtools.common.util.UnsignedInteger32;
 import com.sshtools.common.util.UnsignedInteger64;
 
@@ -93,9 +100,16 @@ public final class AbstractFileSystem {
     public static final String SCP = "scp";
 	public static final String SHELL = "shell";
 	
-	protected Map<String, OpenFile> openFiles = new ConcurrentHashMap<String, OpenFile>(8, 0.9f, 1);
-	protected Map<String, OpenDirectory> openDirectories = new ConcurrentHashMap<String, OpenDirectory>(8, 0.9f, 1);
+	/** Tag used for handles of open files. */
+	public static final int FILE_HANDLE = 0x46;
+	
+	/** Tag used for handles of open directories. */
+	public static final int DIRECTORY_HANDLE = 0x44;
+	
+	protected HandleTable<OpenFile> openFiles = new HandleTable<OpenFile>(FILE_HANDLE);
+	protected HandleTable<OpenDirectory> openDirectories = new HandleTable<OpenDirectory>(DIRECTORY_HANDLE);
 	protected AbstractFileFactory<?> fileFactory;
+	protected ExecutorService asynchronousExecutor;
 
 	static Set<String> defaultPaths = new HashSet<String>(Arrays.asList("", ".", "./"));
 
@@ -116,6 +130,16 @@ public final class AbstractFileSystem {
 		return fileFactory;
 	}
 
+	/**
+	 * Open files that support it with an {@link AsynchronousFileChannel} that performs
+	 * its I/O on the given executor. Only files opened after this is set are affected.
+	 * 
+	 * @param asynchronousExecutor
+	 */
+	public void setAsynchronousExecutor(ExecutorService asynchronousExecutor) {
+		this.asynchronousExecutor = asynchronousExecutor;
+	}
+
 	public void init(SshConnection con, String protocolInUse) {
 		// Deprecated
 	}
@@ -132,30 +156,17 @@ public final class AbstractFileSystem {
 	}
 
 	public void closeFilesystem() {
-		String obj;
-		for (Iterator<String> it = openFiles.keySet().iterator(); it.hasNext();) {
-			obj = it.next();
+		for (OpenFile file : openFiles.values()) {
 			try {
-				closeFile(obj, false);
+				file.close();
 			} catch (Exception ex) {
 				if(Log.isErrorEnabled()) {
 					Log.error("Error closing file", ex);
 				}
 			}
-			it.remove();
 		}
-		for (Iterator<String> it = openDirectories.keySet().iterator(); it.hasNext();) {
-			obj = it.next();
-			try {
-				closeFile(obj, false);
-			} catch (Exception ex) {
-				if(Log.isErrorEnabled()) {
-					Log.error("Error closing directory", ex);
-				}
-			}
-			it.remove();
-		}
-
+		openFiles.clear();
+		openDirectories.clear();
 	}
 
 	public boolean makeDirectory(String path, SftpFileAttributes attrs)
@@ -188,10 +199,9 @@ public final class AbstractFileSystem {
 
 	public SftpFileAttributes getFileAttributes(byte[] handle)
 			throws IOException, InvalidHandleException, PermissionDeniedException {
-		String shandle = getHandle(handle);
+		OpenFile f = openFiles.get(handle);
 
-		if (openFiles.containsKey(shandle)) {
-			OpenFile f = openFiles.get(shandle);
+		if (f!=null) {
 
 			if(Log.isDebugEnabled())
 				Log.debug("Getting file attributes for " + f.getFile().getAbsolutePath());
@@ -201,6 +211,36 @@ public final class AbstractFileSystem {
 		throw new InvalidHandleException("The handle is invalid 1");
 	}
 
+	/**
+	 * Get the file behind a handle that was opened for reading.
+	 * 
+	 * @param handle
+	 * @return the file
+	 * @throws InvalidHandleException
+	 */
+	public AbstractFile getOpenFile(byte[] handle) throws InvalidHandleException {
+		OpenFile f = openFiles.get(handle);
+		if(f==null) {
+			throw new InvalidHandleException("The handle is invalid");
+		}
+		if ((f.getFlags().longValue() & AbstractFileSystem.OPEN_READ) != AbstractFileSystem.OPEN_READ) {
+			throw new InvalidHandleException("The file handle was not opened for reading");
+		}
+		return f.getFile();
+	}
+	
+	/**
+	 * Resolve a path to a file of this file system.
+	 * 
+	 * @param path
+	 * @return the file
+	 * @throws PermissionDeniedException
+	 * @throws IOException
+	 */
+	public AbstractFile getFile(String path) throws PermissionDeniedException, IOException {
+		return resolveFile(path, con);
+	}
+
 	public SftpFileAttributes getFileAttributes(String path)
 			throws IOException, FileNotFoundException, PermissionDeniedException {
 
@@ -227,9 +267,7 @@ public final class AbstractFileSystem {
 		
 		if (f.exists()) {
 			if (f.isDirectory()) {
-				byte[] handle = createHandle();
-				openDirectories.put(getHandle(handle), new OpenDirectory(f, filter));
-				return handle;
+				return openDirectories.allocate(new OpenDirectory(f, filter));
 			}
 
 			throw new IOException(path + " is not a directory");
@@ -238,10 +276,10 @@ public final class AbstractFileSystem {
 
 	}
 
-	private byte[] createHandle() throws UnsupportedEncodingException, IOException, SshIOException {
-		return UUID.randomUUID().toString().getBytes("UTF-8");
-	}
-
+	/**
+	 * @deprecated handles are binary, use the {@link HandleTable} methods directly.
+	 */
+	@Deprecated
 	protected byte[] getHandle(String handle) {
 		try {
 			return handle.getBytes("UTF-8");
@@ -250,6 +288,10 @@ public final class AbstractFileSystem {
 		}
 	}
 	
+	/**
+	 * @deprecated handles are binary, use the {@link HandleTable} methods directly.
+	 */
+	@Deprecated
 	protected String getHandle(byte[] b) {
 		try {
 			return new String(b, "UTF-8");
@@ -262,10 +304,9 @@ public final class AbstractFileSystem {
 	public SftpFile[] readDirectory(byte[] handle)
 			throws InvalidHandleException, EOFException, IOException, PermissionDeniedException {
 
-		String shandle = getHandle(handle);
+		OpenDirectory dir = openDirectories.get(handle);
 
-		if (openDirectories.containsKey(shandle)) {
-			OpenDirectory dir = openDirectories.get(shandle);
+		if (dir!=null) {
 
 			if (Log.isDebugEnabled())
 				Log.debug("Read directory for " + dir.getFile().getAbsolutePath());
@@ -280,7 +321,7 @@ public final class AbstractFileSystem {
 			Vector<SftpFile> files = new Vector<SftpFile>();
 			while(files.size() < 100 && pos < children.length) {
 				AbstractFile f = children[pos++];
-				if(dir.getFilter()==null || dir.getFilter().matches(f.getName())) {
+				if(dir.getFilter()==null || dir.getFilter().matches(f)) {
 					SftpFile sftpfile = new SftpFile(f.getName(), f.getAttributes());
 					files.add(sftpfile);
 				}
@@ -352,20 +393,109 @@ public final class AbstractFileSystem {
 			f.truncate();
 		}
 
-		// Record the open file
-		byte[] handle = createHandle();
-		openFiles.put(getHandle(handle), new OpenFile(f, flags));
+		// Record the open file and return the handle
+		return openFiles.allocate(new OpenFile(f, flags));
+	}
 
-		// Return the handle
-		return handle;
+	/**
+	 * Open a directory tree as a tar archive that can be read sequentially through the
+	 * returned file handle, optionally compressed with zlib. 
+	 * 
+	 * @param path
+	 * @param compress
+	 * @return the handle
+	 * @throws PermissionDeniedException
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public byte[] openDirectoryArchive(String path, boolean compress) 
+			throws PermissionDeniedException, FileNotFoundException, IOException {
+		
+		if(Log.isDebugEnabled())
+			Log.debug("Opening directory archive for " + path);
+		
+		AbstractFile f = resolveFile(path, con);
+		
+		if (!f.exists()) {
+			throw new FileNotFoundException(path + " does not exist");
+		}
+		if (!f.isDirectory()) {
+			throw new IOException(path + " is not a directory");
+		}
+		if (!f.isReadable()) {
+			throw new PermissionDeniedException("The user does not have permission to read " + path);
+		}
+		
+		InputStream in = new DirectoryArchiveInputStream(f);
+		if(compress) {
+			in = new DeflaterInputStream(in);
+		}
+		return openFiles.allocate(new OpenFile(f, new UnsignedInteger32(AbstractFileSystem.OPEN_READ), in));
+	}
+
+	/**
+	 * Open a handle that extracts a tar archive into a directory as it is written, optionally
+	 * compressed with zlib. Use {@link #finishDirectoryArchiveUpload(byte[])} once all of the 
+	 * archive has been written to find out which files were extracted.
+	 * 
+	 * @param path
+	 * @param compress
+	 * @return the handle
+	 * @throws PermissionDeniedException
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public byte[] openDirectoryArchiveUpload(String path, boolean compress) 
+			throws PermissionDeniedException, FileNotFoundException, IOException {
+		
+		if(Log.isDebugEnabled())
+			Log.debug("Opening directory archive upload for " + path);
+		
+		AbstractFile f = resolveFile(path, con);
+		
+		if (!f.exists()) {
+			throw new FileNotFoundException(path + " does not exist");
+		}
+		if (!f.isDirectory()) {
+			throw new IOException(path + " is not a directory");
+		}
+		if (!f.isWritable()) {
+			throw new PermissionDeniedException("The user does not have permission to write to " + path);
+		}
+		
+		DirectoryArchiveOutputStream archive = new DirectoryArchiveOutputStream(f);
+		OpenFile file = new OpenFile(f, new UnsignedInteger32(AbstractFileSystem.OPEN_WRITE), 
+				compress ? new InflaterOutputStream(archive) : archive);
+		file.archive = archive;
+		return openFiles.allocate(file);
+	}
+	
+	/**
+	 * Complete the archive written to a handle opened with {@link #openDirectoryArchiveUpload(String, boolean)}.
+	 * The handle must still be closed.
+	 * 
+	 * @param handle
+	 * @return the archive, which reports the files extracted and any failures
+	 * @throws InvalidHandleException
+	 * @throws IOException
+	 */
+	public DirectoryArchiveOutputStream finishDirectoryArchiveUpload(byte[] handle) throws InvalidHandleException, IOException {
+		
+		OpenFile file = openFiles.get(handle);
+		if(Objects.isNull(file) || Objects.isNull(file.archive)) {
+			throw new InvalidHandleException("The handle is not a directory archive upload");
+		}
+		if(file.out instanceof InflaterOutputStream) {
+			((InflaterOutputStream)file.out).finish();
+		}
+		return file.archive;
 	}
 
 	public int readFile(byte[] handle, UnsignedInteger64 offset, byte[] buf, int start, int numBytesToRead)
 			throws InvalidHandleException, EOFException, IOException {
-		String shandle = getHandle(handle);
+		OpenFile file = openFiles.get(handle);
 
-		if (openFiles.containsKey(shandle)) {
-			OpenFile file = openFiles.get(shandle);
+		if (file!=null) {
 
 			if ((file.getFlags().longValue() & AbstractFileSystem.OPEN_READ) == AbstractFileSystem.OPEN_READ) {
 
@@ -386,12 +516,58 @@ public final class AbstractFileSystem {
 		throw new InvalidHandleException("The handle is invalid 2");
 	}
 
+	/**
+	 * Determine if reads and writes to the handle can be performed with
+	 * {@link #readFile(byte[], UnsignedInteger64, byte[], int, int, CompletionHandler)} and
+	 * {@link #writeFile(byte[], UnsignedInteger64, byte[], int, int, CompletionHandler)}.
+	 * 
+	 * @param handle
+	 * @return boolean
+	 */
+	public boolean isAsynchronous(byte[] handle) {
+		OpenFile file = openFiles.get(handle);
+		return file!=null && file.channel!=null;
+	}
+
+	/**
+	 * Read from a file opened with an asynchronous channel. The handler is called
+	 * with the number of bytes read, or -1 at the end of the file, once the read has completed.
+	 */
+	public void readFile(byte[] handle, UnsignedInteger64 offset, byte[] buf, int start, int numBytesToRead, 
+			CompletionHandler<Integer,Void> handler) throws InvalidHandleException {
+		
+		OpenFile file = openFiles.get(handle);
+		if (file==null || file.channel==null) {
+			throw new InvalidHandleException("The handle is invalid 2");
+		}
+		if ((file.getFlags().longValue() & AbstractFileSystem.OPEN_READ) != AbstractFileSystem.OPEN_READ) {
+			throw new InvalidHandleException("The file handle was not opened for reading");
+		}
+		file.readAsynchronously(ByteBuffer.wrap(buf, start, numBytesToRead), offset.longValue(), handler);
+	}
+	
+	/**
+	 * Write to a file opened with an asynchronous channel. The handler is called
+	 * once all of the data has been written.
+	 */
+	public void writeFile(byte[] handle, UnsignedInteger64 offset, byte[] data, int off, int len, 
+			CompletionHandler<Integer,Void> handler) throws InvalidHandleException {
+		
+		OpenFile file = openFiles.get(handle);
+		if (file==null || file.channel==null) {
+			throw new InvalidHandleException("The handle is invalid 3");
+		}
+		if ((file.getFlags().longValue() & AbstractFileSystem.OPEN_WRITE) != AbstractFileSystem.OPEN_WRITE) {
+			throw new InvalidHandleException("The file was not opened for writing");
+		}
+		file.writeAsynchronously(ByteBuffer.wrap(data, off, len), offset.longValue(), handler);
+	}
+	
 	public void writeFile(byte[] handle, UnsignedInteger64 offset, byte[] data, int off, int len)
 			throws InvalidHandleException, IOException {
-		String shandle = getHandle(handle);
+		OpenFile file = openFiles.get(handle);
 
-		if (openFiles.containsKey(shandle)) {
-			OpenFile file = openFiles.get(shandle);
+		if (file!=null) {
 
 			if ((file.getFlags().longValue() & AbstractFileSystem.OPEN_WRITE) == AbstractFileSystem.OPEN_WRITE) {
 
@@ -418,19 +594,34 @@ public final class AbstractFileSystem {
 		closeFile(handle, true);
 	}
 
-	public boolean closeFile(byte[] handle, boolean remove) throws InvalidHandleException, IOException {
-		return closeFile(getHandle(handle), remove);
+	/**
+	 * Close a handle, calling the handler once any asynchronous reads or writes still 
+	 * in progress on it have completed and the file has been closed.
+	 */
+	public void closeFile(byte[] handle, CompletionHandler<Void,Void> handler) {
+		
+		OpenFile file = openFiles.get(handle);
+		if(file==null || file.channel==null) {
+			try {
+				closeFile(handle);
+			} catch (InvalidHandleException | IOException e) {
+				handler.failed(e, null);
+				return;
+			}
+			handler.completed(null, null);
+			return;
+		}
+		openFiles.remove(handle);
+		file.closeAsynchronously(handler);
 	}
 
-	protected boolean closeFile(String handle, boolean remove) throws InvalidHandleException, IOException {
+	public boolean closeFile(byte[] handle, boolean remove) throws InvalidHandleException, IOException {
 		
-		OpenDirectory dir = openDirectories.get(handle);
-		if(dir!=null) {
-			openDirectories.remove(handle);
-		} else {
+		OpenDirectory dir = openDirectories.remove(handle);
+		if(dir==null) {
 			OpenFile file = openFiles.get(handle);
 			if(file==null) {
-				throw new InvalidHandleException(handle + " is an invalid handle");
+				throw new InvalidHandleException("The handle is invalid");
 			}
 			
 			file.close();
@@ -526,6 +717,68 @@ public final class AbstractFileSystem {
 		f2.copyFrom(f1);
 	}
 
+	/**
+	 * Copy a range of data from one open file to another. When both files can be opened 
+	 * as a {@link FileChannel} the copy is performed by the operating system, otherwise
+	 * the data is read and written through the open handles.
+	 * 
+	 * @param fromHandle the handle of a file opened for reading
+	 * @param fromOffset the offset to start reading from
+	 * @param length the number of bytes to copy, or zero to copy until the end of the file
+	 * @param toHandle the handle of a file opened for writing
+	 * @param toOffset the offset to start writing to
+	 * @return the number of bytes copied
+	 */
+	public long copyData(byte[] fromHandle, UnsignedInteger64 fromOffset, UnsignedInteger64 length, 
+			byte[] toHandle, UnsignedInteger64 toOffset) throws InvalidHandleException, IOException {
+		
+		OpenFile from = openFiles.get(fromHandle);
+		OpenFile to = openFiles.get(toHandle);
+		
+		if(from==null || to==null) {
+			throw new InvalidHandleException("The handle is invalid");
+		}
+		if ((from.getFlags().longValue() & AbstractFileSystem.OPEN_READ) != AbstractFileSystem.OPEN_READ) {
+			throw new InvalidHandleException("The file handle was not opened for reading");
+		}
+		if ((to.getFlags().longValue() & AbstractFileSystem.OPEN_WRITE) != AbstractFileSystem.OPEN_WRITE) {
+			throw new InvalidHandleException("The file was not opened for writing");
+		}
+		
+		long position = fromOffset.longValue();
+		long count = length.longValue() == 0 ? Math.max(0, from.getFile().length() - position) : length.longValue();
+		long toPosition = toOffset.longValue();
+		
+		if(from==to && position < toPosition + count && toPosition < position + count) {
+			throw new IOException("The source and destination ranges overlap");
+		}
+		
+		if(!from.isTextMode() && !to.isTextMode() 
+				&& from.getFile() instanceof AbstractFileChannel 
+				&& to.getFile() instanceof AbstractFileChannel) {
+			try(FileChannel in = ((AbstractFileChannel)from.getFile()).openFileChannel(false)) {
+				try(FileChannel out = ((AbstractFileChannel)to.getFile()).openFileChannel(true)) {
+					if(in!=null && out!=null) {
+						return IOUtils.transfer(in, position, count, out, toPosition);
+					}
+				}
+			}
+		}
+		
+		byte[] buf = new byte[32768];
+		long copied = 0;
+		while(copied < count) {
+			int read = readFile(fromHandle, new UnsignedInteger64(position + copied), 
+					buf, 0, (int) Math.min(buf.length, count - copied));
+			if(read <= 0) {
+				break;
+			}
+			writeFile(toHandle, new UnsignedInteger64(toPosition + copied), buf, 0, read);
+			copied += read;
+		}
+		return copied;
+	}
+	
 	public String getDefaultPath() throws IOException, PermissionDeniedException {
 		return fileFactory.getDefaultPath().getCanonicalPath();
 	}
@@ -565,15 +818,16 @@ public final class AbstractFileSystem {
 	public void setFileAttributes(byte[] handle, SftpFileAttributes attrs)
 			throws PermissionDeniedException, IOException, InvalidHandleException {
 
-		String shandle = getHandle(handle);
-		if (openFiles.containsKey(shandle)) {
-			OpenFile f = openFiles.get(shandle);
+		OpenFile f = openFiles.get(handle);
+		if (f!=null) {
 			f.getFile().setAttributes(attrs);
-		} else if (openDirectories.containsKey(shandle)) {
-			OpenDirectory dir = openDirectories.get(shandle);
+		} else {
+			OpenDirectory dir = openDirectories.get(handle);
+			if(dir==null) {
+				throw new InvalidHandleException("The handle is invalid");
+			}
 			dir.getFile().setAttributes(attrs);
-		} else
-			throw new InvalidHandleException(shandle);
+		}
 	}
 
 	public SftpFile readSymbolicLink(String path)
@@ -605,11 +859,12 @@ public final class AbstractFileSystem {
 	
 	public AbstractFile getFileForHandle(byte[] handle) throws IOException, InvalidHandleException {
 		
-		if(!openFiles.containsKey(getHandle(handle))) {
+		OpenFile file = openFiles.get(handle);
+		if(file==null) {
 			throw new InvalidHandleException("Invalid handle passed to getFileForHandle");
 		}
 		
-		return openFiles.get(getHandle(handle)).getFile();
+		return file.getFile();
 	}
 
 	protected class OpenFile {
@@ -620,25 +875,56 @@ public final class AbstractFileSystem {
 		InputStream in;
 		OutputStream out;
 		AbstractFileRandomAccess raf;
+		AsynchronousFileChannel channel;
+		int pending;
 		boolean closed;
+		CompletionHandler<Void,Void> closeHandler;
+		DirectoryArchiveOutputStream archive;
 
 		public OpenFile(AbstractFile f, UnsignedInteger32 flags) throws IOException {
 			this.f = f;
 			this.flags = flags;
-			if (f.supportsRandomAccess()) {
+			this.textMode = (flags.intValue() & AbstractFileSystem.OPEN_TEXT) != 0;
+			if (asynchronousExecutor!=null && !textMode
+					&& (flags.intValue() & AbstractFileSystem.OPEN_APPEND) == 0
+					&& f instanceof AbstractFileAsynchronousChannel) {
+				channel = ((AbstractFileAsynchronousChannel)f).openAsynchronousChannel(
+						(flags.intValue() & AbstractFileSystem.OPEN_WRITE) != 0, asynchronousExecutor);
+			} 
+			if (channel == null && f.supportsRandomAccess()) {
 				raf = f.openFile(((flags.intValue() & AbstractFileSystem.OPEN_WRITE) != 0));
 			}
-			this.textMode = (flags.intValue() & AbstractFileSystem.OPEN_TEXT) != 0;
 			if (isTextMode() && Log.isDebugEnabled()) {
 				Log.debug(f.getName() + " is being opened in TEXT mode");
 			}
 		}
 
+		/**
+		 * Open a handle that reads sequentially from a stream generated from the file.
+		 */
+		public OpenFile(AbstractFile f, UnsignedInteger32 flags, InputStream in) {
+			this.f = f;
+			this.flags = flags;
+			this.in = in;
+		}
+
+		/**
+		 * Open a handle that writes sequentially to a stream generated for the file.
+		 */
+		public OpenFile(AbstractFile f, UnsignedInteger32 flags, OutputStream out) {
+			this.f = f;
+			this.flags = flags;
+			this.out = out;
+		}
+
 		public boolean isTextMode() {
 			return textMode;
 		}
 
 		public void close() throws IOException {
+			if (channel != null) {
+				closeChannel();
+			}
 			if (in != null) {
 				try {
 					in.close();
@@ -667,7 +953,13 @@ public final class AbstractFileSystem {
 			if(closed) {
 				return -1;
 			}
-			if (raf == null) {
+			if (channel != null) {
+				int read = complete(channel.read(ByteBuffer.wrap(buf, off, len), filePointer));
+				if(read > 0) {
+					filePointer += read;
+				}
+				return read;
+			} else if (raf == null) {
 				if (filePointer == -1)
 					return -1;
 				InputStream in = getInputStream();
@@ -696,7 +988,12 @@ public final class AbstractFileSystem {
 			if(closed) {
 				throw new IOException("File has been closed.");
 			}
-			if (raf == null) {
+			if (channel != null) {
+				ByteBuffer data = ByteBuffer.wrap(buf, off, len);
+				while(data.hasRemaining()) {
+					filePointer += complete(channel.write(data, filePointer));
+				}
+			} else if (raf == null) {
 				if (filePointer == -1)
 					throw new IOException("File is EOF");
 				OutputStream out = getOutputStream();
@@ -729,6 +1026,10 @@ public final class AbstractFileSystem {
 			if(closed) {
 				throw new IOException("File has been closed [getOutputStream].");
 			}
+			if (channel != null) {
+				filePointer = longValue;
+				return;
+			}
 			if (raf == null) {
 				filePointer = -1;
 				return;
@@ -736,6 +1037,134 @@ public final class AbstractFileSystem {
 			raf.seek(longValue);
 		}
 
+		void readAsynchronously(ByteBuffer dst, long position, final CompletionHandler<Integer,Void> handler) {
+			if(!beginPending()) {
+				handler.failed(new IOException("File has been closed."), null);
+				return;
+			}
+			channel.read(dst, position, null, new CompletionHandler<Integer,Void>() {
+				public void completed(Integer result, Void attachment) {
+					try {
+						handler.completed(result, attachment);
+					} finally {
+						endPending();
+					}
+				}
+				public void failed(Throwable exc, Void attachment) {
+					try {
+						handler.failed(exc, attachment);
+					} finally {
+						endPending();
+					}
+				}
+			});
+		}
+
+		void writeAsynchronously(final ByteBuffer src, final long position, final CompletionHandler<Integer,Void> handler) {
+			if(!beginPending()) {
+				handler.failed(new IOException("File has been closed."), null);
+				return;
+			}
+			channel.write(src, position, null, new CompletionHandler<Integer,Void>() {
+				int written = 0;
+				public void completed(Integer result, Void attachment) {
+					written += result;
+					if(src.hasRemaining()) {
+						channel.write(src, position + written, null, this);
+						return;
+					}
+					try {
+						handler.completed(written, attachment);
+					} finally {
+						endPending();
+					}
+				}
+				public void failed(Throwable exc, Void attachment) {
+					try {
+						handler.failed(exc, attachment);
+					} finally {
+						endPending();
+					}
+				}
+			});
+		}
+
+		private synchronized boolean beginPending() {
+			if(closed) {
+				return false;
+			}
+			pending++;
+			return true;
+		}
+
+		/**
+		 * Called after the handler of a read or write has replied, so the
+		 * close of the handle is always reported after the operations that preceded it.
+		 */
+		private void endPending() {
+			CompletionHandler<Void,Void> handler;
+			synchronized(this) {
+				if(--pending > 0 || !closed) {
+					return;
+				}
+				handler = closeHandler;
+				closeHandler = null;
+			}
+			completeClose(handler);
+		}
+
+		void closeAsynchronously(CompletionHandler<Void,Void> handler) {
+			synchronized(this) {
+				closed = true;
+				if(pending > 0) {
+					closeHandler = handler;
+					return;
+				}
+			}
+			completeClose(handler);
+		}
+
+		private void completeClose(CompletionHandler<Void,Void> handler) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				if(handler!=null) {
+					handler.failed(e, null);
+				} else {
+					Log.error("Error closing file channel", e);
+				}
+				return;
+			}
+			if(handler!=null) {
+				handler.completed(null, null);
+			}
+		}
+
+		/**
+		 * The channel is closed once any reads or writes still in progress have
+		 * completed. We cannot wait for them here as their completion may need
+		 * the thread we are running on.
+		 */
+		private synchronized void closeChannel() throws IOException {
+			closed = true;
+			if(pending==0) {
+				channel.close();
+			}
+		}
+
+		private int complete(Future<Integer> future) throws IOException {
+			try {
+				return future.get();
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted during file operation");
+			} catch (ExecutionException e) {
+				if(e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+		}
+
 		public AbstractFile getFile() {
 			return f;
 		}
@@ -748,7 +1177,7 @@ public final class AbstractFileSystem {
 			if(closed) {
 				throw new IOException("File has been closed [getFilePointer].");
 			}
-			return raf == null ? filePointer : raf.getFilePointer();
+			return raf == null || channel != null ? filePointer : raf.getFilePointer();
 		}
 	}
 
@@ -795,7 +1224,7 @@ public final class AbstractFileSystem {
 		byte[] handle = (byte[]) evt.getAttribute(EventCodes.ATTRIBUTE_HANDLE);
 		if(handle!=null) {
 			
-			OpenFile openFile = openFiles.get(getHandle(handle));
+			OpenFile openFile = openFiles.get(handle);
 			if(openFile!=null) {
 				if(openFile.f!=null) {
 					evt.addAttribute(EventCodes.ATTRIBUTE_ABSTRACT_FILE, openFile.f);
@@ -820,13 +1249,14 @@ public final class AbstractFileSystem {
 
 	public String getPathForHandle(byte[] handle) throws IOException, InvalidHandleException {
 
-		String h = getHandle(handle);
-
 		try {
-			if (openFiles.containsKey(h)) {
-				return openFiles.get(h).getFile().getAbsolutePath();
-			} else if (openDirectories.containsKey(h)) {
-				return openDirectories.get(h).getFile().getAbsolutePath();
+			OpenFile file = openFiles.get(handle);
+			if (file!=null) {
+				return file.getFile().getAbsolutePath();
+			}
+			OpenDirectory dir = openDirectories.get(handle);
+			if (dir!=null) {
+				return dir.getFile().getAbsolutePath();
 			}
 		} catch (PermissionDeniedException e) {
 			Log.error("Permission denied in getPathForHandle!", e);
@@ -0,0 +1,224 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+/* HEADER */
+package com.sshtools.common.sftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Set;
+
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.util.TarEntry;
+
+/**
+ * Streams a directory tree as a tar archive. The tree is walked lazily as the
+ * stream is read so only one file is open at any time and the archive is never
+ * held in memory. Files and directories the user cannot read are left out.
+ */
+public class DirectoryArchiveInputStream extends InputStream {
+
+	static final byte[] ZERO = new byte[TarEntry.BLOCK_SIZE * 2];
+	
+	final Deque<Level> stack = new ArrayDeque<Level>();
+	final Set<String> visited = new HashSet<String>();
+	
+	byte[] buffer;
+	int bufferPosition;
+	int bufferLength;
+	
+	InputStream content;
+	long contentRemaining;
+	int contentPadding;
+	
+	boolean finished;
+	boolean closed;
+	long fileCount;
+	
+	public DirectoryArchiveInputStream(AbstractFile root) throws IOException, PermissionDeniedException {
+		if(!root.isDirectory()) {
+			throw new IOException(root.getName() + " is not a directory");
+		}
+		visited.add(root.getCanonicalPath());
+		stack.push(new Level("", root.getChildren().iterator()));
+	}
+	
+	/**
+	 * The number of files and directories written to the archive so far.
+	 * 
+	 * @return long
+	 */
+	public long getEntryCount() {
+		return fileCount;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int r = read(b, 0, 1);
+		return r == -1 ? -1 : b[0] & 0xFF;
+	}
+	
+	@Override
+	public int read(byte[] buf, int off, int len) throws IOException {
+		
+		if(closed) {
+			throw new IOException("The archive stream has been closed");
+		}
+		if(len == 0) {
+			return 0;
+		}
+		
+		int count = 0;
+		while(count < len) {
+			if(bufferPosition < bufferLength) {
+				int n = Math.min(len - count, bufferLength - bufferPosition);
+				System.arraycopy(buffer, bufferPosition, buf, off + count, n);
+				bufferPosition += n;
+				count += n;
+			} else if(Objects.nonNull(content)) {
+				int n = readContent(buf, off + count, len - count);
+				count += n;
+			} else if(finished || !nextEntry()) {
+				break;
+			}
+		}
+		return count == 0 ? -1 : count;
+	}
+	
+	private int readContent(byte[] buf, int off, int len) throws IOException {
+		
+		int n = (int) Math.min(len, contentRemaining);
+		int r = n > 0 ? content.read(buf, off, n) : 0;
+		if(r == -1) {
+			// The file was truncated after its header was written, fill the declared size with zeros
+			for(int i = 0; i < n; i++) {
+				buf[off + i] = 0;
+			}
+			r = n;
+		}
+		contentRemaining -= r;
+		if(contentRemaining == 0) {
+			closeContent();
+			setBuffer(ZERO, contentPadding);
+		}
+		return r;
+	}
+	
+	private void closeContent() {
+		try {
+			content.close();
+		} catch (IOException e) {
+		} finally {
+			content = null;
+		}
+	}
+	
+	private void setBuffer(byte[] data, int length) {
+		buffer = data;
+		bufferPosition = 0;
+		bufferLength = length;
+	}
+	
+	private boolean nextEntry() {
+		
+		while(!stack.isEmpty()) {
+			Level level = stack.peek();
+			if(!level.children.hasNext()) {
+				stack.pop();
+				continue;
+			}
+			
+			AbstractFile file = level.children.next();
+			String name = level.prefix + file.getName();
+			
+			try {
+				if(!file.isReadable()) {
+					if(Log.isDebugEnabled()) {
+						Log.debug("Leaving %s out of the archive as it is not readable", name);
+					}
+					continue;
+				}
+				
+				SftpFileAttributes attrs = file.getAttributes();
+				int mode = (int) attrs.getPermissions().longValue();
+				long mtime = attrs.getModifiedTime().longValue();
+				
+				if(file.isDirectory()) {
+					if(!visited.add(file.getCanonicalPath())) {
+						continue;
+					}
+					Iterator<AbstractFile> children = file.getChildren().iterator();
+					stack.push(new Level(name + "/", children));
+					byte[] header = new TarEntry(name, 0, mode, mtime, true).toHeader();
+					setBuffer(header, header.length);
+				} else if(file.isFile()) {
+					long size = file.length();
+					InputStream in = file.getInputStream();
+					byte[] header = new TarEntry(name, size, mode, mtime, false).toHeader();
+					setBuffer(header, header.length);
+					if(size > 0) {
+						content = in;
+						contentRemaining = size;
+						contentPadding = TarEntry.getPadding(size);
+					} else {
+						in.close();
+					}
+				} else {
+					continue;
+				}
+				fileCount++;
+				return true;
+			} catch(IOException | PermissionDeniedException e) {
+				if(Log.isDebugEnabled()) {
+					Log.debug("Leaving %s out of the archive", e, name);
+				}
+			}
+		}
+		
+		finished = true;
+		setBuffer(ZERO, ZERO.length);
+		return true;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if(Objects.nonNull(content)) {
+			closeContent();
+		}
+		stack.clear();
+		closed = true;
+	}
+	
+	static class Level {
+		String prefix;
+		Iterator<AbstractFile> children;
+		
+		Level(String prefix, Iterator<AbstractFile> children) {
+			this.prefix = prefix;
+			this.children = children;
+		}
+	}
+}
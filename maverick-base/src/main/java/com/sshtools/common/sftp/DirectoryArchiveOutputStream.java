@@ -0,0 +1,379 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+/* HEADER */
+package com.sshtools.common.sftp;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.util.TarEntry;
+import com.sshtools.common.util.UnsignedInteger32;
+import com.sshtools.common.util.UnsignedInteger64;
+
+/**
+ * Extracts a tar archive into a directory as it is written, so that a batch of files can be 
+ * uploaded as one continuous stream. A file that cannot be created or written does not stop the
+ * upload, its content is discarded and the failure is recorded so it can be reported once the
+ * archive is complete.
+ */
+public class DirectoryArchiveOutputStream extends OutputStream {
+
+	static final int MAXIMUM_EXTENDED_HEADER = 65536;
+	
+	final AbstractFile root;
+	
+	final byte[] block = new byte[TarEntry.BLOCK_SIZE];
+	int blockPosition;
+	
+	Map<String,String> pax = new HashMap<String,String>();
+	byte[] extendedHeader;
+	boolean globalHeader;
+	
+	TarEntry entry;
+	AbstractFile target;
+	OutputStream content;
+	long contentRemaining;
+	int padding;
+	
+	int fileCount;
+	int directoryCount;
+	List<Failure> failures = new ArrayList<Failure>();
+	boolean closed;
+	
+	public DirectoryArchiveOutputStream(AbstractFile root) throws IOException {
+		if(!root.isDirectory()) {
+			throw new IOException(root.getName() + " is not a directory");
+		}
+		this.root = root;
+	}
+	
+	/**
+	 * The number of files extracted successfully.
+	 * 
+	 * @return int
+	 */
+	public int getFileCount() {
+		return fileCount;
+	}
+	
+	/**
+	 * The number of directories created or that already existed.
+	 * 
+	 * @return int
+	 */
+	public int getDirectoryCount() {
+		return directoryCount;
+	}
+	
+	/**
+	 * The entries of the archive that could not be extracted.
+	 * 
+	 * @return List
+	 */
+	public List<Failure> getFailures() {
+		return Collections.unmodifiableList(failures);
+	}
+	
+	/**
+	 * Is the stream positioned between entries, i.e. the archive written so far is complete.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isComplete() {
+		return blockPosition == 0 && contentRemaining == 0 && padding == 0 && Objects.isNull(extendedHeader);
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+	
+	@Override
+	public void write(byte[] buf, int off, int len) throws IOException {
+		
+		if(closed) {
+			throw new IOException("The archive has been closed");
+		}
+		
+		while(len > 0) {
+			int n;
+			if(contentRemaining > 0) {
+				n = (int) Math.min(len, contentRemaining);
+				writeContent(buf, off, n);
+				contentRemaining -= n;
+				if(contentRemaining == 0) {
+					endEntry();
+				}
+			} else if(padding > 0) {
+				n = Math.min(len, padding);
+				padding -= n;
+			} else {
+				n = Math.min(len, block.length - blockPosition);
+				System.arraycopy(buf, off, block, blockPosition, n);
+				blockPosition += n;
+				if(blockPosition == block.length) {
+					blockPosition = 0;
+					startEntry();
+				}
+			}
+			off += n;
+			len -= n;
+		}
+	}
+	
+	private void writeContent(byte[] buf, int off, int len) {
+		if(Objects.nonNull(extendedHeader)) {
+			System.arraycopy(buf, off, extendedHeader, 
+					(int) (extendedHeader.length - contentRemaining), len);
+		} else if(Objects.nonNull(content)) {
+			try {
+				content.write(buf, off, len);
+			} catch(IOException e) {
+				closeContent();
+				fail(entry.getName(), e);
+			}
+		}
+	}
+	
+	private void startEntry() throws IOException {
+		
+		TarEntry e = TarEntry.parse(block, pax);
+		if(Objects.isNull(e)) {
+			// One of the zero blocks that end the archive
+			return;
+		}
+		
+		long size = e.isDirectory() ? 0 : e.getSize();
+		contentRemaining = size;
+		padding = TarEntry.getPadding(size);
+		
+		if(e.isExtendedHeader()) {
+			if(size > MAXIMUM_EXTENDED_HEADER) {
+				throw new IOException("The archive contains an extended header that is too large");
+			}
+			extendedHeader = new byte[(int) size];
+			globalHeader = e.isGlobalExtendedHeader();
+			if(size == 0) {
+				endEntry();
+			}
+			return;
+		}
+		
+		pax.clear();
+		entry = e;
+		
+		try {
+			if(e.isDirectory()) {
+				createDirectory(e);
+			} else if(e.isFile()) {
+				createFile(e);
+				if(size == 0) {
+					endEntry();
+				}
+			} else if(Log.isDebugEnabled()) {
+				Log.debug("Ignoring archive entry %s as it is not a file or directory", e.getName());
+			}
+		} catch(IOException | PermissionDeniedException ex) {
+			fail(e.getName(), ex);
+		}
+	}
+	
+	private void endEntry() {
+		
+		if(Objects.nonNull(extendedHeader)) {
+			if(!globalHeader) {
+				pax.putAll(TarEntry.parseExtendedHeader(extendedHeader));
+			}
+			extendedHeader = null;
+			return;
+		}
+		
+		if(Objects.nonNull(content)) {
+			try {
+				content.close();
+				content = null;
+				target.setAttributes(getAttributes(entry, SftpFileAttributes.SSH_FILEXFER_TYPE_REGULAR));
+				fileCount++;
+			} catch(IOException e) {
+				closeContent();
+				fail(entry.getName(), e);
+			}
+		}
+	}
+	
+	private AbstractFile resolve(String name) throws IOException, PermissionDeniedException {
+		
+		while(name.startsWith("./")) {
+			name = name.substring(2);
+		}
+		if(name.endsWith("/")) {
+			name = name.substring(0, name.length() - 1);
+		}
+		if(name.isEmpty() || name.startsWith("/") || name.contains("\\")) {
+			throw new InvalidNameException(name);
+		}
+		for(String element : name.split("/")) {
+			if(element.equals("..") || element.isEmpty()) {
+				throw new InvalidNameException(name);
+			}
+		}
+		return root.resolveFile(name);
+	}
+	
+	private void createDirectory(TarEntry e) throws IOException, PermissionDeniedException {
+		
+		if(e.getName().equals("./") || e.getName().equals("/")) {
+			return;
+		}
+		
+		AbstractFile dir = resolve(e.getName());
+		if(dir.exists()) {
+			if(!dir.isDirectory()) {
+				throw new IOException(e.getName() + " already exists and is not a directory");
+			}
+		} else {
+			if(!dir.isWritable()) {
+				throw new PermissionDeniedException("The user does not have permission to create " + e.getName());
+			}
+			if(!dir.createFolder()) {
+				throw new IOException(e.getName() + " could not be created");
+			}
+			if(e.getMode() != 0) {
+				SftpFileAttributes attrs = new SftpFileAttributes(SftpFileAttributes.SSH_FILEXFER_TYPE_DIRECTORY, "UTF-8");
+				attrs.setPermissions(new UnsignedInteger32(e.getMode()));
+				dir.setAttributes(attrs);
+			}
+		}
+		directoryCount++;
+	}
+	
+	private void createFile(TarEntry e) throws IOException, PermissionDeniedException {
+		
+		AbstractFile file = resolve(e.getName());
+		if(file.isDirectory()) {
+			throw new IOException(e.getName() + " is a directory");
+		}
+		if(!file.isWritable()) {
+			throw new PermissionDeniedException("The user does not have permission to write " + e.getName());
+		}
+		target = file;
+		content = file.getOutputStream();
+	}
+	
+	private SftpFileAttributes getAttributes(TarEntry e, int type) {
+		SftpFileAttributes attrs = new SftpFileAttributes(type, "UTF-8");
+		if(e.getMode() != 0) {
+			attrs.setPermissions(new UnsignedInteger32(e.getMode()));
+		}
+		UnsignedInteger64 mtime = new UnsignedInteger64(e.getLastModified());
+		attrs.setTimes(mtime, mtime);
+		return attrs;
+	}
+	
+	private void closeContent() {
+		try {
+			content.close();
+		} catch (IOException e) {
+		} finally {
+			content = null;
+		}
+	}
+	
+	private void fail(String name, Exception e) {
+		
+		if(Log.isDebugEnabled()) {
+			Log.debug("Failed to extract %s from archive", e, name);
+		}
+		
+		int status = SftpStatusException.SSH_FX_FAILURE;
+		if(e instanceof InvalidNameException) {
+			status = SftpStatusException.SSH_FX_INVALID_FILENAME;
+		} else if(e instanceof PermissionDeniedException) {
+			status = SftpStatusException.SSH_FX_PERMISSION_DENIED;
+		} else if(e instanceof FileNotFoundException) {
+			status = SftpStatusException.SSH_FX_NO_SUCH_FILE;
+		}
+		failures.add(new Failure(name, status, e.getMessage()));
+	}
+	
+	/**
+	 * Close the archive. If it ends part way through an entry that entry is recorded as a failure.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		if(Objects.nonNull(content)) {
+			closeContent();
+			fail(entry.getName(), new IOException("The archive ended before the content of the file"));
+		}
+	}
+	
+	/**
+	 * An entry of the archive that could not be extracted.
+	 */
+	public static class Failure {
+		
+		String path;
+		int status;
+		String message;
+		
+		Failure(String path, int status, String message) {
+			this.path = path;
+			this.status = status;
+			this.message = message;
+		}
+		
+		public String getPath() {
+			return path;
+		}
+		
+		/**
+		 * The SFTP status code that describes the failure.
+		 * 
+		 * @return int
+		 */
+		public int getStatus() {
+			return status;
+		}
+		
+		public String getMessage() {
+			return Objects.isNull(message) ? "" : message;
+		}
+	}
+	
+	@SuppressWarnings("serial")
+	static class InvalidNameException extends IOException {
+		InvalidNameException(String name) {
+			super(name + " is not a valid name for an archive entry");
+		}
+	}
+}
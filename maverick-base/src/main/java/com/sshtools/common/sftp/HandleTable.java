@@ -0,0 +1,325 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+/* HEADER */
+package com.sshtools.common.sftp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A table of open SFTP handles. Each handle is a compact binary value made up
+ * of a one byte tag, the index of the slot in the table and the generation of
+ * the slot at the time the handle was issued. Looking up a handle is a direct
+ * array access and does not allocate, and because the generation is bumped
+ * every time a slot is released a stale handle that refers to a reused slot
+ * is detected and rejected.
+ *
+ * <p>
+ * A table can either allocate its own handles with {@link #allocate(Object)}
+ * or mirror handles issued by another table with the same tag using
+ * {@link #put(byte[], Object)}. Handles in any other format, such as those created
+ * by code written before handles were binary, can also be put and are kept in a
+ * separate map.
+ * </p>
+ *
+ * @author Lee David Painter
+ */
+public final class HandleTable<T> {
+
+	/** The length in bytes of every handle issued by a table. */
+	public static final int HANDLE_LENGTH = 9;
+
+	static final int INITIAL_CAPACITY = 16;
+
+	final byte tag;
+	Object[] values;
+	int[] generations;
+	int[] free;
+	int freeCount = 0;
+	int nextUnused = 0;
+	int size = 0;
+	Map<ByteBuffer,Object> foreign;
+
+	/**
+	 * Create a table whose handles are marked with the given tag. Tables that
+	 * may be presented with each others handles must use different tags.
+	 *
+	 * @param tag
+	 */
+	public HandleTable(int tag) {
+		this(tag, INITIAL_CAPACITY);
+	}
+
+	public HandleTable(int tag, int initialCapacity) {
+		this.tag = (byte) tag;
+		initialCapacity = Math.max(1, initialCapacity);
+		this.values = new Object[initialCapacity];
+		this.generations = new int[initialCapacity];
+		this.free = new int[initialCapacity];
+	}
+
+	/**
+	 * Store a value in the table and return a new handle for it.
+	 *
+	 * @param value
+	 * @return handle
+	 */
+	public synchronized byte[] allocate(T value) {
+
+		if(value==null) {
+			throw new IllegalArgumentException("Handle value cannot be null");
+		}
+
+		int index;
+		if(freeCount > 0) {
+			index = free[--freeCount];
+		} else {
+			ensureCapacity(nextUnused + 1);
+			index = nextUnused++;
+		}
+
+		values[index] = value;
+		size++;
+
+		byte[] handle = new byte[HANDLE_LENGTH];
+		handle[0] = tag;
+		writeInt(handle, 1, index);
+		writeInt(handle, 5, generations[index]);
+		return handle;
+	}
+
+	/**
+	 * Bind a value to a handle that was issued by another table with the same tag, 
+	 * or to a handle that was not issued by a table at all.
+	 *
+	 * @param handle
+	 * @param value
+	 */
+	public synchronized void put(byte[] handle, T value) {
+
+		if(value==null) {
+			throw new IllegalArgumentException("Handle value cannot be null");
+		}
+		if(handle==null) {
+			throw new IllegalArgumentException("Handle cannot be null");
+		}
+		if(!isTableHandle(handle)) {
+			if(foreign==null) {
+				foreign = new HashMap<ByteBuffer,Object>();
+			}
+			if(foreign.put(ByteBuffer.wrap(handle.clone()), value)==null) {
+				size++;
+			}
+			return;
+		}
+
+		int index = readInt(handle, 1);
+		ensureCapacity(index + 1);
+
+		if(index >= nextUnused) {
+			for(int i = nextUnused; i < index; i++) {
+				free[freeCount++] = i;
+			}
+			nextUnused = index + 1;
+		} else if(values[index]==null) {
+			removeFree(index);
+		}
+
+		if(values[index]==null) {
+			size++;
+		}
+		values[index] = value;
+		generations[index] = readInt(handle, 5);
+	}
+
+	/**
+	 * Get the value for a handle.
+	 *
+	 * @param handle
+	 * @return value or <code>null</code> if the handle is unknown, closed or stale.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized T get(byte[] handle) {
+		int index = indexOf(handle);
+		if(index < 0) {
+			return isForeignHandle(handle) ? (T) foreign.get(ByteBuffer.wrap(handle)) : null;
+		}
+		return (T) values[index];
+	}
+
+	/**
+	 * Determine if the handle refers to a live entry in this table.
+	 *
+	 * @param handle
+	 * @return boolean
+	 */
+	public synchronized boolean contains(byte[] handle) {
+		if(isForeignHandle(handle)) {
+			return foreign.containsKey(ByteBuffer.wrap(handle));
+		}
+		return indexOf(handle) >= 0;
+	}
+
+	/**
+	 * Remove the value for a handle, releasing the slot for reuse. Any copies
+	 * of the handle will no longer resolve.
+	 *
+	 * @param handle
+	 * @return the value that was removed or <code>null</code> if the handle was not live.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized T remove(byte[] handle) {
+		if(isForeignHandle(handle)) {
+			T value = (T) foreign.remove(ByteBuffer.wrap(handle));
+			if(value!=null) {
+				size--;
+			}
+			return value;
+		}
+		int index = indexOf(handle);
+		if(index < 0) {
+			return null;
+		}
+		T value = (T) values[index];
+		release(index);
+		return value;
+	}
+
+	/**
+	 * Get a snapshot of all the live values in the table.
+	 *
+	 * @return values
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized List<T> values() {
+		List<T> results = new ArrayList<T>(size);
+		for(int i = 0; i < nextUnused; i++) {
+			if(values[i]!=null) {
+				results.add((T) values[i]);
+			}
+		}
+		if(foreign!=null) {
+			for(Object value : foreign.values()) {
+				results.add((T) value);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Release every slot in the table.
+	 */
+	public synchronized void clear() {
+		for(int i = 0; i < nextUnused; i++) {
+			if(values[i]!=null) {
+				release(i);
+			}
+		}
+		if(foreign!=null) {
+			size -= foreign.size();
+			foreign.clear();
+		}
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Check that a handle has the format issued by this table. This does not
+	 * check whether the handle is still live.
+	 *
+	 * @param handle
+	 * @return boolean
+	 */
+	public boolean isTableHandle(byte[] handle) {
+		return handle!=null && handle.length == HANDLE_LENGTH && handle[0] == tag && readInt(handle, 1) >= 0;
+	}
+
+	private boolean isForeignHandle(byte[] handle) {
+		return foreign!=null && handle!=null && !isTableHandle(handle);
+	}
+
+	private int indexOf(byte[] handle) {
+		if(!isTableHandle(handle)) {
+			return -1;
+		}
+		int index = readInt(handle, 1);
+		if(index >= nextUnused || values[index]==null || generations[index]!=readInt(handle, 5)) {
+			return -1;
+		}
+		return index;
+	}
+
+	private void release(int index) {
+		values[index] = null;
+		generations[index]++;
+		free[freeCount++] = index;
+		size--;
+	}
+
+	private void removeFree(int index) {
+		for(int i = 0; i < freeCount; i++) {
+			if(free[i]==index) {
+				free[i] = free[--freeCount];
+				return;
+			}
+		}
+	}
+
+	private void ensureCapacity(int required) {
+		if(required <= values.length) {
+			return;
+		}
+		int capacity = values.length;
+		while(capacity < required) {
+			capacity = capacity << 1;
+		}
+		Object[] v = new Object[capacity];
+		System.arraycopy(values, 0, v, 0, values.length);
+		int[] g = new int[capacity];
+		System.arraycopy(generations, 0, g, 0, generations.length);
+		int[] f = new int[capacity];
+		System.arraycopy(free, 0, f, 0, freeCount);
+		values = v;
+		generations = g;
+		free = f;
+	}
+
+	private static void writeInt(byte[] buf, int off, int value) {
+		buf[off] = (byte) (value >>> 24);
+		buf[off+1] = (byte) (value >>> 16);
+		buf[off+2] = (byte) (value >>> 8);
+		buf[off+3] = (byte) value;
+	}
+
+	private static int readInt(byte[] buf, int off) {
+		return ((buf[off] & 0xFF) << 24)
+				| ((buf[off+1] & 0xFF) << 16)
+				| ((buf[off+2] & 0xFF) << 8)
+				| (buf[off+3] & 0xFF);
+	}
+}
@@ -0,0 +1,57 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.sftp;
+
+import java.io.IOException;
+import java.util.Objects;
+
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.permissions.PermissionDeniedException;
+
+/**
+ * Matches the files that have been modified since a point in time, and optionally whose names 
+ * also match another filter.
+ */
+public class ModifiedSinceSftpFileFilter implements SftpFileFilter {
+
+	SftpFileFilter names;
+	long modifiedSince;
+	
+	/**
+	 * @param names the filter for the names of the files, or <code>null</code> to match any name
+	 * @param modifiedSince the time in seconds since Jan 1, 1970 UTC 
+	 */
+	public ModifiedSinceSftpFileFilter(SftpFileFilter names, long modifiedSince) {
+		this.names = names;
+		this.modifiedSince = modifiedSince;
+	}
+	
+	@Override
+	public boolean matches(String name) {
+		return Objects.isNull(names) || names.matches(name);
+	}
+
+	@Override
+	public boolean matches(AbstractFile file) throws IOException, PermissionDeniedException {
+		if(!matches(file.getName())) {
+			return false;
+		}
+		return file.lastModified() / 1000 >= modifiedSince;
+	}
+}
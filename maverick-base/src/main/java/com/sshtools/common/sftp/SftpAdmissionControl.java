@@ -0,0 +1,128 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+/* HEADER */
+package com.sshtools.common.sftp;
+
+/**
+ * Limits the number of SFTP requests that may be in flight and the number of bytes
+ * reserved for their messages and replies. Each session has its own limits and may
+ * optionally share a parent that imposes a limit across every session that uses it.
+ * Configure a shared instance with 
+ * {@link com.sshtools.common.policy.FileSystemPolicy#setSFTPAdmissionControl(SftpAdmissionControl)}.
+ *
+ * <p>
+ * A request that would exceed a limit is not rejected, instead the session stops 
+ * adjusting the channel window until enough requests have completed, so the client
+ * is slowed down to the rate at which the server can process its requests.
+ * </p>
+ * 
+ * @author Lee David Painter
+ */
+public class SftpAdmissionControl {
+
+	final int maximumRequests;
+	final long maximumReservedBytes;
+	final SftpAdmissionControl parent;
+	
+	int requests;
+	long reservedBytes;
+	
+	/**
+	 * Create a limit on the number of requests and the bytes reserved for them. 
+	 * 
+	 * @param maximumRequests the maximum number of requests in flight, or zero for no limit.
+	 * @param maximumReservedBytes the maximum number of bytes reserved, or zero for no limit.
+	 */
+	public SftpAdmissionControl(int maximumRequests, long maximumReservedBytes) {
+		this(maximumRequests, maximumReservedBytes, null);
+	}
+	
+	public SftpAdmissionControl(int maximumRequests, long maximumReservedBytes, SftpAdmissionControl parent) {
+		this.maximumRequests = maximumRequests;
+		this.maximumReservedBytes = maximumReservedBytes;
+		this.parent = parent;
+	}
+	
+	/**
+	 * Try to reserve space for a request. A request is always admitted when no other
+	 * request is in flight so that a single large request cannot stall the session. This
+	 * also applies to a shared parent; a session that is refused therefore always has a 
+	 * request of its own in flight whose completion will let it try again.
+	 * 
+	 * @param bytes
+	 * @return <code>true</code> if the request was admitted and must later be released.
+	 */
+	public boolean tryAcquire(long bytes) {
+		return acquire(bytes, false);
+	}
+	
+	private synchronized boolean acquire(long bytes, boolean force) {
+		if(!force && !canAcquire(bytes)) {
+			return false;
+		}
+		if(parent!=null && !parent.acquire(bytes, force || requests==0)) {
+			return false;
+		}
+		requests++;
+		reservedBytes += bytes;
+		return true;
+	}
+	
+	/**
+	 * Release the space reserved for a request.
+	 * 
+	 * @param bytes
+	 */
+	public synchronized void release(long bytes) {
+		requests--;
+		reservedBytes -= bytes;
+		if(parent!=null) {
+			parent.release(bytes);
+		}
+	}
+	
+	public synchronized int getRequests() {
+		return requests;
+	}
+	
+	public synchronized long getReservedBytes() {
+		return reservedBytes;
+	}
+	
+	public int getMaximumRequests() {
+		return maximumRequests;
+	}
+
+	public long getMaximumReservedBytes() {
+		return maximumReservedBytes;
+	}
+	
+	private boolean canAcquire(long bytes) {
+		if(requests==0) {
+			return true;
+		}
+		if(maximumRequests > 0 && requests >= maximumRequests) {
+			return false;
+		}
+		if(maximumReservedBytes > 0 && reservedBytes + bytes > maximumReservedBytes) {
+			return false;
+		}
+		return true;
+	}
+}
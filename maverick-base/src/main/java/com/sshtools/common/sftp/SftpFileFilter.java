@@ -18,6 +18,24 @@
  */
 package com.sshtools.common.sftp;
 
+import java.io.IOException;
+
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.permissions.PermissionDeniedException;
+
 public interface SftpFileFilter {
 	boolean matches(String name);
+	
+	/**
+	 * Match a file as a directory is read. Override this to filter on the attributes of the file
+	 * as well as its name.
+	 * 
+	 * @param file
+	 * @return boolean
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	default boolean matches(AbstractFile file) throws IOException, PermissionDeniedException {
+		return matches(file.getName());
+	}
 }
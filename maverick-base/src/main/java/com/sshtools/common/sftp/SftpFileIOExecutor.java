@@ -0,0 +1,204 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+/* HEADER */
+package com.sshtools.common.sftp;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sshtools.common.files.AbstractFileFactory;
+import com.sshtools.common.ssh.ExecutorOperationListener;
+import com.sshtools.common.ssh.ExecutorServiceProvider;
+import com.sshtools.common.ssh.SshConnection;
+
+/**
+ * A dedicated, bounded pool of threads that performs the file system calls of
+ * SFTP operations so that a slow storage backend only stalls the sessions that
+ * use it rather than the executor shared by every connection. Configure one
+ * through {@link com.sshtools.common.policy.FileSystemPolicy#setSFTPFileIOExecutorProvider(SftpFileIOExecutorProvider)}.
+ *
+ * <p>
+ * Operations are still processed in order for each session. When a session or
+ * the pool as a whole has too many operations waiting the request is failed
+ * immediately, and an operation that has not completed within the operation
+ * timeout is failed with an SSH_FX_FAILURE status while the file system call
+ * is left to finish in the background.
+ * </p>
+ *
+ * @author Lee David Painter
+ */
+public class SftpFileIOExecutor implements ExecutorServiceProvider, SftpFileIOExecutorProvider {
+
+	static final AtomicInteger poolNumber = new AtomicInteger(1);
+
+	final String name;
+	final ThreadPoolExecutor executor;
+	final ScheduledExecutorService timer;
+	final AtomicInteger queued = new AtomicInteger();
+
+	long operationTimeout = 0;
+	int maximumQueuedOperations = 10000;
+	int maximumQueuedOperationsPerSession = 250;
+	boolean asynchronousFileChannels = false;
+
+	/**
+	 * Create an executor with the given name and a fixed number of threads.
+	 *
+	 * @param name
+	 * @param threads
+	 */
+	public SftpFileIOExecutor(String name, int threads) {
+		this.name = name;
+		final int pool = poolNumber.getAndIncrement();
+		this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			final AtomicInteger threadNumber = new AtomicInteger(1);
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, String.format("sftp-io-%s-%d-%d",
+						SftpFileIOExecutor.this.name, pool, threadNumber.getAndIncrement()));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.executor.allowCoreThreadTimeOut(true);
+		this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, String.format("sftp-io-%s-%d-timer", SftpFileIOExecutor.this.name, pool));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Use this executor for every session.
+	 */
+	@Override
+	public SftpFileIOExecutor getExecutor(SshConnection con, AbstractFileFactory<?> fileFactory) {
+		return this;
+	}
+
+	@Override
+	public ExecutorService getExecutorService() {
+		return executor;
+	}
+
+	@Override
+	public List<ExecutorOperationListener> getExecutorListeners() {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * The number of milliseconds an operation may take, including the time spent
+	 * waiting in the queue, before the client is sent a failure status. Zero disables timeouts.
+	 *
+	 * @return long
+	 */
+	public long getOperationTimeout() {
+		return operationTimeout;
+	}
+
+	public void setOperationTimeout(long operationTimeout) {
+		this.operationTimeout = operationTimeout;
+	}
+
+	/**
+	 * The maximum number of operations waiting on this executor across all sessions.
+	 *
+	 * @return int
+	 */
+	public int getMaximumQueuedOperations() {
+		return maximumQueuedOperations;
+	}
+
+	public void setMaximumQueuedOperations(int maximumQueuedOperations) {
+		this.maximumQueuedOperations = maximumQueuedOperations;
+	}
+
+	/**
+	 * The maximum number of operations waiting on this executor for a single session.
+	 *
+	 * @return int
+	 */
+	public int getMaximumQueuedOperationsPerSession() {
+		return maximumQueuedOperationsPerSession;
+	}
+
+	public void setMaximumQueuedOperationsPerSession(int maximumQueuedOperationsPerSession) {
+		this.maximumQueuedOperationsPerSession = maximumQueuedOperationsPerSession;
+	}
+
+	/**
+	 * Use an {@link java.nio.channels.AsynchronousFileChannel} running on this executor to
+	 * read and write files that support it. The status replies are then sent from the
+	 * completion of the read or write.
+	 *
+	 * @return boolean
+	 */
+	public boolean isAsynchronousFileChannels() {
+		return asynchronousFileChannels;
+	}
+
+	public void setAsynchronousFileChannels(boolean asynchronousFileChannels) {
+		this.asynchronousFileChannels = asynchronousFileChannels;
+	}
+
+	/**
+	 * The number of operations currently waiting or running on this executor.
+	 *
+	 * @return int
+	 */
+	public int getQueuedOperations() {
+		return queued.get();
+	}
+
+	boolean reserve() {
+		if(queued.incrementAndGet() > maximumQueuedOperations) {
+			queued.decrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	void release() {
+		queued.decrementAndGet();
+	}
+
+	ScheduledFuture<?> scheduleTimeout(Runnable r) {
+		return timer.schedule(r, operationTimeout, TimeUnit.MILLISECONDS);
+	}
+
+	public void shutdown() {
+		timer.shutdownNow();
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,40 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+/* HEADER */
+package com.sshtools.common.sftp;
+
+import com.sshtools.common.files.AbstractFileFactory;
+import com.sshtools.common.ssh.SshConnection;
+
+/**
+ * Selects the {@link SftpFileIOExecutor} that performs the file system calls for an
+ * SFTP session. Return a different executor for each storage backend so that one
+ * slow backend cannot use up the threads of another.
+ */
+public interface SftpFileIOExecutorProvider {
+
+	/**
+	 * Get the executor for a session.
+	 *
+	 * @param con
+	 * @param fileFactory
+	 * @return the executor, or <code>null</code> to process the session on the connection executor.
+	 */
+	SftpFileIOExecutor getExecutor(SshConnection con, AbstractFileFactory<?> fileFactory);
+}
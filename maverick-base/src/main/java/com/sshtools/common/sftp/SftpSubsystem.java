@@ -23,16 +23,20 @@ import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.channels.CompletionHandler;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedList;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.sshtools.common.events.Event;
 import com.sshtools.common.events.EventCodes;
@@ -46,6 +50,7 @@ import com.sshtools.common.ssh.Channel;
 import com.sshtools.common.ssh.ChannelEventListener;
 import com.sshtools.common.ssh.ConnectionAwareTask;
 import com.sshtools.common.ssh.Context;
+import com.sshtools.common.ssh.ExecutorOperationSupport;
 import com.sshtools.common.ssh.Packet;
 import com.sshtools.common.ssh.SessionChannel;
 import com.sshtools.common.ssh.SessionChannelHelper;
@@ -85,9 +90,20 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 
 	private String CHARSET_ENCODING;
 	private FileSystemPolicy filePolicy = new FileSystemPolicy();
-	private Map<String, TransferEvent> openFileHandles = new ConcurrentHashMap<String, TransferEvent>(8, 0.9f, 1);
-	private Map<String, TransferEvent> openFolderHandles = new ConcurrentHashMap<String, TransferEvent>(8, 0.9f, 1);
-	private Map<Context, Set<String>> openFilesByContext = new ConcurrentHashMap<Context, Set<String>>(8, 0.9f, 1);
+	private HandleTable<TransferEvent> openFileHandles = new HandleTable<TransferEvent>(AbstractFileSystem.FILE_HANDLE);
+	private HandleTable<TransferEvent> openFolderHandles = new HandleTable<TransferEvent>(AbstractFileSystem.DIRECTORY_HANDLE);
+	private Map<Context, Set<TransferEvent>> openFilesByContext = new ConcurrentHashMap<Context, Set<TransferEvent>>(8, 0.9f, 1);
+	
+	private SftpFileIOExecutor ioExecutor;
+	private ExecutorOperationSupport<SftpFileIOExecutor> ioOperations;
+	private AtomicInteger queuedOperations = new AtomicInteger();
+	private ThreadLocal<FileSystemOperation> currentOperation = new ThreadLocal<FileSystemOperation>();
+	
+	private SftpAdmissionControl admission;
+	private LinkedList<FileSystemOperation> pendingAdmission = new LinkedList<FileSystemOperation>();
+	
+	static final int REPLY_RESERVATION = 1024;
+	static final int MESSAGE_OVERHEAD = 1024;
 
 	
 	public SftpSubsystem() {
@@ -119,6 +135,24 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 			addWrapper((SftpOperationWrapper)ff);
 		}
 		
+		admission = new SftpAdmissionControl(filePolicy.getMaximumNumberOfAsyncSFTPRequests(), 
+				filePolicy.getMaximumSFTPReservedBytes(), filePolicy.getSFTPAdmissionControl());
+		
+		if(Objects.nonNull(filePolicy.getSFTPFileIOExecutorProvider())) {
+			ioExecutor = filePolicy.getSFTPFileIOExecutorProvider().getExecutor(con, ff);
+			if(Objects.nonNull(ioExecutor)) {
+				if(Log.isDebugEnabled()) {
+					Log.debug("SFTP file operations will be performed on executor " + ioExecutor.getName());
+				}
+				ioOperations = new ExecutorOperationSupport<SftpFileIOExecutor>("sftp-io-" + ioExecutor.getName()) {
+					@Override
+					public SftpFileIOExecutor getContext() {
+						return ioExecutor;
+					}
+				};
+			}
+		}
+		
 		executeOperation(SFTP_QUEUE, new InitOperation());
 
 		// Add event listener
@@ -131,6 +165,10 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 	
 	protected void cleanupSubsystem() {
 
+		synchronized(pendingAdmission) {
+			pendingAdmission.clear();
+		}
+		
 		if (!nfsClosed) {
 			
 			long started = System.currentTimeMillis();
@@ -192,6 +230,10 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 				nfs = new AbstractFileSystem(
 								con,
 								AbstractFileSystem.SFTP);
+				
+				if(Objects.nonNull(ioExecutor) && ioExecutor.isAsynchronousFileChannels()) {
+					nfs.setAsynchronousExecutor(ioExecutor.getExecutorService());
+				}
 
 				
 				fireEvent(
@@ -938,7 +980,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 				
 				if(getContext().getPolicy(FileSystemPolicy.class).getMaxConcurrentTransfers() > -1 && openFilesByContext.containsKey(getContext())) {
 					
-					Set<String> openHandles = openFilesByContext.get(getContext());
+					Set<TransferEvent> openHandles = openFilesByContext.get(getContext());
 					if(openHandles.size() >= getContext().getPolicy(FileSystemPolicy.class).getMaxConcurrentTransfers()) {
 						fireOpenInitEvent(flags, attrs, path, started, new PermissionDeniedException("Maximum concurrent transfers exceeded for the current context"));
 						sendStatusMessage(id, SftpStatusEventException.SSH_FX_PERMISSION_DENIED, "Maximum concurrent transfers exceeded for the current context");
@@ -963,16 +1005,15 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 				evt.handle = handle;
 				evt.exists = exists;
 				evt.flags = flags;
-				evt.key = new String(handle);
 
 				try {
 					fireOpenFileEvent(flags, attrs, path, started, handle, null);
 					
-					openFileHandles.put(evt.key, evt);
+					openFileHandles.put(handle, evt);
 					if(!openFilesByContext.containsKey(getContext())) {
-						openFilesByContext.put(getContext(), new HashSet<String>());
+						openFilesByContext.put(getContext(), new HashSet<TransferEvent>());
 					}
-					openFilesByContext.get(getContext()).add(evt.key);
+					openFilesByContext.get(getContext()).add(evt);
 					if(Log.isDebugEnabled()) {
 						Log.debug(String.format("There are now %d file(s) open in the current context", 
 								openFilesByContext.get(getContext()).size()));
@@ -1183,21 +1224,26 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 				// Extract the read request from the message
 				id = (int) bar.readInt();
 				byte[] handle = bar.readBinaryString();
-				String h = new String(handle);
 
-				evt = (TransferEvent) openFileHandles.get(h);
+				evt = openFileHandles.get(handle);
 
 				UnsignedInteger64 offset = bar.readUINT64();
 				int count = (int) bar.readInt();
+				
+				int maximumCount = getMaximumReadLength();
+				if(count < 0 || count > maximumCount) {
+					count = maximumCount;
+				}
 
 				// Construct the correct size packet and read the file
-				Packet reply = new Packet(count + 13);
+				final Packet reply = new Packet(count + 13);
+				boolean closeReply = true;
 				try {
 					reply.write(SSH_FXP_DATA);
 					reply.writeInt(id);
 	
 					// Save the current position so we can update the length later
-					int position = reply.position();
+					final int position = reply.position();
 					reply.writeInt(0);
 	
 					if(Log.isDebugEnabled())
@@ -1206,95 +1252,94 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 								+ " localwindow=" + session.getLocalWindow()
 								+ " remotewindow=" + session.getRemoteWindow());
 	
+					if(nfs.isAsynchronous(handle)) {
+						final int requestId = id;
+						final TransferEvent transfer = evt;
+						final Date operationStarted = started;
+						
+						deferCompletion();
+						closeReply = false;
+						nfs.readFile(handle, offset, reply.array(), reply.position(), count, new CompletionHandler<Integer,Void>() {
+							public void completed(Integer result, Void attachment) {
+								try {
+									if(claimReply()) {
+										onReadComplete(requestId, transfer, reply, position, result, operationStarted);
+									}
+								} finally {
+									closeReply(reply);
+									completeOperation();
+								}
+							}
+							public void failed(Throwable exc, Void attachment) {
+								try {
+									if(claimReply()) {
+										onReadFailed(requestId, transfer, exc, operationStarted);
+									}
+								} finally {
+									closeReply(reply);
+									completeOperation();
+								}
+							}
+						});
+						return;
+					}
+					
 					// Read from the file
 					count = nfs.readFile(handle, offset, reply.array(),
 							reply.position(), count);
 	
-					if (count == -1) {
-						if (Log.isDebugEnabled()) {
-							Log.debug("Got EOF from filesystem");
-						}
-						evt.hasReachedEOF = true;
-						sendStatusMessage(id, STATUS_FX_EOF, "File is EOF");
-						return;
-					} else {
-						evt.bytesRead += count;
-	
-						if(Log.isDebugEnabled())
-							Log.debug("Read " + count + " bytes from filesystem");
-	
-						// Update the position and write the correct length
-						position = reply.setPosition(position);
-						reply.writeInt(count);
-						reply.setPosition(position + count);
-	
-						try {
-							if(context.getPolicy(FileSystemPolicy.class).isSFTPReadWriteEvents()) {
-								fireEvent(new Event(
-										SftpSubsystem.this,
-										EventCodes.EVENT_SFTP_FILE_READ,
-										!evt.error)
-										.addAttribute(
-												EventCodes.ATTRIBUTE_CONNECTION,
-												con)
-										.addAttribute(
-												EventCodes.ATTRIBUTE_BYTES_TRANSFERED,
-												new Long(evt.bytesRead))
-										.addAttribute(
-												EventCodes.ATTRIBUTE_BYTES_READ,
-												new Long(count))
-										.addAttribute(
-												EventCodes.ATTRIBUTE_FILE_NAME,
-												evt.path)
-										.addAttribute(
-												EventCodes.ATTRIBUTE_OPERATION_STARTED,
-												started)
-										.addAttribute(
-												EventCodes.ATTRIBUTE_OPERATION_FINISHED,
-												new Date()));
-							}
-							sendMessage(reply);
-							
-						} catch(SftpStatusEventException ex) {
-							sendStatusMessage(id, ex.getStatus(), ex.getMessage());
-						}
-						
-					}
+					onReadComplete(id, evt, reply, position, count, started);
 				} finally {
-					try {
-						reply.close();
-					} catch (IOException e) {
+					if(closeReply) {
+						closeReply(reply);
 					}
 				}
 				
-				
-				return;
-			} catch (EOFException eof) {
-				sendStatusMessage(id, STATUS_FX_EOF, eof.getMessage());
-			} catch (InvalidHandleException ihe) {
-				if (evt != null) {
-					evt.error = true;
-					evt.ex = ihe;
-				}
-				sendStatusMessage(id, STATUS_FX_FAILURE, ihe.getMessage());
-			} catch (FileNotFoundException ioe2) {
-				if (evt != null) {
-					evt.error = true;
-					evt.ex = ioe2;
-				}
-				sendStatusMessage(id, STATUS_FX_NO_SUCH_FILE, ioe2.getMessage());
-			} catch (IOException ioe2) {
-				if (evt != null) {
-					evt.error = true;
-					evt.ex = ioe2;
-				}
-				sendStatusMessage(id, STATUS_FX_FAILURE, ioe2.getMessage());
+			} catch (Throwable t) {
+				onReadFailed(id, evt, t, started);
 			} finally {
 				bar.close();
 			}
-			
-			if(evt!=null && evt.error && context.getPolicy(FileSystemPolicy.class).isSFTPReadWriteEvents()) {
-				fireEvent(	new Event(
+		}
+	}
+	
+	private void closeReply(Packet reply) {
+		try {
+			reply.close();
+		} catch (IOException e) {
+		}
+	}
+	
+	protected void onReadComplete(int id, TransferEvent evt, Packet reply, int position, int count, Date started) {
+		
+		if (count == -1) {
+			if (Log.isDebugEnabled()) {
+				Log.debug("Got EOF from filesystem");
+			}
+			evt.hasReachedEOF = true;
+			sendStatusMessage(id, STATUS_FX_EOF, "File is EOF");
+			return;
+		} 
+		
+		long total = evt.addBytesRead(count);
+
+		if(Log.isDebugEnabled())
+			Log.debug("Read " + count + " bytes from filesystem");
+
+		// Update the position and write the correct length
+		position = reply.setPosition(position);
+		try {
+			reply.writeInt(count);
+		} catch (IOException e) {
+		}
+		reply.setPosition(position + count);
+
+		try {
+			FileSystemPolicy policy = context.getPolicy(FileSystemPolicy.class);
+			if(policy.isSFTPReadWriteEvents() && policy.isSFTPReadWriteEventsAggregated()) {
+				fireProgressEvent(evt, true, false);
+			} else if(policy.isSFTPReadWriteEvents()) {
+				fireEvent(new Event(
 						SftpSubsystem.this,
 						EventCodes.EVENT_SFTP_FILE_READ,
 						!evt.error)
@@ -1303,7 +1348,10 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 								con)
 						.addAttribute(
 								EventCodes.ATTRIBUTE_BYTES_TRANSFERED,
-								new Long(evt.bytesRead))
+								new Long(total))
+						.addAttribute(
+								EventCodes.ATTRIBUTE_BYTES_READ,
+								new Long(count))
 						.addAttribute(
 								EventCodes.ATTRIBUTE_FILE_NAME,
 								evt.path)
@@ -1312,12 +1360,62 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 								started)
 						.addAttribute(
 								EventCodes.ATTRIBUTE_OPERATION_FINISHED,
-								new Date())
-						.addAttribute(
-								EventCodes.ATTRIBUTE_THROWABLE,
-								evt.ex));
+								new Date()));
 			}
-
+			sendMessage(reply);
+			
+		} catch(SftpStatusEventException ex) {
+			sendStatusMessage(id, ex.getStatus(), ex.getMessage());
+		} catch(IOException ex) {
+			onReadFailed(id, evt, ex, started);
+		}
+	}
+	
+	protected void onReadFailed(int id, TransferEvent evt, Throwable t, Date started) {
+		
+		if(t instanceof EOFException) {
+			sendStatusMessage(id, STATUS_FX_EOF, t.getMessage());
+			return;
+		}
+		
+		if (evt != null) {
+			evt.error = true;
+			evt.ex = t;
+		}
+		
+		if(t instanceof FileNotFoundException) {
+			sendStatusMessage(id, STATUS_FX_NO_SUCH_FILE, t.getMessage());
+		} else if(t instanceof InvalidHandleException || t instanceof IOException) {
+			sendStatusMessage(id, STATUS_FX_FAILURE, t.getMessage());
+		} else if(t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else {
+			sendStatusMessage(id, STATUS_FX_FAILURE, t.getMessage());
+		}
+		
+		if(evt!=null && evt.error && context.getPolicy(FileSystemPolicy.class).isSFTPReadWriteEvents()) {
+			fireEvent(	new Event(
+					SftpSubsystem.this,
+					EventCodes.EVENT_SFTP_FILE_READ,
+					!evt.error)
+					.addAttribute(
+							EventCodes.ATTRIBUTE_CONNECTION,
+							con)
+					.addAttribute(
+							EventCodes.ATTRIBUTE_BYTES_TRANSFERED,
+							new Long(evt.bytesRead))
+					.addAttribute(
+							EventCodes.ATTRIBUTE_FILE_NAME,
+							evt.path)
+					.addAttribute(
+							EventCodes.ATTRIBUTE_OPERATION_STARTED,
+							started)
+					.addAttribute(
+							EventCodes.ATTRIBUTE_OPERATION_FINISHED,
+							new Date())
+					.addAttribute(
+							EventCodes.ATTRIBUTE_THROWABLE,
+							evt.ex));
 		}
 	}
 
@@ -1345,9 +1443,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 				id = (int) bar.readInt();
 				byte[] handle = bar.readBinaryString();
 
-				String h = new String(handle);
-
-				evt = (TransferEvent) openFileHandles.get(h);
+				evt = openFileHandles.get(handle);
 
 				UnsignedInteger64 offset = bar.readUINT64();
 				int count = (int) bar.readInt();
@@ -1365,66 +1461,57 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 					con.setProperty("uploadQuota", new Long(quota + count));
 				}
 				
+				if(nfs.isAsynchronous(handle)) {
+					final int requestId = id;
+					final TransferEvent transfer = evt;
+					final Date operationStarted = started;
+					
+					deferCompletion();
+					nfs.writeFile(handle, offset, bar.array(), bar.getPosition(), count, new CompletionHandler<Integer,Void>() {
+						public void completed(Integer result, Void attachment) {
+							try {
+								if(claimReply()) {
+									onWriteComplete(requestId, transfer, result, operationStarted);
+								}
+							} finally {
+								completeOperation();
+							}
+						}
+						public void failed(Throwable exc, Void attachment) {
+							try {
+								if(claimReply()) {
+									onWriteFailed(requestId, transfer, exc, operationStarted);
+								}
+							} finally {
+								completeOperation();
+							}
+						}
+					});
+					return;
+				}
+				
 				nfs.writeFile(handle, offset, bar.array(), bar.getPosition(),
 						count);
 
-				evt.bytesWritten += count;
-
-				try {
-					if(context.getPolicy(FileSystemPolicy.class).isSFTPReadWriteEvents()) {
-						fireEvent(	new Event(
-								SftpSubsystem.this,
-								EventCodes.EVENT_SFTP_FILE_WRITE,
-								!evt.error)
-								.addAttribute(
-										EventCodes.ATTRIBUTE_CONNECTION,
-										con)
-								.addAttribute(
-										EventCodes.ATTRIBUTE_BYTES_TRANSFERED,
-										new Long(evt.bytesWritten))
-								.addAttribute(
-										EventCodes.ATTRIBUTE_BYTES_WRITTEN,
-										new Long(count))
-								.addAttribute(
-										EventCodes.ATTRIBUTE_FILE_NAME,
-										evt.path)
-								.addAttribute(
-										EventCodes.ATTRIBUTE_OPERATION_STARTED,
-										started)
-								.addAttribute(
-										EventCodes.ATTRIBUTE_OPERATION_FINISHED,
-										new Date()));
-					}
-					sendStatusMessage(id, STATUS_FX_OK,
-							"The write completed successfully");
-				} catch(SftpStatusEventException ex) {
-					sendStatusMessage(id, ex.getStatus(), ex.getMessage());
-				}
+				onWriteComplete(id, evt, count, started);
 				
-				return;
-			} catch (InvalidHandleException ihe) {
-				if (evt != null) {
-					evt.error = true;
-					evt.ex = ihe;
-				}
-				sendStatusMessage(id, STATUS_FX_FAILURE, ihe.getMessage());
-			} catch (FileNotFoundException ioe2) {
-				if (evt != null) {
-					evt.error = true;
-					evt.ex = ioe2;
-				}
-				sendStatusMessage(id, STATUS_FX_NO_SUCH_FILE, ioe2.getMessage());
-			} catch (IOException ioe2) {
-				if (evt != null) {
-					evt.error = true;
-					evt.ex = ioe2;
-				}
-				sendStatusMessage(id, STATUS_FX_FAILURE, ioe2.getMessage());
+			} catch (Throwable t) {
+				onWriteFailed(id, evt, t, started);
 			} finally {
 				bar.close();
 			}
-			
-			if(evt!=null && evt.error && context.getPolicy(FileSystemPolicy.class).isSFTPReadWriteEvents()) {
+		}
+	}
+	
+	protected void onWriteComplete(int id, TransferEvent evt, int count, Date started) {
+		
+		long total = evt.addBytesWritten(count);
+
+		try {
+			FileSystemPolicy policy = context.getPolicy(FileSystemPolicy.class);
+			if(policy.isSFTPReadWriteEvents() && policy.isSFTPReadWriteEventsAggregated()) {
+				fireProgressEvent(evt, false, false);
+			} else if(policy.isSFTPReadWriteEvents()) {
 				fireEvent(	new Event(
 						SftpSubsystem.this,
 						EventCodes.EVENT_SFTP_FILE_WRITE,
@@ -1434,7 +1521,10 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 								con)
 						.addAttribute(
 								EventCodes.ATTRIBUTE_BYTES_TRANSFERED,
-								new Long(evt.bytesWritten))
+								new Long(total))
+						.addAttribute(
+								EventCodes.ATTRIBUTE_BYTES_WRITTEN,
+								new Long(count))
 						.addAttribute(
 								EventCodes.ATTRIBUTE_FILE_NAME,
 								evt.path)
@@ -1443,11 +1533,55 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 								started)
 						.addAttribute(
 								EventCodes.ATTRIBUTE_OPERATION_FINISHED,
-								new Date())
-						.addAttribute(
-								EventCodes.ATTRIBUTE_THROWABLE,
-								evt.ex));
+								new Date()));
 			}
+			sendStatusMessage(id, STATUS_FX_OK,
+					"The write completed successfully");
+		} catch(SftpStatusEventException ex) {
+			sendStatusMessage(id, ex.getStatus(), ex.getMessage());
+		}
+	}
+	
+	protected void onWriteFailed(int id, TransferEvent evt, Throwable t, Date started) {
+		
+		if (evt != null) {
+			evt.error = true;
+			evt.ex = t;
+		}
+		
+		if(t instanceof FileNotFoundException) {
+			sendStatusMessage(id, STATUS_FX_NO_SUCH_FILE, t.getMessage());
+		} else if(t instanceof InvalidHandleException || t instanceof IOException) {
+			sendStatusMessage(id, STATUS_FX_FAILURE, t.getMessage());
+		} else if(t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else {
+			sendStatusMessage(id, STATUS_FX_FAILURE, t.getMessage());
+		}
+		
+		if(evt!=null && evt.error && context.getPolicy(FileSystemPolicy.class).isSFTPReadWriteEvents()) {
+			fireEvent(	new Event(
+					SftpSubsystem.this,
+					EventCodes.EVENT_SFTP_FILE_WRITE,
+					!evt.error)
+					.addAttribute(
+							EventCodes.ATTRIBUTE_CONNECTION,
+							con)
+					.addAttribute(
+							EventCodes.ATTRIBUTE_BYTES_TRANSFERED,
+							new Long(evt.bytesWritten))
+					.addAttribute(
+							EventCodes.ATTRIBUTE_FILE_NAME,
+							evt.path)
+					.addAttribute(
+							EventCodes.ATTRIBUTE_OPERATION_STARTED,
+							started)
+					.addAttribute(
+							EventCodes.ATTRIBUTE_OPERATION_FINISHED,
+							new Date())
+					.addAttribute(
+							EventCodes.ATTRIBUTE_THROWABLE,
+							evt.ex));
 		}
 	}
 
@@ -1508,26 +1642,47 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 			bar.skip(1);
 
 			int id = -1;
-			byte[] handle = null;
 			try {
 				id = (int) bar.readInt();
 
-				handle = bar.readBinaryString();
+				final int requestId = id;
+				final byte[] handle = bar.readBinaryString();
 
-				nfs.closeFile(handle);
-
-				try {
-					fireCloseFileEvent(handle, null);
-					sendStatusMessage(id, STATUS_FX_OK,
-							"The operation completed");
-				} catch (SftpStatusEventException ex) {
-					sendStatusMessage(id, ex.getStatus(), ex.getMessage());
-				}
-			} catch (InvalidHandleException ihe) {
-				fireCloseFileEvent(handle, ihe);
-				sendStatusMessage(id, STATUS_FX_FAILURE, ihe.getMessage());
+				/*
+				 * The reply and close event wait until any asynchronous reads or
+				 * writes on the handle have replied and the file is really closed.
+				 */
+				deferCompletion();
+				nfs.closeFile(handle, new CompletionHandler<Void,Void>() {
+					public void completed(Void result, Void attachment) {
+						try {
+							try {
+								fireCloseFileEvent(handle, null);
+								if(claimReply()) {
+									sendStatusMessage(requestId, STATUS_FX_OK,
+											"The operation completed");
+								}
+							} catch (SftpStatusEventException ex) {
+								if(claimReply()) {
+									sendStatusMessage(requestId, ex.getStatus(), ex.getMessage());
+								}
+							}
+						} finally {
+							completeOperation();
+						}
+					}
+					public void failed(Throwable exc, Void attachment) {
+						try {
+							fireCloseFileEvent(handle, exc instanceof Exception ? (Exception) exc : new IOException(exc));
+							if(claimReply()) {
+								sendStatusMessage(requestId, STATUS_FX_FAILURE, exc.getMessage());
+							}
+						} finally {
+							completeOperation();
+						}
+					}
+				});
 			} catch (IOException ioe2) {
-				fireCloseFileEvent(handle, ioe2);
 				sendStatusMessage(id, STATUS_FX_FAILURE, ioe2.getMessage());
 			} finally {
 				bar.close();
@@ -1538,28 +1693,78 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 
 	protected void fireCloseFileEvent(byte[] handle, Exception error) {
 
-		String key = new String(handle);
-		if(openFileHandles.containsKey(key)) {
-			TransferEvent evt = (TransferEvent) openFileHandles.remove(key);
+		TransferEvent evt = openFileHandles.remove(handle);
+		if(evt!=null) {
+			openFilesByContext.get(getContext()).remove(evt);
 			fireCloseFileEvent(evt, error);
-			openFileHandles.remove(key);
-			openFilesByContext.get(getContext()).remove(key);
 			
 			if(Log.isDebugEnabled()) {
 				Log.debug(String.format("There are now %d file(s) open in the current context", 
 						openFilesByContext.get(getContext()).size()));
 			}
-		} else if(openFolderHandles.containsKey(key)) {
-			TransferEvent evt = (TransferEvent) openFolderHandles.remove(key);
-			fireCloseFileEvent(evt, error);
-			openFolderHandles.remove(key);
+		} else {
+			evt = openFolderHandles.remove(handle);
+			if(evt!=null) {
+				fireCloseFileEvent(evt, error);
+			}
 		}
 		
 	}
 
+	/**
+	 * Fire a read or write event for the bytes transferred on a handle since the previous
+	 * one, if the interval or byte threshold of the aggregated events has been reached.
+	 * 
+	 * @param evt
+	 * @param read
+	 * @param force report any remaining bytes, used when the handle is closed.
+	 */
+	protected void fireProgressEvent(TransferEvent evt, boolean read, boolean force) {
+		
+		FileSystemPolicy policy = context.getPolicy(FileSystemPolicy.class);
+		long count = evt.claimProgress(read, policy.getSFTPReadWriteEventInterval(),
+				policy.getSFTPReadWriteEventThreshold(), force);
+		if(count > 0) {
+			fireEvent(new Event(
+					SftpSubsystem.this,
+					read ? EventCodes.EVENT_SFTP_FILE_READ : EventCodes.EVENT_SFTP_FILE_WRITE,
+					!evt.error)
+					.addAttribute(
+							EventCodes.ATTRIBUTE_CONNECTION,
+							con)
+					.addAttribute(
+							EventCodes.ATTRIBUTE_BYTES_TRANSFERED,
+							new Long(read ? evt.bytesRead : evt.bytesWritten))
+					.addAttribute(
+							read ? EventCodes.ATTRIBUTE_BYTES_READ : EventCodes.ATTRIBUTE_BYTES_WRITTEN,
+							new Long(count))
+					.addAttribute(
+							EventCodes.ATTRIBUTE_FILE_NAME,
+							evt.path)
+					.addAttribute(
+							EventCodes.ATTRIBUTE_HANDLE,
+							evt.handle)
+					.addAttribute(
+							EventCodes.ATTRIBUTE_OPERATION_STARTED,
+							evt.started)
+					.addAttribute(
+							EventCodes.ATTRIBUTE_OPERATION_FINISHED,
+							new Date()));
+		}
+	}
+	
 	protected void fireCloseFileEvent(TransferEvent evt, Exception error) {
 		if (evt != null) {
 
+			FileSystemPolicy policy = getContext().getPolicy(FileSystemPolicy.class);
+			if(!evt.isDir && policy.isSFTPReadWriteEvents() && policy.isSFTPReadWriteEventsAggregated()) {
+				try {
+					fireProgressEvent(evt, true, true);
+					fireProgressEvent(evt, false, true);
+				} catch(SftpStatusEventException e) {
+				}
+			}
+
 			if (!evt.error && error != null) {
 				evt.error = true;
 			}
@@ -1985,7 +2190,8 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 
 				try {
 					fireOpenDirectoryEvent(path, started, handle, null);
-					openFolderHandles.put(new String(handle), evt);
+					evt.handle = handle;
+					openFolderHandles.put(handle, evt);
 					sendHandleMessage(id, handle);
 				} catch (SftpStatusEventException ex) {
 					sendStatusMessage(id, ex.getStatus(), ex.getMessage());
@@ -2360,8 +2566,156 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 		EventServiceImplementation.getInstance().fireEvent(event);
 	}
 
+	@Override
+	protected void executeOperation(Integer messageQueue, ConnectionAwareTask r) {
+		
+		if(r instanceof FileSystemOperation && Objects.nonNull(((FileSystemOperation)r).msg)) {
+			FileSystemOperation op = (FileSystemOperation) r;
+			op.queue = messageQueue;
+			op.reservation = calculateReservation(op.msg);
+			
+			synchronized(pendingAdmission) {
+				if(!pendingAdmission.isEmpty() || !admission.tryAcquire(op.reservation)) {
+					if(Log.isDebugEnabled()) {
+						Log.debug("Deferring " + op.getOp() + " operation until in flight requests complete requests=" 
+								+ admission.getRequests() + " reserved=" + admission.getReservedBytes());
+					}
+					pendingAdmission.addLast(op);
+					haltWindowAdjust();
+					return;
+				}
+				op.admitted = true;
+				dispatchOperation(messageQueue, op);
+			}
+			return;
+		}
+		
+		dispatchOperation(messageQueue, r);
+	}
+	
+	private void admitPendingOperations() {
+		
+		synchronized(pendingAdmission) {
+			while(!pendingAdmission.isEmpty()) {
+				FileSystemOperation op = pendingAdmission.getFirst();
+				if(!admission.tryAcquire(op.reservation)) {
+					return;
+				}
+				pendingAdmission.removeFirst();
+				op.admitted = true;
+				dispatchOperation(op.queue, op);
+			}
+			resumeWindowAdjust();
+		}
+	}
+	
+	/**
+	 * Estimate the memory that a request will hold until it completes. This is the
+	 * message itself and its reply, which for a read includes the data requested.
+	 * 
+	 * @param msg
+	 * @return long
+	 */
+	protected long calculateReservation(byte[] msg) {
+		
+		long reservation = msg.length + 4 + REPLY_RESERVATION;
+		if((msg[0] & 0xFF) == SSH_FXP_READ && msg.length >= 9) {
+			// type, id, handle, offset and then the length requested
+			long handleLength = ByteArrayReader.readInt(msg, 5);
+			long position = 9 + handleLength + 8;
+			if(position + 4 <= msg.length) {
+				reservation += Math.min(ByteArrayReader.readInt(msg, (int) position), getMaximumReadLength());
+			}
+		}
+		return reservation;
+	}
+	
+	/**
+	 * The maximum length of a single SFTP message accepted from the client.
+	 * 
+	 * @return int
+	 */
+	@Override
+	public int getMaximumMessageLength() {
+		return Math.max(filePolicy.getSftpMaxMessageLength(), super.getMaximumMessageLength());
+	}
+	
+	/**
+	 * The maximum number of bytes returned by a single read. Larger requests are
+	 * answered with a short read.
+	 * 
+	 * @return int
+	 */
+	public int getMaximumReadLength() {
+		return getMaximumMessageLength() - MESSAGE_OVERHEAD;
+	}
+	
+	/**
+	 * The maximum number of bytes that a client should send in a single write.
+	 * 
+	 * @return int
+	 */
+	public int getMaximumWriteLength() {
+		return getMaximumMessageLength() - MESSAGE_OVERHEAD;
+	}
+	
+	private void dispatchOperation(Integer messageQueue, ConnectionAwareTask r) {
+		
+		if(Objects.isNull(ioOperations) || !(r instanceof FileSystemOperation)) {
+			super.executeOperation(messageQueue, r);
+			return;
+		}
+		
+		FileSystemOperation op = (FileSystemOperation) r;
+		
+		if(Objects.nonNull(op.msg)) {
+			if(queuedOperations.incrementAndGet() > ioExecutor.getMaximumQueuedOperationsPerSession()) {
+				queuedOperations.decrementAndGet();
+				op.reject("Too many outstanding requests for this session");
+				return;
+			}
+			if(!ioExecutor.reserve()) {
+				queuedOperations.decrementAndGet();
+				op.reject("The server is too busy to process the request");
+				return;
+			}
+			op.reserved = true;
+			if(ioExecutor.getOperationTimeout() > 0) {
+				op.scheduleTimeout();
+			}
+		}
+		
+		ioOperations.addTask(messageQueue, op);
+	}
+	
+	@Override
+	public void sendMessage(Packet packet) throws IOException {
+		FileSystemOperation op = currentOperation.get();
+		if(Objects.nonNull(op) && !op.claimReply()) {
+			if(Log.isDebugEnabled()) {
+				Log.debug("Discarding the reply to a request that has already timed out");
+			}
+			return;
+		}
+		super.sendMessage(packet);
+	}
+	
 	abstract class FileSystemOperation extends ConnectionAwareTask {
+		
+		static final int REPLY_PENDING = 0;
+		static final int REPLY_SENT = 1;
+		static final int REPLY_TIMED_OUT = 2;
+		
 		protected byte[] msg;
+		
+		Integer queue;
+		long reservation;
+		boolean admitted;
+		boolean reserved;
+		boolean deferred;
+		ScheduledFuture<?> timeout;
+		AtomicInteger reply = new AtomicInteger(REPLY_PENDING);
+		AtomicInteger completed = new AtomicInteger();
 
 		FileSystemOperation(byte[] msg) {
 			super(SftpSubsystem.this.session.getConnection());
@@ -2374,6 +2728,10 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 		
 		@Override
 		protected void doTask() {
+			if(reply.get()==REPLY_TIMED_OUT) {
+				completeOperation();
+				return;
+			}
 			if(!wrappers.isEmpty()) {
 				for(SftpOperationWrapper wrapper : wrappers) {
 					try {
@@ -2382,9 +2740,11 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 					}
 				}
 			}
+			currentOperation.set(this);
 			try {
 				doOperation();	
 			} finally {
+				currentOperation.remove();
 				if(!wrappers.isEmpty()) {
 					for(SftpOperationWrapper wrapper : wrappers) {
 						try {
@@ -2393,37 +2753,101 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 						}
 					}
 				}
-				if(msg!=null) {
-					onFreeMessage(msg);
+				if(!deferred) {
+					completeOperation();
 				}
-				msg = null;
 			}
 			
 		}
+		
+		/**
+		 * The operation will send its reply from a completion handler. The
+		 * handler must call {@link #completeOperation()} when it is done.
+		 */
+		protected void deferCompletion() {
+			deferred = true;
+		}
+		
+		/**
+		 * Release the resources held by this operation. 
+		 */
+		protected void completeOperation() {
+			if(!completed.compareAndSet(0, 1)) {
+				return;
+			}
+			if(Objects.nonNull(timeout)) {
+				timeout.cancel(false);
+			}
+			if(reserved) {
+				queuedOperations.decrementAndGet();
+				ioExecutor.release();
+			}
+			if(msg!=null) {
+				onFreeMessage(msg);
+			}
+			msg = null;
+			if(admitted) {
+				admission.release(reservation);
+				admitPendingOperations();
+			}
+		}
+		
+		/**
+		 * Claim the right to reply to the request. This only fails when 
+		 * the operation has timed out and the client has already been sent a failure.
+		 */
+		protected boolean claimReply() {
+			if(Objects.isNull(timeout)) {
+				return true;
+			}
+			return reply.compareAndSet(REPLY_PENDING, REPLY_SENT) || reply.get()==REPLY_SENT;
+		}
+		
+		void scheduleTimeout() {
+			timeout = ioExecutor.scheduleTimeout(new Runnable() {
+				public void run() {
+					if(reply.compareAndSet(REPLY_PENDING, REPLY_TIMED_OUT)) {
+						if(Log.isDebugEnabled()) {
+							Log.debug(getOp() + " operation timed out after " + ioExecutor.getOperationTimeout() + "ms");
+						}
+						sendStatusMessage(getRequestId(), STATUS_FX_FAILURE, "The operation timed out");
+					}
+				}
+			});
+		}
+		
+		void reject(String reason) {
+			if(Log.isDebugEnabled()) {
+				Log.debug("Rejecting " + getOp() + " operation: " + reason);
+			}
+			try {
+				sendStatusMessage(getRequestId(), STATUS_FX_FAILURE, reason);
+			} finally {
+				completeOperation();
+			}
+		}
+		
+		int getRequestId() {
+			return (int) ByteArrayReader.readInt(msg, 1);
+		}
 	}
 
 	private void cleanupOpenFiles() {
 
-		Iterator<TransferEvent> it = openFileHandles.values().iterator();
-
 		SshException ex = new SshException("The connection has closed", SshException.CONNECTION_CLOSED);
 		
-		while (it.hasNext()) {
-			TransferEvent evt = it.next();
+		for(TransferEvent evt : openFileHandles.values()) {
 			evt.error = true;
 			try {
 				fireCloseFileEvent(evt, ex);
 			} catch (SftpStatusEventException e) {
 			}
-			openFilesByContext.get(getContext()).remove(evt.key);
+			openFilesByContext.get(getContext()).remove(evt);
 		}
 		
 		openFileHandles.clear();
 		
-		it = openFolderHandles.values().iterator();
-
-		while (it.hasNext()) {
-			TransferEvent evt = it.next();
+		for(TransferEvent evt : openFolderHandles.values()) {
 			evt.error = true;
 			try {
 				fireCloseFileEvent(evt, ex);
@@ -2453,11 +2877,28 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 		return CHARSET_ENCODING;
 	}
 	
+	/**
+	 * @deprecated handles are binary, use {@link #addTransferEvent(byte[], TransferEvent)}. A 
+	 * handle that was not issued by the file system is still accepted.
+	 */
+	@Deprecated
 	public void addTransferEvent(String handle, TransferEvent evt) {
+		try {
+			addTransferEvent(evt.getHandle()!=null ? evt.getHandle() : handle.getBytes("UTF-8"), evt);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("Your system appears not to support UTF-8!");
+		}
+	}
+	
+	public void addTransferEvent(byte[] handle, TransferEvent evt) {
 		if(evt.isDir()) {
 			openFolderHandles.put(handle, evt);
 		} else {
 			openFileHandles.put(handle, evt);
+			if(!openFilesByContext.containsKey(getContext())) {
+				openFilesByContext.put(getContext(), new HashSet<TransferEvent>());
+			}
+			openFilesByContext.get(getContext()).add(evt);
 		}		
 	}
 
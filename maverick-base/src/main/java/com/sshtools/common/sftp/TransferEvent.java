@@ -19,15 +19,25 @@
 package com.sshtools.common.sftp;
 
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import com.sshtools.common.util.UnsignedInteger32;
 
 public class TransferEvent {
+	
+		static final AtomicLongFieldUpdater<TransferEvent> BYTES_READ = AtomicLongFieldUpdater.newUpdater(TransferEvent.class, "bytesRead");
+		static final AtomicLongFieldUpdater<TransferEvent> BYTES_WRITTEN = AtomicLongFieldUpdater.newUpdater(TransferEvent.class, "bytesWritten");
+		static final AtomicLongFieldUpdater<TransferEvent> REPORTED_READ = AtomicLongFieldUpdater.newUpdater(TransferEvent.class, "reportedRead");
+		static final AtomicLongFieldUpdater<TransferEvent> REPORTED_WRITTEN = AtomicLongFieldUpdater.newUpdater(TransferEvent.class, "reportedWritten");
+		
 		byte[] handle;
 		String path;
 		AbstractFileSystem nfs;
-		long bytesRead = 0;
-		long bytesWritten = 0;
+		volatile long bytesRead = 0;
+		volatile long bytesWritten = 0;
+		volatile long reportedRead = 0;
+		volatile long reportedWritten = 0;
+		volatile long lastReported = System.currentTimeMillis();
 		boolean exists = false;
 		boolean hasReachedEOF = false;
 		UnsignedInteger32 flags;
@@ -43,6 +53,42 @@ public class TransferEvent {
 		public void setHandle(byte[] handle) {
 			this.handle = handle;
 		}
+		long addBytesRead(long count) {
+			return BYTES_READ.addAndGet(this, count);
+		}
+		
+		long addBytesWritten(long count) {
+			return BYTES_WRITTEN.addAndGet(this, count);
+		}
+		
+		/**
+		 * Claim the bytes read or written since the last progress report once the
+		 * byte threshold or the interval has been reached.
+		 * 
+		 * @param read
+		 * @param interval milliseconds between reports, zero for no interval
+		 * @param threshold bytes between reports, zero for no threshold
+		 * @param force claim any unreported bytes regardless of the interval and threshold
+		 * @return the number of bytes to report, or zero if no report is due.
+		 */
+		long claimProgress(boolean read, long interval, long threshold, boolean force) {
+			AtomicLongFieldUpdater<TransferEvent> reported = read ? REPORTED_READ : REPORTED_WRITTEN;
+			long total = read ? bytesRead : bytesWritten;
+			long last = reported.get(this);
+			if(total <= last) {
+				return 0;
+			}
+			long now = System.currentTimeMillis();
+			if(force || (threshold > 0 && total - last >= threshold) 
+					|| (interval > 0 && now - lastReported >= interval)) {
+				if(reported.compareAndSet(this, last, total)) {
+					lastReported = now;
+					return total - last;
+				}
+			}
+			return 0;
+		}
+		
 		public String getPath() {
 			return path;
 		}
@@ -109,9 +155,17 @@ public class TransferEvent {
 		public void setEx(Throwable ex) {
 			this.ex = ex;
 		}
+		/**
+		 * @deprecated handles are no longer keyed by string, use {@link #getHandle()}
+		 */
+		@Deprecated
 		public String getKey() {
 			return key;
 		}
+		/**
+		 * @deprecated handles are no longer keyed by string, use {@link #setHandle(byte[])}
+		 */
+		@Deprecated
 		public void setKey(String key) {
 			this.key = key;
 		}
@@ -0,0 +1,120 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.sftp.extensions;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Objects;
+
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.sftp.InvalidHandleException;
+import com.sshtools.common.sftp.SftpSubsystem;
+import com.sshtools.common.ssh.Packet;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.ByteArrayReader;
+
+/**
+ * Base for the check-file extensions of draft-ietf-secsh-filexfer, which return the hash 
+ * of a range of a file, or the hash of each block of the range.
+ */
+public abstract class AbstractCheckFileExtension extends AbstractSftpExtension {
+
+	public static final String REPLY_NAME = "check-file";
+	
+	final CheckFileHasher hasher;
+	
+	AbstractCheckFileExtension(String extensionName, CheckFileHasher hasher) {
+		super(extensionName, true);
+		this.hasher = hasher;
+	}
+
+	@Override
+	protected byte[] generateDefaultData() {
+		return hasher.getSupportedAlgorithms().getBytes();
+	}
+	
+	/**
+	 * Get the file to be hashed from the request.
+	 */
+	protected abstract AbstractFile getFile(ByteArrayReader msg, SftpSubsystem sftp) throws IOException, 
+			InvalidHandleException, PermissionDeniedException;
+	
+	protected String getReplyName() {
+		return REPLY_NAME;
+	}
+	
+	protected byte[] calculate(AbstractFile file, String owner, String algorithm, long offset, long length, 
+			int blockSize, int maximumLength) throws IOException, PermissionDeniedException, SshException {
+		return hasher.hash(file, owner, algorithm, offset, length, blockSize, maximumLength);
+	}
+	
+	@Override
+	public void processMessage(ByteArrayReader msg, int requestId, SftpSubsystem sftp) {
+		
+		try {
+			AbstractFile file = getFile(msg, sftp);
+			String algorithms = msg.readString();
+			long startOffset = msg.readUINT64().longValue();
+			long length = msg.readUINT64().longValue();
+			int blockSize = (int) msg.readInt();
+			
+			String algorithm = hasher.selectAlgorithm(algorithms);
+			if(Objects.isNull(algorithm)) {
+				sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_OP_UNSUPPORTED, 
+						"None of the hash algorithms " + algorithms + " are supported");
+				return;
+			}
+			
+			byte[] hashes = calculate(file, sftp.getConnection().getUsername(), algorithm, 
+					startOffset, length, blockSize, sftp.getMaximumReadLength());
+			
+			try(Packet reply = new Packet()) {
+				reply.write(SftpSubsystem.SSH_FXP_EXTENDED_REPLY);
+				reply.writeInt(requestId);
+				reply.writeString(getReplyName());
+				reply.writeString(algorithm);
+				reply.write(hashes);
+				
+				sftp.sendMessage(reply);
+			}
+		} catch(InvalidHandleException e) {
+			sftp.sendStatusMessage(requestId, SftpSubsystem.SSH_FX_INVALID_HANDLE, e.getMessage());
+		} catch(FileNotFoundException e) {
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_NO_SUCH_FILE, e.getMessage());
+		} catch(PermissionDeniedException e) {
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_PERMISSION_DENIED, e.getMessage());
+		} catch(IllegalArgumentException e) {
+			sftp.sendStatusMessage(requestId, SftpSubsystem.SSH_FX_INVALID_PARAMETER, e.getMessage());
+		} catch(Exception e) {
+			Log.error("Failed to process " + getName(), e);
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_FAILURE, e.getMessage());
+		}
+	}
+	
+	@Override
+	public boolean supportsExtendedMessage(int messageId) {
+		return false;
+	}
+
+	@Override
+	public void processExtendedMessage(ByteArrayReader msg, SftpSubsystem sftp) {
+	}
+}
@@ -66,7 +66,10 @@ public abstract class AbstractMD5Extension extends AbstractSftpExtension {
 		MD5Digest digest = (MD5Digest) JCEComponentManager.getInstance().supportedDigests().getInstance("MD5");
 
 		while(length > 0) {
-			int read = fs.readFile(handle, new UnsignedInteger64(startOffset), tmp, 0, tmp.length);
+			int read = fs.readFile(handle, new UnsignedInteger64(startOffset), tmp, 0, (int) Math.min(tmp.length, length));
+			if(read == -1) {
+				break;
+			}
 			if(read > 0) {
 				digest.putBytes(tmp, 0, read);
 				length -= read;
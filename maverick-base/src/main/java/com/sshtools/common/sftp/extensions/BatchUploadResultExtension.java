@@ -0,0 +1,117 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.sftp.extensions;
+
+import java.io.IOException;
+
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.sftp.DirectoryArchiveOutputStream;
+import com.sshtools.common.sftp.DirectoryArchiveOutputStream.Failure;
+import com.sshtools.common.sftp.InvalidHandleException;
+import com.sshtools.common.sftp.SftpSubsystem;
+import com.sshtools.common.ssh.Packet;
+import com.sshtools.common.util.ByteArrayReader;
+import com.sshtools.common.util.ByteArrayWriter;
+
+/**
+ * Completes a batch upload once all of the archive has been written to its handle. The reply 
+ * summarises the result; the failures are listed for as many entries as fit in the reply.
+ * 
+ * <pre>
+ * string "batch-upload-result"
+ * string handle
+ * 
+ * uint32 file-count
+ * uint32 directory-count
+ * uint32 failure-count
+ * uint32 listed-count
+ * listed-count times:
+ *   string path
+ *   uint32 status
+ *   string message
+ * </pre>
+ * 
+ * The handle must still be closed afterwards.
+ */
+public class BatchUploadResultExtension extends AbstractSftpExtension {
+
+	public static final String EXTENSION_NAME = "batch-upload-result";
+	
+	public BatchUploadResultExtension() {
+		super(EXTENSION_NAME, false);
+	}
+
+	@Override
+	public void processMessage(ByteArrayReader msg, int requestId, SftpSubsystem sftp) {
+		
+		try {
+			byte[] handle = msg.readBinaryString();
+			
+			DirectoryArchiveOutputStream archive = sftp.getFileSystem().finishDirectoryArchiveUpload(handle);
+			if(!archive.isComplete()) {
+				sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_FAILURE, 
+						"The archive ended part way through an entry");
+				return;
+			}
+			
+			int maximumLength = sftp.getMaximumReadLength();
+			try(Packet reply = new Packet()) {
+				reply.write(SftpSubsystem.SSH_FXP_EXTENDED_REPLY);
+				reply.writeInt(requestId);
+				reply.writeInt(archive.getFileCount());
+				reply.writeInt(archive.getDirectoryCount());
+				reply.writeInt(archive.getFailures().size());
+				
+				try(ByteArrayWriter failures = new ByteArrayWriter()) {
+					int listed = 0;
+					for(Failure failure : archive.getFailures()) {
+						byte[] path = failure.getPath().getBytes("UTF-8");
+						byte[] message = failure.getMessage().getBytes("UTF-8");
+						if(reply.size() + failures.size() + path.length + message.length + 16 > maximumLength) {
+							break;
+						}
+						failures.writeBinaryString(path);
+						failures.writeInt(failure.getStatus());
+						failures.writeBinaryString(message);
+						listed++;
+					}
+					reply.writeInt(listed);
+					reply.write(failures.toByteArray());
+				}
+				sftp.sendMessage(reply);
+			}
+		} catch(InvalidHandleException e) {
+			sftp.sendStatusMessage(requestId, SftpSubsystem.SSH_FX_INVALID_HANDLE, e.getMessage());
+		} catch(IOException e) {
+			if(Log.isDebugEnabled()) {
+				Log.debug("Failed to complete batch upload", e);
+			}
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_FAILURE, e.getMessage());
+		}
+	}
+
+	@Override
+	public boolean supportsExtendedMessage(int messageId) {
+		return false;
+	}
+
+	@Override
+	public void processExtendedMessage(ByteArrayReader msg, SftpSubsystem sftp) {
+	}
+}
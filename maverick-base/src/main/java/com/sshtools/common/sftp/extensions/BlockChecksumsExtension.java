@@ -0,0 +1,52 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.sftp.extensions;
+
+import java.io.IOException;
+
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.RollingChecksum;
+
+/**
+ * Returns the checksums a client needs to upload only the parts of a file that have changed. 
+ * The request has the same form as check-file-handle, but each block is described by its
+ * {@link RollingChecksum} as a uint32 followed by its hash, so that the client can find 
+ * blocks it already has at any offset of its local copy.
+ */
+public class BlockChecksumsExtension extends CheckFileHandleExtension {
+
+	public static final String EXTENSION_NAME = "block-checksums";
+	
+	public BlockChecksumsExtension(CheckFileHasher hasher) {
+		super(EXTENSION_NAME, hasher);
+	}
+
+	@Override
+	protected String getReplyName() {
+		return EXTENSION_NAME;
+	}
+
+	@Override
+	protected byte[] calculate(AbstractFile file, String owner, String algorithm, long offset, long length,
+			int blockSize, int maximumLength) throws IOException, PermissionDeniedException, SshException {
+		return hasher.checksums(file, owner, algorithm, offset, length, blockSize, maximumLength);
+	}
+}
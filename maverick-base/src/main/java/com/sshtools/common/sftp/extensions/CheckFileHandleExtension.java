@@ -0,0 +1,44 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.sftp.extensions;
+
+import java.io.IOException;
+
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.sftp.InvalidHandleException;
+import com.sshtools.common.sftp.SftpSubsystem;
+import com.sshtools.common.util.ByteArrayReader;
+
+public class CheckFileHandleExtension extends AbstractCheckFileExtension {
+
+	public static final String EXTENSION_NAME = "check-file-handle";
+	
+	public CheckFileHandleExtension(CheckFileHasher hasher) {
+		this(EXTENSION_NAME, hasher);
+	}
+	
+	CheckFileHandleExtension(String extensionName, CheckFileHasher hasher) {
+		super(extensionName, hasher);
+	}
+
+	@Override
+	protected AbstractFile getFile(ByteArrayReader msg, SftpSubsystem sftp) throws IOException, InvalidHandleException {
+		return sftp.getFileSystem().getOpenFile(msg.readBinaryString());
+	}
+}
@@ -0,0 +1,523 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.sftp.extensions;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.files.AbstractFileChannel;
+import com.sshtools.common.files.AbstractFileRandomAccess;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.components.ComponentManager;
+import com.sshtools.common.ssh.components.Digest;
+import com.sshtools.common.util.ByteArrayWriter;
+import com.sshtools.common.util.RollingChecksum;
+
+/**
+ * Computes the hashes returned by the check-file extensions and the block checksums
+ * used for delta transfers. The range is split into 
+ * contiguous runs of blocks that are hashed in parallel, each worker reading its own 
+ * part of the file with positional reads, and results are cached against the path, 
+ * size and modification time of the file so that repeated checks of an unchanged 
+ * file do not read it again.
+ */
+public class CheckFileHasher {
+
+	public static final int MINIMUM_BLOCK_SIZE = 256;
+	
+	static final int BUFFER_SIZE = 65536;
+	
+	static final String[][] ALGORITHMS = {
+		{ "sha256", "SHA-256" },
+		{ "sha512", "SHA-512" },
+		{ "sha384", "SHA-384" },
+		{ "sha1", "SHA-1" },
+		{ "md5", "MD5" }
+	};
+	
+	static final AtomicInteger poolNumber = new AtomicInteger(1);
+	
+	final int threads;
+	final ExecutorService executor;
+	final Map<CacheKey,byte[]> cache = new LinkedHashMap<CacheKey,byte[]>(16, 0.75f, true);
+	long maximumCacheSize = 8 * 1024 * 1024;
+	long cacheSize = 0;
+	
+	/**
+	 * Create a hasher that uses one thread for each available processor.
+	 */
+	public CheckFileHasher() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Create a hasher that uses up to the given number of threads.
+	 * 
+	 * @param threads
+	 */
+	public CheckFileHasher(int threads) {
+		this.threads = Math.max(1, threads);
+		final int pool = poolNumber.getAndIncrement();
+		this.executor = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+			final AtomicInteger threadNumber = new AtomicInteger(1);
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, String.format("sftp-hash-%d-%d", pool, threadNumber.getAndIncrement()));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	/**
+	 * The maximum number of bytes of hash results that are cached. Zero disables the cache.
+	 * 
+	 * @return long
+	 */
+	public long getMaximumCacheSize() {
+		return maximumCacheSize;
+	}
+	
+	public synchronized void setMaximumCacheSize(long maximumCacheSize) {
+		this.maximumCacheSize = maximumCacheSize;
+		evict();
+	}
+	
+	/**
+	 * The algorithms supported, in order of preference, as a comma separated list.
+	 * 
+	 * @return String
+	 */
+	public String getSupportedAlgorithms() {
+		StringBuilder b = new StringBuilder();
+		for(String[] alg : ALGORITHMS) {
+			if(ComponentManager.getInstance().supportedDigests().contains(alg[1])) {
+				if(b.length() > 0) {
+					b.append(',');
+				}
+				b.append(alg[0]);
+			}
+		}
+		return b.toString();
+	}
+	
+	/**
+	 * Select the first algorithm in a client's comma separated list that is supported.
+	 * 
+	 * @param algorithms
+	 * @return the algorithm, or <code>null</code> if none are supported.
+	 */
+	public String selectAlgorithm(String algorithms) {
+		for(String name : algorithms.split(",")) {
+			String jce = getJCEAlgorithm(name.trim());
+			if(Objects.nonNull(jce) && ComponentManager.getInstance().supportedDigests().contains(jce)) {
+				return name.trim();
+			}
+		}
+		return null;
+	}
+	
+	static String getJCEAlgorithm(String name) {
+		for(String[] alg : ALGORITHMS) {
+			if(alg[0].equalsIgnoreCase(name)) {
+				return alg[1];
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Hash a range of a file.
+	 * 
+	 * @param file the file
+	 * @param owner identifies the user the file was resolved for, so that cached results are not shared between different views of the same path
+	 * @param algorithm an algorithm returned by {@link #selectAlgorithm(String)}
+	 * @param offset the offset of the range
+	 * @param length the length of the range, or zero to hash to the end of the file
+	 * @param blockSize the size of each hashed block, or zero to hash the range as a single block
+	 * @param maximumLength the maximum number of bytes of hashes that may be returned
+	 * @return the hashes of each block concatenated together
+	 */
+	public byte[] hash(AbstractFile file, String owner, String algorithm, long offset, 
+			long length, int blockSize, int maximumLength) throws IOException, PermissionDeniedException, SshException {
+		return calculate(file, owner, algorithm, offset, length, blockSize, maximumLength, false);
+	}
+	
+	/**
+	 * Calculate the checksums of each block of a range of a file for a delta transfer. Each
+	 * block is described by its {@link RollingChecksum} as a uint32 followed by its hash.
+	 * 
+	 * @param file the file
+	 * @param owner identifies the user the file was resolved for
+	 * @param algorithm an algorithm returned by {@link #selectAlgorithm(String)}
+	 * @param offset the offset of the range
+	 * @param length the length of the range, or zero for the rest of the file
+	 * @param blockSize the size of each block
+	 * @param maximumLength the maximum number of bytes of checksums that may be returned
+	 * @return the checksums of each block concatenated together
+	 */
+	public byte[] checksums(AbstractFile file, String owner, String algorithm, long offset, 
+			long length, int blockSize, int maximumLength) throws IOException, PermissionDeniedException, SshException {
+		if(blockSize == 0) {
+			throw new IllegalArgumentException("A block size is required");
+		}
+		return calculate(file, owner, algorithm, offset, length, blockSize, maximumLength, true);
+	}
+	
+	private byte[] calculate(AbstractFile file, String owner, String algorithm, long offset, 
+			long length, int blockSize, int maximumLength, boolean weak) throws IOException, PermissionDeniedException, SshException {
+		
+		if(blockSize != 0 && blockSize < MINIMUM_BLOCK_SIZE) {
+			throw new IllegalArgumentException(String.format("Block size must be zero or at least %d bytes", MINIMUM_BLOCK_SIZE));
+		}
+		
+		String jceAlgorithm = getJCEAlgorithm(algorithm);
+		if(Objects.isNull(jceAlgorithm)) {
+			throw new IllegalArgumentException("Unsupported hash algorithm " + algorithm);
+		}
+		
+		long size = file.length();
+		long lastModified = file.lastModified();
+		
+		if(offset > size) {
+			throw new EOFException("Offset is beyond the end of the file");
+		}
+		
+		long end = length == 0 ? size : Math.min(size, offset + length);
+		long count = end - offset;
+		long blocks = blockSize == 0 ? 1 : (count + blockSize - 1) / blockSize;
+		int digestLength = ((Digest) ComponentManager.getInstance().supportedDigests().getInstance(jceAlgorithm)).doFinal().length;
+		int recordLength = weak ? digestLength + 4 : digestLength;
+		
+		if(blocks * recordLength > maximumLength) {
+			throw new IOException(String.format("%d block hashes will not fit in a single reply", blocks));
+		}
+		
+		CacheKey key = new CacheKey(owner, file.getAbsolutePath(), size, lastModified, algorithm, offset, count, blockSize, weak);
+		synchronized(this) {
+			byte[] cached = cache.get(key);
+			if(Objects.nonNull(cached)) {
+				if(Log.isDebugEnabled()) {
+					Log.debug("Using cached %s hash of %s", algorithm, key.path);
+				}
+				return cached;
+			}
+		}
+		
+		byte[] result = new byte[(int) blocks * recordLength];
+		long blockLength = blockSize == 0 ? Math.max(1, count) : blockSize;
+		
+		if(file instanceof AbstractFileChannel) {
+			try(FileChannel channel = ((AbstractFileChannel)file).openFileChannel(false)) {
+				if(Objects.nonNull(channel)) {
+					hashBlocks(file, channel, jceAlgorithm, offset, end, blockLength, (int) blocks, recordLength, weak, result);
+					return cache(key, result);
+				}
+			}
+		} 
+		
+		if(file.supportsRandomAccess()) {
+			hashBlocks(file, null, jceAlgorithm, offset, end, blockLength, (int) blocks, recordLength, weak, result);
+		} else {
+			// Without positional reads the file can only be read once from the start
+			try(InputStream in = file.getInputStream()) {
+				skipFully(in, offset);
+				hashRun(new StreamReader(in), jceAlgorithm, offset, end, blockLength, 0, (int) blocks, recordLength, weak, result);
+			}
+		}
+		return cache(key, result);
+	}
+	
+	private void hashBlocks(AbstractFile file, FileChannel channel, String jceAlgorithm, long offset, long end, 
+			long blockLength, int blocks, int recordLength, boolean weak, byte[] result) throws IOException, SshException {
+		
+		List<BlockReader> readers = openReaders(file, channel, Math.min(threads, blocks));
+		try {
+			if(readers.size() == 1) {
+				hashRun(readers.get(0), jceAlgorithm, offset, end, blockLength, 0, blocks, recordLength, weak, result);
+				return;
+			}
+			
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			int perRun = (blocks + readers.size() - 1) / readers.size();
+			int run = 0;
+			for(int first = 0; first < blocks; first += perRun) {
+				final BlockReader reader = readers.get(run++);
+				final int from = first;
+				final int to = Math.min(blocks, first + perRun);
+				futures.add(executor.submit(() -> {
+					hashRun(reader, jceAlgorithm, offset, end, blockLength, from, to, recordLength, weak, result);
+					return null;
+				}));
+			}
+			
+			try {
+				for(Future<Void> f : futures) {
+					f.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while hashing file");
+			} catch (ExecutionException e) {
+				for(Future<Void> f : futures) {
+					f.cancel(true);
+				}
+				if(e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				if(e.getCause() instanceof SshException) {
+					throw (SshException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+		} finally {
+			for(BlockReader reader : readers) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Open up to the given number of readers. A file channel is shared by every reader, otherwise
+	 * each needs its own random access file and we settle for fewer if the file refuses more.
+	 */
+	private List<BlockReader> openReaders(AbstractFile file, FileChannel channel, int count) throws IOException {
+		List<BlockReader> readers = new ArrayList<BlockReader>();
+		for(int i = 0; i < count; i++) {
+			if(Objects.nonNull(channel)) {
+				readers.add(new ChannelReader(channel));
+				continue;
+			}
+			try {
+				readers.add(new RandomAccessReader(file.openFile(false)));
+			} catch(IOException | RuntimeException e) {
+				if(readers.isEmpty()) {
+					throw e;
+				}
+				if(Log.isDebugEnabled()) {
+					Log.debug("Hashing %s with %s readers", file.getName(), readers.size());
+				}
+				break;
+			}
+		}
+		return readers;
+	}
+	
+	private void hashRun(BlockReader reader, String jceAlgorithm, long offset, long end, long blockLength, 
+			int from, int to, int recordLength, boolean weak, byte[] result) throws IOException, SshException {
+		
+		Digest digest = (Digest) ComponentManager.getInstance().supportedDigests().getInstance(jceAlgorithm);
+		RollingChecksum checksum = new RollingChecksum();
+		byte[] buf = new byte[(int) Math.min(BUFFER_SIZE, blockLength)];
+		
+		for(int block = from; block < to; block++) {
+			long position = offset + block * blockLength;
+			long remaining = Math.min(blockLength, end - position);
+			checksum.reset();
+			while(remaining > 0) {
+				int read = reader.read(position, buf, (int) Math.min(buf.length, remaining));
+				if(read <= 0) {
+					throw new EOFException("Unexpected end of file while hashing");
+				}
+				digest.putBytes(buf, 0, read);
+				if(weak) {
+					checksum.update(buf, 0, read);
+				}
+				position += read;
+				remaining -= read;
+			}
+			int index = block * recordLength;
+			if(weak) {
+				ByteArrayWriter.encodeInt(result, index, checksum.getValue());
+				index += 4;
+			}
+			byte[] hash = digest.doFinal();
+			System.arraycopy(hash, 0, result, index, hash.length);
+			digest.reset();
+		}
+	}
+	
+	private synchronized byte[] cache(CacheKey key, byte[] result) {
+		if(result.length <= maximumCacheSize) {
+			byte[] previous = cache.put(key, result);
+			if(Objects.nonNull(previous)) {
+				cacheSize -= previous.length;
+			}
+			cacheSize += result.length;
+			evict();
+		}
+		return result;
+	}
+	
+	private void evict() {
+		Iterator<byte[]> it = cache.values().iterator();
+		while(cacheSize > maximumCacheSize && it.hasNext()) {
+			cacheSize -= it.next().length;
+			it.remove();
+		}
+	}
+	
+	private static void skipFully(InputStream in, long count) throws IOException {
+		while(count > 0) {
+			long skipped = in.skip(count);
+			if(skipped <= 0) {
+				if(in.read() == -1) {
+					throw new EOFException("Unexpected end of file while hashing");
+				}
+				skipped = 1;
+			}
+			count -= skipped;
+		}
+	}
+	
+	public void shutdown() {
+		executor.shutdown();
+	}
+	
+	interface BlockReader extends AutoCloseable {
+		int read(long position, byte[] buf, int len) throws IOException;
+		
+		void close() throws IOException;
+	}
+	
+	static class ChannelReader implements BlockReader {
+		
+		FileChannel channel;
+		
+		ChannelReader(FileChannel channel) {
+			this.channel = channel;
+		}
+		
+		public int read(long position, byte[] buf, int len) throws IOException {
+			return channel.read(ByteBuffer.wrap(buf, 0, len), position);
+		}
+		
+		public void close() {
+			// The channel is shared between readers and closed by the caller
+		}
+	}
+	
+	static class RandomAccessReader implements BlockReader {
+		
+		AbstractFileRandomAccess raf;
+		long position = -1;
+		
+		RandomAccessReader(AbstractFileRandomAccess raf) {
+			this.raf = raf;
+		}
+		
+		public int read(long position, byte[] buf, int len) throws IOException {
+			if(this.position != position) {
+				raf.seek(position);
+			}
+			int read = raf.read(buf, 0, len);
+			this.position = position + Math.max(0, read);
+			return read;
+		}
+		
+		public void close() throws IOException {
+			raf.close();
+		}
+	}
+	
+	static class StreamReader implements BlockReader {
+		
+		InputStream in;
+		
+		StreamReader(InputStream in) {
+			this.in = in;
+		}
+		
+		public int read(long position, byte[] buf, int len) throws IOException {
+			return in.read(buf, 0, len);
+		}
+		
+		public void close() {
+			// The stream is closed by the caller
+		}
+	}
+	
+	static class CacheKey {
+		
+		final String owner;
+		final String path;
+		final long size;
+		final long lastModified;
+		final String algorithm;
+		final long offset;
+		final long length;
+		final int blockSize;
+		final boolean weak;
+		
+		CacheKey(String owner, String path, long size, long lastModified, String algorithm, 
+				long offset, long length, int blockSize, boolean weak) {
+			this.owner = owner;
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.algorithm = algorithm;
+			this.offset = offset;
+			this.length = length;
+			this.blockSize = blockSize;
+			this.weak = weak;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(owner, path, size, lastModified, algorithm, offset, length, blockSize, weak);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof CacheKey)) {
+				return false;
+			}
+			CacheKey other = (CacheKey) obj;
+			return Objects.equals(owner, other.owner) 
+					&& Objects.equals(path, other.path)
+					&& size == other.size 
+					&& lastModified == other.lastModified
+					&& Objects.equals(algorithm, other.algorithm)
+					&& offset == other.offset 
+					&& length == other.length
+					&& blockSize == other.blockSize
+					&& weak == other.weak;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.sftp.extensions;
+
+import java.io.IOException;
+
+import com.sshtools.common.sftp.InvalidHandleException;
+import com.sshtools.common.sftp.SftpSubsystem;
+import com.sshtools.common.util.ByteArrayReader;
+import com.sshtools.common.util.UnsignedInteger64;
+
+public class CopyDataSftpExtension extends AbstractSftpExtension {
+
+	public static final String EXTENSION_NAME = "copy-data";
+
+	protected CopyDataSftpExtension() {
+		super(EXTENSION_NAME, false);
+	}
+
+	@Override
+	public void processMessage(ByteArrayReader msg, int requestId, SftpSubsystem sftp) {
+
+		try {
+			byte[] fromHandle = msg.readBinaryString();
+			UnsignedInteger64 fromOffset = msg.readUINT64();
+			UnsignedInteger64 length = msg.readUINT64();
+			byte[] toHandle = msg.readBinaryString();
+			UnsignedInteger64 toOffset = msg.readUINT64();
+			
+			sftp.getFileSystem().copyData(fromHandle, fromOffset, length, toHandle, toOffset);
+			
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_OK, "The copy-data operation completed.");
+			
+		} catch(InvalidHandleException e) {
+			sftp.sendStatusMessage(requestId, SftpSubsystem.SSH_FX_INVALID_HANDLE, e.getMessage());
+		} catch(IOException e) {
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_FAILURE, e.getMessage());
+		} 
+	}
+
+	@Override
+	public boolean supportsExtendedMessage(int messageId) {
+		return false;
+	}
+
+	@Override
+	public void processExtendedMessage(ByteArrayReader msg, SftpSubsystem sftp) {
+	}
+
+}
@@ -51,9 +51,35 @@ public class DefaultSftpExtensionFactory implements SftpExtensionFactory {
 		if(supported.contains(SupportedSftpExtensions.COPY_FILE)) {
 			extensions.put(CopyFileSftpExtension.EXTENSION_NAME, new CopyFileSftpExtension());
 		}
+		if(supported.contains(SupportedSftpExtensions.COPY_DATA)) {
+			extensions.put(CopyDataSftpExtension.EXTENSION_NAME, new CopyDataSftpExtension());
+		}
 		if(supported.contains(SupportedSftpExtensions.OPEN_DIRECTORY_WITH_FILTER)) {
 			extensions.put(OpenDirectoryWithFilterExtension.EXTENSION_NAME, new OpenDirectoryWithFilterExtension());
 		}
+		if(supported.contains(SupportedSftpExtensions.LIMITS)) {
+			extensions.put(LimitsExtension.EXTENSION_NAME, new LimitsExtension());
+		}
+		if(supported.contains(SupportedSftpExtensions.DIRECTORY_ARCHIVE)) {
+			extensions.put(OpenDirectoryArchiveExtension.EXTENSION_NAME, new OpenDirectoryArchiveExtension());
+		}
+		if(supported.contains(SupportedSftpExtensions.BATCH_UPLOAD)) {
+			extensions.put(BatchUploadExtension.EXTENSION_NAME, new BatchUploadExtension());
+			extensions.put(BatchUploadResultExtension.EXTENSION_NAME, new BatchUploadResultExtension());
+		}
+		if(supported.contains(SupportedSftpExtensions.CHECK_FILE) 
+				|| supported.contains(SupportedSftpExtensions.BLOCK_CHECKSUMS)) {
+			CheckFileHasher hasher = new CheckFileHasher();
+			if(supported.contains(SupportedSftpExtensions.CHECK_FILE)) {
+				extensions.put(CheckFileNameExtension.EXTENSION_NAME, new CheckFileNameExtension(hasher));
+				extensions.put(CheckFileHandleExtension.EXTENSION_NAME, new CheckFileHandleExtension(hasher));
+			}
+			if(supported.contains(SupportedSftpExtensions.BLOCK_CHECKSUMS)) {
+				extensions.put(BlockChecksumsExtension.EXTENSION_NAME, new BlockChecksumsExtension(hasher));
+				// Delta uploads assemble the new file with copy-data
+				extensions.put(CopyDataSftpExtension.EXTENSION_NAME, new CopyDataSftpExtension());
+			}
+		}
 	}
 	
 	@Override
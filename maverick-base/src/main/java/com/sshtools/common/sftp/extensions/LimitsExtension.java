@@ -0,0 +1,73 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.sftp.extensions;
+
+import java.io.IOException;
+
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.sftp.SftpSubsystem;
+import com.sshtools.common.ssh.Packet;
+import com.sshtools.common.util.ByteArrayReader;
+
+/**
+ * Implements the OpenSSH limits@openssh.com extension, which tells the client the
+ * largest message, read and write the server will accept so that it can size its
+ * requests without falling back to a conservative default.
+ */
+public class LimitsExtension extends AbstractSftpExtension {
+
+	public static final String EXTENSION_NAME = "limits@openssh.com";
+	
+	public LimitsExtension() {
+		super(EXTENSION_NAME, true);
+	}
+
+	@Override
+	protected byte[] generateDefaultData() {
+		return "1".getBytes();
+	}
+	
+	@Override
+	public void processMessage(ByteArrayReader msg, int requestId, SftpSubsystem sftp) {
+		
+		try(Packet reply = new Packet()) {
+			reply.write(SftpSubsystem.SSH_FXP_EXTENDED_REPLY);
+			reply.writeInt(requestId);
+			reply.writeUINT64(sftp.getMaximumMessageLength());
+			reply.writeUINT64(sftp.getMaximumReadLength());
+			reply.writeUINT64(sftp.getMaximumWriteLength());
+			// The number of open handles is not limited
+			reply.writeUINT64(0);
+			
+			sftp.sendMessage(reply);
+		} catch (IOException e) {
+			Log.error("Failed to send limits", e);
+		}
+	}
+
+	@Override
+	public boolean supportsExtendedMessage(int messageId) {
+		return false;
+	}
+
+	@Override
+	public void processExtendedMessage(ByteArrayReader msg, SftpSubsystem sftp) {
+	}
+
+}
@@ -0,0 +1,94 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.sftp.extensions;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.sftp.AbstractFileSystem;
+import com.sshtools.common.sftp.SftpSubsystem;
+import com.sshtools.common.sftp.TransferEvent;
+import com.sshtools.common.util.ByteArrayReader;
+import com.sshtools.common.util.UnsignedInteger32;
+
+/**
+ * Opens a directory tree as a tar archive that the client downloads with ordinary 
+ * sequential READ requests on the returned handle, so a tree of many small files
+ * costs a single OPEN and CLOSE rather than several round trips per file.
+ * 
+ * <pre>
+ * string "open-directory-archive"
+ * string path
+ * uint32 flags
+ * </pre>
+ * 
+ * If bit {@link #FLAG_COMPRESS} is set the archive is compressed with zlib.
+ */
+public class OpenDirectoryArchiveExtension extends AbstractSftpExtension {
+
+	public static final String EXTENSION_NAME = "open-directory-archive";
+	
+	public static final int FLAG_COMPRESS = 0x00000001;
+	
+	public OpenDirectoryArchiveExtension() {
+		super(EXTENSION_NAME, true);
+	}
+
+	@Override
+	public void processMessage(ByteArrayReader msg, int requestId, SftpSubsystem sftp) {
+		
+		try {
+			String path = msg.readString();
+			int flags = (int) msg.readInt();
+			
+			byte[] handle = sftp.getFileSystem().openDirectoryArchive(path, (flags & FLAG_COMPRESS) != 0);
+			
+			TransferEvent evt = new TransferEvent();
+			evt.setPath(path);
+			evt.setNfs(sftp.getFileSystem());
+			evt.setHandle(handle);
+			evt.setExists(true);
+			evt.setFlags(new UnsignedInteger32(AbstractFileSystem.OPEN_READ));
+			sftp.addTransferEvent(handle, evt);
+			
+			sftp.sendHandleMessage(requestId, handle);
+			
+		} catch(FileNotFoundException e) {
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_NO_SUCH_FILE, e.getMessage());
+		} catch(PermissionDeniedException e) {
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_PERMISSION_DENIED, e.getMessage());
+		} catch(IOException e) {
+			if(Log.isDebugEnabled()) {
+				Log.debug("Failed to open directory archive", e);
+			}
+			sftp.sendStatusMessage(requestId, SftpSubsystem.STATUS_FX_FAILURE, e.getMessage());
+		}
+	}
+
+	@Override
+	public boolean supportsExtendedMessage(int messageId) {
+		return false;
+	}
+
+	@Override
+	public void processExtendedMessage(ByteArrayReader msg, SftpSubsystem sftp) {
+	}
+}
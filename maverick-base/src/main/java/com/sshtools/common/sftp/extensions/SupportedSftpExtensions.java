@@ -23,5 +23,11 @@ public enum SupportedSftpExtensions {
 	MD5_FILE_HASH,
 	POSIX_RENAME,
 	COPY_FILE,
-	OPEN_DIRECTORY_WITH_FILTER
+	COPY_DATA,
+	OPEN_DIRECTORY_WITH_FILTER,
+	LIMITS,
+	CHECK_FILE,
+	BLOCK_CHECKSUMS,
+	DIRECTORY_ARCHIVE,
+	BATCH_UPLOAD
 }
@@ -27,8 +27,10 @@ import com.sshtools.common.events.EventCodes;
 import com.sshtools.common.permissions.PermissionDeniedException;
 import com.sshtools.common.sftp.AbstractFileSystem;
 import com.sshtools.common.sftp.GlobSftpFileFilter;
+import com.sshtools.common.sftp.ModifiedSinceSftpFileFilter;
 import com.sshtools.common.sftp.RegexSftpFileFilter;
 import com.sshtools.common.sftp.SftpExtension;
+import com.sshtools.common.sftp.SftpFileFilter;
 import com.sshtools.common.sftp.SftpStatusEventException;
 import com.sshtools.common.sftp.SftpSubsystem;
 import com.sshtools.common.util.ByteArrayReader;
@@ -42,7 +44,8 @@ public class OpenDirectoryWithFilterExtension implements SftpExtension {
 		
 		/**
 		 * Open a directory with a filter applied so that read dir requests only
-		 * return files that match the filter.
+		 * return files that match the filter. The optional modified-since time 
+		 * further limits the files to those modified since then. 
 		 */
 		String path = null;
 		String filter = null;
@@ -55,10 +58,15 @@ public class OpenDirectoryWithFilterExtension implements SftpExtension {
 			path = sftp.checkDefaultPath(bar.readString(sftp.getCharsetEncoding()));
 			filter = bar.readString(sftp.getCharsetEncoding());
 			boolean regex = bar.readBoolean();
-
+			long modifiedSince = bar.available() >= 8 ? bar.readUINT64().longValue() : 0;
+			
+			SftpFileFilter names = null;
+			if(!filter.isEmpty()) {
+				names = regex ? new RegexSftpFileFilter(filter) : new GlobSftpFileFilter(filter);
+			}
 			
 			byte[] handle = fs.openDirectory(path, 
-					regex ? new RegexSftpFileFilter(filter) : new GlobSftpFileFilter(filter));
+					modifiedSince > 0 ? new ModifiedSinceSftpFileFilter(names, modifiedSince) : names);
 
 			try {
 				fireOpenDirectoryEvent(sftp, path, filter, started, handle, null);
@@ -117,12 +125,12 @@ public class OpenDirectoryWithFilterExtension implements SftpExtension {
 
 	@Override
 	public boolean isDeclaredInVersion() {
-		return false;
+		return true;
 	}
 
 	@Override
 	public byte[] getDefaultData() {
-		throw new UnsupportedOperationException();
+		return new byte[0];
 	}
 
 	@Override
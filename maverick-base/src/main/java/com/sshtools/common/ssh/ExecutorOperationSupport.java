@@ -122,21 +122,28 @@ public abstract class ExecutorOperationSupport<T extends ExecutorServiceProvider
 			}
 		}
 
-		public synchronized void addTask(Runnable r) {
-
-			subsystemOperations.addLast(r);
+		public void addTask(Runnable r) {
 
+			/**
+			 * Notify listeners before taking this queue's monitor. addedTask
+			 * locks the connection, and a connection closing while holding its
+			 * own lock adds its cleanup here, so nesting the two would deadlock.
+			 */
 			addedTask(r);
 			
-			if (!running) {
-				running = true;
+			synchronized (this) {
+				subsystemOperations.addLast(r);
 				
-				if(Log.isTraceEnabled()) {
-					Log.trace(queueName + ": Starting new subsystem task");
+				if (!running) {
+					running = true;
+					
+					if(Log.isTraceEnabled()) {
+						Log.trace(queueName + ": Starting new subsystem task");
+					}
+					operationFuture = getContext().getExecutorService().submit(this);
+				} else {
+					notifyAll();
 				}
-				operationFuture = getContext().getExecutorService().submit(this);
-			} else {
-				notifyAll();
 			}
 		}
 
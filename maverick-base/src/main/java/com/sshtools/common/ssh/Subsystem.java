@@ -43,6 +43,10 @@ public abstract class Subsystem {
 	
 	boolean shutdown = false;
 	int bytesSinceLastWindowIssue = 0;
+	boolean windowAdjustHalted = false;
+	
+	byte[] largeMessage;
+	int largeMessagePosition;
 	
 	public Subsystem(String name) {
 		this.name = name;
@@ -154,6 +158,10 @@ public abstract class Subsystem {
 			throw new IOException("Session is closed");
 		}
 		
+		if(largeMessage!=null && (!readLargeMessage(data) || !data.hasRemaining())) {
+			return;
+		}
+		
 		if (buffer == null)
 			buffer = bufferPool.get();
 
@@ -181,17 +189,31 @@ public abstract class Subsystem {
 				buffer(data, true);
 				
 				if (message_length < 0
-						|| message_length > (context.getMaximumPacketLength() - 4)) {
+						|| message_length > getMaximumMessageLength()) {
 					if(Log.isErrorEnabled())
 						Log.error("Incoming subsystem message length " + message_length
-								+ " exceeds maximum supported packet length "
-								+ context.getMaximumPacketLength());
+								+ " exceeds maximum supported message length "
+								+ getMaximumMessageLength());
 					session.getConnection().disconnect("Protocol error");
 					return;
 				}
+				
+				if(message_length > buffer.capacity()) {
+					/**
+					 * The message will not fit in a pooled buffer so collect it 
+					 * directly into its own array.
+					 */
+					largeMessage = new byte[message_length];
+					largeMessagePosition = buffer.remaining();
+					buffer.get(largeMessage, 0, largeMessagePosition);
+					if(!readLargeMessage(data)) {
+						break;
+					}
+					buffer(data, true);
+				}
 			}
 			// Process a message in chunks of 'message_length'
-			while (message_length >= 0 && buffer.remaining() >= message_length) {
+			if (message_length >= 0 && buffer.remaining() >= message_length) {
 	
 				if(message_length > 0) {
 					byte[] msg = new byte[message_length];
@@ -206,15 +228,11 @@ public abstract class Subsystem {
 					Log.warn("Received zero length message in SFTP subsystem!!");
 				}
 				
-				if (buffer.remaining() >= 4) {
-					message_length = buffer.getInt();
-					
-					buffer(data, true);
-				} else {
-					message_length = -1;
-				}
+				message_length = -1;
 			}
-		} while(data.hasRemaining());
+		} while(data.hasRemaining() 
+				|| (message_length == -1 && buffer.remaining() >= 4)
+				|| (message_length >= 0 && buffer.remaining() >= message_length));
 
 		if (!buffer.hasRemaining()) {
 			bufferPool.add(buffer);
@@ -226,6 +244,33 @@ public abstract class Subsystem {
 
 	}
 
+	private boolean readLargeMessage(ByteBuffer data) {
+		
+		int count = Math.min(data.remaining(), largeMessage.length - largeMessagePosition);
+		data.get(largeMessage, largeMessagePosition, count);
+		largeMessagePosition += count;
+		
+		if(largeMessagePosition < largeMessage.length) {
+			return false;
+		}
+		
+		byte[] msg = largeMessage;
+		largeMessage = null;
+		message_length = -1;
+		session.getConnection().addTask(ExecutorOperationSupport.EVENTS, new ProcessMessageOperation(msg));
+		return true;
+	}
+	
+	/**
+	 * The maximum length of a single message accepted by this subsystem. Messages
+	 * longer than the buffers of the context byte buffer pool are supported.
+	 * 
+	 * @return int
+	 */
+	protected int getMaximumMessageLength() {
+		return context.getMaximumPacketLength() - 4;
+	}
+	
 	private void buffer(ByteBuffer data, boolean compact) {
 		
 		boolean flip = false;
@@ -295,20 +340,54 @@ public abstract class Subsystem {
 		}
 	}
 
-	public void onFreeMessage(byte[] msg) {
+	public synchronized void onFreeMessage(byte[] msg) {
 	
 		if(maximumPacketSize < msg.length + 4) {
 			maximumPacketSize = msg.length + 4;
 		}
 		
 		bytesSinceLastWindowIssue += msg.length + 4;
+		checkWindowAdjust();
+	}
+	
+	/**
+	 * Stop opening the channel window as messages are freed. The client can send no more
+	 * than the window space it already has until {@link #resumeWindowAdjust()} is called.
+	 */
+	protected synchronized void haltWindowAdjust() {
+		if(!windowAdjustHalted && Log.isDebugEnabled()) {
+			Log.debug("Halting window adjustments on " + name + " subsystem");
+		}
+		windowAdjustHalted = true;
+	}
+	
+	/**
+	 * Resume opening the channel window, sending any adjustment that was held back.
+	 */
+	protected synchronized void resumeWindowAdjust() {
+		if(windowAdjustHalted && Log.isDebugEnabled()) {
+			Log.debug("Resuming window adjustments on " + name + " subsystem");
+		}
+		windowAdjustHalted = false;
+		checkWindowAdjust();
+	}
+	
+	public synchronized boolean isWindowAdjustHalted() {
+		return windowAdjustHalted;
+	}
+	
+	private void checkWindowAdjust() {
+		
+		if(windowAdjustHalted) {
+			return;
+		}
+		
 		int threshold = Math.min(session.getMaximumWindowSpace() - session.getMinimumWindowSpace(), 
 				session.getMaximumWindowSpace() - (Math.max(session.getLocalPacket(), maximumPacketSize) * 2));
 		if(bytesSinceLastWindowIssue >= threshold) {
 			session.sendWindowAdjust(bytesSinceLastWindowIssue);
 			bytesSinceLastWindowIssue = 0;
 		}
-		
 	}
 
 }
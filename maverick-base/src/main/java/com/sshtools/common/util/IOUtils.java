@@ -30,6 +30,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -227,6 +229,52 @@ public class IOUtils {
   }
 
 
+  /**
+   * Copy a range of bytes from one file channel to another. The transfer is performed
+   * with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)} 
+   * so that, where the operating system supports it, the data is copied in the kernel 
+   * without passing through the JVM heap. If the operating system makes no progress before the
+   * end of the source, the remainder is copied through a buffer. The position of the source 
+   * channel is not changed.
+   * 
+   * @param from source channel
+   * @param position the position in the source to start copying from
+   * @param count the number of bytes to copy, copying stops early if the end of the source is reached
+   * @param to destination channel
+   * @param toPosition the position in the destination to start writing to
+   * @return the number of bytes copied
+   * @throws IOException
+   */
+  public static long transfer(FileChannel from, long position, long count, FileChannel to, long toPosition) throws IOException {
+	  
+	  long transferred = 0;
+	  ByteBuffer buffer = null;
+	  to.position(toPosition);
+	  while(transferred < count) {
+		  long n = from.transferTo(position + transferred, count - transferred, to);
+		  if(n <= 0) {
+			  if(position + transferred >= from.size()) {
+				  break;
+			  }
+			  if(buffer==null) {
+				  buffer = ByteBuffer.allocate((int) Math.min(count - transferred, 65536));
+			  }
+			  buffer.clear();
+			  buffer.limit((int) Math.min(buffer.capacity(), count - transferred));
+			  n = from.read(buffer, position + transferred);
+			  if(n <= 0) {
+				  break;
+			  }
+			  buffer.flip();
+			  while(buffer.hasRemaining()) {
+				  to.write(buffer);
+			  }
+		  }
+		  transferred += n;
+	  }
+	  return transferred;
+  }
+
   public static int readyFully(InputStream in, byte[] buf) throws IOException {
 	
 	  int r, c = 0;
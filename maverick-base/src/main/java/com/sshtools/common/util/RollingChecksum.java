@@ -0,0 +1,103 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+/* HEADER */
+package com.sshtools.common.util;
+
+/**
+ * The weak rolling checksum used by rsync. The checksum of a window of data can be moved 
+ * along by one byte in constant time, which allows a file to be searched for blocks that
+ * match those of another copy without hashing the data at every offset.
+ */
+public class RollingChecksum {
+
+	int a;
+	int b;
+	int length;
+	
+	/**
+	 * Clear the checksum so that a new window can be built with {@link #update(byte[], int, int)}.
+	 */
+	public void reset() {
+		a = 0;
+		b = 0;
+		length = 0;
+	}
+	
+	/**
+	 * Calculate the checksum of a window of data, replacing any previous state.
+	 * 
+	 * @param buf
+	 * @param off
+	 * @param len
+	 */
+	public void reset(byte[] buf, int off, int len) {
+		reset();
+		update(buf, off, len);
+	}
+	
+	/**
+	 * Extend the window with more data.
+	 * 
+	 * @param buf
+	 * @param off
+	 * @param len
+	 */
+	public void update(byte[] buf, int off, int len) {
+		for(int i = off; i < off + len; i++) {
+			a += buf[i] & 0xFF;
+			b += a;
+		}
+		length += len;
+	}
+	
+	/**
+	 * Move the window along by one byte.
+	 * 
+	 * @param out the byte leaving the start of the window
+	 * @param in the byte entering the end of the window
+	 */
+	public void roll(byte out, byte in) {
+		int x = out & 0xFF;
+		a += (in & 0xFF) - x;
+		b += a - length * x;
+	}
+	
+	/**
+	 * The checksum of the current window.
+	 * 
+	 * @return int
+	 */
+	public int getValue() {
+		return (a & 0xFFFF) | (b << 16);
+	}
+	
+	/**
+	 * Calculate the checksum of a block of data.
+	 * 
+	 * @param buf
+	 * @param off
+	 * @param len
+	 * @return int
+	 */
+	public static int checksum(byte[] buf, int off, int len) {
+		RollingChecksum c = new RollingChecksum();
+		c.reset(buf, off, len);
+		return c.getValue();
+	}
+}
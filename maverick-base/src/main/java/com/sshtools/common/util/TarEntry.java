@@ -0,0 +1,422 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+/* HEADER */
+package com.sshtools.common.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An entry of a POSIX (ustar) tar archive. Names longer than the 100 bytes of the
+ * ustar header, and files larger than 8GB, are described with a preceding pax
+ * extended header so any standard tar tool can read the archive.
+ */
+public class TarEntry {
+
+	public static final int BLOCK_SIZE = 512;
+	
+	static final char TYPE_FILE = '0';
+	static final char TYPE_DIRECTORY = '5';
+	static final char TYPE_PAX = 'x';
+	static final char TYPE_GLOBAL_PAX = 'g';
+	
+	static final long MAXIMUM_SIZE = 077777777777L;
+	
+	String name;
+	long size;
+	int mode;
+	long lastModified;
+	boolean directory;
+	char type;
+	
+	public TarEntry(String name, long size, int mode, long lastModified, boolean directory) {
+		this.name = directory && !name.endsWith("/") ? name + "/" : name;
+		this.size = directory ? 0 : size;
+		this.mode = mode;
+		this.lastModified = lastModified;
+		this.directory = directory;
+		this.type = directory ? TYPE_DIRECTORY : TYPE_FILE;
+	}
+	
+	/**
+	 * The path of the entry relative to the root of the archive. Directory names end with a '/'.
+	 * 
+	 * @return String
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * The permission bits of the entry.
+	 * 
+	 * @return int
+	 */
+	public int getMode() {
+		return mode;
+	}
+
+	/**
+	 * The last modified time in seconds since Jan 1, 1970 UTC.
+	 * 
+	 * @return long
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public boolean isDirectory() {
+		return directory;
+	}
+	
+	/**
+	 * The number of zero bytes that follow the content of an entry to complete its last block.
+	 * 
+	 * @param size
+	 * @return int
+	 */
+	public static int getPadding(long size) {
+		int r = (int) (size % BLOCK_SIZE);
+		return r == 0 ? 0 : BLOCK_SIZE - r;
+	}
+	
+	/**
+	 * Encode the header block(s) of this entry.
+	 * 
+	 * @return byte[]
+	 */
+	public byte[] toHeader() {
+		
+		byte[] path = name.getBytes(StandardCharsets.UTF_8);
+		boolean longName = path.length > 100;
+		boolean largeFile = size > MAXIMUM_SIZE;
+		
+		if(!longName && !largeFile) {
+			return header(path, size, directory ? TYPE_DIRECTORY : TYPE_FILE);
+		}
+		
+		StringBuilder records = new StringBuilder();
+		if(longName) {
+			records.append(record("path", name));
+		}
+		if(largeFile) {
+			records.append(record("size", String.valueOf(size)));
+		}
+		byte[] pax = records.toString().getBytes(StandardCharsets.UTF_8);
+		
+		byte[] truncated = new byte[Math.min(100, path.length)];
+		System.arraycopy(path, 0, truncated, 0, truncated.length);
+		
+		byte[] extended = header("PaxHeader".getBytes(StandardCharsets.UTF_8), pax.length, TYPE_PAX);
+		byte[] main = header(truncated, largeFile ? 0 : size, directory ? TYPE_DIRECTORY : TYPE_FILE);
+		
+		byte[] result = new byte[extended.length + pax.length + getPadding(pax.length) + main.length];
+		System.arraycopy(extended, 0, result, 0, extended.length);
+		System.arraycopy(pax, 0, result, extended.length, pax.length);
+		System.arraycopy(main, 0, result, result.length - main.length, main.length);
+		return result;
+	}
+	
+	private byte[] header(byte[] path, long size, char type) {
+		
+		byte[] header = new byte[BLOCK_SIZE];
+		System.arraycopy(path, 0, header, 0, Math.min(100, path.length));
+		octal(header, 100, 8, mode & 07777);
+		octal(header, 108, 8, 0);
+		octal(header, 116, 8, 0);
+		octal(header, 124, 12, size);
+		octal(header, 136, 12, lastModified);
+		header[156] = (byte) type;
+		System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+		header[263] = '0';
+		header[264] = '0';
+		
+		for(int i = 148; i < 156; i++) {
+			header[i] = ' ';
+		}
+		octal(header, 148, 7, checksum(header));
+		header[155] = ' ';
+		return header;
+	}
+	
+	private static String record(String key, String value) {
+		String body = " " + key + "=" + value + "\n";
+		int bodyLength = body.getBytes(StandardCharsets.UTF_8).length;
+		int length = bodyLength + 1;
+		while(String.valueOf(length).length() + bodyLength != length) {
+			length++;
+		}
+		return length + body;
+	}
+	
+	private static void octal(byte[] header, int offset, int length, long value) {
+		String str = Long.toOctalString(value);
+		int digits = length - 1;
+		int pad = digits - str.length();
+		for(int i = 0; i < digits; i++) {
+			header[offset + i] = (byte) (i < pad ? '0' : str.charAt(i - pad));
+		}
+		header[offset + digits] = 0;
+	}
+	
+	private static long checksum(byte[] header) {
+		long sum = 0;
+		for(byte b : header) {
+			sum += b & 0xFF;
+		}
+		return sum;
+	}
+	
+	private static long parseOctal(byte[] header, int offset, int length) {
+		long value = 0;
+		for(int i = offset; i < offset + length; i++) {
+			int c = header[i];
+			if(c == 0 || c == ' ') {
+				if(value > 0) {
+					break;
+				}
+				continue;
+			}
+			if(c < '0' || c > '7') {
+				break;
+			}
+			value = (value << 3) + (c - '0');
+		}
+		return value;
+	}
+	
+	private static String parseString(byte[] header, int offset, int length) {
+		int end = offset;
+		while(end < offset + length && header[end] != 0) {
+			end++;
+		}
+		return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Read the next entry from an archive positioned at a header block. The caller must read,
+	 * or skip, the content of the entry and its padding before reading the next entry.
+	 * Entries other than regular files and directories are skipped.
+	 * 
+	 * @param in
+	 * @return the entry, or <code>null</code> at the end of the archive.
+	 * @throws IOException
+	 */
+	public static TarEntry read(InputStream in) throws IOException {
+		
+		Map<String,String> pax = new HashMap<String,String>();
+		byte[] header = new byte[BLOCK_SIZE];
+		
+		while(true) {
+			if(!readBlock(in, header)) {
+				return null;
+			}
+			TarEntry entry = parse(header, pax);
+			if(Objects.isNull(entry)) {
+				return null;
+			}
+			
+			if(entry.isExtendedHeader()) {
+				byte[] data = new byte[(int) entry.getSize()];
+				if(!readBlock(in, data) && data.length > 0) {
+					throw new EOFException("Unexpected end of archive");
+				}
+				skip(in, getPadding(data.length));
+				if(entry.type == TYPE_PAX) {
+					pax.putAll(parseExtendedHeader(data));
+				}
+				continue;
+			}
+			
+			if(entry.isFile() || entry.isDirectory()) {
+				return entry;
+			}
+			
+			skip(in, entry.getSize() + getPadding(entry.getSize()));
+			pax.clear();
+		}
+	}
+	
+	/**
+	 * Decode a header block.
+	 * 
+	 * @param header the 512 byte block
+	 * @param pax the records of a preceding pax extended header, which override the values of the block
+	 * @return the entry, or <code>null</code> if the block is one of the zero blocks that end the archive
+	 * @throws IOException if the block is not a valid header
+	 */
+	public static TarEntry parse(byte[] header, Map<String,String> pax) throws IOException {
+		
+		if(isZero(header)) {
+			return null;
+		}
+		if(checksum(header) - checksumField(header) + 8 * ' ' != parseOctal(header, 148, 8)) {
+			throw new IOException("Archive header checksum mismatch");
+		}
+		
+		char type = (char) header[156];
+		long size = parseOctal(header, 124, 12);
+		String name;
+		if(pax.containsKey("path")) {
+			name = pax.get("path");
+		} else {
+			name = parseString(header, 0, 100);
+			if(header[257] == 'u' && header[345] != 0) {
+				name = parseString(header, 345, 155) + "/" + name;
+			}
+		}
+		if(pax.containsKey("size")) {
+			try {
+				size = Long.parseLong(pax.get("size"));
+			} catch(NumberFormatException e) {
+				throw new IOException("Invalid size in extended header " + pax.get("size"));
+			}
+		}
+		
+		boolean directory = type == TYPE_DIRECTORY || ((type == TYPE_FILE || type == 0) && name.endsWith("/"));
+		TarEntry entry = new TarEntry(name, directory ? 0 : size, 
+				(int) parseOctal(header, 100, 8), 
+				parseOctal(header, 136, 12), directory);
+		entry.type = directory ? TYPE_DIRECTORY : type;
+		return entry;
+	}
+	
+	/**
+	 * Decode the records of a pax extended header.
+	 * 
+	 * @param data
+	 * @return the records
+	 */
+	public static Map<String,String> parseExtendedHeader(byte[] data) {
+		Map<String,String> records = new HashMap<String,String>();
+		String str = new String(data, StandardCharsets.UTF_8);
+		int idx = 0;
+		while(idx < str.length()) {
+			int space = str.indexOf(' ', idx);
+			int eq = space < 0 ? -1 : str.indexOf('=', space);
+			int nl = eq < 0 ? -1 : str.indexOf('\n', eq);
+			if(nl < 0) {
+				break;
+			}
+			records.put(str.substring(space + 1, eq), str.substring(eq + 1, nl));
+			idx = nl + 1;
+		}
+		return records;
+	}
+	
+	/**
+	 * Is this a pax header that carries the extended attributes of the next entry.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isExtendedHeader() {
+		return type == TYPE_PAX || type == TYPE_GLOBAL_PAX;
+	}
+	
+	/**
+	 * Is this a pax header whose attributes apply to every following entry.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isGlobalExtendedHeader() {
+		return type == TYPE_GLOBAL_PAX;
+	}
+	
+	/**
+	 * Is this a regular file. Entries that are neither regular files nor directories, such 
+	 * as links, should be skipped.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isFile() {
+		return type == TYPE_FILE || type == 0;
+	}
+	
+	private static long checksumField(byte[] header) {
+		long sum = 0;
+		for(int i = 148; i < 156; i++) {
+			sum += header[i] & 0xFF;
+		}
+		return sum;
+	}
+	
+	private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+		int count = 0;
+		while(count < block.length) {
+			int r = in.read(block, count, block.length - count);
+			if(r == -1) {
+				if(count == 0) {
+					return false;
+				}
+				throw new EOFException("Unexpected end of archive");
+			}
+			count += r;
+		}
+		return true;
+	}
+	
+	/**
+	 * Is the block all zeros.
+	 * 
+	 * @param block
+	 * @return boolean
+	 */
+	public static boolean isZero(byte[] block) {
+		for(byte b : block) {
+			if(b != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Skip bytes of the archive, failing if it ends first.
+	 * 
+	 * @param in
+	 * @param count
+	 * @throws IOException
+	 */
+	public static void skip(InputStream in, long count) throws IOException {
+		byte[] tmp = null;
+		while(count > 0) {
+			long s = in.skip(count);
+			if(s <= 0) {
+				if(Objects.isNull(tmp)) {
+					tmp = new byte[BLOCK_SIZE];
+				}
+				int r = in.read(tmp, 0, (int) Math.min(tmp.length, count));
+				if(r == -1) {
+					throw new EOFException("Unexpected end of archive");
+				}
+				s = r;
+			}
+			count -= s;
+		}
+	}
+}
@@ -24,11 +24,16 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -235,4 +240,61 @@ public class AbstractFileNIOProviderTests {
 		
 		Assert.assertEquals(2, fileNames.size());
 	}
+	
+	@Test
+	public void testByteChannelReadAtPosition() throws IOException {
+
+		Path path = fs.getPath("/file.txt");
+		byte[] content = Files.readAllBytes(path);
+		
+		try(SeekableByteChannel channel = Files.newByteChannel(path)) {
+			ByteBuffer buf = ByteBuffer.allocate(16);
+			channel.position(100);
+			Assert.assertEquals(16, channel.read(buf));
+			Assert.assertEquals(116, channel.position());
+			Assert.assertTrue(Arrays.areEqual(java.util.Arrays.copyOfRange(content, 100, 116), buf.array()));
+			
+			channel.position(content.length);
+			Assert.assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+		}
+	}
+	
+	@Test
+	public void testByteChannelReadOnlyDoesNotWrite() throws IOException {
+
+		Path path = fs.getPath("/file.txt");
+		byte[] content = Files.readAllBytes(path);
+		
+		try(SeekableByteChannel channel = Files.newByteChannel(path)) {
+			channel.write(ByteBuffer.allocate(1));
+			Assert.fail("Expected the channel to be read only");
+		} catch(NonWritableChannelException e) {
+		}
+		
+		Assert.assertTrue(Arrays.areEqual(content, Files.readAllBytes(path)));
+	}
+	
+	@Test
+	public void testByteChannelWriteInPlace() throws IOException {
+
+		Path path = fs.getPath("/file.txt");
+		byte[] content = Files.readAllBytes(path);
+		
+		try(SeekableByteChannel channel = Files.newByteChannel(path, StandardOpenOption.WRITE)) {
+			channel.position(10);
+			channel.write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+			Assert.assertEquals(content.length, channel.size());
+		}
+		
+		content[10] = 1;
+		content[11] = 2;
+		content[12] = 3;
+		Assert.assertTrue(Arrays.areEqual(content, Files.readAllBytes(path)));
+	}
+	
+	@Test(expected = FileAlreadyExistsException.class)
+	public void testByteChannelCreateNewExisting() throws IOException {
+
+		Files.newByteChannel(fs.getPath("/file.txt"), StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+	}
 }
@@ -0,0 +1,155 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sshtools.common.files.AbstractFileFactory;
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.policy.FileFactory;
+import com.sshtools.common.policy.FileSystemPolicy;
+import com.sshtools.common.sftp.AbstractFileSystem;
+import com.sshtools.common.sftp.InvalidHandleException;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.util.UnsignedInteger32;
+import com.sshtools.common.util.UnsignedInteger64;
+
+import junit.framework.TestCase;
+
+public class AsynchronousCloseTests extends TestCase {
+
+	static final int BLOCK_SIZE = 32768;
+	static final int BLOCKS = 32;
+	
+	File home;
+	ExecutorService executor;
+	AbstractFileSystem nfs;
+	
+	@Override
+	protected void setUp() throws IOException, PermissionDeniedException {
+		home = Files.createTempDirectory("async").toFile();
+		executor = Executors.newSingleThreadExecutor();
+		SshConnection con = new MockConnection("lee", 
+				UUID.randomUUID().toString(),
+				new InetSocketAddress(InetAddress.getLocalHost(), 22),
+				new InetSocketAddress(InetAddress.getLocalHost(), 22),
+				new MockContext());
+		con.getContext().getPolicy(FileSystemPolicy.class).setFileFactory(new FileFactory() {
+			@Override
+			public AbstractFileFactory<?> getFileFactory(SshConnection con) throws IOException {
+				return new DirectFileFactory(home);
+			}
+		});
+		nfs = new AbstractFileSystem(con, AbstractFileSystem.SFTP);
+		nfs.setAsynchronousExecutor(executor);
+	}
+	
+	@Override
+	protected void tearDown() {
+		executor.shutdownNow();
+		for(File f : home.listFiles()) {
+			f.delete();
+		}
+		home.delete();
+	}
+	
+	public void testCloseWaitsForPendingWrites() throws Exception {
+		
+		byte[] handle = nfs.openFile("data.bin", new UnsignedInteger32(AbstractFileSystem.OPEN_WRITE 
+				| AbstractFileSystem.OPEN_CREATE | AbstractFileSystem.OPEN_TRUNCATE), null);
+		assertTrue(nfs.isAsynchronous(handle));
+		
+		/* Hold the I/O thread so the writes are still pending when the handle is closed */
+		final CountDownLatch gate = new CountDownLatch(1);
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					gate.await();
+				} catch (InterruptedException e) {
+				}
+			}
+		});
+		
+		final List<String> replies = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch closed = new CountDownLatch(1);
+		
+		byte[] block = new byte[BLOCK_SIZE];
+		for(int i = 0; i < BLOCKS; i++) {
+			final int index = i;
+			java.util.Arrays.fill(block, (byte) i);
+			nfs.writeFile(handle, new UnsignedInteger64(i * BLOCK_SIZE), block.clone(), 0, BLOCK_SIZE, 
+					new CompletionHandler<Integer,Void>() {
+				public void completed(Integer result, Void attachment) {
+					replies.add("write " + index + " " + result);
+				}
+				public void failed(Throwable exc, Void attachment) {
+					replies.add("write " + index + " failed");
+				}
+			});
+		}
+		
+		nfs.closeFile(handle, new CompletionHandler<Void,Void>() {
+			public void completed(Void result, Void attachment) {
+				replies.add("close");
+				closed.countDown();
+			}
+			public void failed(Throwable exc, Void attachment) {
+				replies.add("close failed");
+				closed.countDown();
+			}
+		});
+		
+		assertTrue(replies.isEmpty());
+		try {
+			nfs.writeFile(handle, new UnsignedInteger64(0), block, 0, BLOCK_SIZE, null);
+			fail("A write after the close was accepted");
+		} catch(InvalidHandleException e) {
+		}
+		
+		gate.countDown();
+		assertTrue(closed.await(30, TimeUnit.SECONDS));
+		
+		assertEquals(BLOCKS + 1, replies.size());
+		for(int i = 0; i < BLOCKS; i++) {
+			assertTrue(replies.contains("write " + i + " " + BLOCK_SIZE));
+		}
+		assertEquals("close", replies.get(BLOCKS));
+		
+		byte[] data = Files.readAllBytes(new File(home, "data.bin").toPath());
+		assertEquals(BLOCKS * BLOCK_SIZE, data.length);
+		for(int i = 0; i < BLOCKS; i++) {
+			assertEquals((byte) i, data[i * BLOCK_SIZE]);
+			assertEquals((byte) i, data[(i + 1) * BLOCK_SIZE - 1]);
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.sshtools.common.events.AsynchronousEventListener;
+import com.sshtools.common.events.AsynchronousEventListener.OverflowPolicy;
+import com.sshtools.common.events.BatchEventListener;
+import com.sshtools.common.events.Event;
+import com.sshtools.common.events.EventException;
+import com.sshtools.common.events.EventListener;
+import com.sshtools.common.events.EventServiceImplementation;
+
+import junit.framework.TestCase;
+
+public class AsynchronousEventListenerTests extends TestCase {
+
+	public void testBatchesInOrder() throws InterruptedException {
+		
+		final List<Integer> received = new ArrayList<Integer>();
+		final List<Integer> batches = new ArrayList<Integer>();
+		final CountDownLatch done = new CountDownLatch(1000);
+		final CountDownLatch release = new CountDownLatch(1);
+		
+		AsynchronousEventListener listener = new AsynchronousEventListener(new BatchEventListener() {
+			public void processEvent(Event evt) {
+				fail("Batch listener should receive batches");
+			}
+			public void processEvents(List<Event> events) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+				}
+				batches.add(events.size());
+				for(Event evt : events) {
+					received.add(evt.getId());
+					done.countDown();
+				}
+			}
+		}, 2048, OverflowPolicy.BLOCK, 100);
+		
+		for(int i = 0; i < 1000; i++) {
+			listener.processEvent(new Event(this, i, true));
+		}
+		release.countDown();
+		
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		for(int i = 0; i < 1000; i++) {
+			assertEquals(Integer.valueOf(i), received.get(i));
+		}
+		assertTrue(batches.size() < 1000);
+		assertEquals(0, listener.getDropped());
+		listener.close();
+	}
+	
+	public void testDropWhenFull() throws InterruptedException {
+		
+		final CountDownLatch release = new CountDownLatch(1);
+		AsynchronousEventListener listener = new AsynchronousEventListener((evt) -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+			}
+		}, 16, OverflowPolicy.DROP);
+		
+		for(int i = 0; i < 100; i++) {
+			listener.processEvent(new Event(this, i, true));
+		}
+		assertTrue(listener.getDropped() >= 100 - 17);
+		assertTrue(listener.getMaximumLag() <= 16);
+		release.countDown();
+		listener.close();
+	}
+	
+	public void testBlockDeliversEverything() throws InterruptedException {
+		
+		final CountDownLatch done = new CountDownLatch(10000);
+		AsynchronousEventListener listener = new AsynchronousEventListener((evt) -> done.countDown(), 
+				16, OverflowPolicy.BLOCK);
+		
+		for(int i = 0; i < 10000; i++) {
+			listener.processEvent(new Event(this, i, true));
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(0, listener.getDropped());
+		assertEquals(10000, listener.getDelivered());
+		listener.close();
+	}
+	
+	public void testSampleWhenNearlyFull() throws InterruptedException {
+		
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		AsynchronousEventListener listener = new AsynchronousEventListener((evt) -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+			}
+		}, 64, OverflowPolicy.SAMPLE);
+		listener.setSampleRate(4);
+		
+		listener.processEvent(new Event(this, -1, true));
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		for(int i = 0; i < 48; i++) {
+			listener.processEvent(new Event(this, i, true));
+		}
+		assertEquals(0, listener.getDropped());
+		for(int i = 0; i < 8; i++) {
+			listener.processEvent(new Event(this, i, true));
+		}
+		assertEquals(6, listener.getDropped());
+		release.countDown();
+		listener.close();
+	}
+	
+	public void testNotQueuedWhenVetoed() throws InterruptedException {
+		
+		final CountDownLatch delivered = new CountDownLatch(2);
+		AsynchronousEventListener listener = new AsynchronousEventListener((evt) -> delivered.countDown(), 
+				16, OverflowPolicy.BLOCK);
+		EventListener veto = (evt) -> {
+			if(evt.getId()==1) {
+				throw new EventException("Vetoed");
+			}
+		};
+		
+		EventServiceImplementation.getInstance().addListener(veto);
+		EventServiceImplementation.getInstance().addListener(listener);
+		try {
+			try {
+				EventServiceImplementation.getInstance().fireEvent(new Event(this, 1, true));
+				fail("Event should have been vetoed");
+			} catch(EventException e) {
+			}
+			EventServiceImplementation.getInstance().fireEvent(new Event(this, 2, true));
+			
+			assertFalse(delivered.await(500, TimeUnit.MILLISECONDS));
+			assertEquals(1, listener.getDelivered());
+		} finally {
+			EventServiceImplementation.getInstance().removeListener(veto);
+			EventServiceImplementation.getInstance().removeListener(listener);
+			listener.close();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.files.memory.InMemoryAbstractFileFactory;
+import com.sshtools.common.files.memory.InMemoryFileSystem;
+import com.sshtools.common.sftp.extensions.CheckFileHasher;
+
+import junit.framework.TestCase;
+
+public class CheckFileHasherTests extends TestCase {
+
+	CheckFileHasher hasher = new CheckFileHasher(4);
+	byte[] data = new byte[1024 * 1024 + 123];
+	File dir;
+	
+	@Override
+	protected void setUp() throws Exception {
+		new Random(1).nextBytes(data);
+		dir = Files.createTempDirectory("checkfile").toFile();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		hasher.shutdown();
+		for(File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+	
+	private AbstractFile createFile(AbstractFile file, byte[] data) throws IOException {
+		try(OutputStream out = file.getOutputStream()) {
+			out.write(data);
+		}
+		return file;
+	}
+	
+	private byte[] expected(String algorithm, long offset, long length, int blockSize) throws Exception {
+		MessageDigest md = MessageDigest.getInstance(algorithm);
+		long end = length == 0 ? data.length : Math.min(data.length, offset + length);
+		byte[] result = new byte[0];
+		long block = blockSize == 0 ? end - offset : blockSize;
+		for(long pos = offset; pos < end || (pos == offset && end == offset); pos += Math.max(1, block)) {
+			md.update(data, (int) pos, (int) Math.min(block, end - pos));
+			byte[] hash = md.digest();
+			byte[] tmp = Arrays.copyOf(result, result.length + hash.length);
+			System.arraycopy(hash, 0, tmp, result.length, hash.length);
+			result = tmp;
+		}
+		return result;
+	}
+	
+	public void testBlockHashesWithFileChannel() throws Exception {
+		
+		AbstractFile file = createFile(new DirectFileFactory(dir).getFile("test.bin"), data);
+		
+		assertTrue(Arrays.equals(expected("SHA-256", 0, 0, 65536), hasher.hash(file, "test", "sha256", 0, 0, 65536, Integer.MAX_VALUE)));
+		assertTrue(Arrays.equals(expected("SHA-512", 1000, 300000, 4096), hasher.hash(file, "test", "sha512", 1000, 300000, 4096, Integer.MAX_VALUE)));
+		assertTrue(Arrays.equals(expected("SHA-256", 0, 0, 0), hasher.hash(file, "test", "sha256", 0, 0, 0, Integer.MAX_VALUE)));
+	}
+	
+	public void testBlockHashesWithRandomAccess() throws Exception {
+		
+		AbstractFile file = createFile(new InMemoryAbstractFileFactory(new InMemoryFileSystem()).getFile("/test.bin"), data);
+		
+		assertTrue(Arrays.equals(expected("SHA-256", 0, 0, 65536), hasher.hash(file, "test", "sha256", 0, 0, 65536, Integer.MAX_VALUE)));
+		assertTrue(Arrays.equals(expected("SHA-1", 77, 0, 256), hasher.hash(file, "test", "sha1", 77, 0, 256, Integer.MAX_VALUE)));
+	}
+	
+	public void testCacheIsInvalidatedByChange() throws Exception {
+		
+		AbstractFile file = createFile(new DirectFileFactory(dir).getFile("test.bin"), data);
+		byte[] first = hasher.hash(file, "test", "sha256", 0, 0, 65536, Integer.MAX_VALUE);
+		assertSame(first, hasher.hash(file, "test", "sha256", 0, 0, 65536, Integer.MAX_VALUE));
+		
+		data = Arrays.copyOf(data, data.length + 1);
+		createFile(file, data);
+		file.refresh();
+		assertTrue(Arrays.equals(expected("SHA-256", 0, 0, 65536), hasher.hash(file, "test", "sha256", 0, 0, 65536, Integer.MAX_VALUE)));
+	}
+	
+	public void testAlgorithmSelection() {
+		assertEquals("sha512", hasher.selectAlgorithm("crc32,sha512,sha256"));
+		assertNull(hasher.selectAlgorithm("crc32,whirlpool"));
+	}
+	
+	public void testLimits() throws Exception {
+		
+		AbstractFile file = createFile(new DirectFileFactory(dir).getFile("test.bin"), data);
+		try {
+			hasher.hash(file, "test", "sha256", 0, 0, 100, Integer.MAX_VALUE);
+			fail("Block size below the minimum was accepted");
+		} catch(IllegalArgumentException e) {
+		}
+		try {
+			hasher.hash(file, "test", "sha256", 0, 0, 256, 1024);
+			fail("Reply larger than the maximum was accepted");
+		} catch(IOException e) {
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.sftp.DirectoryArchiveInputStream;
+import com.sshtools.common.sftp.DirectoryArchiveOutputStream;
+import com.sshtools.common.util.TarEntry;
+
+import junit.framework.TestCase;
+
+public class DirectoryArchiveTests extends TestCase {
+
+	public void testLongNameAndSize() throws IOException {
+		
+		StringBuilder name = new StringBuilder();
+		for(int i = 0; i < 20; i++) {
+			name.append("directory/");
+		}
+		name.append("file.txt");
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(new TarEntry(name.toString(), 0x1FFFFFFFFL, 0644, 1500000000L, false).toHeader());
+		
+		TarEntry entry = TarEntry.read(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(name.toString(), entry.getName());
+		assertEquals(0x1FFFFFFFFL, entry.getSize());
+		assertEquals(0644, entry.getMode());
+		assertEquals(1500000000L, entry.getLastModified());
+		assertFalse(entry.isDirectory());
+	}
+	
+	public void testArchiveTree() throws IOException, PermissionDeniedException {
+		
+		File root = Files.createTempDirectory("archive").toFile();
+		try {
+			Random r = new Random(7);
+			Map<String,byte[]> expected = new HashMap<String,byte[]>();
+			for(int i = 0; i < 10; i++) {
+				File dir = new File(root, "dir" + (i % 3));
+				dir.mkdirs();
+				byte[] data = new byte[r.nextInt(2000)];
+				r.nextBytes(data);
+				Files.write(new File(dir, "file" + i).toPath(), data);
+				expected.put("dir" + (i % 3) + "/file" + i, data);
+			}
+			new File(root, "empty").mkdirs();
+			
+			DirectFileFactory factory = new DirectFileFactory(root);
+			Map<String,byte[]> actual = new HashMap<String,byte[]>();
+			int directories = 0;
+			
+			try(InputStream in = new DirectoryArchiveInputStream(factory.getFile(root.getAbsolutePath()))) {
+				TarEntry entry;
+				while((entry = TarEntry.read(in)) != null) {
+					if(entry.isDirectory()) {
+						directories++;
+						continue;
+					}
+					byte[] data = new byte[(int) entry.getSize()];
+					int count = 0;
+					while(count < data.length) {
+						count += in.read(data, count, data.length - count);
+					}
+					TarEntry.skip(in, TarEntry.getPadding(data.length));
+					actual.put(entry.getName(), data);
+				}
+			}
+			
+			assertEquals(4, directories);
+			assertEquals(expected.size(), actual.size());
+			for(Map.Entry<String,byte[]> e : expected.entrySet()) {
+				assertTrue(e.getKey(), Arrays.equals(e.getValue(), actual.get(e.getKey())));
+			}
+		} finally {
+			for(File dir : root.listFiles()) {
+				for(File f : dir.listFiles()) {
+					f.delete();
+				}
+				dir.delete();
+			}
+			root.delete();
+		}
+	}
+	
+	public void testExtractArchive() throws IOException, PermissionDeniedException {
+		
+		File root = Files.createTempDirectory("extract").toFile();
+		try {
+			ByteArrayOutputStream archive = new ByteArrayOutputStream();
+			archive.write(new TarEntry("dir", 0, 0755, 1500000000L, true).toHeader());
+			archive.write(new TarEntry("dir/file", 5, 0644, 1500000000L, false).toHeader());
+			archive.write("hello".getBytes());
+			archive.write(new byte[TarEntry.getPadding(5)]);
+			archive.write(new TarEntry("../escape", 5, 0644, 1500000000L, false).toHeader());
+			archive.write("wrong".getBytes());
+			archive.write(new byte[TarEntry.getPadding(5)]);
+			archive.write(new byte[TarEntry.BLOCK_SIZE * 2]);
+			
+			DirectFileFactory factory = new DirectFileFactory(root);
+			DirectoryArchiveOutputStream out = new DirectoryArchiveOutputStream(factory.getFile(root.getAbsolutePath()));
+			byte[] data = archive.toByteArray();
+			for(int i = 0; i < data.length; i += 100) {
+				out.write(data, i, Math.min(100, data.length - i));
+			}
+			
+			assertTrue(out.isComplete());
+			assertEquals(1, out.getFileCount());
+			assertEquals(1, out.getDirectoryCount());
+			assertEquals(1, out.getFailures().size());
+			assertEquals("../escape", out.getFailures().get(0).getPath());
+			assertEquals("hello", new String(Files.readAllBytes(new File(root, "dir/file").toPath())));
+			assertFalse(new File(root.getParentFile(), "escape").exists());
+			out.close();
+		} finally {
+			new File(root, "dir/file").delete();
+			new File(root, "dir").delete();
+			root.delete();
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.common.logger.FileLoggingContext;
+import com.sshtools.common.logger.Log.Level;
+
+import junit.framework.TestCase;
+
+public class FileLoggingContextTests extends TestCase {
+
+	public void testAsynchronousLogging() throws IOException, InterruptedException {
+		
+		File file = File.createTempFile("async", ".log");
+		try {
+			FileLoggingContext ctx = new FileLoggingContext(Level.DEBUG, file, 2, 1024 * 1024 * 10, true);
+			assertTrue(ctx.isAsynchronous());
+			assertFalse(ctx.isLogging(Level.TRACE));
+			
+			Thread[] threads = new Thread[4];
+			for(int i = 0; i < threads.length; i++) {
+				final int n = i;
+				threads[i] = new Thread(() -> {
+					for(int j = 0; j < 5000; j++) {
+						ctx.log(Level.DEBUG, "thread=%d message=%d", null, n, j);
+					}
+				}, "logger-" + i);
+				threads[i].start();
+			}
+			for(Thread t : threads) {
+				t.join();
+			}
+			ctx.close();
+			
+			List<String> lines = Files.readAllLines(file.toPath());
+			assertEquals(20001, lines.size());
+			int[] next = new int[threads.length];
+			for(String line : lines.subList(1, lines.size())) {
+				String msg = line.substring(line.indexOf("thread="));
+				int n = Integer.parseInt(msg.substring(7, msg.indexOf(' ')));
+				assertEquals("thread=" + n + " message=" + next[n]++, msg);
+				assertTrue(line.contains("[" + String.format("%20s", "logger-" + n) + "]"));
+			}
+		} finally {
+			file.delete();
+		}
+	}
+	
+	public void testArgumentsAreCapturedWhenLogged() throws IOException {
+		
+		File file = File.createTempFile("args", ".log");
+		try {
+			FileLoggingContext ctx = new FileLoggingContext(Level.DEBUG, file, 2, 1024 * 1024, true);
+			StringBuilder value = new StringBuilder("before");
+			AtomicLong count = new AtomicLong(1);
+			for(int i = 0; i < 1000; i++) {
+				ctx.log(Level.DEBUG, "value=%s count=%s", null, value, count);
+			}
+			value.setLength(0);
+			value.append("after");
+			count.set(2);
+			ctx.close();
+			
+			List<String> lines = Files.readAllLines(file.toPath());
+			assertEquals(1001, lines.size());
+			for(String line : lines.subList(1, lines.size())) {
+				assertTrue(line, line.endsWith("value=before count=1"));
+			}
+		} finally {
+			file.delete();
+		}
+	}
+	
+	public void testWriterLoggingToFullQueue() throws IOException, InterruptedException {
+		
+		File file = File.createTempFile("writer", ".log");
+		try {
+			final FileLoggingContext ctx = new FileLoggingContext(Level.DEBUG, file, 2, 1024 * 1024 * 10, true);
+			
+			/* The stack trace is formatted on the writer thread, which then logs more than the queue holds */
+			@SuppressWarnings("serial")
+			Exception e = new Exception() {
+				boolean logged;
+				@Override
+				public String getMessage() {
+					if(!logged) {
+						logged = true;
+						for(int i = 0; i < 10000; i++) {
+							ctx.log(Level.DEBUG, "nested=%d", null, i);
+						}
+					}
+					return "failure";
+				}
+			};
+			ctx.log(Level.DEBUG, "outer", e);
+			
+			long nested = 0;
+			long timeout = System.currentTimeMillis() + 30000;
+			while(nested < 10000 && System.currentTimeMillis() < timeout) {
+				Thread.sleep(100);
+				nested = Files.readAllLines(file.toPath()).stream().filter((line) -> line.contains("nested=")).count();
+			}
+			ctx.close();
+			assertEquals("The writer thread blocked on its own queue", 10000, nested);
+		} finally {
+			file.delete();
+		}
+	}
+	
+	public void testLevelChange() throws IOException {
+		
+		File file = File.createTempFile("level", ".log");
+		try {
+			FileLoggingContext ctx = new FileLoggingContext(Level.INFO, file, 2, 1024 * 1024, true);
+			assertFalse(ctx.isLogging(Level.DEBUG));
+			ctx.setLevel(Level.DEBUG);
+			assertTrue(ctx.isLogging(Level.DEBUG));
+			ctx.close();
+		} finally {
+			file.delete();
+		}
+	}
+}
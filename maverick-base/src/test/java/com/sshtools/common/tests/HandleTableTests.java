@@ -0,0 +1,125 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.util.Arrays;
+
+import com.sshtools.common.sftp.HandleTable;
+
+import junit.framework.TestCase;
+
+public class HandleTableTests extends TestCase {
+
+	public void testAllocateAndGet() {
+		
+		HandleTable<String> table = new HandleTable<String>(1);
+		byte[] h1 = table.allocate("one");
+		byte[] h2 = table.allocate("two");
+		
+		assertEquals(HandleTable.HANDLE_LENGTH, h1.length);
+		assertFalse(Arrays.equals(h1, h2));
+		assertEquals("one", table.get(h1));
+		assertEquals("two", table.get(h2));
+		assertEquals(2, table.size());
+	}
+	
+	public void testStaleHandleIsRejected() {
+		
+		HandleTable<String> table = new HandleTable<String>(1);
+		byte[] h1 = table.allocate("one");
+		assertEquals("one", table.remove(h1));
+		
+		byte[] h2 = table.allocate("two");
+		assertFalse(Arrays.equals(h1, h2));
+		assertNull(table.get(h1));
+		assertNull(table.remove(h1));
+		assertEquals("two", table.get(h2));
+	}
+	
+	public void testInvalidHandles() {
+		
+		HandleTable<String> table = new HandleTable<String>(1);
+		HandleTable<String> other = new HandleTable<String>(2);
+		
+		byte[] h = other.allocate("other");
+		assertNull(table.get(h));
+		assertNull(table.get(null));
+		assertNull(table.get(new byte[0]));
+		assertNull(table.get("7c9e6679-7425-40de-944b-e07fc1f90ae7".getBytes()));
+	}
+	
+	public void testGrowth() {
+		
+		HandleTable<Integer> table = new HandleTable<Integer>(1, 2);
+		byte[][] handles = new byte[100][];
+		for(int i=0;i<handles.length;i++) {
+			handles[i] = table.allocate(i);
+		}
+		for(int i=0;i<handles.length;i++) {
+			assertEquals(Integer.valueOf(i), table.get(handles[i]));
+		}
+		table.clear();
+		assertTrue(table.isEmpty());
+		assertNull(table.get(handles[50]));
+	}
+	
+	public void testMirror() {
+		
+		HandleTable<String> table = new HandleTable<String>(1);
+		HandleTable<String> mirror = new HandleTable<String>(1);
+		
+		table.allocate("zero");
+		byte[] h = table.allocate("one");
+		mirror.put(h, "mirrored");
+		
+		assertEquals("mirrored", mirror.get(h));
+		assertEquals(1, mirror.size());
+		assertEquals("mirrored", mirror.remove(h));
+		assertTrue(mirror.isEmpty());
+		
+		table.remove(h);
+		byte[] h2 = table.allocate("two");
+		mirror.put(h2, "again");
+		assertNull(mirror.get(h));
+		assertEquals("again", mirror.get(h2));
+	}
+	
+	public void testForeignHandles() {
+		
+		HandleTable<String> table = new HandleTable<String>(1);
+		byte[] h1 = table.allocate("one");
+		byte[] legacy = "7c9e6679-7425-40de-944b-e07fc1f90ae7".getBytes();
+		table.put(legacy, "legacy");
+		
+		assertEquals("legacy", table.get(legacy.clone()));
+		assertTrue(table.contains(legacy));
+		assertEquals("one", table.get(h1));
+		assertEquals(2, table.size());
+		assertEquals(2, table.values().size());
+		
+		assertEquals("legacy", table.remove(legacy));
+		assertNull(table.get(legacy));
+		assertEquals(1, table.size());
+		
+		table.put(legacy, "legacy");
+		table.clear();
+		assertTrue(table.isEmpty());
+		assertNull(table.get(legacy));
+	}
+}
@@ -20,6 +20,8 @@ package com.sshtools.common.tests;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 import com.sshtools.common.util.IOUtils;
 
@@ -106,4 +108,24 @@ public class IOUtilTests extends TestCase {
 		assertFalse(new File("tmp/test.7.log").exists());
 		
 	}
+	
+	public void testTransferRange() throws IOException {
+		File parent = new File("tmp");
+		IOUtils.delTree(parent);
+		parent.mkdirs();
+		
+		File from = new File("tmp/from.txt");
+		File to = new File("tmp/to.txt");
+		IOUtils.writeUTF8StringToFile(from, "0123456789");
+		IOUtils.writeUTF8StringToFile(to, "abcdefghij");
+		
+		try(FileChannel in = FileChannel.open(from.toPath(), StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(to.toPath(), StandardOpenOption.WRITE)) {
+			assertEquals(4, IOUtils.transfer(in, 2, 4, out, 5));
+			assertEquals(2, IOUtils.transfer(in, 8, 100, out, 0));
+			assertEquals(0, in.position());
+		}
+		
+		assertExistsAndHasContent(to, "89cde2345j");
+	}
 }
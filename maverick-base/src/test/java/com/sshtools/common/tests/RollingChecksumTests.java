@@ -0,0 +1,55 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.util.Random;
+
+import com.sshtools.common.util.RollingChecksum;
+
+import junit.framework.TestCase;
+
+public class RollingChecksumTests extends TestCase {
+
+	public void testRollMatchesRecalculation() {
+		
+		byte[] data = new byte[8192];
+		new Random(3).nextBytes(data);
+		int window = 700;
+		
+		RollingChecksum c = new RollingChecksum();
+		c.reset(data, 0, window);
+		for(int i = 1; i + window <= data.length; i++) {
+			c.roll(data[i - 1], data[i + window - 1]);
+			assertEquals(RollingChecksum.checksum(data, i, window), c.getValue());
+		}
+	}
+	
+	public void testIncrementalUpdate() {
+		
+		byte[] data = new byte[100000];
+		new Random(4).nextBytes(data);
+		
+		RollingChecksum c = new RollingChecksum();
+		c.reset();
+		for(int off = 0; off < data.length; off += 999) {
+			c.update(data, off, Math.min(999, data.length - off));
+		}
+		assertEquals(RollingChecksum.checksum(data, 0, data.length), c.getValue());
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import com.sshtools.common.sftp.SftpAdmissionControl;
+
+import junit.framework.TestCase;
+
+public class SftpAdmissionControlTests extends TestCase {
+
+	public void testRequestLimit() {
+		
+		SftpAdmissionControl control = new SftpAdmissionControl(2, 0);
+		assertTrue(control.tryAcquire(100));
+		assertTrue(control.tryAcquire(100));
+		assertFalse(control.tryAcquire(100));
+		
+		control.release(100);
+		assertTrue(control.tryAcquire(100));
+		assertEquals(2, control.getRequests());
+	}
+	
+	public void testReservedBytesLimit() {
+		
+		SftpAdmissionControl control = new SftpAdmissionControl(0, 1000);
+		assertTrue(control.tryAcquire(600));
+		assertFalse(control.tryAcquire(600));
+		assertTrue(control.tryAcquire(400));
+		assertEquals(1000, control.getReservedBytes());
+	}
+	
+	public void testLargeRequestAdmittedWhenIdle() {
+		
+		SftpAdmissionControl control = new SftpAdmissionControl(10, 1000);
+		assertTrue(control.tryAcquire(5000));
+		assertFalse(control.tryAcquire(1));
+		control.release(5000);
+		assertEquals(0, control.getReservedBytes());
+	}
+	
+	public void testSharedLimit() {
+		
+		SftpAdmissionControl global = new SftpAdmissionControl(3, 0);
+		SftpAdmissionControl session1 = new SftpAdmissionControl(2, 0, global);
+		SftpAdmissionControl session2 = new SftpAdmissionControl(2, 0, global);
+		
+		assertTrue(session1.tryAcquire(10));
+		assertTrue(session1.tryAcquire(10));
+		assertTrue(session2.tryAcquire(10));
+		assertFalse(session2.tryAcquire(10));
+		assertEquals(1, session2.getRequests());
+		assertEquals(3, global.getRequests());
+		
+		session1.release(10);
+		assertTrue(session2.tryAcquire(10));
+		assertEquals(3, global.getRequests());
+	}
+	
+	public void testIdleSessionAdmittedWhenSharedLimitReached() {
+		
+		SftpAdmissionControl global = new SftpAdmissionControl(2, 0);
+		SftpAdmissionControl session1 = new SftpAdmissionControl(10, 0, global);
+		SftpAdmissionControl session2 = new SftpAdmissionControl(10, 0, global);
+		
+		assertTrue(session1.tryAcquire(10));
+		assertTrue(session1.tryAcquire(10));
+		assertFalse(session1.tryAcquire(10));
+		
+		/**
+		 * session2 has nothing in flight so nothing would wake it if it were refused
+		 */
+		assertTrue(session2.tryAcquire(10));
+		assertEquals(3, global.getRequests());
+		assertFalse(session2.tryAcquire(10));
+		assertEquals(1, session2.getRequests());
+		
+		session2.release(10);
+		session1.release(10);
+		session1.release(10);
+		assertEquals(0, global.getRequests());
+		assertTrue(session2.tryAcquire(10));
+		assertTrue(session2.tryAcquire(10));
+		assertEquals(2, global.getRequests());
+	}
+}
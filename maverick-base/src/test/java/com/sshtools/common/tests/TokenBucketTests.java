@@ -0,0 +1,77 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import com.sshtools.common.policy.BandwidthLimit;
+import com.sshtools.common.policy.BandwidthPolicy;
+import com.sshtools.common.policy.TokenBucket;
+
+import junit.framework.TestCase;
+
+public class TokenBucketTests extends TestCase {
+
+	static final long SECOND = 1000000000L;
+	
+	public void testUnlimited() {
+		
+		TokenBucket bucket = new TokenBucket(new BandwidthLimit());
+		assertEquals(0, bucket.consume(Long.MAX_VALUE / 2, 0));
+		assertEquals(0, bucket.getDelay(0));
+	}
+	
+	public void testBurstThenDebt() {
+		
+		TokenBucket bucket = new TokenBucket(new BandwidthLimit(1000));
+		assertEquals(0, bucket.consume(1000, 0));
+		assertEquals(SECOND / 2, bucket.consume(500, 0));
+		assertEquals(SECOND / 4, bucket.getDelay(SECOND / 4));
+		assertEquals(0, bucket.getDelay(SECOND));
+	}
+	
+	public void testRefillIsCappedAtBurst() {
+		
+		BandwidthLimit limit = new BandwidthLimit(1000);
+		limit.setBurst(100);
+		TokenBucket bucket = new TokenBucket(limit);
+		bucket.consume(100, 0);
+		assertEquals(SECOND, bucket.consume(1100, 100 * SECOND));
+	}
+	
+	public void testRuntimeChange() {
+		
+		BandwidthLimit limit = new BandwidthLimit(1000);
+		TokenBucket bucket = new TokenBucket(limit);
+		bucket.consume(3000, 0);
+		assertEquals(2 * SECOND, bucket.getDelay(0));
+		limit.setBytesPerSecond(2000);
+		assertEquals(SECOND, bucket.getDelay(0));
+		limit.setBytesPerSecond(0);
+		assertEquals(0, bucket.getDelay(0));
+	}
+	
+	public void testMostRestrictiveBucketWins() {
+		
+		TokenBucket[] buckets = new TokenBucket[] { 
+				new TokenBucket(new BandwidthLimit(1000)),
+				new TokenBucket(new BandwidthLimit(100)),
+				new TokenBucket(new BandwidthLimit()) };
+		long delay = BandwidthPolicy.consume(buckets, 1100);
+		assertTrue(delay > 9 * SECOND && delay <= 10 * SECOND);
+	}
+}
@@ -27,6 +27,8 @@ import java.util.Random;
 
 import com.sshtools.client.sftp.SftpClient;
 import com.sshtools.client.sftp.TransferCancelledException;
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.client.tasks.TransferStatistics;
 import com.sshtools.common.permissions.PermissionDeniedException;
 import com.sshtools.common.sftp.SftpStatusException;
 import com.sshtools.common.ssh.ChannelOpenException;
@@ -175,26 +177,25 @@ public class SshReporter {
 		
 		sftp.lcd(System.getProperty("user.dir"));
 		
+        StatisticsProgress progress = new StatisticsProgress();
+        
         System.out.println("Uploading " + size + " File");
         long started = System.currentTimeMillis();
-        sftp.put(filename);
+        sftp.put(filename, progress);
         long ended = System.currentTimeMillis();
         System.out.println("Upload took " + ((double)(ended-started)/ 1000) + " seconds");
         
-        System.out.println("Optimized Block: " + System.getProperty("maverick.write.optimizedBlock"));
-        System.out.println("Round Trip: " + System.getProperty("maverick.write.blockRoundtrip"));
+        progress.report();
         
         System.out.println("Downloading " + size + " File");
         started = System.currentTimeMillis();
-        sftp.get(filename);
+        sftp.get(filename, progress);
         ended = System.currentTimeMillis();
         System.out.println("Download took " + ((double)(ended-started)/ 1000) + " seconds");
 		
         ssh.disconnect();
         
-        System.out.println("Optimized Block: " + System.getProperty("maverick.read.optimizedBlock"));
-        System.out.println("Final Block: " + System.getProperty("maverick.read.finalBlock"));
-        System.out.println("Round Trip: " + System.getProperty("maverick.read.blockRoundtrip"));
+        progress.report();
         
         System.out.println("#####");
 	}
@@ -225,4 +226,40 @@ public class SshReporter {
 		System.out.println(String.format("Compression : %s,%s", cfg.getCompressionInUseCS(), cfg.getCompressionInUseSC()));
         System.out.println("#####");
 	}
+	
+	static class StatisticsProgress implements FileTransferProgress {
+
+		TransferStatistics stats;
+		
+		@Override
+		public void started(long bytesTotal, String remoteFile) {
+			stats = null;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public void progressed(long bytesSoFar) {
+		}
+
+		@Override
+		public void completed() {
+		}
+		
+		@Override
+		public void statistics(TransferStatistics stats) {
+			this.stats = stats;
+		}
+		
+		void report() {
+			if(stats!=null) {
+				System.out.println("Block Size: " + stats.getBlockSize());
+				System.out.println("Outstanding Requests: " + stats.getOutstandingRequests());
+				System.out.println("Round Trip: " + stats.getRoundTripTime() + "us");
+			}
+		}
+	}
 }
@@ -0,0 +1,277 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import com.sshtools.client.tasks.TransferStatistics;
+
+/**
+ * Adapts the number of outstanding requests and the block size of a transfer to the
+ * network while it runs. The number of requests grows quickly at first and then by
+ * about one request per round trip for as long as the round trip time stays close to
+ * the lowest seen. When requests start to queue, so that the round trip time rises
+ * well above the lowest, the number of requests is cut back. Once the maximum number of
+ * requests is reached without queuing the block size is doubled, up to the largest the
+ * server accepts.
+ * 
+ * <p>
+ * An instance configured on {@link SftpClient#setAdaptivePipeline(AdaptivePipeline)}
+ * holds the bounds; each transfer works on its own copy.
+ * </p>
+ */
+public class AdaptivePipeline implements TransferStatistics {
+
+	int minimumRequests = 2;
+	int maximumRequests = 256;
+	int initialRequests = 4;
+	int minimumBlockSize = 4096;
+	int maximumBlockSize = 0;
+	int initialBlockSize = 0;
+	double queueingFactor = 2.0D;
+	long queueingAllowance = 2000;
+	
+	double requests;
+	int blockSize;
+	boolean slowStart = true;
+	long minimumRoundTrip = Long.MAX_VALUE;
+	long smoothedRoundTrip;
+	long bytesTransferred;
+	long started;
+	int completedSinceDecrease;
+	
+	public AdaptivePipeline() {
+	}
+	
+	/**
+	 * Create a pipeline for a new transfer with the bounds of another.
+	 * 
+	 * @param other
+	 */
+	public AdaptivePipeline(AdaptivePipeline other) {
+		this.minimumRequests = other.minimumRequests;
+		this.maximumRequests = other.maximumRequests;
+		this.initialRequests = other.initialRequests;
+		this.minimumBlockSize = other.minimumBlockSize;
+		this.maximumBlockSize = other.maximumBlockSize;
+		this.initialBlockSize = other.initialBlockSize;
+		this.queueingFactor = other.queueingFactor;
+		this.queueingAllowance = other.queueingAllowance;
+	}
+	
+	public int getMinimumRequests() {
+		return minimumRequests;
+	}
+
+	public void setMinimumRequests(int minimumRequests) {
+		this.minimumRequests = Math.max(1, minimumRequests);
+	}
+
+	public int getMaximumRequests() {
+		return maximumRequests;
+	}
+
+	public void setMaximumRequests(int maximumRequests) {
+		this.maximumRequests = Math.max(1, maximumRequests);
+	}
+
+	public int getInitialRequests() {
+		return initialRequests;
+	}
+
+	public void setInitialRequests(int initialRequests) {
+		this.initialRequests = initialRequests;
+	}
+
+	public int getMinimumBlockSize() {
+		return minimumBlockSize;
+	}
+
+	public void setMinimumBlockSize(int minimumBlockSize) {
+		this.minimumBlockSize = minimumBlockSize;
+	}
+
+	/**
+	 * The largest block size to use. This is further limited by what the server accepts.
+	 * 
+	 * @return the block size, or zero to use the largest the server accepts.
+	 */
+	public int getMaximumBlockSize() {
+		return maximumBlockSize;
+	}
+
+	public void setMaximumBlockSize(int maximumBlockSize) {
+		this.maximumBlockSize = maximumBlockSize;
+	}
+
+	/**
+	 * The block size to start with.
+	 * 
+	 * @return the block size, or zero to start at a quarter of the maximum.
+	 */
+	public int getInitialBlockSize() {
+		return initialBlockSize;
+	}
+
+	public void setInitialBlockSize(int initialBlockSize) {
+		this.initialBlockSize = initialBlockSize;
+	}
+
+	/**
+	 * How many times the lowest round trip time a round trip may take before requests
+	 * are considered to be queuing.
+	 * 
+	 * @return double
+	 */
+	public double getQueueingFactor() {
+		return queueingFactor;
+	}
+
+	public void setQueueingFactor(double queueingFactor) {
+		this.queueingFactor = queueingFactor;
+	}
+
+	/**
+	 * The number of microseconds a round trip may exceed the lowest by before requests are
+	 * considered to be queuing. This stops the jitter on very fast links from being taken 
+	 * as queuing.
+	 * 
+	 * @return long
+	 */
+	public long getQueueingAllowance() {
+		return queueingAllowance;
+	}
+
+	public void setQueueingAllowance(long queueingAllowance) {
+		this.queueingAllowance = queueingAllowance;
+	}
+
+	/**
+	 * Start a transfer.
+	 * 
+	 * @param largestBlockSize the largest block the server accepts
+	 */
+	void start(int largestBlockSize) {
+		if(maximumBlockSize <= 0 || maximumBlockSize > largestBlockSize) {
+			maximumBlockSize = largestBlockSize;
+		}
+		if(minimumBlockSize > maximumBlockSize) {
+			minimumBlockSize = maximumBlockSize;
+		}
+		if(minimumRequests > maximumRequests) {
+			minimumRequests = maximumRequests;
+		}
+		blockSize = initialBlockSize > 0 ? initialBlockSize : maximumBlockSize / 4;
+		blockSize = Math.max(minimumBlockSize, Math.min(maximumBlockSize, blockSize));
+		requests = Math.max(minimumRequests, Math.min(maximumRequests, initialRequests));
+		started = System.nanoTime();
+	}
+	
+	/**
+	 * Record the answer to a request.
+	 * 
+	 * @param roundTrip nanoseconds between posting the request and receiving the answer
+	 * @param bytes the number of bytes transferred by the request
+	 * @return true if the number of requests or block size has changed.
+	 */
+	boolean completed(long roundTrip, int bytes) {
+		
+		long rtt = Math.max(1, roundTrip / 1000);
+		bytesTransferred += bytes;
+		minimumRoundTrip = Math.min(minimumRoundTrip, rtt);
+		smoothedRoundTrip = smoothedRoundTrip == 0 ? rtt : (smoothedRoundTrip * 7 + rtt) / 8;
+		completedSinceDecrease++;
+		
+		int previousRequests = getOutstandingRequests();
+		int previousBlockSize = blockSize;
+		
+		if(rtt > minimumRoundTrip * queueingFactor + queueingAllowance) {
+			// Only back off once for each round of requests
+			if(completedSinceDecrease >= requests) {
+				slowStart = false;
+				completedSinceDecrease = 0;
+				if(requests <= minimumRequests && blockSize > minimumBlockSize) {
+					blockSize = Math.max(minimumBlockSize, blockSize / 2);
+				}
+				requests = Math.max(minimumRequests, requests * 0.7D);
+			}
+		} else if(slowStart) {
+			requests += 1;
+		} else {
+			requests += 1 / requests;
+		}
+		
+		if(requests >= maximumRequests) {
+			requests = maximumRequests;
+			if(blockSize < maximumBlockSize) {
+				blockSize = Math.min(maximumBlockSize, blockSize * 2);
+				requests = Math.max(minimumRequests, requests / 2);
+			}
+		}
+		
+		return previousRequests != getOutstandingRequests() || previousBlockSize != blockSize;
+	}
+	
+	/**
+	 * The server returned less data than was asked for, so never ask for more than this.
+	 * 
+	 * @param largestBlockSize
+	 */
+	void limitBlockSize(int largestBlockSize) {
+		maximumBlockSize = Math.min(maximumBlockSize, largestBlockSize);
+		minimumBlockSize = Math.min(minimumBlockSize, maximumBlockSize);
+		blockSize = Math.min(blockSize, maximumBlockSize);
+	}
+	
+	@Override
+	public int getOutstandingRequests() {
+		return (int) requests;
+	}
+	
+	@Override
+	public int getBlockSize() {
+		return blockSize;
+	}
+	
+	@Override
+	public long getRoundTripTime() {
+		return smoothedRoundTrip;
+	}
+	
+	@Override
+	public long getMinimumRoundTripTime() {
+		return minimumRoundTrip == Long.MAX_VALUE ? 0 : minimumRoundTrip;
+	}
+	
+	@Override
+	public long getBytesTransferred() {
+		return bytesTransferred;
+	}
+	
+	@Override
+	public long getBytesPerSecond() {
+		long elapsed = System.nanoTime() - started;
+		return elapsed <= 0 ? 0 : (long) (bytesTransferred * 1000000000D / elapsed);
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("requests=%d blockSize=%d rtt=%dus minRtt=%dus bytes=%d rate=%d/s",
+				getOutstandingRequests(), blockSize, smoothedRoundTrip, getMinimumRoundTripTime(), 
+				bytesTransferred, getBytesPerSecond());
+	}
+}
@@ -0,0 +1,327 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.util.ByteArrayReader;
+
+/**
+ * A bounded cache of the results of STAT, LSTAT and REALPATH requests, including the
+ * failures of paths that do not exist. Install one with {@link SftpClient#setAttributeCache(AttributeCache)}
+ * and the channel answers repeated requests for the same path from memory until the entry expires.
+ * 
+ * <p>
+ * Entries are invalidated when the same channel creates, writes, renames, removes or changes the
+ * attributes of a path. Changes made by other clients are only seen once an entry expires, and
+ * the size of a file being written is only refreshed when its handle is closed.
+ * </p>
+ */
+public class AttributeCache {
+
+	static final int STAT = 0;
+	static final int LSTAT = 1;
+	static final int REALPATH = 2;
+	static final int MAXIMUM_FAILURES = 1024;
+	
+	static class Entry {
+		final byte[] attrs;
+		final String path;
+		final int status;
+		final String message;
+		final long expires;
+		
+		Entry(byte[] attrs, String path, int status, String message, long expires) {
+			this.attrs = attrs;
+			this.path = path;
+			this.status = status;
+			this.message = message;
+			this.expires = expires;
+		}
+	}
+	
+	static class Key {
+		final int type;
+		final String path;
+		
+		Key(int type, String path) {
+			this.type = type;
+			this.path = path;
+		}
+
+		@Override
+		public int hashCode() {
+			return path.hashCode() * 31 + type;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return type == other.type && path.equals(other.path);
+		}
+	}
+	
+	final int maximumEntries;
+	final long timeToLive;
+	long negativeTimeToLive;
+	final LinkedHashMap<Key,Entry> entries;
+	final LinkedHashMap<Key,Entry> failures;
+	long hits;
+	long misses;
+	
+	/**
+	 * Create a cache.
+	 * 
+	 * @param maximumEntries the number of entries to keep before the least recently used is discarded
+	 * @param timeToLive the number of milliseconds an entry is used for
+	 */
+	public AttributeCache(int maximumEntries, long timeToLive) {
+		this.maximumEntries = maximumEntries;
+		this.timeToLive = timeToLive;
+		this.negativeTimeToLive = timeToLive;
+		this.entries = new LinkedHashMap<Key,Entry>(16, 0.75F, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, AttributeCache.Entry> eldest) {
+				return size() > AttributeCache.this.maximumEntries;
+			}
+		};
+		/* Failures are kept apart so that discarding them all is cheap */
+		this.failures = new LinkedHashMap<Key,Entry>(16, 0.75F, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, AttributeCache.Entry> eldest) {
+				return size() > Math.min(MAXIMUM_FAILURES, AttributeCache.this.maximumEntries);
+			}
+		};
+	}
+	
+	/**
+	 * Create a cache of 10000 entries that live for 5 seconds.
+	 */
+	public AttributeCache() {
+		this(10000, 5000);
+	}
+	
+	/**
+	 * The number of milliseconds that the failure of a path that does not exist is remembered.
+	 * Zero disables negative entries.
+	 * 
+	 * @return long
+	 */
+	public synchronized long getNegativeTimeToLive() {
+		return negativeTimeToLive;
+	}
+
+	public synchronized void setNegativeTimeToLive(long negativeTimeToLive) {
+		this.negativeTimeToLive = negativeTimeToLive;
+	}
+
+	public int getMaximumEntries() {
+		return maximumEntries;
+	}
+
+	public long getTimeToLive() {
+		return timeToLive;
+	}
+	
+	/**
+	 * The number of requests answered from the cache.
+	 * 
+	 * @return long
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * The number of requests that were sent to the server.
+	 * 
+	 * @return long
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	public synchronized int size() {
+		return entries.size() + failures.size();
+	}
+	
+	/**
+	 * Discard every entry.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		failures.clear();
+	}
+	
+	/**
+	 * Get the attributes of a path.
+	 * 
+	 * @return the attributes, or <code>null</code> if there is no entry.
+	 * @throws SftpStatusException if the path is recorded as not existing
+	 */
+	SftpFileAttributes getAttributes(int type, String path, int version, String charsetEncoding) throws SftpStatusException {
+		Entry entry = get(type, path);
+		if(Objects.isNull(entry)) {
+			return null;
+		}
+		try(ByteArrayReader bar = new ByteArrayReader(entry.attrs)) {
+			return new SftpFileAttributes(bar, version, charsetEncoding);
+		} catch (IOException e) {
+			invalidate(path);
+			return null;
+		}
+	}
+	
+	/**
+	 * Get the canonical form of a path.
+	 * 
+	 * @return the path, or <code>null</code> if there is no entry.
+	 * @throws SftpStatusException if the path is recorded as not existing
+	 */
+	String getAbsolutePath(String path) throws SftpStatusException {
+		Entry entry = get(REALPATH, path);
+		return Objects.isNull(entry) ? null : entry.path;
+	}
+	
+	private synchronized Entry get(int type, String path) throws SftpStatusException {
+		Key key = new Key(type, path);
+		Map<Key,Entry> map = entries;
+		Entry entry = entries.get(key);
+		if(Objects.isNull(entry)) {
+			map = failures;
+			entry = failures.get(key);
+		}
+		if(Objects.isNull(entry) || entry.expires < System.currentTimeMillis()) {
+			if(Objects.nonNull(entry)) {
+				map.remove(key);
+			}
+			misses++;
+			return null;
+		}
+		hits++;
+		if(entry.status != SftpStatusException.SSH_FX_OK) {
+			throw new SftpStatusException(entry.status, entry.message);
+		}
+		return entry;
+	}
+	
+	void putAttributes(int type, String path, SftpFileAttributes attrs, int version) {
+		try {
+			put(type, path, new Entry(attrs.toByteArray(version), null, 
+					SftpStatusException.SSH_FX_OK, null, System.currentTimeMillis() + timeToLive));
+		} catch (IOException e) {
+		}
+	}
+	
+	void putAbsolutePath(String path, String absolutePath) {
+		put(REALPATH, path, new Entry(null, absolutePath, 
+				SftpStatusException.SSH_FX_OK, null, System.currentTimeMillis() + timeToLive));
+	}
+	
+	/**
+	 * Record the failure of a request if it shows the path does not exist.
+	 */
+	void putFailure(int type, String path, SftpStatusException e) {
+		if(e.getStatus() != SftpStatusException.SSH_FX_NO_SUCH_FILE 
+				&& e.getStatus() != SftpStatusException.SSH_FX_NO_SUCH_PATH) {
+			return;
+		}
+		long ttl = getNegativeTimeToLive();
+		if(ttl > 0) {
+			// The status text is added again when the exception is recreated
+			String message = e.getMessage();
+			String prefix = SftpStatusException.getStatusText(e.getStatus()) + ": ";
+			if(message.startsWith(prefix)) {
+				message = message.substring(prefix.length());
+			}
+			put(type, path, new Entry(null, null, e.getStatus(), message, System.currentTimeMillis() + ttl));
+		}
+	}
+	
+	private synchronized void put(int type, String path, Entry entry) {
+		Key key = new Key(type, path);
+		if(entry.status == SftpStatusException.SSH_FX_OK) {
+			failures.remove(key);
+			entries.put(key, entry);
+		} else {
+			entries.remove(key);
+			failures.put(key, entry);
+		}
+	}
+	
+	/**
+	 * Discard the entries of a path and of its parent directory, whose modification time 
+	 * and link count change along with it.
+	 */
+	synchronized void invalidate(String path) {
+		if(Objects.isNull(path)) {
+			return;
+		}
+		for(int type = STAT; type <= REALPATH; type++) {
+			entries.remove(new Key(type, path));
+		}
+		String parent = getParent(path);
+		if(Objects.nonNull(parent)) {
+			entries.remove(new Key(STAT, parent));
+			entries.remove(new Key(LSTAT, parent));
+		}
+		// A file that now exists may have been cached as missing through a different path
+		if(!failures.isEmpty()) {
+			failures.clear();
+		}
+	}
+	
+	/**
+	 * Discard the entries of a path and everything beneath it, along with every canonical path
+	 * as these may pass through it.
+	 */
+	synchronized void invalidateTree(String path) {
+		if(Objects.isNull(path)) {
+			return;
+		}
+		invalidate(path);
+		String prefix = path.endsWith("/") ? path : path + "/";
+		for(Iterator<Map.Entry<Key,Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<Key,Entry> e = it.next();
+			if(e.getKey().type == REALPATH || e.getKey().path.startsWith(prefix)) {
+				it.remove();
+			}
+		}
+	}
+	
+	static String getParent(String path) {
+		String p = path.endsWith("/") && path.length() > 1 ? path.substring(0, path.length() - 1) : path;
+		int idx = p.lastIndexOf('/');
+		if(idx == -1) {
+			return p.isEmpty() ? null : "";
+		}
+		return idx == 0 ? "/" : p.substring(0, idx);
+	}
+}
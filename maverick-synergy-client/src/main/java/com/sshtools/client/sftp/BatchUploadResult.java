@@ -0,0 +1,92 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.sshtools.common.sftp.SftpStatusException;
+
+/**
+ * The outcome of a batch upload, reporting how many files were written and
+ * those the server could not create.
+ */
+public class BatchUploadResult {
+
+	int fileCount;
+	int directoryCount;
+	int failureCount;
+	Map<String,SftpStatusException> failures = new LinkedHashMap<String,SftpStatusException>();
+	
+	BatchUploadResult(SftpMessage msg) throws IOException {
+		this.fileCount = (int) msg.readInt();
+		this.directoryCount = (int) msg.readInt();
+		this.failureCount = (int) msg.readInt();
+		int listed = (int) msg.readInt();
+		for(int i = 0; i < listed; i++) {
+			String path = msg.readString();
+			int status = (int) msg.readInt();
+			failures.put(path, new SftpStatusException(status, msg.readString()));
+		}
+	}
+	
+	/**
+	 * The number of files written.
+	 * 
+	 * @return int
+	 */
+	public int getFileCount() {
+		return fileCount;
+	}
+	
+	/**
+	 * The number of directories created, or that already existed.
+	 * 
+	 * @return int
+	 */
+	public int getDirectoryCount() {
+		return directoryCount;
+	}
+	
+	/**
+	 * The number of files and directories that could not be written. This can be more
+	 * than the size of {@link #getFailures()} when there are too many to list in the reply.
+	 * 
+	 * @return int
+	 */
+	public int getFailureCount() {
+		return failureCount;
+	}
+	
+	/**
+	 * The status of each file or directory that could not be written, keyed by its path 
+	 * relative to the remote directory.
+	 * 
+	 * @return Map
+	 */
+	public Map<String,SftpStatusException> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+	
+	public boolean isSuccess() {
+		return failureCount == 0;
+	}
+}
@@ -0,0 +1,358 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.ByteArrayWriter;
+import com.sshtools.common.util.RollingChecksum;
+import com.sshtools.common.util.UnsignedInteger32;
+
+/**
+ * Uploads a new version of a file by sending only the data the server does not already have.
+ * The server returns a rolling checksum and a hash for each block of the existing file, the 
+ * local file is searched for those blocks at every offset, and the new file is assembled in a
+ * separate remote file from copy-data requests for blocks that matched and writes for 
+ * everything else. The requests are pipelined and checked in order.
+ */
+class DeltaUpload {
+
+	static final String BLOCK_CHECKSUMS = "block-checksums";
+	static final String COPY_DATA = "copy-data";
+	static final String ALGORITHMS = "sha256,sha1,md5";
+	
+	static final int MINIMUM_BLOCK_SIZE = 2048;
+	static final int MAXIMUM_BLOCK_SIZE = 131072;
+	static final int MAXIMUM_OUTSTANDING = 64;
+	
+	final SftpChannel sftp;
+	final FileTransferProgress progress;
+	final LinkedList<UnsignedInteger32> outstanding = new LinkedList<UnsignedInteger32>();
+	final RollingChecksum checksum = new RollingChecksum();
+	
+	int blockSize;
+	int blockCount;
+	int lastBlockLength;
+	byte[][] hashes;
+	Map<Integer,List<Integer>> index = new HashMap<Integer,List<Integer>>();
+	MessageDigest digest;
+	
+	byte[] source;
+	byte[] target;
+	
+	long copyFrom = -1;
+	long copyTo;
+	long copyLength;
+	
+	long literalBytes;
+	long matchedBytes;
+	
+	DeltaUpload(SftpChannel sftp, FileTransferProgress progress) {
+		this.sftp = sftp;
+		this.progress = progress;
+	}
+	
+	/**
+	 * Choose a block size of around the square root of the file size, as rsync does, so that
+	 * the number of checksums and the data sent for each changed block stay balanced.
+	 */
+	static int getBlockSize(long length) {
+		int size = ((int) Math.sqrt(length) + 1023) & ~1023;
+		return Math.max(MINIMUM_BLOCK_SIZE, Math.min(MAXIMUM_BLOCK_SIZE, size));
+	}
+	
+	/**
+	 * Write the contents of a local stream to a remote file using the blocks of another remote file.
+	 * 
+	 * @param in the new content
+	 * @param length the length of the new content
+	 * @param remotePath the remote path to report progress against
+	 * @param original the existing remote file, open for reading
+	 * @param originalLength the length of the existing remote file
+	 * @param temp the remote file to write, open for writing and empty
+	 */
+	void upload(InputStream in, long length, String remotePath, SftpFile original, long originalLength, SftpFile temp) 
+			throws IOException, SftpStatusException, SshException, TransferCancelledException {
+		
+		this.source = original.getHandle();
+		this.target = temp.getHandle();
+		
+		if(Objects.nonNull(progress)) {
+			progress.started(length, remotePath);
+		}
+		
+		fetchChecksums(originalLength);
+		
+		byte[] buf = new byte[Math.max(blockSize * 4, 1024 * 1024)];
+		long bufferOffset = 0;
+		int start = 0;
+		int end = 0;
+		int literal = 0;
+		boolean eof = false;
+		boolean rolling = false;
+		
+		while(true) {
+			
+			if(end - start <= blockSize && !eof) {
+				writeLiteral(buf, literal, start - literal, bufferOffset + literal);
+				System.arraycopy(buf, start, buf, 0, end - start);
+				bufferOffset += start;
+				end -= start;
+				start = 0;
+				literal = 0;
+				while(end < buf.length) {
+					int read = in.read(buf, end, buf.length - end);
+					if(read == -1) {
+						eof = true;
+						break;
+					}
+					end += read;
+				}
+				if(Objects.nonNull(progress)) {
+					if(progress.isCancelled()) {
+						throw new TransferCancelledException();
+					}
+					progress.progressed(bufferOffset);
+				}
+				continue;
+			}
+			
+			int window = end - start;
+			if(window < blockSize) {
+				// Only the last block of the original can be shorter than a block
+				if(window > 0 && window == lastBlockLength 
+						&& matches(blockCount - 1, checksum(buf, start, window), buf, start, window)) {
+					writeLiteral(buf, literal, start - literal, bufferOffset + literal);
+					copy(blockCount - 1, bufferOffset + start, window);
+					literal = end;
+				}
+				break;
+			}
+			
+			if(!rolling) {
+				checksum.reset(buf, start, blockSize);
+				rolling = true;
+			}
+			
+			int block = findBlock(checksum.getValue(), buf, start);
+			if(block >= 0) {
+				writeLiteral(buf, literal, start - literal, bufferOffset + literal);
+				copy(block, bufferOffset + start, blockSize);
+				start += blockSize;
+				literal = start;
+				rolling = false;
+			} else if(window > blockSize) {
+				checksum.roll(buf[start], buf[start + blockSize]);
+				start++;
+			} else {
+				// The final block of data has no match
+				break;
+			}
+		}
+		
+		writeLiteral(buf, literal, end - literal, bufferOffset + literal);
+		flushCopy();
+		while(!outstanding.isEmpty()) {
+			sftp.getOKRequestStatus(outstanding.removeFirst());
+		}
+		
+		if(Log.isDebugEnabled()) {
+			Log.debug("Delta upload of %s sent %s bytes and reused %s bytes", remotePath, literalBytes, matchedBytes);
+		}
+		
+		if(Objects.nonNull(progress)) {
+			progress.progressed(length);
+			progress.completed();
+		}
+	}
+	
+	long getLiteralBytes() {
+		return literalBytes;
+	}
+	
+	long getMatchedBytes() {
+		return matchedBytes;
+	}
+	
+	private void fetchChecksums(long originalLength) throws IOException, SftpStatusException, SshException {
+		
+		blockSize = getBlockSize(originalLength);
+		blockCount = (int) ((originalLength + blockSize - 1) / blockSize);
+		lastBlockLength = (int) (originalLength - (long)(blockCount - 1) * blockSize);
+		hashes = new byte[blockCount][];
+		
+		// Assume the largest record so that every reply fits whichever algorithm is chosen
+		int blocksPerRequest = Math.max(1, (sftp.getMaximumReadLength() - 256) / 68);
+		LinkedList<UnsignedInteger32> requests = new LinkedList<UnsignedInteger32>();
+		int requested = 0;
+		int received = 0;
+		
+		while(received < blockCount) {
+			while(requested < blockCount && requests.size() < MAXIMUM_OUTSTANDING) {
+				try(ByteArrayWriter msg = new ByteArrayWriter()) {
+					msg.writeBinaryString(source);
+					msg.writeString(ALGORITHMS);
+					msg.writeUINT64((long) requested * blockSize);
+					msg.writeUINT64((long) Math.min(blocksPerRequest, blockCount - requested) * blockSize);
+					msg.writeInt(blockSize);
+					requests.add(sftp.sendExtensionMessage(BLOCK_CHECKSUMS, msg.toByteArray()));
+				}
+				requested += blocksPerRequest;
+			}
+			
+			if(requests.isEmpty()) {
+				throw new IOException("The remote file changed while its checksums were being read");
+			}
+			
+			SftpMessage reply = sftp.getExtensionResponse(requests.removeFirst());
+			try {
+				reply.readString();
+				String algorithm = reply.readString();
+				if(Objects.isNull(digest)) {
+					digest = RemoteHash.createDigest(algorithm);
+				}
+				int recordLength = 4 + digest.getDigestLength();
+				while(reply.available() >= recordLength && received < blockCount) {
+					int weak = (int) reply.readInt();
+					byte[] hash = new byte[digest.getDigestLength()];
+					reply.read(hash);
+					hashes[received] = hash;
+					List<Integer> blocks = index.get(weak);
+					if(Objects.isNull(blocks)) {
+						blocks = new ArrayList<Integer>(1);
+						index.put(weak, blocks);
+					}
+					blocks.add(received++);
+				}
+			} finally {
+				reply.release();
+			}
+		}
+	}
+	
+	private int checksum(byte[] buf, int off, int len) {
+		return RollingChecksum.checksum(buf, off, len);
+	}
+	
+	private int findBlock(int weak, byte[] buf, int off) {
+		
+		List<Integer> blocks = index.get(weak);
+		if(Objects.isNull(blocks)) {
+			return -1;
+		}
+		
+		digest.reset();
+		digest.update(buf, off, blockSize);
+		byte[] hash = digest.digest();
+		
+		// Prefer the block that follows the last one copied so that the copies can be combined
+		int next = copyFrom < 0 ? -1 : (int) ((copyFrom + copyLength) / blockSize);
+		if(blocks.contains(next) && isFullBlock(next) && MessageDigest.isEqual(hash, hashes[next])) {
+			return next;
+		}
+		for(int block : blocks) {
+			if(isFullBlock(block) && MessageDigest.isEqual(hash, hashes[block])) {
+				return block;
+			}
+		}
+		return -1;
+	}
+	
+	private boolean isFullBlock(int block) {
+		return block >= 0 && (block < blockCount - 1 || lastBlockLength == blockSize);
+	}
+	
+	private boolean matches(int block, int weak, byte[] buf, int off, int len) {
+		List<Integer> blocks = index.get(weak);
+		if(Objects.isNull(blocks) || !blocks.contains(block)) {
+			return false;
+		}
+		digest.reset();
+		digest.update(buf, off, len);
+		return MessageDigest.isEqual(digest.digest(), hashes[block]);
+	}
+	
+	private void copy(int block, long position, int length) throws SftpStatusException, SshException {
+		
+		long from = (long) block * blockSize;
+		matchedBytes += length;
+		
+		if(copyFrom >= 0 && from == copyFrom + copyLength && position == copyTo + copyLength) {
+			copyLength += length;
+			return;
+		}
+		
+		flushCopy();
+		copyFrom = from;
+		copyTo = position;
+		copyLength = length;
+	}
+	
+	private void flushCopy() throws SftpStatusException, SshException {
+		
+		if(copyFrom < 0) {
+			return;
+		}
+		
+		try(ByteArrayWriter msg = new ByteArrayWriter()) {
+			msg.writeBinaryString(source);
+			msg.writeUINT64(copyFrom);
+			msg.writeUINT64(copyLength);
+			msg.writeBinaryString(target);
+			msg.writeUINT64(copyTo);
+			post(sftp.sendExtensionMessage(COPY_DATA, msg.toByteArray()));
+		} catch(IOException e) {
+			throw new SshException(SshException.INTERNAL_ERROR, e);
+		}
+		
+		copyFrom = -1;
+	}
+	
+	private void writeLiteral(byte[] buf, int off, int len, long position) throws SftpStatusException, SshException {
+		
+		int max = sftp.getMaximumWriteLength();
+		literalBytes += len;
+		while(len > 0) {
+			int count = Math.min(max, len);
+			post(sftp.postWriteRequest(target, position, buf, off, count));
+			off += count;
+			len -= count;
+			position += count;
+		}
+	}
+	
+	private void post(UnsignedInteger32 requestId) throws SftpStatusException, SshException {
+		outstanding.add(requestId);
+		if(outstanding.size() > MAXIMUM_OUTSTANDING) {
+			sftp.getOKRequestStatus(outstanding.removeFirst());
+		}
+	}
+}
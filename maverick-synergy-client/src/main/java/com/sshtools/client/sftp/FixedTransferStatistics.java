@@ -0,0 +1,82 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import com.sshtools.client.tasks.TransferStatistics;
+
+/**
+ * The measurements of a transfer whose block size and number of outstanding requests
+ * do not change once the first block has been sent.
+ */
+class FixedTransferStatistics implements TransferStatistics {
+
+	final int outstandingRequests;
+	final int blockSize;
+	final long roundTripTime;
+	final long bytesTransferred;
+	
+	/**
+	 * @param outstandingRequests
+	 * @param blockSize
+	 * @param roundTripTime the time taken for the first block, in microseconds.
+	 * @param bytesTransferred the bytes of the first block.
+	 */
+	FixedTransferStatistics(int outstandingRequests, int blockSize, long roundTripTime, long bytesTransferred) {
+		this.outstandingRequests = outstandingRequests;
+		this.blockSize = blockSize;
+		this.roundTripTime = roundTripTime;
+		this.bytesTransferred = bytesTransferred;
+	}
+	
+	@Override
+	public int getOutstandingRequests() {
+		return outstandingRequests;
+	}
+
+	@Override
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	@Override
+	public long getRoundTripTime() {
+		return roundTripTime;
+	}
+
+	@Override
+	public long getMinimumRoundTripTime() {
+		return roundTripTime;
+	}
+
+	@Override
+	public long getBytesTransferred() {
+		return bytesTransferred;
+	}
+
+	@Override
+	public long getBytesPerSecond() {
+		return roundTripTime > 0 ? bytesTransferred * 1000000L / roundTripTime : 0;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("blockSize=%d outstandingRequests=%d roundTrip=%dus", 
+				blockSize, outstandingRequests, roundTripTime);
+	}
+}
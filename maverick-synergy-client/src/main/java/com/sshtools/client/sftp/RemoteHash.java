@@ -0,0 +1,132 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * The hashes returned by a server that supports the check-file extensions. When a block 
+ * size was requested there is one hash for each block of the range, otherwise a single 
+ * hash of the whole range.
+ */
+public class RemoteHash {
+
+	String algorithm;
+	int blockSize;
+	byte[] hashes;
+	int hashLength;
+	
+	RemoteHash(SftpMessage msg, int blockSize) throws IOException {
+		this.algorithm = msg.readString();
+		this.blockSize = blockSize;
+		this.hashes = new byte[(int) msg.available()];
+		msg.read(hashes);
+		this.hashLength = createDigest().getDigestLength();
+	}
+	
+	/**
+	 * The algorithm the server chose from those requested.
+	 * @return String
+	 */
+	public String getAlgorithm() {
+		return algorithm;
+	}
+	
+	/**
+	 * The size of each block, or zero if the range was hashed as a single block.
+	 * @return int
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+	
+	/**
+	 * The number of hashes returned.
+	 * @return int
+	 */
+	public int getBlockCount() {
+		return hashes.length / hashLength;
+	}
+	
+	/**
+	 * Get the hash of a block.
+	 * 
+	 * @param block
+	 * @return byte[]
+	 */
+	public byte[] getHash(int block) {
+		return Arrays.copyOfRange(hashes, block * hashLength, (block + 1) * hashLength);
+	}
+	
+	/**
+	 * Create a digest for the algorithm the server used so that local data can be compared.
+	 * 
+	 * @return MessageDigest
+	 * @throws IOException
+	 */
+	public MessageDigest createDigest() throws IOException {
+		return createDigest(algorithm);
+	}
+	
+	static MessageDigest createDigest(String algorithm) throws IOException {
+		try {
+			if(algorithm.startsWith("sha")) {
+				return MessageDigest.getInstance("SHA-" + algorithm.substring(3));
+			}
+			return MessageDigest.getInstance(algorithm.toUpperCase());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("Unsupported hash algorithm " + algorithm, e);
+		}
+	}
+	
+	/**
+	 * Compare the hashes with local data that starts at the same offset as the remote range, 
+	 * for example to find the point at which an interrupted transfer can be resumed.
+	 * 
+	 * @param in the local data
+	 * @return the index of the first block that does not match, or -1 if every block matches.
+	 * @throws IOException
+	 */
+	public int getFirstMismatch(InputStream in) throws IOException {
+		
+		MessageDigest digest = createDigest();
+		byte[] buf = new byte[65536];
+		int count = getBlockCount();
+		
+		for(int block = 0; block < count; block++) {
+			long remaining = blockSize == 0 ? Long.MAX_VALUE : blockSize;
+			while(remaining > 0) {
+				int read = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+				if(read == -1) {
+					break;
+				}
+				digest.update(buf, 0, read);
+				remaining -= read;
+			}
+			if(!MessageDigest.isEqual(digest.digest(), getHash(block))) {
+				return block;
+			}
+		}
+		return -1;
+	}
+}
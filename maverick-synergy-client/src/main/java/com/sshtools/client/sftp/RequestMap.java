@@ -0,0 +1,157 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An open addressing map of SFTP request ids to the objects waiting on them. Request
+ * ids are unsigned 32 bit values so they are stored as primitive longs and no key
+ * objects are created. This class is not thread safe.
+ */
+class RequestMap<V> {
+
+	static final long EMPTY = -1;
+	
+	long[] keys;
+	Object[] values;
+	int size;
+	int mask;
+	
+	RequestMap() {
+		this(64);
+	}
+	
+	RequestMap(int capacity) {
+		int length = Integer.highestOneBit(Math.max(4, capacity * 2 - 1)) << 1;
+		keys = new long[length];
+		values = new Object[length];
+		mask = length - 1;
+		Arrays.fill(keys, EMPTY);
+	}
+	
+	int size() {
+		return size;
+	}
+	
+	void put(long key, V value) {
+		if((size + 1) * 2 > keys.length) {
+			resize(keys.length * 2);
+		}
+		int i = index(key);
+		while(keys[i] != EMPTY) {
+			if(keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		size++;
+	}
+	
+	@SuppressWarnings("unchecked")
+	V get(long key) {
+		int i = find(key);
+		return i < 0 ? null : (V) values[i];
+	}
+	
+	@SuppressWarnings("unchecked")
+	V remove(long key) {
+		int i = find(key);
+		if(i < 0) {
+			return null;
+		}
+		V value = (V) values[i];
+		keys[i] = EMPTY;
+		values[i] = null;
+		size--;
+		
+		// Shift back any entries that collided with the removed one
+		int j = i;
+		while(true) {
+			j = (j + 1) & mask;
+			if(keys[j] == EMPTY) {
+				return value;
+			}
+			int k = index(keys[j]);
+			if(i <= j ? (i < k && k <= j) : (i < k || k <= j)) {
+				continue;
+			}
+			keys[i] = keys[j];
+			values[i] = values[j];
+			keys[j] = EMPTY;
+			values[j] = null;
+			i = j;
+		}
+	}
+	
+	/**
+	 * Remove every entry.
+	 * 
+	 * @return the values that were removed.
+	 */
+	@SuppressWarnings("unchecked")
+	List<V> clear() {
+		List<V> removed = new ArrayList<V>(size);
+		for(int i = 0; i < keys.length; i++) {
+			if(keys[i] != EMPTY) {
+				removed.add((V) values[i]);
+				keys[i] = EMPTY;
+				values[i] = null;
+			}
+		}
+		size = 0;
+		return removed;
+	}
+	
+	private int find(long key) {
+		int i = index(key);
+		while(keys[i] != EMPTY) {
+			if(keys[i] == key) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+	
+	private int index(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void resize(int length) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[length];
+		values = new Object[length];
+		mask = length - 1;
+		size = 0;
+		Arrays.fill(keys, EMPTY);
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldKeys[i] != EMPTY) {
+				put(oldKeys[i], (V) oldValues[i]);
+			}
+		}
+	}
+}
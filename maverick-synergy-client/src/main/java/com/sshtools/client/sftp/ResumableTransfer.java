@@ -0,0 +1,616 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Objects;
+
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.client.tasks.TransferStatistics;
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.files.AbstractFileRandomAccess;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.FileUtils;
+
+/**
+ * Transfers a file in chunks, recording each chunk in a small local checkpoint file as it
+ * completes so that a transfer interrupted by a dropped connection can be resumed by calling
+ * the same method again once reconnected. 
+ * 
+ * <p>
+ * Before resuming, the chunks already recorded are compared with the hashes of the same
+ * ranges on the server, using the block hashes of the check-file-handle extension or failing
+ * that the md5-hash-handle extension, and any chunk that does not match is transferred again.
+ * When the source file has changed since the checkpoint was written the transfer starts over.
+ * The checkpoint is deleted once the transfer completes.
+ * </p>
+ */
+public class ResumableTransfer {
+
+	static final String CHECK_FILE_HANDLE = "check-file-handle";
+	static final String CHECKPOINT_VERSION = "1";
+	
+	final SftpClient client;
+	int chunkSize = 4 * 1024 * 1024;
+	boolean verify = true;
+	String checkpointSuffix = ".checkpoint";
+	
+	public ResumableTransfer(SftpClient client) {
+		this.client = client;
+	}
+
+	/**
+	 * The size of the ranges recorded in the checkpoint. This is rounded up to a multiple of
+	 * 32768. A new size only applies to transfers that do not have a checkpoint.
+	 * 
+	 * @return int
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public void setChunkSize(int chunkSize) {
+		if(chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be greater than zero");
+		}
+		this.chunkSize = ((chunkSize + 32767) / 32768) * 32768;
+	}
+
+	/**
+	 * Whether the chunks recorded in a checkpoint are verified against the server before
+	 * the transfer is resumed.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isVerify() {
+		return verify;
+	}
+
+	public void setVerify(boolean verify) {
+		this.verify = verify;
+	}
+
+	/**
+	 * The suffix added to the local file name to name its checkpoint.
+	 * 
+	 * @return String
+	 */
+	public String getCheckpointSuffix() {
+		return checkpointSuffix;
+	}
+
+	public void setCheckpointSuffix(String checkpointSuffix) {
+		this.checkpointSuffix = checkpointSuffix;
+	}
+
+	/**
+	 * Download a remote file, resuming from the checkpoint of an earlier attempt.
+	 * 
+	 * @param remote
+	 * @param local
+	 * @param progress
+	 * @return the remote file's attributes
+	 */
+	public SftpFileAttributes download(String remote, String local, FileTransferProgress progress) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		
+		String remotePath = client.resolveRemotePath(remote);
+		AbstractFile localFile = client.resolveLocalPath(local);
+		if(localFile.isDirectory()) {
+			localFile = localFile.resolveFile(FileUtils.getFilename(remotePath));
+		}
+		checkRandomAccess(localFile);
+		
+		SftpFileAttributes attrs = client.stat(remotePath);
+		long length = attrs.getSize().longValue();
+		long modified = attrs.getModifiedTime().longValue();
+		
+		AbstractFile checkpointFile = checkpointFile(localFile);
+		Checkpoint checkpoint = Checkpoint.load(checkpointFile);
+		if(Objects.isNull(checkpoint) || !checkpoint.matches(remotePath, length, modified) || !localFile.exists()) {
+			checkpoint = new Checkpoint(checkpointFile, remotePath, length, modified, chunkSize);
+			if(!localFile.exists()) {
+				localFile.createNewFile();
+			}
+			AbstractFileRandomAccess raf = localFile.openFile(true);
+			try {
+				raf.setLength(length);
+			} finally {
+				raf.close();
+			}
+			checkpoint.create();
+		}
+		
+		SftpFile handle = client.getSubsystemChannel().openFile(remotePath, SftpChannel.OPEN_READ);
+		try {
+			verify(handle, localFile, checkpoint);
+			
+			final AbstractFile target = localFile;
+			transfer(checkpoint, false, progress, (offset, len, p) -> {
+				AbstractFileRandomAccess raf = target.openFile(true);
+				try {
+					raf.seek(offset);
+					client.getSubsystemChannel().performAdaptiveRead(handle.getHandle(), len, 
+							new StripedTransfer.RangeOutputStream(raf), client.newPipeline(), p, offset);
+				} finally {
+					raf.close();
+				}
+			});
+		} finally {
+			handle.close();
+		}
+		
+		checkpoint.delete();
+		try {
+			localFile.setAttributes(attrs);
+		} catch(IOException e) {
+		}
+		return attrs;
+	}
+	
+	/**
+	 * Upload a local file, resuming from the checkpoint of an earlier attempt.
+	 * 
+	 * @param local
+	 * @param remote
+	 * @param progress
+	 */
+	public void upload(String local, String remote, FileTransferProgress progress) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		
+		AbstractFile localFile = client.resolveLocalPath(local);
+		checkRandomAccess(localFile);
+		
+		String remotePath = client.resolveRemotePath(remote);
+		boolean exists = false;
+		try {
+			SftpFileAttributes attrs = client.stat(remotePath);
+			if(attrs.isDirectory()) {
+				remotePath += (remotePath.endsWith("/") ? "" : "/") + localFile.getName();
+				client.stat(remotePath);
+			}
+			exists = true;
+		} catch(SftpStatusException e) {
+		}
+		
+		long length = localFile.length();
+		long modified = localFile.lastModified() / 1000;
+		
+		AbstractFile checkpointFile = checkpointFile(localFile);
+		Checkpoint checkpoint = Checkpoint.load(checkpointFile);
+		boolean resume = exists && Objects.nonNull(checkpoint) && checkpoint.matches(remotePath, length, modified);
+		if(!resume) {
+			checkpoint = new Checkpoint(checkpointFile, remotePath, length, modified, chunkSize);
+			checkpoint.create();
+		}
+		
+		SftpFile handle = client.getSubsystemChannel().openFile(remotePath, resume 
+				? SftpChannel.OPEN_READ | SftpChannel.OPEN_WRITE
+				: SftpChannel.OPEN_READ | SftpChannel.OPEN_WRITE | SftpChannel.OPEN_CREATE | SftpChannel.OPEN_TRUNCATE);
+		try {
+			if(resume) {
+				verify(handle, localFile, checkpoint);
+			}
+			
+			transfer(checkpoint, true, progress, (offset, len, p) -> {
+				AbstractFileRandomAccess raf = localFile.openFile(false);
+				try {
+					raf.seek(offset);
+					client.getSubsystemChannel().performAdaptiveWrite(handle.getHandle(), 
+							new StripedTransfer.RangeInputStream(raf, len), client.newPipeline(), p, offset);
+				} finally {
+					raf.close();
+				}
+			});
+		} finally {
+			handle.close();
+		}
+		
+		checkpoint.delete();
+	}
+	
+	/**
+	 * Remove the checkpoint of a transfer so that the next attempt starts over.
+	 * 
+	 * @param local the local file of the transfer
+	 */
+	public void discard(String local) throws IOException, PermissionDeniedException {
+		AbstractFile checkpointFile = checkpointFile(client.resolveLocalPath(local));
+		if(checkpointFile.exists()) {
+			checkpointFile.delete(false);
+		}
+	}
+	
+	private AbstractFile checkpointFile(AbstractFile localFile) throws IOException, PermissionDeniedException {
+		return client.resolveLocalPath(localFile.getAbsolutePath() + checkpointSuffix);
+	}
+	
+	private void checkRandomAccess(AbstractFile file) throws SftpStatusException {
+		if(!file.supportsRandomAccess()) {
+			throw new SftpStatusException(SftpStatusException.SSH_FX_OP_UNSUPPORTED, 
+					"The local file system does not support random access");
+		}
+	}
+	
+	/**
+	 * Transfer each run of chunks that the checkpoint does not record.
+	 */
+	private void transfer(Checkpoint checkpoint, boolean upload, FileTransferProgress progress, RangeTransfer transfer) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		try {
+			transferChunks(checkpoint, upload, progress, transfer);
+		} finally {
+			checkpoint.close();
+		}
+	}
+	
+	private void transferChunks(Checkpoint checkpoint, boolean upload, FileTransferProgress progress, RangeTransfer transfer) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		
+		if(Objects.nonNull(progress)) {
+			progress.started(checkpoint.length, checkpoint.remotePath);
+			progress.progressed(checkpoint.getCompletedBytes());
+		}
+		
+		int chunks = checkpoint.getChunkCount();
+		int chunk = checkpoint.completed.nextClearBit(0);
+		while(chunk < chunks) {
+			int end = checkpoint.completed.nextSetBit(chunk);
+			if(end == -1 || end > chunks) {
+				end = chunks;
+			}
+			long offset = checkpoint.offset(chunk);
+			long len = checkpoint.offset(end) - offset;
+			
+			if(Log.isDebugEnabled()) {
+				Log.debug("Transferring chunks %s to %s of %s", chunk, end - 1, checkpoint.remotePath);
+			}
+			
+			transfer.transfer(offset, len, new CheckpointProgress(checkpoint, progress, offset, chunk, upload));
+			
+			// The last chunk is recorded once the transfer of the run has returned
+			for(int i = chunk; i < end; i++) {
+				if(!checkpoint.completed.get(i)) {
+					checkpoint.complete(i);
+				}
+			}
+			chunk = checkpoint.completed.nextClearBit(end);
+		}
+		
+		if(Objects.nonNull(progress)) {
+			progress.completed();
+		}
+	}
+	
+	/**
+	 * Clear the chunks recorded in the checkpoint that do not match the same range of the server's file.
+	 */
+	private void verify(SftpFile handle, AbstractFile local, Checkpoint checkpoint) 
+			throws SftpStatusException, SshException, IOException {
+		
+		if(!verify || checkpoint.completed.isEmpty()) {
+			return;
+		}
+		
+		SftpChannel sftp = client.getSubsystemChannel();
+		int failed = 0;
+		
+		if(sftp.supportsExtension(CHECK_FILE_HANDLE)) {
+			int last = checkpoint.completed.length();
+			long length = checkpoint.offset(last);
+			RemoteHash hashes = client.getRemoteHashes(handle.getHandle(), 0, length, checkpoint.chunkSize);
+			for(int i = checkpoint.completed.nextSetBit(0); i >= 0; i = checkpoint.completed.nextSetBit(i + 1)) {
+				if(i >= hashes.getBlockCount() 
+						|| !Arrays.equals(hashes.getHash(i), hash(hashes.createDigest(), local, checkpoint, i))) {
+					checkpoint.completed.clear(i);
+					failed++;
+				}
+			}
+		} else {
+			// Servers do not always announce md5-hash-handle so it is simply tried
+			MessageDigest md5;
+			try {
+				md5 = MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new SshException(SshException.INTERNAL_ERROR, e);
+			}
+			for(int i = checkpoint.completed.nextSetBit(0); i >= 0; i = checkpoint.completed.nextSetBit(i + 1)) {
+				long offset = checkpoint.offset(i);
+				byte[] remoteHash;
+				try {
+					remoteHash = client.getRemoteHash(handle.getHandle(), offset, 
+							checkpoint.offset(i + 1) - offset, new byte[0]);
+				} catch(SftpStatusException e) {
+					if(e.getStatus() != SftpStatusException.SSH_FX_OP_UNSUPPORTED) {
+						throw e;
+					}
+					if(Log.isDebugEnabled()) {
+						Log.debug("The server cannot hash file ranges so the checkpoint of %s cannot be verified", 
+								checkpoint.remotePath);
+					}
+					return;
+				}
+				if(!Arrays.equals(remoteHash, hash(md5, local, checkpoint, i))) {
+					checkpoint.completed.clear(i);
+					failed++;
+				}
+			}
+		}
+		
+		if(failed > 0) {
+			if(Log.isDebugEnabled()) {
+				Log.debug("%s chunks of %s failed verification and will be transferred again", 
+						failed, checkpoint.remotePath);
+			}
+			checkpoint.create();
+		}
+	}
+	
+	private byte[] hash(MessageDigest digest, AbstractFile local, Checkpoint checkpoint, int chunk) throws IOException {
+		digest.reset();
+		long offset = checkpoint.offset(chunk);
+		long remaining = checkpoint.offset(chunk + 1) - offset;
+		AbstractFileRandomAccess raf = local.openFile(false);
+		try {
+			raf.seek(offset);
+			byte[] buf = new byte[65536];
+			while(remaining > 0) {
+				int r = raf.read(buf, 0, (int) Math.min(buf.length, remaining));
+				if(r == -1) {
+					break;
+				}
+				digest.update(buf, 0, r);
+				remaining -= r;
+			}
+		} finally {
+			raf.close();
+		}
+		return digest.digest();
+	}
+	
+	interface RangeTransfer {
+		void transfer(long offset, long length, FileTransferProgress progress) throws SftpStatusException, 
+			SshException, TransferCancelledException, IOException, PermissionDeniedException;
+	}
+	
+	/**
+	 * Records the chunks of a run in the checkpoint as the transfer passes the end of each one.
+	 */
+	static class CheckpointProgress implements FileTransferProgress {
+		
+		final Checkpoint checkpoint;
+		final FileTransferProgress progress;
+		final long offset;
+		final long completedBytes;
+		final boolean upload;
+		int chunk;
+		
+		CheckpointProgress(Checkpoint checkpoint, FileTransferProgress progress, long offset, int chunk, boolean upload) {
+			this.checkpoint = checkpoint;
+			this.upload = upload;
+			this.progress = progress;
+			this.offset = offset;
+			this.chunk = chunk;
+			this.completedBytes = checkpoint.getCompletedBytes();
+		}
+
+		@Override
+		public void started(long bytesTotal, String remoteFile) {
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return Objects.nonNull(progress) && progress.isCancelled();
+		}
+
+		@Override
+		public void progressed(long bytesSoFar) {
+			// Reads report the bytes of this run, writes report the position in the file
+			long position = upload ? bytesSoFar : offset + bytesSoFar;
+			while(chunk < checkpoint.getChunkCount() && checkpoint.offset(chunk + 1) <= position) {
+				try {
+					if(!checkpoint.completed.get(chunk)) {
+						checkpoint.complete(chunk);
+					}
+				} catch (IOException e) {
+					Log.error("Failed to record checkpoint of %s", e, checkpoint.remotePath);
+				}
+				chunk++;
+			}
+			if(Objects.nonNull(progress)) {
+				progress.progressed(completedBytes + position - offset);
+			}
+		}
+
+		@Override
+		public void completed() {
+		}
+		
+		@Override
+		public void statistics(TransferStatistics stats) {
+			if(Objects.nonNull(progress)) {
+				progress.statistics(stats);
+			}
+		}
+	}
+	
+	/**
+	 * The state of a transfer, written as a header of key=value lines followed by the index 
+	 * of each chunk as it completes.
+	 */
+	static class Checkpoint {
+		
+		final AbstractFile file;
+		final String remotePath;
+		final long length;
+		final long modified;
+		final int chunkSize;
+		final BitSet completed = new BitSet();
+		OutputStream out;
+		
+		Checkpoint(AbstractFile file, String remotePath, long length, long modified, int chunkSize) {
+			this.file = file;
+			this.remotePath = remotePath;
+			this.length = length;
+			this.modified = modified;
+			this.chunkSize = chunkSize;
+		}
+		
+		static Checkpoint load(AbstractFile file) throws IOException {
+			if(!file.exists()) {
+				return null;
+			}
+			String remotePath = null;
+			long length = -1;
+			long modified = -1;
+			int chunkSize = -1;
+			String version = null;
+			Checkpoint checkpoint = null;
+			try(InputStream in = file.getInputStream()) {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+				String line;
+				while(Objects.nonNull(line = reader.readLine())) {
+					int idx = line.indexOf('=');
+					if(Objects.isNull(checkpoint) && idx > -1) {
+						String value = line.substring(idx + 1);
+						switch(line.substring(0, idx)) {
+						case "version":
+							version = value;
+							break;
+						case "remote":
+							remotePath = value;
+							break;
+						case "length":
+							length = Long.parseLong(value);
+							break;
+						case "modified":
+							modified = Long.parseLong(value);
+							break;
+						case "chunk":
+							chunkSize = Integer.parseInt(value);
+							break;
+						default:
+							break;
+						}
+					} else if(line.isEmpty() && Objects.isNull(checkpoint)) {
+						if(!CHECKPOINT_VERSION.equals(version) || Objects.isNull(remotePath) 
+								|| length < 0 || chunkSize <= 0) {
+							return null;
+						}
+						checkpoint = new Checkpoint(file, remotePath, length, modified, chunkSize);
+					} else if(Objects.nonNull(checkpoint)) {
+						// A line cut short by a crash is ignored along with anything after it
+						try {
+							int chunk = Integer.parseInt(line);
+							if(chunk >= 0 && chunk < checkpoint.getChunkCount()) {
+								checkpoint.completed.set(chunk);
+							}
+						} catch(NumberFormatException e) {
+							break;
+						}
+					}
+				}
+			} catch(NumberFormatException e) {
+				return null;
+			}
+			return checkpoint;
+		}
+		
+		boolean matches(String remotePath, long length, long modified) {
+			return this.remotePath.equals(remotePath) && this.length == length && this.modified == modified;
+		}
+		
+		int getChunkCount() {
+			return (int) ((length + chunkSize - 1) / chunkSize);
+		}
+		
+		long offset(int chunk) {
+			return Math.min(length, (long) chunk * chunkSize);
+		}
+		
+		long getCompletedBytes() {
+			long bytes = 0;
+			for(int i = completed.nextSetBit(0); i >= 0; i = completed.nextSetBit(i + 1)) {
+				bytes += offset(i + 1) - offset(i);
+			}
+			return bytes;
+		}
+		
+		/**
+		 * Write the checkpoint out again with its current chunks.
+		 */
+		void create() throws IOException {
+			close();
+			StringBuilder buf = new StringBuilder();
+			buf.append("version=").append(CHECKPOINT_VERSION).append('\n');
+			buf.append("remote=").append(remotePath).append('\n');
+			buf.append("length=").append(length).append('\n');
+			buf.append("modified=").append(modified).append('\n');
+			buf.append("chunk=").append(chunkSize).append('\n');
+			buf.append('\n');
+			for(int i = completed.nextSetBit(0); i >= 0; i = completed.nextSetBit(i + 1)) {
+				buf.append(i).append('\n');
+			}
+			out = file.getOutputStream();
+			out.write(buf.toString().getBytes(StandardCharsets.UTF_8));
+			out.flush();
+		}
+		
+		void complete(int chunk) throws IOException {
+			completed.set(chunk);
+			if(Objects.isNull(out)) {
+				out = file.getOutputStream(true);
+			}
+			out.write((chunk + "\n").getBytes(StandardCharsets.UTF_8));
+			out.flush();
+		}
+		
+		void close() {
+			if(Objects.nonNull(out)) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+				out = null;
+			}
+		}
+		
+		void delete() throws IOException {
+			close();
+			try {
+				file.delete(false);
+			} catch (PermissionDeniedException e) {
+				throw new IOException(e.getMessage(), e);
+			}
+		}
+	}
+}
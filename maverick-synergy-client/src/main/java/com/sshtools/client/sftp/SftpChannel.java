@@ -22,13 +22,20 @@ import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.sshtools.client.SessionChannelNG;
 import com.sshtools.client.tasks.AbstractSubsystem;
@@ -51,6 +58,7 @@ import com.sshtools.common.ssh.SshConnection;
 import com.sshtools.common.ssh.SshException;
 import com.sshtools.common.ssh.SshIOException;
 import com.sshtools.common.util.ByteArrayReader;
+import com.sshtools.common.util.IOUtils;
 import com.sshtools.common.util.UnsignedInteger32;
 import com.sshtools.common.util.UnsignedInteger64;
 
@@ -156,9 +164,37 @@ public class SftpChannel extends AbstractSubsystem {
 	int version = MAX_VERSION;
 	int serverVersion = -1;
 	UnsignedInteger32 requestId = new UnsignedInteger32(0);
-	Map<UnsignedInteger32, SftpMessage> responses = new HashMap<UnsignedInteger32, SftpMessage>();
+	Map<UnsignedInteger32, SftpMessage> responses = new ConcurrentHashMap<UnsignedInteger32, SftpMessage>();
 	SftpThreadSynchronizer sync = new SftpThreadSynchronizer();
+	RequestMap<CompletableFuture<SftpMessage>> pending = new RequestMap<CompletableFuture<SftpMessage>>();
+	volatile Thread dispatcher;
+	SshException dispatcherException;
+	static final AtomicInteger dispatcherNumber = new AtomicInteger(1);
 	Map<String, byte[]> extensions = new HashMap<String, byte[]>();
+	SftpLimits limits;
+	AttributeCache attributeCache;
+	
+	/**
+	 * Extensions that do not change anything on the server, so do not invalidate the attribute cache. 
+	 */
+	static final Set<String> READ_ONLY_EXTENSIONS = new HashSet<String>(Arrays.asList(
+			"md5-hash", "md5-hash-handle", "check-file-name", "check-file-handle", "block-checksums",
+			"statvfs@openssh.com", "fstatvfs@openssh.com", "limits@openssh.com", "home-directory",
+			"get-temp-folder", "open-directory-archive", "open-directory-with-filter@sshtools.com",
+			"filename-translation-control"));
+	
+	public static final String LIMITS_EXTENSION = "limits@openssh.com";
+
+	public static final String OPEN_DIRECTORY_ARCHIVE_EXTENSION = "open-directory-archive";
+	
+	public static final String BATCH_UPLOAD_EXTENSION = "batch-upload";
+	
+	public static final String BATCH_UPLOAD_RESULT_EXTENSION = "batch-upload-result";
+	
+	/**
+	 * The block size used when the server does not advertise its limits. 
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 32768;
 
 	/**
 	 * Version 5 new flags
@@ -193,11 +229,55 @@ public class SftpChannel extends AbstractSubsystem {
 	public SftpChannel(SshConnection con) throws SshException {
 		super(con);
 		con.setProperty("sftpVersion", initializeSftp(session));
+		limits = initializeLimits();
 	}
 
 	public int getVersion() {
 		return (Integer) con.getProperty("sftpVersion");
 	}
+	
+	/**
+	 * Answer STAT, LSTAT and REALPATH requests from a cache. Pass <code>null</code> to
+	 * send every request to the server.
+	 * 
+	 * @param attributeCache
+	 */
+	public void setAttributeCache(AttributeCache attributeCache) {
+		this.attributeCache = attributeCache;
+	}
+	
+	public AttributeCache getAttributeCache() {
+		return attributeCache;
+	}
+	
+	void invalidate(String path) {
+		AttributeCache cache = attributeCache;
+		if(Objects.nonNull(cache)) {
+			cache.invalidate(path);
+		}
+	}
+	
+	void invalidateTree(String path) {
+		AttributeCache cache = attributeCache;
+		if(Objects.nonNull(cache)) {
+			cache.invalidateTree(path);
+		}
+	}
+	
+	/**
+	 * Cache the attributes of a file returned in a directory listing.
+	 */
+	void cacheListing(SftpFile file) {
+		AttributeCache cache = attributeCache;
+		if(Objects.isNull(cache) || Objects.isNull(file.attrs) 
+				|| file.getFilename().equals(".") || file.getFilename().equals("..")) {
+			return;
+		}
+		cache.putAttributes(AttributeCache.LSTAT, file.getAbsolutePath(), file.attrs, getVersion());
+		if(!file.attrs.isLink()) {
+			cache.putAttributes(AttributeCache.STAT, file.getAbsolutePath(), file.attrs, getVersion());
+		}
+	}
 
 	protected int getMinimumWindowSize() {
 		return con.getContext().getPolicy(FileSystemPolicy.class).getSftpMinWindowSize();
@@ -211,6 +291,82 @@ public class SftpChannel extends AbstractSubsystem {
 		return con.getContext().getPolicy(FileSystemPolicy.class).getSftpMaxPacketSize();
 	}
 	
+	@Override
+	protected int getMaximumMessageLength() {
+		return Math.max(con.getContext().getPolicy(FileSystemPolicy.class).getSftpMaxMessageLength(), 
+				super.getMaximumMessageLength());
+	}
+	
+	/**
+	 * Get the limits advertised by the server.
+	 * 
+	 * @return the limits or <code>null</code> if the server does not support the limits@openssh.com extension.
+	 */
+	public SftpLimits getLimits() {
+		return limits;
+	}
+	
+	/**
+	 * The largest block that can be requested in a single read. This is the lower of the 
+	 * server's advertised read limit and the largest message this client accepts, 
+	 * or {@link #DEFAULT_BLOCK_SIZE} when the server does not advertise its limits.
+	 * 
+	 * @return int
+	 */
+	public int getMaximumReadLength() {
+		if(Objects.nonNull(limits) && limits.getMaximumReadLength() > 0) {
+			return (int) Math.min(limits.getMaximumReadLength(), getMaximumMessageLength() - 13);
+		}
+		return DEFAULT_BLOCK_SIZE;
+	}
+	
+	/**
+	 * The largest block that can be sent in a single write. This is the server's advertised
+	 * write limit, or {@link #DEFAULT_BLOCK_SIZE} when the server does not advertise its limits.
+	 * 
+	 * @return int
+	 */
+	public int getMaximumWriteLength() {
+		if(Objects.nonNull(limits) && limits.getMaximumWriteLength() > 0) {
+			return (int) Math.min(limits.getMaximumWriteLength(), Integer.MAX_VALUE);
+		}
+		return DEFAULT_BLOCK_SIZE;
+	}
+	
+	private SftpLimits initializeLimits() throws SshException {
+		
+		Map<String,byte[]> extensions = getExtensions();
+		if(Objects.isNull(extensions) || !extensions.containsKey(LIMITS_EXTENSION)) {
+			return null;
+		}
+		
+		try {
+			SftpMessage msg = getResponse(sendExtensionMessage(LIMITS_EXTENSION, null));
+			try {
+				if(msg.getType()!=SSH_FXP_EXTENDED_REPLY) {
+					if(Log.isDebugEnabled()) {
+						Log.debug("Server did not return its limits");
+					}
+					return null;
+				}
+				SftpLimits limits = new SftpLimits(msg);
+				if(Log.isDebugEnabled()) {
+					Log.debug(String.format("Server limits packet=%d read=%d write=%d handles=%d", 
+							limits.getMaximumPacketLength(), 
+							limits.getMaximumReadLength(), 
+							limits.getMaximumWriteLength(), 
+							limits.getMaximumOpenHandles()));
+				}
+				return limits;
+			} finally {
+				msg.release();
+			}
+		} catch(IOException | SftpStatusException e) {
+			Log.error("Failed to obtain server limits", e);
+			return null;
+		}
+	}
+	
 	@SuppressWarnings("unchecked")
 	public Map<String, byte[]> getExtensions() {
 		return (Map<String, byte[]>) con.getProperty("sftpExtensions");
@@ -250,7 +406,7 @@ public class SftpChannel extends AbstractSubsystem {
 					int requestedVersion = MAX_VERSION;
 					version = Math.min(serverVersion, requestedVersion);
 	
-					Map<String, byte[]> extensions = new HashMap<String, byte[]>();
+					extensions.clear();
 	
 					if(Log.isTraceEnabled()) {
 						Log.trace("Version is " + version + " [Server="
@@ -509,7 +665,7 @@ public class SftpChannel extends AbstractSubsystem {
 		return extensions.get(name);
 	}
 	
-	UnsignedInteger32 nextRequestId() {
+	synchronized UnsignedInteger32 nextRequestId() {
 		requestId = UnsignedInteger32.add(requestId, 1);
 		return requestId;
 	}
@@ -524,9 +680,13 @@ public class SftpChannel extends AbstractSubsystem {
 		SftpMessage msg;
 		MessageHolder holder = new MessageHolder();
 		while (holder.msg == null) {
+			if(Objects.nonNull(dispatcher)) {
+				return getDispatchedResponse(requestId);
+			}
+			boolean reading = false;
 			try {
 				// Read the next response message
-				if (sync.requestBlock(requestId, holder)) {
+				if (reading = sync.requestBlock(requestId, holder)) {
 					msg = new SftpMessage(nextMessage());
 					responses.put(new UnsignedInteger32(msg.getMessageId()),msg);
 					if(Log.isTraceEnabled()) {
@@ -540,7 +700,9 @@ public class SftpChannel extends AbstractSubsystem {
 			} catch (IOException ex) {
 				throw new SshException(SshException.INTERNAL_ERROR, ex);
 			} finally {
-				sync.releaseBlock();
+				if(reading) {
+					sync.releaseBlock();
+				}
 			}
 		}
 
@@ -548,6 +710,229 @@ public class SftpChannel extends AbstractSubsystem {
 
 	}
 	
+	/**
+	 * Get the response to a request without blocking. The first call starts a dispatcher
+	 * thread that reads every response from the channel and completes the future waiting
+	 * on it, after which {@link #getResponse(UnsignedInteger32)} also waits on a future.
+	 * This allows any number of threads to share the channel with their requests in flight
+	 * at the same time.
+	 * 
+	 * <p>
+	 * Futures are completed on the dispatcher thread, so dependent actions that make further
+	 * blocking calls on this channel must be run on another executor, for example with
+	 * {@link CompletableFuture#thenApplyAsync(java.util.function.Function)}.
+	 * </p>
+	 * 
+	 * @param requestId
+	 * @return a future completed with the response, or exceptionally if the channel fails.
+	 */
+	public CompletableFuture<SftpMessage> getResponseAsync(UnsignedInteger32 requestId) {
+		
+		startDispatcher();
+		
+		CompletableFuture<SftpMessage> future = new CompletableFuture<SftpMessage>();
+		synchronized(pending) {
+			SftpMessage msg = responses.remove(requestId);
+			if(Objects.nonNull(msg)) {
+				future.complete(msg);
+			} else if(Objects.nonNull(dispatcherException)) {
+				future.completeExceptionally(dispatcherException);
+			} else {
+				pending.put(requestId.longValue(), future);
+			}
+		}
+		return future;
+	}
+	
+	private SftpMessage getDispatchedResponse(UnsignedInteger32 requestId) throws SshException {
+		try {
+			return getResponseAsync(requestId).get();
+		} catch (InterruptedException e) {
+			close();
+			throw new SshException("The thread was interrupted",
+					SshException.CHANNEL_FAILURE);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof SshException) {
+				throw (SshException) e.getCause();
+			}
+			throw new SshException(SshException.INTERNAL_ERROR, e.getCause());
+		}
+	}
+	
+	private void startDispatcher() {
+		
+		if(Objects.nonNull(dispatcher)) {
+			return;
+		}
+		
+		synchronized(sync) {
+			if(Objects.nonNull(dispatcher)) {
+				return;
+			}
+			// Wait for any thread reading a response, then keep the block so only the dispatcher reads
+			while(sync.isBlocking) {
+				try {
+					sync.wait();
+				} catch (InterruptedException e) {
+					throw new IllegalStateException("Interrupted waiting to start the SFTP dispatcher");
+				}
+			}
+			sync.isBlocking = true;
+			
+			Thread t = new Thread(this::dispatchResponses, "sftp-dispatcher-" + dispatcherNumber.getAndIncrement());
+			t.setDaemon(true);
+			dispatcher = t;
+			t.start();
+		}
+	}
+	
+	private void dispatchResponses() {
+		
+		while(true) {
+			SftpMessage msg;
+			try {
+				msg = new SftpMessage(nextMessage());
+			} catch (SshException e) {
+				failPendingRequests(e);
+				return;
+			} catch (IOException e) {
+				failPendingRequests(new SshException(SshException.INTERNAL_ERROR, e));
+				return;
+			}
+			
+			CompletableFuture<SftpMessage> future;
+			synchronized(pending) {
+				future = pending.remove(msg.getMessageId());
+				if(Objects.isNull(future)) {
+					// Nobody is waiting yet, or the caller is using getResponse from before the dispatcher started
+					responses.put(new UnsignedInteger32(msg.getMessageId()), msg);
+				}
+			}
+			
+			if(Objects.nonNull(future)) {
+				future.complete(msg);
+			} else {
+				synchronized(sync) {
+					sync.notifyAll();
+				}
+			}
+		}
+	}
+	
+	private void failPendingRequests(SshException e) {
+		List<CompletableFuture<SftpMessage>> futures;
+		synchronized(pending) {
+			dispatcherException = e;
+			futures = pending.clear();
+		}
+		for(CompletableFuture<SftpMessage> future : futures) {
+			future.completeExceptionally(e);
+		}
+		synchronized(sync) {
+			sync.notifyAll();
+		}
+	}
+	
+	/**
+	 * A response that is converted to a result when it arrives.
+	 */
+	interface ResponseProcessor<T> {
+		T process(SftpMessage msg) throws SftpStatusException, SshException;
+	}
+	
+	<T> CompletableFuture<T> processResponseAsync(UnsignedInteger32 requestId, ResponseProcessor<T> processor) {
+		return getResponseAsync(requestId).thenApply((msg) -> {
+			try {
+				return processor.process(msg);
+			} catch (SftpStatusException | SshException e) {
+				throw new CompletionException(e);
+			} finally {
+				msg.release();
+			}
+		});
+	}
+	
+	/**
+	 * Get the attributes of a file without blocking. 
+	 * 
+	 * @param path
+	 * @return a future completed with the attributes, or exceptionally with an {@link SftpStatusException}.
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @see #getResponseAsync(UnsignedInteger32)
+	 */
+	public CompletableFuture<SftpFileAttributes> getAttributesAsync(String path) throws SftpStatusException, SshException {
+		return processResponseAsync(postAttributesRequest(path, SSH_FXP_STAT), this::extractAttributes);
+	}
+	
+	/**
+	 * Read a block of data from an open file without blocking.
+	 * 
+	 * @param handle
+	 * @param offset
+	 * @param len
+	 * @return a future completed with the data read, or <code>null</code> at the end of the file.
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @see #getResponseAsync(UnsignedInteger32)
+	 */
+	public CompletableFuture<byte[]> readFileAsync(byte[] handle, long offset, int len) throws SftpStatusException, SshException {
+		return processResponseAsync(postReadRequest(handle, offset, len), (bar) -> {
+			try {
+				if (bar.getType() == SSH_FXP_DATA) {
+					return bar.readBinaryString();
+				} else if (bar.getType() == SSH_FXP_STATUS) {
+					int status = (int) bar.readInt();
+					if (status == SftpStatusException.SSH_FX_EOF) {
+						return null;
+					}
+					if (version >= 3) {
+						throw new SftpStatusException(status, bar.readString());
+					}
+					throw new SftpStatusException(status);
+				}
+				close();
+				throw new SshException(
+						"The server responded with an unexpected message",
+						SshException.CHANNEL_FAILURE);
+			} catch (SshIOException ex) {
+				throw ex.getRealException();
+			} catch (IOException ex) {
+				throw new SshException(ex);
+			}
+		});
+	}
+	
+	/**
+	 * Write a block of data to an open file without blocking.
+	 * 
+	 * @param handle
+	 * @param offset
+	 * @param data
+	 * @param off
+	 * @param len
+	 * @return a future completed when the server has acknowledged the write.
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @see #getResponseAsync(UnsignedInteger32)
+	 */
+	public CompletableFuture<Void> writeFileAsync(byte[] handle, long offset, byte[] data, int off, int len) throws SftpStatusException, SshException {
+		return getOKRequestStatusAsync(postWriteRequest(handle, offset, data, off, len));
+	}
+	
+	/**
+	 * Wait for an OK status without blocking.
+	 * 
+	 * @param requestId
+	 * @return a future completed when the status arrives, or exceptionally with an {@link SftpStatusException}.
+	 */
+	public CompletableFuture<Void> getOKRequestStatusAsync(UnsignedInteger32 requestId) {
+		return processResponseAsync(requestId, (bar) -> {
+			checkOKStatus(bar);
+			return null;
+		});
+	}
+	
 	/**
 	 * Change the permissions of a file.
 	 * 
@@ -620,6 +1005,15 @@ public class SftpChannel extends AbstractSubsystem {
 			throws SftpStatusException, SshException {
 
 		SftpMessage bar = getResponse(requestId);
+		try {
+			checkOKStatus(bar);
+		} finally {
+			bar.release();
+		}
+
+	}
+	
+	void checkOKStatus(SftpMessage bar) throws SftpStatusException, SshException {
 		try {
 			if (bar.getType() == SSH_FXP_STATUS) {
 				int status = (int) bar.readInt();
@@ -642,10 +1036,7 @@ public class SftpChannel extends AbstractSubsystem {
 			throw ex.getRealException();
 		} catch (IOException ex) {
 			throw new SshException(ex);
-		} finally {
-			bar.release();
 		}
-
 	}
 
 	/**
@@ -660,6 +1051,11 @@ public class SftpChannel extends AbstractSubsystem {
 	 */
 	public void setAttributes(String path, SftpFileAttributes attrs)
 			throws SftpStatusException, SshException {
+		completeSetAttributes(path, postSetAttributesRequest(path, attrs));
+	}
+	
+	UnsignedInteger32 postSetAttributesRequest(String path, SftpFileAttributes attrs) 
+			throws SshException {
 		try {
 			UnsignedInteger32 requestId = nextRequestId();
 
@@ -670,14 +1066,23 @@ public class SftpChannel extends AbstractSubsystem {
 			msg.write(attrs.toByteArray(getVersion()));
 
 			sendMessage(msg);
-
-			getOKRequestStatus(requestId);
+			
+			return requestId;
 		} catch (SshIOException ex) {
 			throw ex.getRealException();
 		} catch (IOException ex) {
 			throw new SshException(ex, SshException.INTERNAL_ERROR);
 		}
 	}
+	
+	void completeSetAttributes(String path, UnsignedInteger32 requestId) 
+			throws SftpStatusException, SshException {
+		try {
+			getOKRequestStatus(requestId);
+		} finally {
+			invalidate(path);
+		}
+	}
 
 	/**
 	 * Sets the attributes of a file.
@@ -711,6 +1116,8 @@ public class SftpChannel extends AbstractSubsystem {
 			throw ex.getRealException();
 		} catch (IOException ex) {
 			throw new SshException(ex);
+		} finally {
+			invalidate(file.getAbsolutePath());
 		}
 	}
 
@@ -861,12 +1268,18 @@ public class SftpChannel extends AbstractSubsystem {
 					8 + 			// Offset Field Length
 					4;				// Data Size Field Length
 			
-			if(blocksize + overhead > getSession().getMaximumRemotePacketLength()) {
+			if(Objects.nonNull(limits) && limits.getMaximumWriteLength() > 0) {
+				/**
+				 * The server has told us how much it will accept so messages can 
+				 * span multiple channel packets.
+				 */
+				if(blocksize > getMaximumWriteLength()) {
+					blocksize = getMaximumWriteLength();
+				}
+			} else if(blocksize + overhead > getSession().getMaximumRemotePacketLength()) {
 				blocksize = getSession().getMaximumRemotePacketLength() - overhead;
 			}
 			
-			System.setProperty("maverick.write.optimizedBlock", String.valueOf(blocksize));
-			
 			if(Log.isTraceEnabled()) {
 				Log.trace("Performing optimized write length=" + in.available()
 						+ " postion=" + position + " blocksize=" + blocksize
@@ -899,11 +1312,9 @@ public class SftpChannel extends AbstractSubsystem {
 			buffered = in.read(buf);
 			if(buffered != -1) {
 			
-				long time = System.currentTimeMillis();
+				long time = System.nanoTime();
 				writeFile(handle, new UnsignedInteger64(position), buf, 0, buffered);
-				time = System.currentTimeMillis() - time;
-				
-				System.setProperty("maverick.write.blockRoundtrip", String.valueOf(time));
+				time = (System.nanoTime() - time) / 1000;
 				
 				transfered += buffered;
 	
@@ -911,6 +1322,7 @@ public class SftpChannel extends AbstractSubsystem {
 					if (progress.isCancelled())
 						throw new TransferCancelledException();
 					progress.progressed(transfered);
+					progress.statistics(new FixedTransferStatistics(outstandingRequests, blocksize, time, buffered));
 				}
 				
 				Vector<UnsignedInteger32> requests = new Vector<UnsignedInteger32>();
@@ -1017,29 +1429,38 @@ public class SftpChannel extends AbstractSubsystem {
 			throws SftpStatusException, SshException,
 			TransferCancelledException {
 
-		if (blocksize < 1 || blocksize > 65536) {
-			if(Log.isTraceEnabled()) {
-				Log.trace("Blocksize to large for some SFTP servers, reseting to 32K");
+		if(Objects.nonNull(limits) && limits.getMaximumReadLength() > 0) {
+			
+			if (blocksize < 1 || blocksize > getMaximumReadLength()) {
+				if(Log.isTraceEnabled()) {
+					Log.trace("Blocksize set to the server read limit of " + getMaximumReadLength());
+				}
+				blocksize = getMaximumReadLength();
 			}
-			blocksize = 32768;
-		}
-
-		/**
-		 * Optimization to ensure excessive blocksize does not exceed maximum packet
-		 * length declared by local side, taking into account the overhead for 
-		 * this particular message. 
-		 */
-		int overhead = 4 + 		// Packet Length Field Length
-				1 + 			// Message Id Length
-				4 + 			// Request Id Length
-				4;				// Data Size Field Length
+		} else {
 		
-		if(blocksize + overhead > getSession().getMaximumLocalPacketLength()) {
-			blocksize = getSession().getMaximumLocalPacketLength() - overhead;
+			if (blocksize < 1 || blocksize > 65536) {
+				if(Log.isTraceEnabled()) {
+					Log.trace("Blocksize to large for some SFTP servers, reseting to 32K");
+				}
+				blocksize = 32768;
+			}
+	
+			/**
+			 * Optimization to ensure excessive blocksize does not exceed maximum packet
+			 * length declared by local side, taking into account the overhead for 
+			 * this particular message. 
+			 */
+			int overhead = 4 + 		// Packet Length Field Length
+					1 + 			// Message Id Length
+					4 + 			// Request Id Length
+					4;				// Data Size Field Length
+			
+			if(blocksize + overhead > getSession().getMaximumLocalPacketLength()) {
+				blocksize = getSession().getMaximumLocalPacketLength() - overhead;
+			}
 		}
 		
-		System.setProperty("maverick.read.optimizedBlock", String.valueOf(blocksize));
-		
 		if(Log.isTraceEnabled()) {
 			Log.trace("Performing optimized read length=" + length
 					+ " postion=" + position + " blocksize=" + blocksize
@@ -1070,11 +1491,9 @@ public class SftpChannel extends AbstractSubsystem {
 
 		byte[] tmp = new byte[blocksize];
 
-		long time = System.currentTimeMillis();
+		long time = System.nanoTime();
 		int i = readFile(handle, new UnsignedInteger64(0), tmp, 0, tmp.length);
-		time = System.currentTimeMillis() - time;
-		
-		System.setProperty("maverick.read.blockRoundtrip", String.valueOf(time));
+		time = (System.nanoTime() - time) / 1000;
 
 		// if i=-1 then eof so return, maybe should throw exception on null
 		// files?
@@ -1110,7 +1529,9 @@ public class SftpChannel extends AbstractSubsystem {
 			blocksize = i;
 		}
 
-		System.setProperty("maverick.read.finalBlock", String.valueOf(blocksize));
+		if (progress != null) {
+			progress.statistics(new FixedTransferStatistics(outstandingRequests, blocksize, time, i));
+		}
 		
 		tmp = null;
 
@@ -1233,6 +1654,271 @@ public class SftpChannel extends AbstractSubsystem {
 		}
 	}
 
+	/**
+	 * Reads a file through a pipeline of read requests whose depth and block size
+	 * adapt to the round trip time measured during the transfer.
+	 * 
+	 * @param handle
+	 *            the open files handle
+	 * @param length
+	 *            the amount of the file to read, or zero or less to read to the end of the file
+	 * @param out
+	 *            an OutputStream to output the file into
+	 * @param pipeline
+	 *            the pipeline for this transfer
+	 * @param progress
+	 * @param position
+	 *            the position from which to start reading the file
+	 * @throws SshException
+	 */
+	public void performAdaptiveRead(byte[] handle, long length, OutputStream out,
+			AdaptivePipeline pipeline, FileTransferProgress progress, long position)
+			throws SftpStatusException, SshException, TransferCancelledException {
+		
+		if (position < 0) {
+			throw new SshException(
+					"Position value must be greater than zero!",
+					SshException.BAD_API_USAGE);
+		}
+		
+		pipeline.start(getMaximumReadLength());
+		
+		InFlight requests = new InFlight(pipeline.getMaximumRequests());
+		long end = length <= 0 ? Long.MAX_VALUE : position + length;
+		long offset = position;
+		long transfered = 0;
+		boolean eof = false;
+		
+		try {
+			while(true) {
+				
+				while(!eof && offset < end && requests.size() < pipeline.getOutstandingRequests()) {
+					int len = (int) Math.min(pipeline.getBlockSize(), end - offset);
+					requests.add(postReadRequest(handle, offset, len), offset, len);
+					offset += len;
+				}
+				
+				if(requests.size() == 0) {
+					break;
+				}
+				
+				long requestOffset = requests.offset();
+				int requested = requests.length();
+				long posted = requests.posted();
+				SftpMessage bar = getResponse(requests.remove());
+				
+				try {
+					if (bar.getType() == SSH_FXP_DATA) {
+						int dataLen = (int) bar.readInt();
+						try {
+							out.write(bar.array(), bar.getPosition(), dataLen);
+						} catch (IOException e) {
+							throw new TransferCancelledException();
+						}
+						if (progress != null) {
+							progress.progressed(transfered += dataLen);
+						}
+						if(pipeline.completed(System.nanoTime() - posted, dataLen) && progress != null) {
+							progress.statistics(pipeline);
+						}
+						if(dataLen < requested) {
+							// The server returned less than we asked for so the requests already
+							// posted no longer line up. Discard them and carry on from here with
+							// blocks no larger than the server returned.
+							if(dataLen > 0) {
+								pipeline.limitBlockSize(dataLen);
+							}
+							discard(requests);
+							offset = requestOffset + dataLen;
+						}
+					} else if (bar.getType() == SSH_FXP_STATUS) {
+						int status = (int) bar.readInt();
+						if (status == SftpStatusException.SSH_FX_EOF) {
+							eof = true;
+							discard(requests);
+							continue;
+						}
+						if (version >= 3) {
+							throw new SftpStatusException(status, bar.readString());
+						}
+						throw new SftpStatusException(status);
+					} else {
+						throw new SshException(
+								"The server responded with an unexpected message",
+								SshException.CHANNEL_FAILURE);
+					}
+				} catch(IOException ex) {
+					throw new SshException(
+							"Failed to read expected data from server response",
+							SshException.CHANNEL_FAILURE);
+				} finally {
+					bar.release();
+				}
+				
+				if (progress != null && progress.isCancelled()) {
+					throw new TransferCancelledException();
+				}
+			}
+		} finally {
+			discard(requests);
+		}
+		
+		if(progress != null) {
+			progress.statistics(pipeline);
+		}
+	}
+	
+	/**
+	 * Writes a file through a pipeline of write requests whose depth and block size
+	 * adapt to the round trip time measured during the transfer.
+	 * 
+	 * @param handle
+	 *            the open file handle to write to
+	 * @param in
+	 *            the InputStream to read from
+	 * @param pipeline
+	 *            the pipeline for this transfer
+	 * @param progress
+	 *            provides progress information, may be null.
+	 * @param position
+	 *            the position in the file to start writing to.
+	 * @throws SshException
+	 */
+	public void performAdaptiveWrite(byte[] handle, java.io.InputStream in,
+			AdaptivePipeline pipeline, FileTransferProgress progress, long position)
+			throws SftpStatusException, SshException, TransferCancelledException {
+		
+		if (position < 0) {
+			throw new SshException(
+					"Position value must be greater than zero!",
+					SshException.BAD_API_USAGE);
+		}
+		
+		int overhead = 4 + 1 + 4 + 4 + handle.length + 8 + 4;
+		int largest = getMaximumWriteLength();
+		if((Objects.isNull(limits) || limits.getMaximumWriteLength() <= 0) 
+				&& largest + overhead > getSession().getMaximumRemotePacketLength()) {
+			largest = getSession().getMaximumRemotePacketLength() - overhead;
+		}
+		pipeline.start(largest);
+		
+		InFlight requests = new InFlight(pipeline.getMaximumRequests());
+		byte[] buf = new byte[pipeline.getBlockSize()];
+		long offset = position;
+		long transfered = position;
+		boolean eof = false;
+		
+		try {
+			while(true) {
+				
+				while(!eof && requests.size() < pipeline.getOutstandingRequests()) {
+					if(buf.length != pipeline.getBlockSize()) {
+						buf = new byte[pipeline.getBlockSize()];
+					}
+					int len = IOUtils.readyFully(in, buf);
+					if(len <= 0) {
+						eof = true;
+						break;
+					}
+					requests.add(postWriteRequest(handle, offset, buf, 0, len), offset, len);
+					offset += len;
+					if(len < buf.length) {
+						eof = true;
+					}
+				}
+				
+				if(requests.size() == 0) {
+					break;
+				}
+				
+				int len = requests.length();
+				long posted = requests.posted();
+				getOKRequestStatus(requests.remove());
+				
+				if (progress != null) {
+					progress.progressed(transfered += len);
+				}
+				if(pipeline.completed(System.nanoTime() - posted, len) && progress != null) {
+					progress.statistics(pipeline);
+				}
+				if (progress != null && progress.isCancelled()) {
+					throw new TransferCancelledException();
+				}
+			}
+		} catch (IOException ex) {
+			throw new TransferCancelledException();
+		} finally {
+			discard(requests);
+		}
+		
+		if(progress != null) {
+			progress.statistics(pipeline);
+		}
+	}
+	
+	private void discard(InFlight requests) {
+		while(requests.size() > 0) {
+			try {
+				getResponse(requests.remove()).release();
+			} catch (SshException e) {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * The requests of a pipelined transfer in the order they were posted.
+	 */
+	static class InFlight {
+		
+		UnsignedInteger32[] ids;
+		long[] offsets;
+		long[] posted;
+		int[] lengths;
+		int head;
+		int size;
+		
+		InFlight(int capacity) {
+			ids = new UnsignedInteger32[capacity];
+			offsets = new long[capacity];
+			posted = new long[capacity];
+			lengths = new int[capacity];
+		}
+		
+		int size() {
+			return size;
+		}
+		
+		void add(UnsignedInteger32 id, long offset, int length) {
+			int i = (head + size) % ids.length;
+			ids[i] = id;
+			offsets[i] = offset;
+			lengths[i] = length;
+			posted[i] = System.nanoTime();
+			size++;
+		}
+		
+		long offset() {
+			return offsets[head];
+		}
+		
+		int length() {
+			return lengths[head];
+		}
+		
+		long posted() {
+			return posted[head];
+		}
+		
+		UnsignedInteger32 remove() {
+			UnsignedInteger32 id = ids[head];
+			ids[head] = null;
+			head = (head + 1) % ids.length;
+			size--;
+			return id;
+		}
+	}
+
 	/**
 	 * Perform a synchronous read of a file from the remote file system. This
 	 * implementation waits for acknowledgement of every data packet before
@@ -1256,12 +1942,12 @@ public class SftpChannel extends AbstractSubsystem {
 			Log.trace("Performing synchronous read postion=" + position
 					+ " blocksize=" + blocksize);
 
-		if (blocksize < 1 || blocksize > 32768) {
+		if (blocksize < 1 || blocksize > getMaximumReadLength()) {
 
 			if(Log.isTraceEnabled())
-				Log.trace("Blocksize to large for some SFTP servers, reseting to 32K");
+				Log.trace("Blocksize to large for the SFTP server, reseting to " + getMaximumReadLength());
 
-			blocksize = 32768;
+			blocksize = getMaximumReadLength();
 		}
 
 		if (position < 0) {
@@ -1528,6 +2214,7 @@ public class SftpChannel extends AbstractSubsystem {
 		} catch (IOException ex) {
 			throw new SshException(ex);
 		}
+		invalidate(linkpath);
 
 	}
 	
@@ -1574,6 +2261,7 @@ public class SftpChannel extends AbstractSubsystem {
 		} catch (IOException ex) {
 			throw new SshException(ex);
 		}
+		invalidate(linkpath);
 
 	}
 
@@ -1641,6 +2329,13 @@ public class SftpChannel extends AbstractSubsystem {
 	 */
 	public String getAbsolutePath(String path) throws SftpStatusException,
 			SshException {
+		AttributeCache cache = attributeCache;
+		if(Objects.nonNull(cache)) {
+			String absolutePath = cache.getAbsolutePath(path);
+			if(Objects.nonNull(absolutePath)) {
+				return absolutePath;
+			}
+		}
 		try {
 			UnsignedInteger32 requestId = nextRequestId();
 			Packet msg = createPacket();
@@ -1649,8 +2344,17 @@ public class SftpChannel extends AbstractSubsystem {
 			msg.writeString(path, CHARSET_ENCODING);
 			sendMessage(msg);
 
-			return getSingleFileResponse(getResponse(requestId), "SSH_FXP_REALPATH").getAbsolutePath();
+			String absolutePath = getSingleFileResponse(getResponse(requestId), "SSH_FXP_REALPATH").getAbsolutePath();
+			if(Objects.nonNull(cache)) {
+				cache.putAbsolutePath(path, absolutePath);
+			}
+			return absolutePath;
 			
+		} catch (SftpStatusException e) {
+			if(Objects.nonNull(cache)) {
+				cache.putFailure(AttributeCache.REALPATH, path, e);
+			}
+			throw e;
 		} catch (SshIOException ex) {
 			throw ex.getRealException();
 		} catch (IOException ex) {
@@ -1745,21 +2449,14 @@ public class SftpChannel extends AbstractSubsystem {
 		}
 
 		try {
-			UnsignedInteger32 requestId = nextRequestId();
-			Packet msg = createPacket();
-			msg.write(SSH_FXP_READDIR);
-			msg.writeInt(requestId.longValue());
-			msg.writeBinaryString(file.getHandle());
-
-			sendMessage(msg);;
-
-			SftpMessage bar = getResponse(requestId);
+			SftpMessage bar = getResponse(postReadDirectoryRequest(file.getHandle()));
 			
 			try {
 				if (bar.getType() == SSH_FXP_NAME) {
 					SftpFile[] files = extractFiles(bar, file.getAbsolutePath());
 	
 					for (int i = 0; i < files.length; i++) {
+						cacheListing(files[i]);
 						children.add(files[i]);
 					}
 					return files.length;
@@ -1793,6 +2490,34 @@ public class SftpChannel extends AbstractSubsystem {
 
 	}
 
+	/**
+	 * Post a request for the next page of a directory listing without waiting for the
+	 * response. Requests for the same handle are answered in order, and once the end of
+	 * the directory has been reached every further request is answered with SSH_FX_EOF.
+	 * 
+	 * @param handle
+	 *            the handle of an open directory
+	 * @return UnsignedInteger32
+	 * @throws SshException
+	 */
+	public UnsignedInteger32 postReadDirectoryRequest(byte[] handle) throws SshException {
+		try {
+			UnsignedInteger32 requestId = nextRequestId();
+			Packet msg = createPacket();
+			msg.write(SSH_FXP_READDIR);
+			msg.writeInt(requestId.longValue());
+			msg.writeBinaryString(handle);
+
+			sendMessage(msg);
+			
+			return requestId;
+		} catch (SshIOException ex) {
+			throw ex.getRealException();
+		} catch (IOException ex) {
+			throw new SshException(ex);
+		}
+	}
+	
 	SftpFile[] extractFiles(SftpMessage bar, String parent) throws SshException {
 
 		try {
@@ -1804,44 +2529,61 @@ public class SftpChannel extends AbstractSubsystem {
 			int count = (int) bar.readInt();
 			SftpFile[] files = new SftpFile[count];
 
-			String shortname;
-			String longname = null;
-
 			for (int i = 0; i < files.length; i++) {
-				shortname = bar.readString(CHARSET_ENCODING);
+				files[i] = extractFile(bar, parent);
+			}
 
-				if (version <= 3) {
-					// read and throw away the longname as don't use it but need
-					// to read it out of the bar to advance the position.
-					longname = bar.readString(CHARSET_ENCODING);
-				}
+			return files;
+		} catch (SshIOException ex) {
+			throw ex.getRealException();
+		} catch (IOException ex) {
+			throw new SshException(ex);
+		}
+	}
+	
+	/**
+	 * Read the next entry of an SSH_FXP_NAME response.
+	 * 
+	 * @param bar
+	 * @param parent the path to prefix the name with, ending with a separator, or <code>null</code>
+	 * @return SftpFile
+	 */
+	SftpFile extractFile(SftpMessage bar, String parent) throws SshException {
+		
+		try {
+			String shortname = bar.readString(CHARSET_ENCODING);
+			String longname = null;
 
-				files[i] = new SftpFile(parent != null ? parent + shortname
-						: shortname, new SftpFileAttributes(bar, getVersion(), getCharsetEncoding()));
-				files[i].longname = longname;
+			if (version <= 3) {
+				// read and throw away the longname as don't use it but need
+				// to read it out of the bar to advance the position.
+				longname = bar.readString(CHARSET_ENCODING);
+			}
 
-				// Work out username/group from long name
-				if (longname != null && version <= 3) {
-					try {
-						StringTokenizer t = new StringTokenizer(longname);
-						t.nextToken();
-						t.nextToken();
-						String username = t.nextToken();
-						String group = t.nextToken();
+			SftpFile file = new SftpFile(parent != null ? parent + shortname
+					: shortname, new SftpFileAttributes(bar, getVersion(), getCharsetEncoding()));
+			file.longname = longname;
 
-						files[i].getAttributes().setUsername(username);
-						files[i].getAttributes().setGroup(group);
+			// Work out username/group from long name
+			if (longname != null && version <= 3) {
+				try {
+					StringTokenizer t = new StringTokenizer(longname);
+					t.nextToken();
+					t.nextToken();
+					String username = t.nextToken();
+					String group = t.nextToken();
 
-					} catch (Exception e) {
+					file.getAttributes().setUsername(username);
+					file.getAttributes().setGroup(group);
 
-					}
+				} catch (Exception e) {
 
 				}
 
-				files[i].setSFTPSubsystem(this);
 			}
 
-			return files;
+			file.setSFTPSubsystem(this);
+			return file;
 		} catch (SshIOException ex) {
 			throw ex.getRealException();
 		} catch (IOException ex) {
@@ -1858,30 +2600,10 @@ public class SftpChannel extends AbstractSubsystem {
 	 */
 	public void recurseMakeDirectory(String path) throws SftpStatusException,
 			SshException {
-		SftpFile file;
-
 		if (path.trim().length() > 0) {
-			try {
-				file = openDirectory(path);
-				file.close();
-			} catch (SshException ioe) {
-
-				int idx = 0;
-
-				do {
-
-					idx = path.indexOf('/', idx);
-					String tmp = (idx > -1 ? path.substring(0, idx + 1) : path);
-					try {
-						file = openDirectory(tmp);
-						file.close();
-					} catch (SshException ioe7) {
-						makeDirectory(tmp);
-					}
-
-				} while (idx > -1);
-
-			}
+			TreePipeline.makeDirectories(this, Arrays.asList(path), new SftpFileAttributes(
+					SftpFileAttributes.SSH_FILEXFER_TYPE_DIRECTORY,
+					getCharsetEncoding()), 64).throwFailure();
 		}
 	}
 
@@ -1985,6 +2707,10 @@ public class SftpChannel extends AbstractSubsystem {
 				msg.write(attrs.toByteArray(getVersion()));
 
 				sendMessage(msg);
+				
+				if((flags & (OPEN_WRITE | OPEN_APPEND | OPEN_CREATE | OPEN_TRUNCATE)) != 0) {
+					invalidate(absolutePath);
+				}
 
 				byte[] handle = getHandleResponse(requestId);
 
@@ -2028,6 +2754,11 @@ public class SftpChannel extends AbstractSubsystem {
 			msg.write(attrs.toByteArray(getVersion()));
 
 			sendMessage(msg);
+			
+			if((accessFlags & (ACL.ACE4_WRITE_DATA | ACL.ACE4_APPEND_DATA)) != 0
+					|| (flags & SSH_FXF_ACCESS_DISPOSITION) != SSH_FXF_OPEN_EXISTING) {
+				invalidate(absolutePath);
+			}
 
 			byte[] handle = getHandleResponse(requestId);
 
@@ -2125,7 +2856,12 @@ public class SftpChannel extends AbstractSubsystem {
 			SshException {
 
 		if (file.getHandle() != null) {
-			closeHandle(file.getHandle());
+			try {
+				closeHandle(file.getHandle());
+			} finally {
+				// The size and times of a file written through the handle are only known now
+				invalidate(file.getAbsolutePath());
+			}
 			EventServiceImplementation.getInstance().fireEvent(
 					(new Event(this, EventCodes.EVENT_SFTP_FILE_CLOSED,
 							true)).addAttribute(
@@ -2148,6 +2884,10 @@ public class SftpChannel extends AbstractSubsystem {
 	 */
 	public void removeDirectory(String path) throws SftpStatusException,
 			SshException {
+		completeRemoveDirectory(path, postRemoveDirectoryRequest(path));
+	}
+	
+	UnsignedInteger32 postRemoveDirectoryRequest(String path) throws SshException {
 		try {
 			UnsignedInteger32 requestId = nextRequestId();
 			Packet msg = createPacket();
@@ -2157,12 +2897,22 @@ public class SftpChannel extends AbstractSubsystem {
 
 			sendMessage(msg);
 
-			getOKRequestStatus(requestId);
+			return requestId;
 		} catch (SshIOException ex) {
 			throw ex.getRealException();
 		} catch (IOException ex) {
 			throw new SshException(ex);
 		}
+	}
+	
+	void completeRemoveDirectory(String path, UnsignedInteger32 requestId) 
+			throws SftpStatusException, SshException {
+		try {
+			getOKRequestStatus(requestId);
+		} finally {
+			/* Only an empty directory can be removed, so there is nothing beneath it to discard */
+			invalidate(path);
+		}
 		EventServiceImplementation.getInstance().fireEvent(
 				(new Event(this, EventCodes.EVENT_SFTP_DIRECTORY_DELETED,
 						true)).addAttribute(
@@ -2178,6 +2928,10 @@ public class SftpChannel extends AbstractSubsystem {
 	 */
 	public void removeFile(String filename) throws SftpStatusException,
 			SshException {
+		completeRemoveFile(filename, postRemoveFileRequest(filename));
+	}
+	
+	UnsignedInteger32 postRemoveFileRequest(String filename) throws SshException {
 		try {
 			UnsignedInteger32 requestId = nextRequestId();
 			Packet msg = createPacket();
@@ -2187,12 +2941,21 @@ public class SftpChannel extends AbstractSubsystem {
 
 			sendMessage(msg);
 
-			getOKRequestStatus(requestId);
+			return requestId;
 		} catch (SshIOException ex) {
 			throw ex.getRealException();
 		} catch (IOException ex) {
 			throw new SshException(ex);
 		}
+	}
+	
+	void completeRemoveFile(String filename, UnsignedInteger32 requestId) 
+			throws SftpStatusException, SshException {
+		try {
+			getOKRequestStatus(requestId);
+		} finally {
+			invalidate(filename);
+		}
 		EventServiceImplementation.getInstance()
 				.fireEvent(
 						(new Event(this,
@@ -2241,6 +3004,9 @@ public class SftpChannel extends AbstractSubsystem {
 			throw ex.getRealException();
 		} catch (IOException ex) {
 			throw new SshException(ex);
+		} finally {
+			invalidateTree(oldpath);
+			invalidateTree(newpath);
 		}
 		EventServiceImplementation
 				.getInstance()
@@ -2283,6 +3049,40 @@ public class SftpChannel extends AbstractSubsystem {
 
 	protected SftpFileAttributes getAttributes(String path, int messageId)
 			throws SftpStatusException, SshException {
+		AttributeCache cache = attributeCache;
+		int type = messageId == SSH_FXP_LSTAT ? AttributeCache.LSTAT : AttributeCache.STAT;
+		if(Objects.nonNull(cache)) {
+			SftpFileAttributes attrs = cache.getAttributes(type, path, getVersion(), getCharsetEncoding());
+			if(Objects.nonNull(attrs)) {
+				return attrs;
+			}
+		}
+		return completeAttributes(path, messageId, postAttributesRequest(path, messageId));
+	}
+	
+	SftpFileAttributes completeAttributes(String path, int messageId, UnsignedInteger32 requestId) 
+			throws SftpStatusException, SshException {
+		AttributeCache cache = attributeCache;
+		int type = messageId == SSH_FXP_LSTAT ? AttributeCache.LSTAT : AttributeCache.STAT;
+		SftpMessage bar = getResponse(requestId);
+		try {
+			SftpFileAttributes attrs = extractAttributes(bar);
+			if(Objects.nonNull(cache)) {
+				cache.putAttributes(type, path, attrs, getVersion());
+			}
+			return attrs;
+		} catch(SftpStatusException e) {
+			if(Objects.nonNull(cache)) {
+				cache.putFailure(type, path, e);
+			}
+			throw e;
+		} finally {
+			bar.release();
+		}
+	}
+	
+	UnsignedInteger32 postAttributesRequest(String path, int messageId)
+			throws SftpStatusException, SshException {
 		try {
 			UnsignedInteger32 requestId = nextRequestId();
 			Packet msg = createPacket();
@@ -2310,12 +3110,7 @@ public class SftpChannel extends AbstractSubsystem {
 
 			sendMessage(msg);
 
-			SftpMessage bar = getResponse(requestId);
-			try {
-				return extractAttributes(bar);
-			} finally {
-				bar.release();
-			}
+			return requestId;
 		} catch (SshIOException ex) {
 			throw ex.getRealException();
 		} catch (IOException ex) {
@@ -2423,6 +3218,11 @@ public class SftpChannel extends AbstractSubsystem {
 	 */
 	public void makeDirectory(String path, SftpFileAttributes attrs)
 			throws SftpStatusException, SshException {
+		completeMakeDirectory(path, postMakeDirectoryRequest(path, attrs));
+	}
+	
+	UnsignedInteger32 postMakeDirectoryRequest(String path, SftpFileAttributes attrs) 
+			throws SshException {
 		try {
 			UnsignedInteger32 requestId = nextRequestId();
 
@@ -2433,8 +3233,8 @@ public class SftpChannel extends AbstractSubsystem {
 			msg.write(attrs.toByteArray(getVersion()));
 
 			sendMessage(msg);
-
-			getOKRequestStatus(requestId);
+			
+			return requestId;
 		} catch (SshIOException ex) {
 			throw ex.getRealException();
 		} catch (IOException ex) {
@@ -2442,6 +3242,15 @@ public class SftpChannel extends AbstractSubsystem {
 		}
 	}
 	
+	void completeMakeDirectory(String path, UnsignedInteger32 requestId) 
+			throws SftpStatusException, SshException {
+		try {
+			getOKRequestStatus(requestId);
+		} finally {
+			invalidate(path);
+		}
+	}
+	
 	public byte[] getHandleResponse(UnsignedInteger32 requestId)
 			throws SftpStatusException, SshException {
 		return getHandleResponse(getResponse(requestId));
@@ -2478,10 +3287,11 @@ public class SftpChannel extends AbstractSubsystem {
 			throws SftpStatusException, SshException {
 
 		SftpMessage bar = getResponse(requestId);
+		if (bar.getType() == SSH_FXP_EXTENDED_REPLY) {
+			return bar;
+		}
 		try {
-			if (bar.getType() == SSH_FXP_EXTENDED_REPLY) {
-				return bar;
-			} else if (bar.getType() == SSH_FXP_STATUS) {
+			if (bar.getType() == SSH_FXP_STATUS) {
 				int status = (int) bar.readInt();
 
 				if (version >= 3) {
@@ -2519,6 +3329,10 @@ public class SftpChannel extends AbstractSubsystem {
 	public UnsignedInteger32 sendExtensionMessage(String request, byte[] requestData)
 			throws SshException, SftpStatusException {
 
+		AttributeCache cache = attributeCache;
+		if(Objects.nonNull(cache) && !READ_ONLY_EXTENSIONS.contains(request)) {
+			cache.clear();
+		}
 		try {
 			UnsignedInteger32 id = nextRequestId();
 			Packet packet = createPacket();
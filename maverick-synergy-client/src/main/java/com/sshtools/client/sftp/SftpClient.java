@@ -18,6 +18,8 @@
  */
 package com.sshtools.client.sftp;
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -29,13 +31,22 @@ import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.StringTokenizer;
+import java.util.Objects;
 import java.util.Vector;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import com.sshtools.client.SshClient;
 import com.sshtools.client.tasks.FileTransferProgress;
@@ -44,6 +55,7 @@ import com.sshtools.common.files.AbstractFileFactory;
 import com.sshtools.common.files.direct.DirectFileFactory;
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.sftp.DirectoryArchiveInputStream;
 import com.sshtools.common.sftp.GlobSftpFileFilter;
 import com.sshtools.common.sftp.RegexSftpFileFilter;
 import com.sshtools.common.sftp.SftpFileAttributes;
@@ -54,6 +66,7 @@ import com.sshtools.common.ssh.SshException;
 import com.sshtools.common.util.ByteArrayWriter;
 import com.sshtools.common.util.EOLProcessor;
 import com.sshtools.common.util.FileUtils;
+import com.sshtools.common.util.TarEntry;
 import com.sshtools.common.util.UnsignedInteger32;
 import com.sshtools.common.util.UnsignedInteger64;
 
@@ -63,13 +76,26 @@ import com.sshtools.common.util.UnsignedInteger64;
 public class SftpClient {
 
 	SftpChannel sftp;
+	SshConnection con;
 
 	String cwd;
 	AbstractFile lcwd;
 	AbstractFileFactory<?> fileFactory;
 	
-	private int blocksize = 16384;
+	boolean remoteFilteringUnsupported = false;
+	
+	static final String OPEN_DIRECTORY_WITH_FILTER = "open-directory-with-filter@sshtools.com";
+	
+	private int blocksize = -1;
 	private int asyncRequests = 16;
+	private AdaptivePipeline adaptivePipeline;
+	private int concurrentTransfers = 1;
+	private int directoryPrefetch = 4;
+	private int maximumTreeRequests = 64;
+	private int transferChannels = 1;
+	private long maximumInFlightBytes = 64 * 1024 * 1024;
+	private Function<String,FileTransferProgress> transferProgressFactory;
+	private List<SftpClient> transferClients = new ArrayList<SftpClient>();
 	private int buffersize = 1024000;
 
 	// Default permissions is determined by default_permissions ^ umask
@@ -128,6 +154,7 @@ public class SftpClient {
 		this.fileFactory = fileFactory;
 		this.cwd = "";
 		this.lcwd = fileFactory.getFile("");
+		this.con = con;
 		this.sftp = new SftpChannel(con);
 	}
 	
@@ -140,9 +167,10 @@ public class SftpClient {
 	}
 	
 	/**
-	 * Sets the block size used when transferring files, defaults to the
-	 * optimized setting of 32768. You should not increase this value as the
-	 * remote server may not be able to support higher blocksizes.
+	 * Sets the block size used when transferring files. By default the block size
+	 * is sized automatically from the limits advertised by the server, falling back to
+	 * the optimized setting of 32768 when the server does not advertise any. You should 
+	 * not increase this value as the remote server may not be able to support higher blocksizes.
 	 * 
 	 * @param blocksize
 	 */
@@ -294,8 +322,9 @@ public class SftpClient {
 	/**
 	 * Set the maximum number of asynchronous requests that are outstanding at
 	 * any one time. This setting is used to optimize the reading and writing of
-	 * files to/from the remote file system when using the get and put methods.
-	 * The default for this setting is 100.
+	 * files to/from the remote file system when using the get and put methods,
+	 * and by the streams returned from getInputStream and getOutputStream.
+	 * The default for this setting is 16.
 	 * 
 	 * @param asyncRequests
 	 */
@@ -311,6 +340,324 @@ public class SftpClient {
 
 	}
 
+	/**
+	 * Adapt the number of outstanding requests and the block size of get and put
+	 * transfers to the round trip time measured during each transfer, within the
+	 * bounds of the given pipeline. Each transfer starts from a copy of this pipeline
+	 * and reports its statistics through {@link FileTransferProgress#statistics(com.sshtools.client.tasks.TransferStatistics)}.
+	 * When set, the values of {@link #setBlockSize(int)} and {@link #setMaxAsyncRequests(int)}
+	 * are not used.
+	 * 
+	 * @param adaptivePipeline the pipeline bounds, or <code>null</code> to use a fixed pipeline.
+	 */
+	public void setAdaptivePipeline(AdaptivePipeline adaptivePipeline) {
+		this.adaptivePipeline = adaptivePipeline;
+	}
+	
+	/**
+	 * Get the bounds of the adaptive pipeline used by get and put transfers.
+	 * 
+	 * @return the pipeline, or <code>null</code> if transfers use a fixed pipeline.
+	 */
+	public AdaptivePipeline getAdaptivePipeline() {
+		return adaptivePipeline;
+	}
+
+	/**
+	 * Set the number of READDIR requests kept in flight when listing a directory with 
+	 * {@link #ls(String)} or {@link #lsIterator(String)}. Each request returns a page of 
+	 * the listing, so a larger value hides more of the round trip time on a slow link. 
+	 * 
+	 * @param directoryPrefetch
+	 */
+	public void setDirectoryPrefetch(int directoryPrefetch) {
+		if (directoryPrefetch < 1) {
+			throw new IllegalArgumentException(
+					"Directory prefetch must be greater or equal to 1");
+		}
+		this.directoryPrefetch = directoryPrefetch;
+	}
+	
+	public int getDirectoryPrefetch() {
+		return directoryPrefetch;
+	}
+	
+	/**
+	 * Cache the attributes and canonical paths of remote files so that repeated calls to
+	 * methods such as {@link #stat(String)}, {@link #cd(String)} and {@link #mkdirs(String)}
+	 * do not each wait for a round trip to the server. Entries are discarded when this client
+	 * changes the file, but changes made by anyone else are only seen once an entry expires, 
+	 * so the cache is disabled by default. Pass <code>null</code> to disable it again.
+	 * 
+	 * @param attributeCache
+	 */
+	public void setAttributeCache(AttributeCache attributeCache) {
+		sftp.setAttributeCache(attributeCache);
+		synchronized(transferClients) {
+			for(SftpClient client : transferClients) {
+				client.sftp.setAttributeCache(attributeCache);
+			}
+		}
+	}
+	
+	public AttributeCache getAttributeCache() {
+		return sftp.getAttributeCache();
+	}
+	
+	/**
+	 * Set the number of requests kept in flight by operations on a tree of paths, such as
+	 * {@link #mkdirs(String)}, {@link #removeTree(String)} and {@link #chmod(int, String, boolean)}.
+	 * 
+	 * @param maximumTreeRequests
+	 */
+	public void setMaximumTreeRequests(int maximumTreeRequests) {
+		if (maximumTreeRequests < 1) {
+			throw new IllegalArgumentException(
+					"Maximum tree requests must be greater or equal to 1");
+		}
+		this.maximumTreeRequests = maximumTreeRequests;
+	}
+	
+	public int getMaximumTreeRequests() {
+		return maximumTreeRequests;
+	}
+	
+	/**
+	 * Set the number of files that getFiles, putFiles, putLocalDirectory and getRemoteDirectory
+	 * transfer at the same time. Smaller files are started first. The default of 1 transfers
+	 * one file after another.
+	 * 
+	 * @param concurrentTransfers
+	 */
+	public void setConcurrentTransfers(int concurrentTransfers) {
+		if (concurrentTransfers < 1) {
+			throw new IllegalArgumentException(
+					"Concurrent transfers must be greater or equal to 1");
+		}
+		this.concurrentTransfers = concurrentTransfers;
+	}
+	
+	public int getConcurrentTransfers() {
+		return concurrentTransfers;
+	}
+	
+	/**
+	 * Set the number of SFTP channels that concurrent transfers are spread across. The 
+	 * additional channels are opened on the same connection when first needed and closed 
+	 * by {@link #exit()}. The default of 1 multiplexes every transfer over this client's channel.
+	 * 
+	 * @param transferChannels
+	 */
+	public void setTransferChannels(int transferChannels) {
+		if (transferChannels < 1) {
+			throw new IllegalArgumentException(
+					"Transfer channels must be greater or equal to 1");
+		}
+		this.transferChannels = transferChannels;
+	}
+	
+	public int getTransferChannels() {
+		return transferChannels;
+	}
+	
+	/**
+	 * Set the total size of the files that concurrent transfers may have in progress at
+	 * any one time. A file larger than this is transferred on its own.
+	 * 
+	 * @param maximumInFlightBytes
+	 */
+	public void setMaximumInFlightBytes(long maximumInFlightBytes) {
+		if (maximumInFlightBytes < 1) {
+			throw new IllegalArgumentException(
+					"Maximum in-flight bytes must be greater or equal to 1");
+		}
+		this.maximumInFlightBytes = maximumInFlightBytes;
+	}
+	
+	public long getMaximumInFlightBytes() {
+		return maximumInFlightBytes;
+	}
+	
+	/**
+	 * Set a factory that creates a separate progress for each file of a concurrent transfer 
+	 * from the path of the file. Without one every file reports to the progress passed to
+	 * the operation, so the callbacks of files transferred at the same time are interleaved.
+	 * The factory may return null to report a file to the operations progress.
+	 * 
+	 * @param transferProgressFactory
+	 */
+	public void setTransferProgressFactory(Function<String,FileTransferProgress> transferProgressFactory) {
+		this.transferProgressFactory = transferProgressFactory;
+	}
+	
+	public Function<String,FileTransferProgress> getTransferProgressFactory() {
+		return transferProgressFactory;
+	}
+	
+	/**
+	 * Create an engine to run the transfers of a multiple file operation, or return null 
+	 * if files should be transferred one after another.
+	 */
+	private TransferEngine createTransferEngine(FileTransferProgress progress, boolean failFast) 
+			throws SshException, PermissionDeniedException, IOException {
+		if(concurrentTransfers <= 1) {
+			return null;
+		}
+		
+		return new TransferEngine(getTransferClients(transferChannels), 
+				concurrentTransfers, maximumInFlightBytes, progress, transferProgressFactory, failFast);
+	}
+	
+	/**
+	 * Get this client followed by additional clients on the same connection, sharing
+	 * the working directories and transfer settings of this client.
+	 */
+	private SftpClient[] getTransferClients(int channels) 
+			throws SshException, PermissionDeniedException, IOException {
+		List<SftpClient> clients = new ArrayList<SftpClient>();
+		clients.add(this);
+		synchronized(transferClients) {
+			while(transferClients.size() < channels - 1) {
+				transferClients.add(new SftpClient(con, fileFactory));
+			}
+			for(int i = 0; i < channels - 1; i++) {
+				SftpClient client = transferClients.get(i);
+				client.cwd = cwd;
+				client.lcwd = lcwd;
+				client.blocksize = blocksize;
+				client.asyncRequests = asyncRequests;
+				client.adaptivePipeline = adaptivePipeline;
+				client.buffersize = buffersize;
+				client.umask = umask;
+				client.applyUmask = applyUmask;
+				client.outputEOL = outputEOL;
+				client.inputEOL = inputEOL;
+				client.stripEOL = stripEOL;
+				client.forceRemoteEOL = forceRemoteEOL;
+				client.transferMode = transferMode;
+				client.sftp.setAttributeCache(sftp.getAttributeCache());
+				clients.add(client);
+			}
+		}
+		return clients.toArray(new SftpClient[0]);
+	}
+	
+	/**
+	 * Create the pipeline for a transfer that must address the file by position.
+	 */
+	AdaptivePipeline newPipeline() {
+		return Objects.isNull(adaptivePipeline) ? new AdaptivePipeline() : new AdaptivePipeline(adaptivePipeline);
+	}
+	
+	/**
+	 * Download a large file by transferring ranges of it at the same time over a number of
+	 * SFTP channels on this connection. Use {@link StripedTransfer} directly to spread the
+	 * ranges over several connections.
+	 * 
+	 * @param remote
+	 * @param local
+	 * @param stripes the number of channels to use
+	 * @param progress
+	 * @return the downloaded file's attributes
+	 * 
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 * @throws PermissionDeniedException 
+	 * @throws IOException 
+	 */
+	public SftpFileAttributes getStriped(String remote, String local, int stripes, FileTransferProgress progress) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		return new StripedTransfer(getTransferClients(stripes)).download(remote, local, progress);
+	}
+	
+	/**
+	 * Download a file recording its progress in a checkpoint file next to the local file, so 
+	 * that calling this method again after a failure resumes the transfer. See {@link ResumableTransfer}.
+	 * 
+	 * @param remote
+	 * @param local
+	 * @param progress
+	 * @return the downloaded file's attributes
+	 * 
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 * @throws PermissionDeniedException 
+	 * @throws IOException 
+	 */
+	public SftpFileAttributes getResumable(String remote, String local, FileTransferProgress progress) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		return new ResumableTransfer(this).download(remote, local, progress);
+	}
+	
+	/**
+	 * Upload a file recording its progress in a checkpoint file next to the local file, so 
+	 * that calling this method again after a failure resumes the transfer. See {@link ResumableTransfer}.
+	 * 
+	 * @param local
+	 * @param remote
+	 * @param progress
+	 * 
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 * @throws PermissionDeniedException 
+	 * @throws IOException 
+	 */
+	public void putResumable(String local, String remote, FileTransferProgress progress) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		new ResumableTransfer(this).upload(local, remote, progress);
+	}
+	
+	/**
+	 * Upload a large file by transferring ranges of it at the same time over a number of
+	 * SFTP channels on this connection. Use {@link StripedTransfer} directly to spread the
+	 * ranges over several connections.
+	 * 
+	 * @param local
+	 * @param remote
+	 * @param stripes the number of channels to use
+	 * @param progress
+	 * 
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 * @throws PermissionDeniedException 
+	 * @throws IOException 
+	 */
+	public void putStriped(String local, String remote, int stripes, FileTransferProgress progress) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		new StripedTransfer(getTransferClients(stripes)).upload(local, remote, progress);
+	}
+	
+	/**
+	 * Wait for the transfers of a directory operation and record the files that failed.
+	 */
+	private void completeTransfers(TransferEngine engine, DirectoryOperation op) throws SftpStatusException, 
+			SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		Exception fatal = null;
+		for(Map.Entry<Object,Exception> failure : engine.await().entrySet()) {
+			if(failure.getValue() instanceof SftpStatusException) {
+				op.failedTransfers.put(failure.getKey(), failure.getValue());
+			} else if(Objects.isNull(fatal)) {
+				fatal = failure.getValue();
+			}
+		}
+		if(Objects.nonNull(fatal)) {
+			TransferEngine.rethrow(fatal);
+		}
+	}
+	
+	private long sizeOf(SftpFile file) {
+		try {
+			UnsignedInteger64 size = file.getAttributes().getSize();
+			return Objects.isNull(size) ? 0 : size.longValue();
+		} catch (SftpStatusException | SshException e) {
+			return 0;
+		}
+	}
+
 	/**
 	 * Sets the umask used by this client. <blockquote>
 	 * 
@@ -456,7 +803,7 @@ public class SftpClient {
 
 	}
 
-	private AbstractFile resolveLocalPath(String path) throws IOException, PermissionDeniedException {
+	AbstractFile resolveLocalPath(String path) throws IOException, PermissionDeniedException {
 		return lcwd.resolveFile(path);
 	}
 
@@ -522,7 +869,7 @@ public class SftpClient {
 	 * @throws SftpStatusException
 	 * @throws SshException 
 	 */
-	private String resolveRemotePath(String path) throws SftpStatusException, SshException {
+	String resolveRemotePath(String path) throws SftpStatusException, SshException {
 		verifyConnection();
 
 		String actual;
@@ -573,13 +920,7 @@ public class SftpClient {
 			// only create the directory if catch an exception with code file
 			// not found
 			
-			SftpFileAttributes newattrs = new SftpFileAttributes(
-					SftpFileAttributes.SSH_FILEXFER_TYPE_DIRECTORY,
-					sftp.getCharsetEncoding());;
-			if(applyUmask) {
-				newattrs.setPermissions(new UnsignedInteger32(0777 ^ umask));
-			}
-			sftp.makeDirectory(actual, newattrs);
+			sftp.makeDirectory(actual, newDirectoryAttributes());
 			return;
 		}
 
@@ -605,25 +946,41 @@ public class SftpClient {
 	 *            the path of directories to create.
 	 */
 	public void mkdirs(String dir) throws SftpStatusException, SshException {
-		StringTokenizer tokens = new StringTokenizer(dir, "/");
-		String path = dir.startsWith("/") ? "/" : "";
-
-		while (tokens.hasMoreElements()) {
-			path += (String) tokens.nextElement();
-
-			try {
-				stat(path);
-			} catch (SftpStatusException ex) {
-				try {
-					mkdir(path);
-				} catch (SftpStatusException ex2) {
-					if (ex2.getStatus() == SftpStatusException.SSH_FX_PERMISSION_DENIED)
-						throw ex2;
-				}
-			}
-
-			path += "/";
+		TreeOperation op = mkdirs(Arrays.asList(dir));
+		for(SftpStatusException ex : op.getFailures().values()) {
+			if (ex.getStatus() == SftpStatusException.SSH_FX_PERMISSION_DENIED)
+				throw ex;
+		}
+	}
+	
+	/**
+	 * <p>
+	 * Create a number of directories along with any of their parents that do not exist.
+	 * The existence of every parent is checked at the same time, then the missing directories 
+	 * are created with each one waiting only for its own parent, so the siblings of a tree
+	 * are created together.
+	 * </p>
+	 * 
+	 * @param dirs
+	 *            the paths of the directories to create.
+	 * @return the paths that were created or already existed, and those that could not be created
+	 */
+	public TreeOperation mkdirs(Collection<String> dirs) throws SftpStatusException, SshException {
+		List<String> actual = new ArrayList<String>();
+		for(String dir : dirs) {
+			actual.add(resolveRemotePath(dir));
+		}
+		return TreePipeline.makeDirectories(sftp, actual, newDirectoryAttributes(), maximumTreeRequests);
+	}
+	
+	private SftpFileAttributes newDirectoryAttributes() {
+		SftpFileAttributes attrs = new SftpFileAttributes(
+				SftpFileAttributes.SSH_FILEXFER_TYPE_DIRECTORY,
+				sftp.getCharsetEncoding());
+		if(applyUmask) {
+			attrs.setPermissions(new UnsignedInteger32(0777 ^ umask));
 		}
+		return attrs;
 	}
 
 	/**
@@ -698,18 +1055,12 @@ public class SftpClient {
 		if(Log.isDebugEnabled())
 			Log.debug("Listing files for " + actual);
 
-		SftpFile file = sftp.openDirectory(actual);
-		Vector<SftpFile> children = new Vector<SftpFile>();
-		while (sftp.listChildren(file, children) > -1) {
-			;
-		}
-		file.close();
-		SftpFile[] files = new SftpFile[children.size()];
-		int index = 0;
-		for (Enumeration<SftpFile> e = children.elements(); e.hasMoreElements();) {
-			files[index++] = e.nextElement();
+		DirectoryIterator it = new DirectoryIterator(actual);
+		List<SftpFile> children = new ArrayList<SftpFile>();
+		while (it.hasNext()) {
+			children.add(it.take());
 		}
-		return files;
+		return children.toArray(new SftpFile[0]);
 	}
 	
 	public SftpFile[] ls(String filter, boolean regexFilter, int maximumFiles) throws SftpStatusException, SshException {
@@ -717,10 +1068,29 @@ public class SftpClient {
 	}
 	
 	public SftpFile[] ls(String path, String filter, boolean regexFilter, int maximumFiles) throws SftpStatusException, SshException {
+		return ls(path, filter, regexFilter, null, maximumFiles);
+	}
+	
+	/**
+	 * List the files of a remote directory whose names match a glob or regular expression, and that
+	 * have been modified since a given time. When the server supports the open-directory-with-filter@sshtools.com
+	 * extension the filter is applied as the server reads the directory so only the matching files 
+	 * are transferred, otherwise the whole listing is read and filtered locally.
+	 * 
+	 * @param path the remote directory
+	 * @param filter the glob or regular expression, or an empty string to match any name
+	 * @param regexFilter the filter is a regular expression rather than a glob
+	 * @param modifiedSince only list files modified since this time, or <code>null</code> for any time
+	 * @param maximumFiles stop once at least this many files have been listed, or zero for no limit
+	 * @return the matching files
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 */
+	public SftpFile[] ls(String path, String filter, boolean regexFilter, Date modifiedSince, int maximumFiles) throws SftpStatusException, SshException {
 		String actual = resolveRemotePath(path);
 
 		if (Log.isDebugEnabled()) {
-			Log.debug("Listing files for {} with filter {}");
+			Log.debug("Listing files for %s with filter %s", actual, filter);
 		}
 
 		ByteArrayWriter msg = new ByteArrayWriter();
@@ -728,22 +1098,34 @@ public class SftpClient {
 			msg.writeString(actual);
 			msg.writeString(filter);
 			msg.writeBoolean(regexFilter);
+			if(Objects.nonNull(modifiedSince)) {
+				msg.writeUINT64(modifiedSince.getTime() / 1000);
+			}
 
-			byte[] handle;
+			byte[] handle = null;
 			boolean localFiltering = false;
-			try {
-				handle = sftp.getHandleResponse(sftp.sendExtensionMessage(
-					"open-directory-with-filter@sshtools.com", 
-					msg.toByteArray()));
-			} catch(SftpStatusException e) {
+			if(!remoteFilteringUnsupported || sftp.supportsExtension(OPEN_DIRECTORY_WITH_FILTER)) {
+				try {
+					handle = sftp.getHandleResponse(sftp.sendExtensionMessage(
+						OPEN_DIRECTORY_WITH_FILTER, 
+						msg.toByteArray()));
+				} catch(SftpStatusException e) {
+					if(e.getStatus() == SftpStatusException.SSH_FX_OP_UNSUPPORTED) {
+						remoteFilteringUnsupported = true;
+					}
+				}
+			}
+			
+			if(Objects.isNull(handle)) {
 				if(Boolean.getBoolean("maverick.disableLocalFiltering")) {
 					throw new SshException("Remote server does not support server side filtering", SshException.UNSUPPORTED_OPERATION);
 				}
 				handle = sftp.openDirectory(actual).getHandle();
+				localFiltering = true;
 			}
 			
 			SftpFileFilter f = null;
-			if(localFiltering) {
+			if(localFiltering && !filter.isEmpty()) {
 				f = regexFilter ? new RegexSftpFileFilter(filter) : new GlobSftpFileFilter(filter);
 			}
 			SftpFile file = new SftpFile(actual, sftp.getAttributes(actual));
@@ -755,30 +1137,36 @@ public class SftpClient {
 			
 			int pageCount;
 			do {
+				tmp.clear();
 				pageCount = sftp.listChildren(file, tmp);
 				
 				if(pageCount > -1) {
 				if(!localFiltering) {
-					if (pageCount > -1 && Log.isDebugEnabled()) {
+					if (Log.isDebugEnabled()) {
 						Log.debug("Got page of {} files for {} with filter {}", 
-								pageCount, actual, filter, localFiltering);
+								pageCount, actual, filter);
 					}
 					children.addAll(tmp);
 				} else {
-					if (pageCount > -1 && Log.isDebugEnabled()) {
+					if (Log.isDebugEnabled()) {
 						Log.debug("Got page of {} files for {} before local filtering", 
-								pageCount, actual, filter, localFiltering);
+								pageCount, actual);
 					}
 					int count = 0;
 					for(SftpFile t : tmp) {
-						if(f.matches(t.getFilename())) {
-							children.add(t);
-							count++;
+						if(Objects.nonNull(f) && !f.matches(t.getFilename())) {
+							continue;
 						}
+						if(Objects.nonNull(modifiedSince) 
+								&& t.getAttributes().getModifiedTime().longValue() < modifiedSince.getTime() / 1000) {
+							continue;
+						}
+						children.add(t);
+						count++;
 					}
-					if (pageCount > -1 && Log.isDebugEnabled()) {
+					if (Log.isDebugEnabled()) {
 						Log.debug("Got page of {} files for {} after local filtering", 
-								count, actual, filter, localFiltering);
+								count, actual);
 					}
 				}
 				}
@@ -820,7 +1208,8 @@ public class SftpClient {
 	 * Return an iterator for the path provided.
 	 * 
 	 * This method improves memory usage by only getting paged contents of the
-	 * directory.
+	 * directory. The iterator is also {@link Closeable}, so that the directory
+	 * can be closed before the end of the listing has been reached.
 	 * 
 	 * @param path
 	 * @return
@@ -1256,7 +1645,8 @@ public class SftpClient {
 
 	/**
 	 * Called by getFileMatches() to do regular expression pattern matching on
-	 * the files in 'remote''s parent directory.
+	 * the files in 'remote''s parent directory. The pattern is sent to the server
+	 * so that only matching files are listed when it supports filtering.
 	 * 
 	 * @param remote
 	 * @return SftpFile[]
@@ -1284,7 +1674,11 @@ public class SftpClient {
 		switch (RegExpSyntax) {
 		case GlobSyntax:
 			matcher = new GlobRegExpMatching();
-			files = ls(actualDir);
+			files = ls(actualDir, actualSearch, false, 0);
+			break;
+		case Perl5Syntax:
+			matcher = new RegExpMatching();
+			files = ls(actualDir, actualSearch, true, 0);
 			break;
 		default:
 			matcher = new NoRegExpMatching();
@@ -1330,9 +1724,25 @@ public class SftpClient {
 		// vector to be returned at the end
 		// call the correct get method depending on the get method that called
 		// this
-		for (int i = 0; i < matchedFiles.length; i++) {
-			get(matchedFiles[i].getAbsolutePath(), local, progress, resume);
-			retrievedFiles.addElement(matchedFiles[i]);
+		TransferEngine engine = createTransferEngine(progress, true);
+		try {
+			for (int i = 0; i < matchedFiles.length; i++) {
+				if(Objects.nonNull(engine)) {
+					String path = matchedFiles[i].getAbsolutePath();
+					engine.submit(matchedFiles[i], path, sizeOf(matchedFiles[i]), 
+							(client, p) -> client.get(path, local, p, resume));
+				} else {
+					get(matchedFiles[i].getAbsolutePath(), local, progress, resume);
+				}
+				retrievedFiles.addElement(matchedFiles[i]);
+			}
+			if(Objects.nonNull(engine)) {
+				engine.await();
+			}
+		} finally {
+			if(Objects.nonNull(engine)) {
+				engine.shutdown();
+			}
 		}
 
 		SftpFile[] retrievedSftpFiles = new SftpFile[retrievedFiles.size()];
@@ -1440,14 +1850,37 @@ public class SftpClient {
 		// call the correct put method depending on the put method that called
 		// this
 
-		for (int i = 0; i < matchedFiles.length; i++) {
-			// use file exists once added rather than try catch
-			try {
-				put(matchedFiles[i], remotePath, progress, resume);
-			} catch (SftpStatusException ex) {
-				throw new SftpStatusException(ex.getStatus(), "Failed to put "
-						+ matchedFiles[i] + " to " + remote + " ["
-						+ ex.getMessage() + "]");
+		TransferEngine engine = createTransferEngine(progress, true);
+		try {
+			for (int i = 0; i < matchedFiles.length; i++) {
+				String matchedFile = matchedFiles[i];
+				if(Objects.nonNull(engine)) {
+					engine.submit(matchedFile, matchedFile, resolveLocalPath(matchedFile).length(), (client, p) -> {
+						try {
+							client.put(matchedFile, remotePath, p, resume);
+						} catch (SftpStatusException ex) {
+							throw new SftpStatusException(ex.getStatus(), "Failed to put "
+									+ matchedFile + " to " + remote + " ["
+									+ ex.getMessage() + "]");
+						}
+					});
+					continue;
+				}
+				// use file exists once added rather than try catch
+				try {
+					put(matchedFiles[i], remotePath, progress, resume);
+				} catch (SftpStatusException ex) {
+					throw new SftpStatusException(ex.getStatus(), "Failed to put "
+							+ matchedFiles[i] + " to " + remote + " ["
+							+ ex.getMessage() + "]");
+				}
+			}
+			if(Objects.nonNull(engine)) {
+				engine.await();
+			}
+		} finally {
+			if(Objects.nonNull(engine)) {
+				engine.shutdown();
 			}
 		}
 	}
@@ -1532,9 +1965,15 @@ public class SftpClient {
 			}
 
 
-			sftp.performOptimizedRead(file.getHandle(), attrs.getSize()
-					.longValue(), blocksize, local, asyncRequests, progress,
-					position);
+			if(Objects.nonNull(adaptivePipeline)) {
+				long size = attrs.getSize().longValue();
+				sftp.performAdaptiveRead(file.getHandle(), size > position ? size - position : 0, local, 
+						new AdaptivePipeline(adaptivePipeline), progress, position);
+			} else {
+				sftp.performOptimizedRead(file.getHandle(), attrs.getSize()
+						.longValue(), blocksize > 0 ? blocksize : sftp.getMaximumReadLength(), local, asyncRequests, progress,
+						position);
+			}
 		} catch(IOException ex) {
 			throw new SftpStatusException(SftpStatusException.SSH_FX_FAILURE,
 					"Failed to open text conversion outputstream");
@@ -1575,7 +2014,7 @@ public class SftpClient {
 		sftp.getAttributes(remotePath);
 
 		return new SftpFileInputStream(sftp.openFile(remotePath,
-				SftpChannel.OPEN_READ), position);
+				SftpChannel.OPEN_READ), position, blocksize, asyncRequests);
 
 	}
 
@@ -1895,14 +2334,14 @@ public class SftpClient {
 	}
 
 	/**
-	 * <p>
-	 * Upload a file to the remote computer reading from the specified <code>
-	 * InputStream</code>. The InputStream is closed, even if the operation
-	 * fails.
-	 * </p>
+	 * Upload a new version of a file by sending only the parts that differ from the existing
+	 * remote file. The server must support the block-checksums and copy-data extensions, otherwise, 
+	 * or when the remote file does not yet exist, the whole file is uploaded with {@link #put(String, String, FileTransferProgress)}.
+	 * The new content is written to a temporary file alongside the remote file, which then replaces it
+	 * using posix-rename@openssh.com when available.
 	 * 
-	 * @param in
-	 *            the InputStream being read
+	 * @param local
+	 *            the path/name of the local file
 	 * @param remote
 	 *            the path/name of the destination file
 	 * @param progress
@@ -1910,25 +2349,115 @@ public class SftpClient {
 	 * @throws SftpStatusException
 	 * @throws SshException
 	 * @throws TransferCancelledException
+	 * @throws PermissionDeniedException 
+	 * @throws IOException 
 	 */
-	public void put(InputStream in, String remote, FileTransferProgress progress)
-			throws SftpStatusException, SshException,
-			TransferCancelledException {
-		put(in, remote, progress, 0);
-	}
-
-	public void put(InputStream in, String remote, FileTransferProgress progress, long position)
-			throws SftpStatusException, SshException, TransferCancelledException {
+	public void putDelta(String local, String remote, FileTransferProgress progress) throws SftpStatusException, SshException, 
+			TransferCancelledException, IOException, PermissionDeniedException {
+		
+		AbstractFile localPath = resolveLocalPath(local);
 		String remotePath = resolveRemotePath(remote);
+		
+		SftpFileAttributes attrs;
+		try {
+			attrs = stat(remotePath);
+			if (attrs.isDirectory()) {
+				remotePath += (remotePath.endsWith("/") ? "" : "/") + localPath.getName();
+				attrs = stat(remotePath);
+			}
+		} catch (SftpStatusException ex) {
+			put(local, remotePath, progress);
+			return;
+		}
+		
+		if(!sftp.supportsExtension(DeltaUpload.BLOCK_CHECKSUMS) || attrs.getSize().longValue() == 0) {
+			put(local, remotePath, progress);
+			return;
+		}
+		
+		String tempPath = remotePath + ".delta-" + Long.toHexString(System.nanoTime());
+		SftpFile original = sftp.openFile(remotePath, SftpChannel.OPEN_READ);
+		try(InputStream in = localPath.getInputStream()) {
+			SftpFile temp = sftp.openFile(tempPath, SftpChannel.OPEN_WRITE | SftpChannel.OPEN_CREATE | SftpChannel.OPEN_TRUNCATE);
+			try {
+				new DeltaUpload(sftp, progress).upload(in, localPath.length(), remotePath, original, attrs.getSize().longValue(), temp);
+			} finally {
+				temp.close();
+			}
+		} catch(SftpStatusException | SshException | TransferCancelledException | IOException e) {
+			try {
+				sftp.removeFile(tempPath);
+			} catch(SftpStatusException | SshException e2) {
+			}
+			throw e;
+		} finally {
+			original.close();
+		}
+		
+		if(attrs.getPermissions().intValue() != 0) {
+			sftp.changePermissions(tempPath, attrs.getPermissions().intValue() & 07777);
+		}
+		
+		try {
+			rename(tempPath, remotePath, true);
+		} catch(SftpStatusException e) {
+			if(e.getStatus()!=SftpStatusException.SSH_FX_OP_UNSUPPORTED) {
+				throw e;
+			}
+			sftp.removeFile(remotePath);
+			sftp.renameFile(tempPath, remotePath);
+		}
+	}
+	
+	/**
+	 * Upload a new version of a file by sending only the parts that differ from the existing remote file.
+	 * 
+	 * @param local
+	 *            the path/name of the local file
+	 * @param remote
+	 *            the path/name of the destination file
+	 * @see #putDelta(String, String, FileTransferProgress)
+	 */
+	public void putDelta(String local, String remote) throws SftpStatusException, SshException, 
+			TransferCancelledException, IOException, PermissionDeniedException {
+		putDelta(local, remote, null);
+	}
+
+	/**
+	 * <p>
+	 * Upload a file to the remote computer reading from the specified <code>
+	 * InputStream</code>. The InputStream is closed, even if the operation
+	 * fails.
+	 * </p>
+	 * 
+	 * @param in
+	 *            the InputStream being read
+	 * @param remote
+	 *            the path/name of the destination file
+	 * @param progress
+	 * 
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 */
+	public void put(InputStream in, String remote, FileTransferProgress progress)
+			throws SftpStatusException, SshException,
+			TransferCancelledException {
+		put(in, remote, progress, 0);
+	}
+
+	public void put(InputStream in, String remote, FileTransferProgress progress, long position)
+			throws SftpStatusException, SshException, TransferCancelledException {
+		String remotePath = resolveRemotePath(remote);
+
+		SftpFileAttributes attrs = null;
+
+		if (transferMode == MODE_TEXT) {
+
+			// Default text mode handling for versions 3- of the SFTP protocol
+			int inputStyle = (stripEOL ? EOLProcessor.TEXT_ALL : inputEOL);
+			int outputStyle = outputEOL;
 
-		SftpFileAttributes attrs = null;
-
-		if (transferMode == MODE_TEXT) {
-
-			// Default text mode handling for versions 3- of the SFTP protocol
-			int inputStyle = (stripEOL ? EOLProcessor.TEXT_ALL : inputEOL);
-			int outputStyle = outputEOL;
-
 			byte[] nl = null;
 
 			if (sftp.getVersion() <= 3 && sftp.getExtension("newline@vandyke.com") != null) {
@@ -2013,7 +2542,12 @@ public class SftpClient {
 		}
 
 		try {
-			sftp.performOptimizedWrite(file.getHandle(), blocksize, asyncRequests, in, buffersize, progress, position < 0 ? 0 : position);
+			if(Objects.nonNull(adaptivePipeline)) {
+				sftp.performAdaptiveWrite(file.getHandle(), in, new AdaptivePipeline(adaptivePipeline), 
+						progress, position < 0 ? 0 : position);
+			} else {
+				sftp.performOptimizedWrite(file.getHandle(), blocksize > 0 ? blocksize : sftp.getMaximumWriteLength(), asyncRequests, in, buffersize, progress, position < 0 ? 0 : position);
+			}
 		} catch (SftpStatusException e) {
 			Log.error("SFTP status exception during transfer [" + e.getStatus() + "]", e);
 			throw e;
@@ -2054,7 +2588,7 @@ public class SftpClient {
 		return new SftpFileOutputStream(sftp.openFile(remotePath,
 				SftpChannel.OPEN_CREATE
 						| SftpChannel.OPEN_TRUNCATE
-						| SftpChannel.OPEN_WRITE));
+						| SftpChannel.OPEN_WRITE), blocksize, asyncRequests);
 
 	}
 
@@ -2180,6 +2714,41 @@ public class SftpClient {
 		String actual = resolveRemotePath(path);
 		sftp.changePermissions(actual, permissions);
 	}
+	
+	/**
+	 * <p>
+	 * Changes the access permissions of a file or directory and, optionally, everything
+	 * beneath it. Symbolic links found in the tree are not followed or changed. The contents
+	 * of each directory are changed before the directory itself, so removing permissions
+	 * from a directory does not prevent its contents from being reached.
+	 * </p>
+	 * 
+	 * @param permissions
+	 *            the absolute mode of the files and directories
+	 * @param path
+	 *            the path to the file/directory on the remote server
+	 * @param recurse
+	 *            change the contents of a directory too
+	 * @return the paths that were changed and those that could not be
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 */
+	public TreeOperation chmod(int permissions, String path, boolean recurse) 
+			throws SftpStatusException, SshException {
+		String actual = resolveRemotePath(path);
+		SftpFileAttributes attrs = new SftpFileAttributes(
+				SftpFileAttributes.SSH_FILEXFER_TYPE_UNKNOWN,
+				sftp.getCharsetEncoding());
+		attrs.setPermissions(new UnsignedInteger32(permissions));
+		TreePipeline pipeline = new TreePipeline(sftp, maximumTreeRequests);
+		if(recurse) {
+			addTree(pipeline, actual, sftp.getAttributes(actual), 
+				(file, fileAttrs) -> fileAttrs.isLink() ? null : pipeline.setAttributes(file, attrs));
+		} else {
+			pipeline.add(actual, pipeline.setAttributes(actual, attrs));
+		}
+		return pipeline.run();
+	}
 
 	/**
 	 * Sets the umask for this client.<br>
@@ -2371,38 +2940,73 @@ public class SftpClient {
 
 		attrs = sftp.getAttributes(actual);
 
-		SftpFile file;
-
 		if (attrs.isDirectory()) {
-			SftpFile[] list = ls(path);
-
-			if (!force && (list.length > 0)) {
-				throw new SftpStatusException(
-						SftpStatusException.SSH_FX_FAILURE,
-						"You cannot delete non-empty directory, use force=true to overide");
-			}
-			for (int i = 0; i < list.length; i++) {
-				file = list[i];
-
-				if (file.isDirectory() && !file.getFilename().equals(".")
-						&& !file.getFilename().equals("..")) {
-					if (recurse) {
-						rm(file.getAbsolutePath(), force, recurse);
-					} else {
+			if(!force || !recurse) {
+				SftpFile[] list = ls(path);
+	
+				if (!force && (list.length > 0)) {
+					throw new SftpStatusException(
+							SftpStatusException.SSH_FX_FAILURE,
+							"You cannot delete non-empty directory, use force=true to overide");
+				}
+				for (SftpFile file : list) {
+					if (file.isDirectory() && !file.getFilename().equals(".")
+							&& !file.getFilename().equals("..")) {
 						throw new SftpStatusException(
 								SftpStatusException.SSH_FX_FAILURE,
 								"Directory has contents, cannot delete without recurse=true");
 					}
-				} else if (file.isFile()) {
-					sftp.removeFile(file.getAbsolutePath());
 				}
 			}
-
-			sftp.removeDirectory(actual);
+			removeTree(actual).throwFailure();
 		} else {
 			sftp.removeFile(actual);
 		}
 	}
+	
+	/**
+	 * <p>
+	 * Remove a file, or a directory and everything beneath it. The tree is listed first, 
+	 * then the files of every directory are removed at the same time, with each directory
+	 * removed as soon as its contents have gone. Symbolic links are removed rather than followed.
+	 * </p>
+	 * 
+	 * @param path
+	 *            the path of the remote file/directory
+	 * @return the paths that were removed and those that could not be
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 */
+	public TreeOperation removeTree(String path) throws SftpStatusException, SshException {
+		String actual = resolveRemotePath(path);
+		TreePipeline pipeline = new TreePipeline(sftp, maximumTreeRequests);
+		addTree(pipeline, actual, sftp.getLinkAttributes(actual), 
+			(file, attrs) -> attrs.isDirectory() ? pipeline.removeDirectory(file) : pipeline.removeFile(file));
+		return pipeline.run();
+	}
+	
+	/**
+	 * Add a path to a pipeline and, if it is a directory, everything beneath it. Each directory
+	 * depends on its contents. Links are listed with their own attributes and are not followed. 
+	 */
+	private TreePipeline.Node addTree(TreePipeline pipeline, String path, SftpFileAttributes attrs,
+			BiFunction<String,SftpFileAttributes,TreePipeline.Request> request) throws SshException {
+		TreePipeline.Node node = pipeline.add(path, request.apply(path, attrs));
+		if(attrs.isDirectory()) {
+			try {
+				for(DirectoryIterator it = new DirectoryIterator(path); it.hasNext(); ) {
+					SftpFile file = it.take();
+					if(file.getFilename().equals(".") || file.getFilename().equals("..")) {
+						continue;
+					}
+					pipeline.dependsOn(node, addTree(pipeline, file.getAbsolutePath(), file.getAttributes(), request));
+				}
+			} catch(SftpStatusException e) {
+				pipeline.fail(node, e);
+			}
+		}
+		return node;
+	}
 
 	/**
 	 * <p>
@@ -2574,9 +3178,12 @@ public class SftpClient {
 			msg.writeBinaryString(quickCheck);
 	
 			SftpMessage resp = sftp.getExtensionResponse(sftp.sendExtensionMessage("md5-hash", msg.toByteArray()));
-	
-			resp.readString();
-			return resp.readBinaryString();
+			try {
+				resp.readString();
+				return resp.readBinaryString();
+			} finally {
+				resp.release();
+			}
 		} finally {
 			msg.close();
 		}
@@ -2597,15 +3204,72 @@ public class SftpClient {
 			msg.writeBinaryString(quickCheck);
 	
 			SftpMessage resp = sftp.getExtensionResponse(sftp.sendExtensionMessage("md5-hash-handle", msg.toByteArray()));
-	
-			resp.readString();
-			return resp.readBinaryString();
+			try {
+				resp.readString();
+				return resp.readBinaryString();
+			} finally {
+				resp.release();
+			}
 		} finally {
 			msg.close();
 		}
 
 	}
 	
+	/**
+	 * Get the hashes of a remote file using the check-file-name extension. When a block size is given 
+	 * the server returns a hash for each block of the range, which allows a large transfer to be verified
+	 * or resumed without hashing the whole file again.
+	 * 
+	 * @param remoteFile the remote file
+	 * @param offset the offset of the range
+	 * @param length the length of the range, or zero for the rest of the file
+	 * @param blockSize the size of each block, zero to hash the range as a single block or at least 256
+	 * @param algorithms the acceptable algorithms in order of preference e.g. sha256, sha512 or md5
+	 * @return RemoteHash
+	 */
+	public RemoteHash getRemoteHashes(String remoteFile, long offset, long length, int blockSize, String... algorithms) throws IOException, SftpStatusException, SshException {
+		
+		try(ByteArrayWriter msg = new ByteArrayWriter()) {
+			msg.writeString(resolveRemotePath(remoteFile));
+			return getRemoteHashes("check-file-name", msg, offset, length, blockSize, algorithms);
+		}
+	}
+	
+	/**
+	 * Get the hashes of an open remote file using the check-file-handle extension.
+	 * 
+	 * @param handle the handle of a file open for reading
+	 * @param offset the offset of the range
+	 * @param length the length of the range, or zero for the rest of the file
+	 * @param blockSize the size of each block, zero to hash the range as a single block or at least 256
+	 * @param algorithms the acceptable algorithms in order of preference e.g. sha256, sha512 or md5
+	 * @return RemoteHash
+	 */
+	public RemoteHash getRemoteHashes(byte[] handle, long offset, long length, int blockSize, String... algorithms) throws IOException, SftpStatusException, SshException {
+		
+		try(ByteArrayWriter msg = new ByteArrayWriter()) {
+			msg.writeBinaryString(handle);
+			return getRemoteHashes("check-file-handle", msg, offset, length, blockSize, algorithms);
+		}
+	}
+	
+	private RemoteHash getRemoteHashes(String extension, ByteArrayWriter msg, long offset, long length, int blockSize, String... algorithms) throws IOException, SftpStatusException, SshException {
+		
+		msg.writeString(algorithms.length == 0 ? "sha256,sha512,sha1,md5" : String.join(",", algorithms));
+		msg.writeUINT64(offset);
+		msg.writeUINT64(length);
+		msg.writeInt(blockSize);
+		
+		SftpMessage resp = sftp.getExtensionResponse(sftp.sendExtensionMessage(extension, msg.toByteArray()));
+		try {
+			resp.readString();
+			return new RemoteHash(resp, blockSize);
+		} finally {
+			resp.release();
+		}
+	}
+	
 	/**
 	 * <p>
 	 * Close the SFTP client.
@@ -2623,6 +3287,12 @@ public class SftpClient {
 	 * 
 	 */
 	public void exit() throws SshException {
+		synchronized(transferClients) {
+			for(SftpClient client : transferClients) {
+				client.exit();
+			}
+			transferClients.clear();
+		}
 		sftp.close();
 	}
 
@@ -2656,6 +3326,24 @@ public class SftpClient {
 			String remotedir, boolean recurse, boolean sync, boolean commit,
 			FileTransferProgress progress) throws IOException,
 			SftpStatusException, SshException, TransferCancelledException, PermissionDeniedException {
+		TransferEngine engine = commit ? createTransferEngine(progress, false) : null;
+		try {
+			DirectoryOperation op = putLocalDirectory(localdir, remotedir, recurse, sync, commit, progress, engine);
+			if(Objects.nonNull(engine)) {
+				completeTransfers(engine, op);
+			}
+			return op;
+		} finally {
+			if(Objects.nonNull(engine)) {
+				engine.shutdown();
+			}
+		}
+	}
+	
+	private DirectoryOperation putLocalDirectory(String localdir,
+			String remotedir, boolean recurse, boolean sync, boolean commit,
+			FileTransferProgress progress, TransferEngine engine) throws IOException,
+			SftpStatusException, SshException, TransferCancelledException, PermissionDeniedException {
 		DirectoryOperation op = new DirectoryOperation();
 
 		AbstractFile local = resolveLocalPath(localdir);
@@ -2684,7 +3372,7 @@ public class SftpClient {
 					op.addDirectoryOperation(
 							putLocalDirectory(source.getAbsolutePath(),
 									remotedir + source.getName(), recurse, sync, commit,
-									progress), source);
+									progress, engine), source);
 				}
 			} else if (source.isFile()) {
 
@@ -2705,6 +3393,24 @@ public class SftpClient {
 					newFile = true;
 				}
 
+				if (Objects.nonNull(engine) && !unchangedFile) {
+					String target = remotedir + source.getName();
+					engine.submit(source, source.getAbsolutePath(), source.length(), (client, p) -> {
+						client.put(source.getAbsolutePath(), target, p);
+						SftpFileAttributes attrs = client.sftp.getAttributes(target);
+						attrs.setTimes(
+								new UnsignedInteger64(source.lastModified() / 1000),
+								new UnsignedInteger64(source.lastModified() / 1000));
+						client.sftp.setAttributes(target, attrs);
+					});
+					if (!newFile) {
+						op.addUpdatedFile(source);
+					} else {
+						op.addNewFile(source);
+					}
+					continue;
+				}
+
 				try {
 
 					if (commit && !unchangedFile) { // BPS - Added
@@ -2911,6 +3617,236 @@ public class SftpClient {
 		return strBuf.toString();
 	}
 
+	/**
+	 * Open a remote directory tree as a tar archive using the open-directory-archive extension. The 
+	 * whole tree is streamed through a single file handle, which is much faster than transferring 
+	 * trees of many small files one at a time. The archive contains the files and directories the user
+	 * is permitted to read with names relative to the remote directory. 
+	 * 
+	 * @param remotedir the remote directory
+	 * @param compress compress the archive with zlib on the server, the returned stream is decompressed
+	 * @return the archive, which must be closed to release the remote handle
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 */
+	public InputStream openDirectoryArchive(String remotedir, boolean compress) throws SftpStatusException, SshException {
+		
+		if(!sftp.supportsExtension(SftpChannel.OPEN_DIRECTORY_ARCHIVE_EXTENSION)) {
+			throw new SftpStatusException(SftpStatusException.SSH_FX_OP_UNSUPPORTED, 
+					"The server does not support " + SftpChannel.OPEN_DIRECTORY_ARCHIVE_EXTENSION);
+		}
+		
+		String path = resolveRemotePath(remotedir);
+		byte[] handle;
+		try(ByteArrayWriter msg = new ByteArrayWriter()) {
+			msg.writeString(path);
+			msg.writeInt(compress ? 1 : 0);
+			handle = sftp.getHandleResponse(sftp.sendExtensionMessage(SftpChannel.OPEN_DIRECTORY_ARCHIVE_EXTENSION, msg.toByteArray()));
+		} catch (IOException e) {
+			throw new SshException(e);
+		}
+		
+		SftpFile file = new SftpFile(path, null);
+		file.setHandle(handle);
+		file.setSFTPSubsystem(sftp);
+		
+		InputStream in = new SftpFileInputStream(file);
+		return compress ? new InflaterInputStream(in, new Inflater(), 32768) : in;
+	}
+	
+	/**
+	 * Copy the contents of a remote directory tree into a local directory, extracting the archive 
+	 * from {@link #openDirectoryArchive(String, boolean)} as it is downloaded. Existing local files 
+	 * are overwritten and the modified times of the files are preserved.
+	 * 
+	 * @param remotedir the remote directory whose contents will be copied
+	 * @param localdir the local directory that will receive the contents, which is created if needed
+	 * @param compress compress the transfer
+	 * @return the number of files copied
+	 * @throws IOException
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws PermissionDeniedException
+	 */
+	public int getDirectoryArchive(String remotedir, String localdir, boolean compress) throws IOException, 
+			SftpStatusException, SshException, PermissionDeniedException {
+		
+		AbstractFile local = resolveLocalPath(localdir);
+		if(!local.exists()) {
+			local.createFolder();
+		}
+		
+		int count = 0;
+		byte[] buf = new byte[32768];
+		try(InputStream in = openDirectoryArchive(remotedir, compress)) {
+			TarEntry entry;
+			while((entry = TarEntry.read(in)) != null) {
+				
+				String name = entry.getName();
+				if(name.startsWith("/") || name.equals("..") || name.startsWith("../") 
+						|| name.contains("/../") || name.endsWith("/..")) {
+					throw new IOException("The archive contains an invalid path " + name);
+				}
+				
+				AbstractFile target = local.resolveFile(name);
+				if(entry.isDirectory()) {
+					if(!target.exists()) {
+						target.createFolder();
+					}
+					continue;
+				}
+				
+				try(OutputStream out = target.getOutputStream()) {
+					long remaining = entry.getSize();
+					while(remaining > 0) {
+						int r = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+						if(r == -1) {
+							throw new EOFException("Unexpected end of archive");
+						}
+						out.write(buf, 0, r);
+						remaining -= r;
+					}
+				}
+				TarEntry.skip(in, TarEntry.getPadding(entry.getSize()));
+				
+				SftpFileAttributes attrs = new SftpFileAttributes(SftpFileAttributes.SSH_FILEXFER_TYPE_REGULAR, "UTF-8");
+				UnsignedInteger64 mtime = new UnsignedInteger64(entry.getLastModified());
+				attrs.setTimes(mtime, mtime);
+				target.setAttributes(attrs);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Upload the contents of a local directory tree into a remote directory as a single stream using
+	 * the batch-upload extension. The files are written without a round trip for each one, which is 
+	 * much faster than {@link #putLocalDirectory(String, String, boolean, boolean, boolean, FileTransferProgress)}
+	 * for trees of many small files. Existing remote files are overwritten. A file the server cannot 
+	 * write does not stop the upload, check the returned result for failures.
+	 * 
+	 * @param localdir the local directory whose contents will be copied
+	 * @param remotedir the existing remote directory that will receive the contents
+	 * @param compress compress the transfer
+	 * @return the result
+	 * @throws IOException
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws PermissionDeniedException
+	 */
+	public BatchUploadResult putDirectoryArchive(String localdir, String remotedir, boolean compress) throws IOException, 
+			SftpStatusException, SshException, PermissionDeniedException {
+		
+		final AbstractFile local = resolveLocalPath(localdir);
+		return putBatch(remotedir, compress, (out) -> {
+			try(InputStream in = new DirectoryArchiveInputStream(local)) {
+				byte[] buf = new byte[32768];
+				int r;
+				while((r = in.read(buf)) > -1) {
+					out.write(buf, 0, r);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Upload a batch of local files into a remote directory as a single stream using the batch-upload 
+	 * extension. 
+	 * 
+	 * @param localFiles the paths of the local files
+	 * @param remotedir the existing remote directory that will receive the files
+	 * @param compress compress the transfer
+	 * @return the result
+	 * @throws IOException
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws PermissionDeniedException
+	 * @see #putDirectoryArchive(String, String, boolean)
+	 */
+	public BatchUploadResult putFilesBatch(String[] localFiles, String remotedir, boolean compress) throws IOException, 
+			SftpStatusException, SshException, PermissionDeniedException {
+		
+		final List<AbstractFile> files = new ArrayList<AbstractFile>();
+		for(String localFile : localFiles) {
+			files.add(resolveLocalPath(localFile));
+		}
+		return putBatch(remotedir, compress, (out) -> {
+			byte[] buf = new byte[32768];
+			for(AbstractFile file : files) {
+				SftpFileAttributes attrs = file.getAttributes();
+				long size = file.length();
+				out.write(new TarEntry(file.getName(), size, attrs.getPermissions().intValue(), 
+						attrs.getModifiedTime().longValue(), false).toHeader());
+				try(InputStream in = file.getInputStream()) {
+					long remaining = size;
+					while(remaining > 0) {
+						int r = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+						if(r == -1) {
+							// The file was truncated after its header was written
+							Arrays.fill(buf, (byte)0);
+							r = (int) Math.min(buf.length, remaining);
+						}
+						out.write(buf, 0, r);
+						remaining -= r;
+					}
+				}
+				out.write(new byte[TarEntry.getPadding(size)]);
+			}
+			out.write(new byte[TarEntry.BLOCK_SIZE * 2]);
+		});
+	}
+	
+	interface ArchiveWriter {
+		void write(OutputStream out) throws IOException, PermissionDeniedException;
+	}
+	
+	private BatchUploadResult putBatch(String remotedir, boolean compress, ArchiveWriter writer) throws IOException, 
+			SftpStatusException, SshException, PermissionDeniedException {
+		
+		if(!sftp.supportsExtension(SftpChannel.BATCH_UPLOAD_EXTENSION)) {
+			throw new SftpStatusException(SftpStatusException.SSH_FX_OP_UNSUPPORTED, 
+					"The server does not support " + SftpChannel.BATCH_UPLOAD_EXTENSION);
+		}
+		
+		String path = resolveRemotePath(remotedir);
+		byte[] handle;
+		try(ByteArrayWriter msg = new ByteArrayWriter()) {
+			msg.writeString(path);
+			msg.writeInt(compress ? 1 : 0);
+			handle = sftp.getHandleResponse(sftp.sendExtensionMessage(SftpChannel.BATCH_UPLOAD_EXTENSION, msg.toByteArray()));
+		}
+		
+		SftpFile file = new SftpFile(path, null);
+		file.setHandle(handle);
+		file.setSFTPSubsystem(sftp);
+		
+		try(SftpFileOutputStream out = new SftpFileOutputStream(file)) {
+			
+			// Gather the small writes of the archive into full sized write requests
+			BufferedOutputStream buffered = new BufferedOutputStream(out, 32768);
+			if(compress) {
+				DeflaterOutputStream deflater = new DeflaterOutputStream(buffered, new Deflater(), 32768);
+				writer.write(deflater);
+				deflater.finish();
+			} else {
+				writer.write(buffered);
+			}
+			buffered.flush();
+			
+			try(ByteArrayWriter msg = new ByteArrayWriter()) {
+				msg.writeBinaryString(handle);
+				SftpMessage resp = sftp.getExtensionResponse(
+						sftp.sendExtensionMessage(SftpChannel.BATCH_UPLOAD_RESULT_EXTENSION, msg.toByteArray()));
+				try {
+					return new BatchUploadResult(resp);
+				} finally {
+					resp.release();
+				}
+			}
+		}
+	}
+
 	/**
 	 * Copy the contents of a remote directory to a local directory
 	 * 
@@ -2942,6 +3878,24 @@ public class SftpClient {
 			String localdir, boolean recurse, boolean sync, boolean commit,
 			FileTransferProgress progress) throws IOException,
 			SftpStatusException, SshException, TransferCancelledException, PermissionDeniedException {
+		TransferEngine engine = commit ? createTransferEngine(progress, false) : null;
+		try {
+			DirectoryOperation op = getRemoteDirectory(remotedir, localdir, recurse, sync, commit, progress, engine);
+			if(Objects.nonNull(engine)) {
+				completeTransfers(engine, op);
+			}
+			return op;
+		} finally {
+			if(Objects.nonNull(engine)) {
+				engine.shutdown();
+			}
+		}
+	}
+	
+	private DirectoryOperation getRemoteDirectory(String remotedir,
+			String localdir, boolean recurse, boolean sync, boolean commit,
+			FileTransferProgress progress, TransferEngine engine) throws IOException,
+			SftpStatusException, SshException, TransferCancelledException, PermissionDeniedException {
 		// Create an operation object to hold the information
 		DirectoryOperation op = new DirectoryOperation();
 
@@ -2982,7 +3936,7 @@ public class SftpClient {
 					op.addDirectoryOperation(
 							getRemoteDirectory(file.getFilename(),
 									local.getAbsolutePath() + "/" + file.getFilename(), recurse, sync,
-									commit, progress), f);
+									commit, progress, engine), f);
 				}
 			} else if (file.isFile()) {
 				f = local.resolveFile(file.getFilename());
@@ -3017,7 +3971,11 @@ public class SftpClient {
 						}
 					}
 
-					if (commit) {
+					if (commit && Objects.nonNull(engine)) {
+						String source = file.getAbsolutePath();
+						String target = f.getAbsolutePath();
+						engine.submit(f, source, sizeOf(file), (client, p) -> client.get(source, target, p));
+					} else if (commit) {
 						// Get the file
 						get(file.getFilename(), f.getAbsolutePath(), progress);
 					}
@@ -3605,11 +4563,23 @@ public class SftpClient {
 		}
 	}
 	
-	class DirectoryIterator implements Iterator<SftpFile> {
+	/**
+	 * Lists a directory while keeping up to {@link SftpClient#getDirectoryPrefetch()} READDIR
+	 * requests in flight. A new request is only posted as a page is consumed, and the names of 
+	 * a page are parsed as they are returned, so memory use does not grow with the size of the
+	 * directory. The directory is closed once the listing has been read.
+	 */
+	class DirectoryIterator implements Iterator<SftpFile>, Closeable {
 
 		SftpFile currentFolder;
-		Vector<SftpFile> currentPage = new Vector<SftpFile>();
-		Iterator<SftpFile> currentIterator;
+		String parent;
+		LinkedList<UnsignedInteger32> requests = new LinkedList<UnsignedInteger32>();
+		int prefetch;
+		boolean eof;
+		SftpMessage currentPage;
+		int remaining;
+		SftpFile nextFile;
+		Exception error;
 
 		DirectoryIterator(String path) throws SftpStatusException, SshException {
 
@@ -3619,62 +4589,142 @@ public class SftpClient {
 				Log.debug("Listing files for " + actual);
 
 			currentFolder = sftp.openDirectory(actual);
+			parent = actual.endsWith("/") ? actual : actual + "/";
+			prefetch = directoryPrefetch;
 
 			try {
-				getNextPage();
-			} catch (EOFException e) {
-			}
-
-		}
-
-		private void getNextPage() throws SftpStatusException, SshException, EOFException {
-			currentPage.clear();
-			int ret = sftp.listChildren(currentFolder, currentPage);
-			if (ret == -1) {
-				currentIterator = null;
-				throw new EOFException();
+				fetch();
+			} catch(SftpStatusException | SshException e) {
+				close();
+				throw e;
 			}
-			currentIterator = currentPage.iterator();
 		}
-
-		@Override
-		public boolean hasNext() {
-			if (currentIterator != null && currentIterator.hasNext()) {
-				return true;
+		
+		private void fetch() throws SftpStatusException, SshException {
+			
+			while(Objects.isNull(nextFile)) {
+				
+				if(remaining > 0) {
+					remaining--;
+					nextFile = sftp.extractFile(currentPage, parent);
+					sftp.cacheListing(nextFile);
+					return;
+				}
+				
+				if(Objects.nonNull(currentPage)) {
+					currentPage.release();
+					currentPage = null;
+				}
+				
+				while(!eof && requests.size() < prefetch) {
+					requests.add(sftp.postReadDirectoryRequest(currentFolder.getHandle()));
+				}
+				
+				if(requests.isEmpty()) {
+					close();
+					return;
+				}
+				
+				SftpMessage bar = sftp.getResponse(requests.removeFirst());
+				try {
+					if (bar.getType() == SftpChannel.SSH_FXP_NAME) {
+						remaining = (int) bar.readInt();
+						currentPage = bar;
+						bar = null;
+					} else if (bar.getType() == SftpChannel.SSH_FXP_STATUS) {
+						int status = (int) bar.readInt();
+						if (status == SftpStatusException.SSH_FX_EOF) {
+							eof = true;
+							continue;
+						}
+						if (sftp.getVersion() >= 3) {
+							throw new SftpStatusException(status, bar.readString());
+						}
+						throw new SftpStatusException(status);
+					} else {
+						throw new SshException(
+								"The server responded with an unexpected message",
+								SshException.CHANNEL_FAILURE);
+					}
+				} catch(IOException e) {
+					throw new SshException(e);
+				} finally {
+					if(Objects.nonNull(bar)) {
+						bar.release();
+					}
+				}
 			}
-			return false;
 		}
-
-		@Override
-		public SftpFile next() {
-			if (currentIterator == null) {
-				throw new NoSuchElementException();
+		
+		/**
+		 * Stop listing and close the directory before the end of the listing has been reached.
+		 */
+		public void close() {
+			
+			if(Objects.nonNull(currentPage)) {
+				currentPage.release();
+				currentPage = null;
 			}
-
-			SftpFile ret = null;
-			if (currentIterator.hasNext()) {
-				ret = currentIterator.next();
+			remaining = 0;
+			nextFile = null;
+			eof = true;
+			
+			// Drain the responses to any requests still in flight
+			while(!requests.isEmpty()) {
+				try {
+					sftp.getResponse(requests.removeFirst()).release();
+				} catch (SshException e) {
+					requests.clear();
+				}
 			}
-
-			if (!currentIterator.hasNext()) {
+			
+			if(Objects.nonNull(currentFolder)) {
 				try {
-					getNextPage();
-				} catch (EOFException e) {
-					if (ret == null) {
-						throw new NoSuchElementException();
-					}
+					currentFolder.close();
 				} catch (SftpStatusException | SshException e) {
-					throw new NoSuchElementException(e.getMessage());
 				}
+				currentFolder = null;
+			}
+		}
 
-				if (ret == null) {
-					ret = currentIterator.next();
+		@Override
+		public boolean hasNext() {
+			return Objects.nonNull(nextFile) || Objects.nonNull(error);
+		}
+		
+		SftpFile take() throws SftpStatusException, SshException {
+			if (Objects.nonNull(error)) {
+				Exception e = error;
+				error = null;
+				if(e instanceof SftpStatusException) {
+					throw (SftpStatusException) e;
 				}
+				throw (SshException) e;
+			}
+			if (Objects.isNull(nextFile)) {
+				throw new NoSuchElementException();
 			}
 
+			SftpFile ret = nextFile;
+			nextFile = null;
+			try {
+				fetch();
+			} catch (SftpStatusException | SshException e) {
+				close();
+				error = e;
+			}
 			return ret;
 		}
 
+		@Override
+		public SftpFile next() {
+			try {
+				return take();
+			} catch (SftpStatusException | SshException e) {
+				throw new NoSuchElementException(e.getMessage());
+			}
+		}
+
 	}
 
 	public boolean isConnected() {
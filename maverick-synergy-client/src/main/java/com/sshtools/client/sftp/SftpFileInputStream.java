@@ -21,7 +21,8 @@ package com.sshtools.client.sftp;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Vector;
+import java.util.ArrayDeque;
+import java.util.Objects;
 
 import com.sshtools.common.sftp.SftpStatusException;
 import com.sshtools.common.ssh.SshException;
@@ -29,18 +30,49 @@ import com.sshtools.common.ssh.SshIOException;
 import com.sshtools.common.util.UnsignedInteger32;
 
 /**
- * An InputStream to read the contents of a remote file.
+ * An InputStream to read the contents of a remote file. 
+ * 
+ * <p>
+ * Reads are requested ahead of the data being consumed. The number of outstanding requests
+ * starts small and grows by one for each block read, up to the configured maximum, so that
+ * short reads of small files do not post a full window of requests. Data is copied to the
+ * caller directly from the response messages, which are returned to their pool once consumed.
+ * </p>
  */
 public class SftpFileInputStream extends InputStream {
 
+	/**
+	 * The number of outstanding read requests used when none is specified.
+	 */
+	public static final int DEFAULT_MAXIMUM_REQUESTS = 100;
+	
+	static final int INITIAL_REQUESTS = 2;
+	
+	static class ReadRequest {
+		final UnsignedInteger32 requestId;
+		final long offset;
+		final int length;
+		
+		ReadRequest(UnsignedInteger32 requestId, long offset, int length) {
+			this.requestId = requestId;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+	
 	SftpFile file;
 	SftpChannel sftp;
 	long position;
-	Vector<UnsignedInteger32> outstandingRequests = new Vector<UnsignedInteger32>();
+	long readPosition;
+	int blockSize;
+	int maximumRequests;
+	int window;
+	ArrayDeque<ReadRequest> outstandingRequests = new ArrayDeque<ReadRequest>();
 	SftpMessage currentMessage;
 	int currentMessageRemaining;
 	boolean isEOF = false;
 	boolean error = false;
+	boolean closed = false;
 	
 	/**
 	 * 
@@ -64,6 +96,24 @@ public class SftpFileInputStream extends InputStream {
 	 */
 	public SftpFileInputStream(SftpFile file, long position)
 			throws SftpStatusException, SshException {
+		this(file, position, 0, DEFAULT_MAXIMUM_REQUESTS);
+	}
+	
+	/**
+	 * Creates a new SftpFileInputStream object.
+	 * 
+	 * @param file
+	 * @param position
+	 *            at which to start reading
+	 * @param blockSize
+	 *            the number of bytes to request at a time, or zero for the largest the server supports
+	 * @param maximumRequests
+	 *            the maximum number of read requests outstanding at any one time
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 */
+	public SftpFileInputStream(SftpFile file, long position, int blockSize, int maximumRequests)
+			throws SftpStatusException, SshException {
 		if (file.getHandle() == null) {
 			throw new SftpStatusException(SftpStatusException.INVALID_HANDLE,
 					"The file does not have a valid handle!");
@@ -74,10 +124,18 @@ public class SftpFileInputStream extends InputStream {
 					"The file is not attached to an SFTP subsystem!",
 					SshException.BAD_API_USAGE);
 		}
+		
+		if (maximumRequests < 1) {
+			throw new IllegalArgumentException("Maximum requests must be greater or equal to 1");
+		}
 
 		this.file = file;
 		this.position = position;
+		this.readPosition = position;
 		this.sftp = file.getSFTPChannel();
+		this.blockSize = blockSize > 0 ? blockSize : sftp.getMaximumReadLength();
+		this.maximumRequests = maximumRequests;
+		this.window = Math.min(INITIAL_REQUESTS, maximumRequests);
 	}
 
 	/*
@@ -87,106 +145,180 @@ public class SftpFileInputStream extends InputStream {
 	 */
 	public int read(byte[] buffer, int offset, int len) throws IOException {
 
+		if (closed) {
+			throw new IOException("The stream is closed");
+		}
+		
+		if (len == 0) {
+			return 0;
+		}
+		
 		try {
 
-			if (isEOF && currentMessageRemaining == 0) {
-				currentMessage.release();
-				return -1;
-			}
-
 			int read = 0;
-			int wantsLength = len;
-			while (read < wantsLength && !isEOF) {
+			while (read < len) {
 
-				if (currentMessage == null || currentMessageRemaining == 0) {
-					bufferNextMessage();
-					if (isEOF && read == 0) {
-						return -1;
-					}
+				if (currentMessageRemaining == 0 && !nextMessage()) {
+					break;
 				}
 
-				if (currentMessage == null)
-					throw new IOException(
-							"Failed to obtain file data or status from the SFTP server!");
-
-				int count = Math.min(currentMessageRemaining, len);
+				int count = Math.min(currentMessageRemaining, len - read);
 
 				System.arraycopy(currentMessage.array(),
-						currentMessage.getPosition(), buffer, offset, count);
+						currentMessage.getPosition(), buffer, offset + read, count);
 
 				currentMessageRemaining -= count;
 				currentMessage.skip(count);
+				readPosition += count;
+				read += count;
 
 				if (currentMessageRemaining == 0) {
-					bufferNextMessage();
+					releaseMessage();
 				}
-				read += count;
-				len -= count;
-				offset += count;
-
 			}
 
-			return read;
+			return read == 0 ? -1 : read;
 		} catch (SshException ex) {
 			throw new SshIOException(ex);
 		} catch (SftpStatusException ex) {
-			throw new IOException(ex.getMessage());
+			throw new IOException(ex.getMessage(), ex);
 		}
 	}
 
-	private void bufferNextMessage() throws SshException, IOException,
+	/**
+	 * Wait for the next block of data.
+	 * 
+	 * @return false at the end of the file
+	 */
+	private boolean nextMessage() throws SshException, IOException,
 			SftpStatusException {
 
+		releaseMessage();
+		
 		try {
-			if(currentMessage!=null) {
-				currentMessage.release();
-			}
-			
-			bufferMoreData();
-
-			UnsignedInteger32 requestid = outstandingRequests.remove(0);
-
-			currentMessage = sftp.getResponse(requestid);
-
-			if (currentMessage.getType() == SftpChannel.SSH_FXP_DATA) {
-				currentMessageRemaining = (int) currentMessage.readInt();
-			} else if (currentMessage.getType() == SftpChannel.SSH_FXP_STATUS) {
+			while(!isEOF) {
 				
-				try {
-					int status = (int) currentMessage.readInt();
-					if (status == SftpStatusException.SSH_FX_EOF) {
-						isEOF = true;
-						return;
+				bufferMoreData();
+	
+				ReadRequest request = outstandingRequests.poll();
+				SftpMessage msg = sftp.getResponse(request.requestId);
+	
+				if (msg.getType() == SftpChannel.SSH_FXP_DATA) {
+					int count = (int) msg.readInt();
+					if (count < request.length) {
+						// A short read, the rest of the block must arrive before any later block
+						long offset = request.offset + count;
+						int remaining = request.length - count;
+						outstandingRequests.addFirst(new ReadRequest(sftp.postReadRequest(
+								file.getHandle(), offset, remaining), offset, remaining));
 					}
-					if (sftp.getVersion() >= 3) {
-						String desc = currentMessage.readString();
-						throw new IOException(desc);
+					window = Math.min(maximumRequests, window + 1);
+					if (count == 0) {
+						msg.release();
+						continue;
 					}
-					throw new IOException("Unexpected status " + status);
-				} finally {
-					currentMessage.release();
+					currentMessage = msg;
+					currentMessageRemaining = count;
+					return true;
+				} else if (msg.getType() == SftpChannel.SSH_FXP_STATUS) {
+					
+					try {
+						int status = (int) msg.readInt();
+						if (status == SftpStatusException.SSH_FX_EOF) {
+							isEOF = true;
+							return false;
+						}
+						if (sftp.getVersion() >= 3) {
+							String desc = msg.readString();
+							throw new SftpStatusException(status, desc);
+						}
+						throw new SftpStatusException(status);
+					} finally {
+						msg.release();
+					}
+				} else {
+					int type = msg.getType();
+					msg.release();
+					error = true;
+					close();
+					throw new IOException(
+							"The server responded with an unexpected SFTP protocol message! type="
+									+ type);
 				}
-			} else {
-				close();
-				throw new IOException(
-						"The server responded with an unexpected SFTP protocol message! type="
-								+ currentMessage.getType());
 			}
+			return false;
 		} catch (SshException e) {
 			error = true;
 			throw e;
-		} catch(SftpStatusException e) {
-			error = true;
-			throw e;
 		}
 	}
 
 	private void bufferMoreData() throws SftpStatusException, SshException {
-		while (outstandingRequests.size() < 100) {
-			outstandingRequests.addElement(sftp.postReadRequest(
-					file.getHandle(), position, 32768));
-			position += 32768;
+		while (outstandingRequests.size() < window) {
+			outstandingRequests.add(new ReadRequest(sftp.postReadRequest(
+					file.getHandle(), position, blockSize), position, blockSize));
+			position += blockSize;
+		}
+	}
+	
+	private void releaseMessage() {
+		if (Objects.nonNull(currentMessage)) {
+			currentMessage.release();
+			currentMessage = null;
+			currentMessageRemaining = 0;
+		}
+	}
+	
+	/**
+	 * Discard the outstanding requests, waiting for their responses so they are not left
+	 * with the channel.
+	 */
+	private void discardRequests() throws SftpStatusException, SshException {
+		while (!outstandingRequests.isEmpty()) {
+			sftp.getResponse(outstandingRequests.poll().requestId).release();
+		}
+	}
+	
+	/**
+	 * Skip forward in the file. Data already received is discarded without waiting for 
+	 * anything more, otherwise the outstanding requests are abandoned and reading restarts 
+	 * at the new position.
+	 */
+	public long skip(long n) throws IOException {
+		
+		if (closed) {
+			throw new IOException("The stream is closed");
+		}
+		
+		if (n <= 0) {
+			return 0;
+		}
+		
+		if (n <= currentMessageRemaining) {
+			currentMessage.skip((int) n);
+			currentMessageRemaining -= n;
+			readPosition += n;
+			if (currentMessageRemaining == 0) {
+				releaseMessage();
+			}
+			return n;
+		}
+		
+		try {
+			releaseMessage();
+			discardRequests();
+		} catch (SshException ex) {
+			error = true;
+			throw new SshIOException(ex);
+		} catch (SftpStatusException ex) {
+			throw new IOException(ex.getMessage(), ex);
 		}
+		
+		readPosition += n;
+		position = readPosition;
+		window = Math.min(INITIAL_REQUESTS, maximumRequests);
+		isEOF = false;
+		return n;
 	}
 	
 	public int available() {
@@ -209,20 +341,38 @@ public class SftpFileInputStream extends InputStream {
 	 * Closes the SFTP file handle.
 	 */
 	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
 		try {
 			file.close();
-
-			UnsignedInteger32 requestid;
-			while (!error && outstandingRequests.size() > 0) {
-				requestid = (UnsignedInteger32) outstandingRequests
-						.elementAt(0);
-				outstandingRequests.remove(0);
-				sftp.getResponse(requestid).release();
+		} catch (SshException ex) {
+			throw new SshIOException(ex);
+		} catch (SftpStatusException ex) {
+			throw new IOException(ex.getMessage(), ex);
+		} finally {
+			detach();
+		}
+	}
+	
+	/**
+	 * Stop reading without closing the file handle, discarding any data that has been
+	 * read ahead.
+	 */
+	void detach() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		releaseMessage();
+		try {
+			if (!error) {
+				discardRequests();
 			}
 		} catch (SshException ex) {
 			throw new SshIOException(ex);
 		} catch (SftpStatusException ex) {
-			throw new IOException(ex.getMessage());
+			throw new IOException(ex.getMessage(), ex);
 		}
 	}
 
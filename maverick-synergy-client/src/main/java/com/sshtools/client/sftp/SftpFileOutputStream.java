@@ -21,7 +21,8 @@ package com.sshtools.client.sftp;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Vector;
+import java.util.ArrayDeque;
+import java.util.Objects;
 
 import com.sshtools.common.sftp.SftpStatusException;
 import com.sshtools.common.ssh.SshException;
@@ -30,14 +31,33 @@ import com.sshtools.common.util.UnsignedInteger32;
 
 /**
  * An OutputStream to write data to a remote file.
+ * 
+ * <p>
+ * Data is collected into blocks and each block is sent without waiting for the server to
+ * acknowledge it, until the configured number of writes are outstanding. A write that fails
+ * is reported by the next call to write, or at the latest by {@link #flush()} or {@link #close()}, 
+ * and every call after that reports the same failure.
+ * </p>
  */
 public class SftpFileOutputStream
     extends OutputStream {
+  
+  /**
+   * The number of outstanding write requests used when none is specified.
+   */
+  public static final int DEFAULT_MAXIMUM_REQUESTS = 100;
+  
   SftpFile file;
   SftpChannel sftp;
   long position;
-  Vector<UnsignedInteger32> outstandingRequests = new Vector<UnsignedInteger32>();
+  int blockSize;
+  int maximumRequests;
+  byte[] buffer;
+  int count;
+  ArrayDeque<UnsignedInteger32> outstandingRequests = new ArrayDeque<UnsignedInteger32>();
   boolean error = false;
+  IOException failure;
+  boolean closed;
   
   /**
    * Creates a new SftpFileOutputStream object.
@@ -48,6 +68,35 @@ public class SftpFileOutputStream
    * @throws SshException
    */
   public SftpFileOutputStream(SftpFile file) throws SftpStatusException, SshException {
+    this(file, 0, 0, DEFAULT_MAXIMUM_REQUESTS);
+  }
+  
+  /**
+   * Creates a new SftpFileOutputStream object.
+   *
+   * @param file
+   * @param blockSize the number of bytes to send in each write, or zero for the largest the server supports
+   * @param maximumRequests the maximum number of write requests outstanding at any one time
+   *
+   * @throws SftpStatusException
+   * @throws SshException
+   */
+  public SftpFileOutputStream(SftpFile file, int blockSize, int maximumRequests) throws SftpStatusException, SshException {
+    this(file, 0, blockSize, maximumRequests);
+  }
+  
+  /**
+   * Creates a new SftpFileOutputStream object.
+   *
+   * @param file
+   * @param position the offset in the file at which to start writing
+   * @param blockSize the number of bytes to send in each write, or zero for the largest the server supports
+   * @param maximumRequests the maximum number of write requests outstanding at any one time
+   *
+   * @throws SftpStatusException
+   * @throws SshException
+   */
+  public SftpFileOutputStream(SftpFile file, long position, int blockSize, int maximumRequests) throws SftpStatusException, SshException {
     if (file.getHandle() == null) {
       throw new SftpStatusException(SftpStatusException.INVALID_HANDLE,
                                     "The file does not have a valid handle!");
@@ -58,41 +107,56 @@ public class SftpFileOutputStream
           "The file is not attached to an SFTP subsystem!",
           SshException.BAD_API_USAGE);
     }
+    
+    if (maximumRequests < 1) {
+      throw new IllegalArgumentException("Maximum requests must be greater or equal to 1");
+    }
 
     this.file = file;
+    this.position = position;
     this.sftp = file.getSFTPChannel();
+    this.blockSize = blockSize > 0 ? blockSize : sftp.getMaximumWriteLength();
+    this.maximumRequests = maximumRequests;
   }
 
   /**
    *
    */
   public void write(byte[] buffer, int offset, int len) throws IOException {
+    checkState();
     try {
 
-        int count;
         while(len > 0) {
 
-            count = Math.min(32768, len);
+            if(count == 0 && len >= blockSize) {
+                // A whole block can be sent straight from the callers array
+                postWrite(buffer, offset, blockSize);
+                offset += blockSize;
+                len -= blockSize;
+                continue;
+            }
 
-            // Post a request
-            outstandingRequests.addElement(sftp.postWriteRequest(file.getHandle(),
-                    position,
-                    buffer, offset, count));
-
-            processNextResponse(100);
-
-            // Update our positions
-            offset += count;
-            len -= count;
-            position += count;
+            if(Objects.isNull(this.buffer)) {
+                this.buffer = new byte[blockSize];
+            }
+            
+            int n = Math.min(blockSize - count, len);
+            System.arraycopy(buffer, offset, this.buffer, count, n);
+            count += n;
+            offset += n;
+            len -= n;
+            
+            if(count == blockSize) {
+                postBuffer();
+            }
         }
 
     }
     catch(SshException ex) {
-      throw new SshIOException(ex);
+      throw failed(new SshIOException(ex));
     }
     catch(SftpStatusException ex) {
-      throw new IOException(ex.getMessage());
+      throw failed(new IOException(ex.getMessage(), ex));
     }
 
   }
@@ -101,65 +165,133 @@ public class SftpFileOutputStream
    *
    */
   public void write(int b) throws IOException {
-      try {
-
-
-          byte[] array = new byte[] { (byte)b };
-
-          // Post a request
-          outstandingRequests.addElement(sftp.postWriteRequest(file.getHandle(),
-                  position,
-                  array, 0, 1));
-
-          processNextResponse(100);
-
-          // Update our positions
-          position += 1;
-
-
+      write(new byte[] { (byte)b }, 0, 1);
+  }
+  
+  private void checkState() throws IOException {
+      if(Objects.nonNull(failure)) {
+          throw failure;
       }
-      catch(SshException ex) {
-        throw new SshIOException(ex);
+      if(closed) {
+          throw new IOException("The stream is closed");
       }
-      catch(SftpStatusException ex) {
-        throw new IOException(ex.getMessage());
-    }
+  }
+  
+  private IOException failed(IOException ex) {
+      failure = ex;
+      return ex;
+  }
+  
+  private void postBuffer() throws SftpStatusException, SshException {
+      if(count > 0) {
+          // The data is copied into the request so the buffer can be reused straight away
+          postWrite(buffer, 0, count);
+          count = 0;
+      }
+  }
+  
+  private void postWrite(byte[] data, int off, int len) throws SftpStatusException, SshException {
+      outstandingRequests.add(sftp.postWriteRequest(file.getHandle(), position, data, off, len));
+      position += len;
+      processNextResponse(maximumRequests);
   }
 
   private boolean processNextResponse(int numOutstandingRequests) throws SftpStatusException, SshException {
       try {
 		// Maybe look for a response
-		  if (outstandingRequests.size() > numOutstandingRequests) {
-		      UnsignedInteger32 requestid = (UnsignedInteger32)
-		                                    outstandingRequests.
-		                                    elementAt(0);
-		      sftp.getOKRequestStatus(requestid);
-		      outstandingRequests.removeElementAt(0);
+		  while (outstandingRequests.size() > numOutstandingRequests) {
+		      sftp.getOKRequestStatus(outstandingRequests.poll());
 		  }
 
 		  return outstandingRequests.size() > 0;
 	} catch (SshException e) {
 		error = true;
 		throw e;
-	} catch(SftpStatusException e) {
-		error = true;
-		throw e;
 	}
   }
 
   /**
-   * Closes the file's handle
+   * Send any data that has been collected and wait for the server to acknowledge all of the 
+   * data written so far.
    */
-  public void close() throws IOException {
+  public void flush() throws IOException {
+    checkState();
     try {
-      while(!error && processNextResponse(0));
-      file.close();
+      postBuffer();
+      processNextResponse(0);
     }
     catch(SshException ex) {
-      throw new SshIOException(ex);
+      throw failed(new SshIOException(ex));
     }
     catch(SftpStatusException ex) {
-      throw new IOException(ex.getMessage());
+      throw failed(new IOException(ex.getMessage(), ex));
+    }
+  }
+
+  /**
+   * Closes the file's handle
+   */
+  public void close() throws IOException {
+    if(closed) {
+      return;
+    }
+    IOException ex = null;
+    try {
+      detach();
+    } catch(IOException e) {
+      ex = e;
+    }
+    try {
+      if(!error) {
+        file.close();
+      }
+    } catch(SshException e) {
+      if(Objects.isNull(ex)) {
+        ex = new SshIOException(e);
+      }
+    } catch(SftpStatusException e) {
+      if(Objects.isNull(ex)) {
+        ex = new IOException(e.getMessage(), e);
+      }
+    }
+    if(Objects.nonNull(ex)) {
+      throw ex;
+    }
+  }
+  
+  /**
+   * Send any data that has been collected and stop writing without closing the file handle.
+   */
+  void detach() throws IOException {
+    if(closed) {
+      return;
+    }
+    IOException ex = failure;
+    try {
+      if(Objects.isNull(ex)) {
+        flush();
+      }
+    } catch(IOException e) {
+      ex = e;
+    } finally {
+      closed = true;
+      try {
+        // Collect the status of any writes left after a failure
+        while(!error && !outstandingRequests.isEmpty()) {
+          try {
+            sftp.getOKRequestStatus(outstandingRequests.poll());
+          } catch(SftpStatusException e) {
+          }
+        }
+      } catch(SshException e) {
+        error = true;
+        if(Objects.isNull(ex)) {
+          ex = new SshIOException(e);
+        }
+      }
+    }
+    if(Objects.nonNull(ex)) {
+      throw ex;
     }
   }
 
@@ -0,0 +1,71 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.IOException;
+
+/**
+ * The limits advertised by a server that supports the limits@openssh.com extension.
+ */
+public class SftpLimits {
+
+	long maximumPacketLength;
+	long maximumReadLength;
+	long maximumWriteLength;
+	long maximumOpenHandles;
+	
+	SftpLimits(SftpMessage msg) throws IOException {
+		maximumPacketLength = msg.readUINT64().longValue();
+		maximumReadLength = msg.readUINT64().longValue();
+		maximumWriteLength = msg.readUINT64().longValue();
+		maximumOpenHandles = msg.readUINT64().longValue();
+	}
+
+	/**
+	 * The maximum length of a message the server will accept, or zero if not limited.
+	 * @return long
+	 */
+	public long getMaximumPacketLength() {
+		return maximumPacketLength;
+	}
+
+	/**
+	 * The maximum number of bytes the server will return from a single read, or zero if not limited.
+	 * @return long
+	 */
+	public long getMaximumReadLength() {
+		return maximumReadLength;
+	}
+
+	/**
+	 * The maximum number of bytes the server will accept in a single write, or zero if not limited.
+	 * @return long
+	 */
+	public long getMaximumWriteLength() {
+		return maximumWriteLength;
+	}
+
+	/**
+	 * The maximum number of handles the client may have open, or zero if not limited.
+	 * @return long
+	 */
+	public long getMaximumOpenHandles() {
+		return maximumOpenHandles;
+	}
+}
@@ -0,0 +1,335 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Objects;
+
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.SshIOException;
+import com.sshtools.common.util.UnsignedInteger64;
+
+/**
+ * A {@link SeekableByteChannel} on an open {@link SftpFile}. Sequential reads and writes are
+ * pipelined through an {@link SftpFileInputStream} or {@link SftpFileOutputStream}, so a channel
+ * that is read or written from start to end performs as well as a stream. Seeking forwards while
+ * reading skips over the data that has already been requested; any other change of position
+ * starts a new pipeline at the new offset.
+ */
+public class SftpSeekableByteChannel implements SeekableByteChannel {
+
+	final SftpFile file;
+	final int blockSize;
+	final int maximumRequests;
+	final boolean readable;
+	final boolean writable;
+	final boolean append;
+	
+	long position;
+	SftpFileInputStream in;
+	SftpFileOutputStream out;
+	long outputPosition;
+	byte[] transfer;
+	boolean open = true;
+	
+	/**
+	 * Create a channel on a file opened with the {@link SftpChannel} <code>OPEN_*</code> flags
+	 * provided.
+	 * 
+	 * @param file an open file
+	 * @param flags the flags the file was opened with
+	 * @param blockSize the number of bytes in each read or write request, or zero for the largest the server supports
+	 * @param maximumRequests the maximum number of requests outstanding at any one time
+	 */
+	public SftpSeekableByteChannel(SftpFile file, int flags, int blockSize, int maximumRequests) {
+		if (Objects.isNull(file.getHandle())) {
+			throw new IllegalArgumentException("The file does not have a valid handle!");
+		}
+		this.file = file;
+		this.blockSize = blockSize;
+		this.maximumRequests = maximumRequests;
+		this.readable = (flags & SftpChannel.OPEN_READ) == SftpChannel.OPEN_READ;
+		this.append = (flags & SftpChannel.OPEN_APPEND) == SftpChannel.OPEN_APPEND;
+		this.writable = append || (flags & SftpChannel.OPEN_WRITE) == SftpChannel.OPEN_WRITE;
+	}
+	
+	/**
+	 * Get the file this channel reads and writes.
+	 * 
+	 * @return file
+	 */
+	public SftpFile getFile() {
+		return file;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		checkOpen();
+		if (!readable) {
+			throw new NonReadableChannelException();
+		}
+		if (!dst.hasRemaining()) {
+			return 0;
+		}
+		
+		detachOutput();
+		
+		if (Objects.nonNull(in) && in.readPosition != position) {
+			if (position > in.readPosition) {
+				in.skip(position - in.readPosition);
+			} else {
+				detachInput();
+			}
+		}
+		
+		if (Objects.isNull(in)) {
+			in = newInputStream();
+		}
+		
+		int n;
+		if (dst.hasArray()) {
+			n = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+			if (n > 0) {
+				dst.position(dst.position() + n);
+			}
+		} else {
+			byte[] tmp = transferBuffer(dst.remaining());
+			n = in.read(tmp, 0, Math.min(tmp.length, dst.remaining()));
+			if (n > 0) {
+				dst.put(tmp, 0, n);
+			}
+		}
+		
+		if (n > 0) {
+			position += n;
+		}
+		return n;
+	}
+
+	@Override
+	public synchronized int write(ByteBuffer src) throws IOException {
+		checkOpen();
+		if (!writable) {
+			throw new NonWritableChannelException();
+		}
+		
+		detachInput();
+		
+		if (Objects.nonNull(out) && outputPosition != position) {
+			detachOutput();
+		}
+		
+		if (Objects.isNull(out)) {
+			if (append) {
+				position = fileSize();
+			}
+			out = newOutputStream();
+			outputPosition = position;
+		}
+		
+		int n = src.remaining();
+		if (src.hasArray()) {
+			out.write(src.array(), src.arrayOffset() + src.position(), n);
+			src.position(src.limit());
+		} else {
+			byte[] tmp = transferBuffer(n);
+			for (int remaining = n; remaining > 0;) {
+				int count = Math.min(tmp.length, remaining);
+				src.get(tmp, 0, count);
+				out.write(tmp, 0, count);
+				remaining -= count;
+			}
+		}
+		
+		position += n;
+		outputPosition = position;
+		return n;
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		checkOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+		checkOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException("Position must not be negative");
+		}
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public synchronized long size() throws IOException {
+		checkOpen();
+		if (Objects.nonNull(out)) {
+			out.flush();
+		}
+		return fileSize();
+	}
+
+	@Override
+	public synchronized SeekableByteChannel truncate(long size) throws IOException {
+		checkOpen();
+		if (size < 0) {
+			throw new IllegalArgumentException("Size must not be negative");
+		}
+		if (!writable) {
+			throw new NonWritableChannelException();
+		}
+		
+		detachOutput();
+		detachInput();
+		
+		if (size < fileSize()) {
+			try {
+				SftpFileAttributes attrs = new SftpFileAttributes(
+						SftpFileAttributes.SSH_FILEXFER_TYPE_REGULAR,
+						file.getSFTPChannel().getCharsetEncoding());
+				attrs.setSize(new UnsignedInteger64(size));
+				file.getSFTPChannel().setAttributes(file, attrs);
+			} catch (SshException ex) {
+				throw new SshIOException(ex);
+			} catch (SftpStatusException ex) {
+				throw new IOException(ex.getMessage(), ex);
+			}
+		}
+		
+		if (position > size) {
+			position = size;
+		}
+		return this;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (!open) {
+			return;
+		}
+		open = false;
+		
+		IOException ex = null;
+		try {
+			detachOutput();
+		} catch (IOException e) {
+			ex = e;
+		}
+		try {
+			detachInput();
+		} catch (IOException e) {
+			if (Objects.isNull(ex)) {
+				ex = e;
+			}
+		}
+		try {
+			file.close();
+		} catch (SshException e) {
+			if (Objects.isNull(ex)) {
+				ex = new SshIOException(e);
+			}
+		} catch (SftpStatusException e) {
+			if (Objects.isNull(ex)) {
+				ex = new IOException(e.getMessage(), e);
+			}
+		}
+		if (Objects.nonNull(ex)) {
+			throw ex;
+		}
+	}
+	
+	private void checkOpen() throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+	
+	private byte[] transferBuffer(int length) {
+		int size = Math.min(length, 65536);
+		if (Objects.isNull(transfer) || transfer.length < size) {
+			transfer = new byte[size];
+		}
+		return transfer;
+	}
+	
+	private long fileSize() throws IOException {
+		try {
+			UnsignedInteger64 size = file.getSFTPChannel().getAttributes(file).getSize();
+			return Objects.isNull(size) ? 0 : size.longValue();
+		} catch (SshException ex) {
+			throw new SshIOException(ex);
+		} catch (SftpStatusException ex) {
+			throw new IOException(ex.getMessage(), ex);
+		}
+	}
+	
+	private SftpFileInputStream newInputStream() throws IOException {
+		try {
+			return new SftpFileInputStream(file, position, blockSize, maximumRequests);
+		} catch (SshException ex) {
+			throw new SshIOException(ex);
+		} catch (SftpStatusException ex) {
+			throw new IOException(ex.getMessage(), ex);
+		}
+	}
+	
+	private SftpFileOutputStream newOutputStream() throws IOException {
+		try {
+			return new SftpFileOutputStream(file, position, blockSize, maximumRequests);
+		} catch (SshException ex) {
+			throw new SshIOException(ex);
+		} catch (SftpStatusException ex) {
+			throw new IOException(ex.getMessage(), ex);
+		}
+	}
+	
+	private void detachInput() throws IOException {
+		if (Objects.nonNull(in)) {
+			try {
+				in.detach();
+			} finally {
+				in = null;
+			}
+		}
+	}
+	
+	private void detachOutput() throws IOException {
+		if (Objects.nonNull(out)) {
+			try {
+				out.detach();
+			} finally {
+				out = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,482 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.files.AbstractFileRandomAccess;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.FileUtils;
+
+/**
+ * Transfers a single large file by splitting it into ranges and transferring each range 
+ * at the same time over a different {@link SftpClient}. A single channel is limited by the 
+ * cipher stream, selector thread and congestion window of its connection, so the clients 
+ * given here may be channels on one connection or on several connections to the same host.
+ * 
+ * <p>
+ * Each range is read or written at its own offset through a separate file handle. When the
+ * server supports the check-file-handle extension the hash of each range is compared with the
+ * local copy once it has been transferred, and a range that does not match is transferred again.
+ * </p>
+ */
+public class StripedTransfer {
+
+	static final AtomicInteger transferNumber = new AtomicInteger(1);
+	static final String CHECK_FILE_HANDLE = "check-file-handle";
+	
+	final SftpClient[] clients;
+	long minimumStripeSize = 8 * 1024 * 1024;
+	boolean verify = true;
+	int retries = 1;
+	
+	/**
+	 * Create a transfer over the given clients. The first client resolves the paths
+	 * and the remaining clients must be connected to the same host.
+	 * 
+	 * @param clients
+	 */
+	public StripedTransfer(SftpClient... clients) {
+		if(clients.length == 0) {
+			throw new IllegalArgumentException("At least one client is required");
+		}
+		this.clients = clients;
+	}
+	
+	/**
+	 * The smallest range worth transferring on its own. Files smaller than twice this size 
+	 * are transferred over a single client.
+	 * 
+	 * @return long
+	 */
+	public long getMinimumStripeSize() {
+		return minimumStripeSize;
+	}
+
+	public void setMinimumStripeSize(long minimumStripeSize) {
+		this.minimumStripeSize = minimumStripeSize;
+	}
+
+	/**
+	 * Whether each range is verified against the hash of the remote range.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isVerify() {
+		return verify;
+	}
+
+	public void setVerify(boolean verify) {
+		this.verify = verify;
+	}
+
+	/**
+	 * The number of times a range that fails verification is transferred again.
+	 * 
+	 * @return int
+	 */
+	public int getRetries() {
+		return retries;
+	}
+
+	public void setRetries(int retries) {
+		this.retries = retries;
+	}
+
+	/**
+	 * Download a remote file into a local file.
+	 * 
+	 * @param remote
+	 * @param local
+	 * @param progress
+	 * @return the attributes of the remote file
+	 */
+	public SftpFileAttributes download(String remote, String local, FileTransferProgress progress) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		
+		String remotePath = clients[0].resolveRemotePath(remote);
+		AbstractFile localFile = clients[0].resolveLocalPath(local);
+		if(localFile.isDirectory()) {
+			localFile = localFile.resolveFile(FileUtils.getFilename(remotePath));
+		}
+		checkRandomAccess(localFile);
+		
+		SftpFileAttributes attrs = clients[0].stat(remotePath);
+		long length = attrs.getSize().longValue();
+		
+		if(!localFile.exists()) {
+			localFile.createNewFile();
+		}
+		AbstractFileRandomAccess file = localFile.openFile(true);
+		try {
+			file.setLength(length);
+		} finally {
+			file.close();
+		}
+		
+		final AbstractFile target = localFile;
+		run(remotePath, length, false, progress, (client, range, p) -> {
+			SftpFile handle = client.getSubsystemChannel().openFile(remotePath, SftpChannel.OPEN_READ);
+			try {
+				AbstractFileRandomAccess raf = target.openFile(true);
+				try {
+					raf.seek(range.offset);
+					RangeOutputStream out = new RangeOutputStream(raf);
+					client.getSubsystemChannel().performAdaptiveRead(handle.getHandle(), range.length, out, 
+							client.newPipeline(), p, range.offset);
+					if(out.count != range.length) {
+						throw new SftpStatusException(SftpStatusException.SSH_FX_FAILURE, 
+								String.format("Expected %d bytes from offset %d but received %d", 
+										range.length, range.offset, out.count));
+					}
+				} finally {
+					raf.close();
+				}
+				return verify(client, handle, target, range);
+			} finally {
+				handle.close();
+			}
+		});
+		
+		try {
+			target.setAttributes(attrs);
+		} catch(IOException e) {
+		}
+		return attrs;
+	}
+	
+	/**
+	 * Upload a local file to a remote file.
+	 * 
+	 * @param local
+	 * @param remote
+	 * @param progress
+	 */
+	public void upload(String local, String remote, FileTransferProgress progress) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		
+		AbstractFile localFile = clients[0].resolveLocalPath(local);
+		checkRandomAccess(localFile);
+		
+		String resolved = clients[0].resolveRemotePath(remote);
+		try {
+			if(clients[0].stat(resolved).isDirectory()) {
+				resolved += (resolved.endsWith("/") ? "" : "/") + localFile.getName();
+			}
+		} catch(SftpStatusException e) {
+		}
+		final String remotePath = resolved;
+		long length = localFile.length();
+		
+		clients[0].getSubsystemChannel().openFile(remotePath, 
+				SftpChannel.OPEN_CREATE | SftpChannel.OPEN_TRUNCATE | SftpChannel.OPEN_WRITE).close();
+		
+		run(remotePath, length, true, progress, (client, range, p) -> {
+			SftpFile handle = client.getSubsystemChannel().openFile(remotePath, 
+					SftpChannel.OPEN_READ | SftpChannel.OPEN_WRITE);
+			try {
+				AbstractFileRandomAccess raf = localFile.openFile(false);
+				try {
+					raf.seek(range.offset);
+					client.getSubsystemChannel().performAdaptiveWrite(handle.getHandle(), 
+							new RangeInputStream(raf, range.length), client.newPipeline(), p, range.offset);
+				} finally {
+					raf.close();
+				}
+				return verify(client, handle, localFile, range);
+			} finally {
+				handle.close();
+			}
+		});
+	}
+	
+	private void checkRandomAccess(AbstractFile file) throws SftpStatusException {
+		if(!file.supportsRandomAccess()) {
+			throw new SftpStatusException(SftpStatusException.SSH_FX_OP_UNSUPPORTED, 
+					"The local file system does not support random access");
+		}
+	}
+	
+	/**
+	 * Compare the hash of the remote range with the local range.
+	 * 
+	 * @return false if the range does not match and must be transferred again.
+	 */
+	private boolean verify(SftpClient client, SftpFile handle, AbstractFile local, Range range) 
+			throws SftpStatusException, SshException, IOException {
+		
+		if(!verify || range.length == 0 || !client.getSubsystemChannel().supportsExtension(CHECK_FILE_HANDLE)) {
+			return true;
+		}
+		
+		RemoteHash remoteHash = client.getRemoteHashes(handle.getHandle(), range.offset, range.length, 0);
+		MessageDigest digest = remoteHash.createDigest();
+		AbstractFileRandomAccess raf = local.openFile(false);
+		try {
+			raf.seek(range.offset);
+			byte[] buf = new byte[65536];
+			long remaining = range.length;
+			while(remaining > 0) {
+				int r = raf.read(buf, 0, (int) Math.min(buf.length, remaining));
+				if(r == -1) {
+					return false;
+				}
+				digest.update(buf, 0, r);
+				remaining -= r;
+			}
+		} finally {
+			raf.close();
+		}
+		return Arrays.equals(digest.digest(), remoteHash.getHash(0));
+	}
+	
+	private void run(String remotePath, long length, boolean upload, FileTransferProgress progress, RangeTransfer transfer) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		
+		int stripes = (int) Math.max(1, Math.min(clients.length, length / Math.max(1, minimumStripeSize)));
+		long size = length / stripes;
+		
+		if(Log.isDebugEnabled()) {
+			Log.debug("Transferring %s bytes of %s in %s stripes", length, remotePath, stripes);
+		}
+		
+		StripeProgress stripeProgress = new StripeProgress(progress);
+		if(Objects.nonNull(progress)) {
+			progress.started(length, remotePath);
+		}
+		
+		int number = transferNumber.getAndIncrement();
+		Thread[] threads = new Thread[stripes];
+		Exception[] failures = new Exception[stripes];
+		for(int i = 0; i < stripes; i++) {
+			final int stripe = i;
+			final Range range = new Range(i * size, i == stripes - 1 ? length - i * size : size);
+			threads[i] = new Thread(() -> {
+				try {
+					transferRange(clients[stripe], range, upload, transfer, stripeProgress);
+				} catch(Exception e) {
+					failures[stripe] = e;
+					stripeProgress.failed = true;
+				}
+			}, String.format("sftp-stripe-%d-%d", number, i + 1));
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		
+		for(Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				stripeProgress.failed = true;
+				Thread.currentThread().interrupt();
+				throw new TransferCancelledException();
+			}
+		}
+		
+		// Report the failure that caused the others to be cancelled
+		Exception failure = null;
+		for(Exception ex : failures) {
+			if(Objects.nonNull(ex) && (Objects.isNull(failure) || failure instanceof TransferCancelledException)) {
+				failure = ex;
+			}
+		}
+		if(Objects.nonNull(failure)) {
+			TransferEngine.rethrow(failure);
+		}
+		
+		if(Objects.nonNull(progress)) {
+			progress.completed();
+		}
+	}
+	
+	private void transferRange(SftpClient client, Range range, boolean upload, RangeTransfer transfer, StripeProgress stripeProgress) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		for(int attempt = 0; ; attempt++) {
+			// Writes report the position in the file rather than the bytes written
+			StripeProgress.RangeProgress p = stripeProgress.new RangeProgress(upload ? range.offset : 0);
+			if(transfer.transfer(client, range, p)) {
+				return;
+			}
+			p.reset();
+			if(attempt >= retries) {
+				throw new SftpStatusException(SftpStatusException.SSH_FX_FAILURE, 
+						String.format("The range of %d bytes at offset %d failed verification", 
+								range.length, range.offset));
+			}
+			if(Log.isDebugEnabled()) {
+				Log.debug("Range of %s bytes at offset %s failed verification, transferring it again", 
+						range.length, range.offset);
+			}
+		}
+	}
+	
+	interface RangeTransfer {
+		boolean transfer(SftpClient client, Range range, FileTransferProgress progress) throws SftpStatusException, 
+			SshException, TransferCancelledException, IOException, PermissionDeniedException;
+	}
+	
+	static class Range {
+		final long offset;
+		final long length;
+		
+		Range(long offset, long length) {
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+	
+	/**
+	 * Combines the progress of every range into the progress of the file.
+	 */
+	static class StripeProgress {
+		
+		final FileTransferProgress progress;
+		final AtomicLong transferred = new AtomicLong();
+		volatile boolean failed;
+		
+		StripeProgress(FileTransferProgress progress) {
+			this.progress = progress;
+		}
+		
+		boolean isCancelled() {
+			if(failed) {
+				return true;
+			}
+			if(Objects.nonNull(progress)) {
+				synchronized(progress) {
+					return progress.isCancelled();
+				}
+			}
+			return false;
+		}
+		
+		void progressed(long bytes) {
+			long total = transferred.addAndGet(bytes);
+			if(Objects.nonNull(progress)) {
+				synchronized(progress) {
+					progress.progressed(total);
+				}
+			}
+		}
+		
+		class RangeProgress implements FileTransferProgress {
+			
+			final long start;
+			long bytesSoFar;
+			
+			RangeProgress(long start) {
+				this.start = start;
+				this.bytesSoFar = start;
+			}
+			
+			@Override
+			public void started(long bytesTotal, String remoteFile) {
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return StripeProgress.this.isCancelled();
+			}
+
+			@Override
+			public void progressed(long bytesSoFar) {
+				long delta = bytesSoFar - this.bytesSoFar;
+				this.bytesSoFar = bytesSoFar;
+				StripeProgress.this.progressed(delta);
+			}
+			
+			void reset() {
+				progressed(start);
+			}
+
+			@Override
+			public void completed() {
+			}
+		}
+	}
+	
+	/**
+	 * Writes a range of the local file.
+	 */
+	static class RangeOutputStream extends OutputStream {
+		
+		final AbstractFileRandomAccess file;
+		long count;
+		
+		RangeOutputStream(AbstractFileRandomAccess file) {
+			this.file = file;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			file.write(b, off, len);
+			count += len;
+		}
+	}
+	
+	/**
+	 * Reads a range of the local file.
+	 */
+	static class RangeInputStream extends InputStream {
+		
+		final AbstractFileRandomAccess file;
+		long remaining;
+		
+		RangeInputStream(AbstractFileRandomAccess file, long length) {
+			this.file = file;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(remaining <= 0) {
+				return -1;
+			}
+			int r = file.read(b, off, (int) Math.min(len, remaining));
+			if(r > 0) {
+				remaining -= r;
+			}
+			return r;
+		}
+	}
+}
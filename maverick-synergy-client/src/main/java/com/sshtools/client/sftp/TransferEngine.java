@@ -0,0 +1,371 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.client.tasks.TransferStatistics;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+
+/**
+ * Runs a number of file transfers at the same time over one or more SFTP channels. Transfers
+ * are started smallest first, so that many small files are not held up behind a large one,
+ * and no more than the in-flight byte budget is transferred at any one time.
+ * 
+ * <p>
+ * The engine is used by {@link SftpClient} when {@link SftpClient#setConcurrentTransfers(int)}
+ * is greater than one. Each file reports through its own callbacks on the operations 
+ * {@link FileTransferProgress}; these are serialized so the progress instance does not need
+ * to be thread safe. As the files are interleaved, a progress factory can instead create a
+ * separate progress for each file from its path.
+ * </p>
+ */
+class TransferEngine {
+
+	static final AtomicInteger engineNumber = new AtomicInteger(1);
+	
+	/**
+	 * A single file transfer.
+	 */
+	interface Transfer {
+		void transfer(SftpClient client, FileTransferProgress progress) throws SftpStatusException, 
+			SshException, TransferCancelledException, IOException, PermissionDeniedException;
+	}
+	
+	static class Job implements Comparable<Job> {
+		
+		final Object file;
+		final String path;
+		final long size;
+		final long sequence;
+		final Transfer transfer;
+		
+		Job(Object file, String path, long size, long sequence, Transfer transfer) {
+			this.file = file;
+			this.path = path;
+			this.size = size;
+			this.sequence = sequence;
+			this.transfer = transfer;
+		}
+
+		@Override
+		public int compareTo(Job o) {
+			int c = Long.compare(size, o.size);
+			return c == 0 ? Long.compare(sequence, o.sequence) : c;
+		}
+	}
+	
+	final SftpClient[] clients;
+	final FileTransferProgress progress;
+	final Function<String,FileTransferProgress> progressFactory;
+	final long maximumInFlightBytes;
+	final boolean failFast;
+	final Thread[] workers;
+	final PriorityQueue<Job> queue = new PriorityQueue<Job>();
+	final Map<Object,Exception> failures = new LinkedHashMap<Object,Exception>();
+	
+	long sequence;
+	long inFlightBytes;
+	int running;
+	boolean finished;
+	boolean cancelled;
+	
+	/**
+	 * Create an engine.
+	 * 
+	 * @param clients the clients whose channels carry the transfers, each worker uses one in turn.
+	 * @param concurrency the number of files to transfer at the same time.
+	 * @param maximumInFlightBytes the total size of the files being transferred at any one time.
+	 * @param progress the progress of each file, may be null.
+	 * @param progressFactory creates the progress of a file from its path, may be null.
+	 * @param failFast stop at the first failure rather than recording it and moving on.
+	 */
+	TransferEngine(SftpClient[] clients, int concurrency, long maximumInFlightBytes, 
+			FileTransferProgress progress, Function<String,FileTransferProgress> progressFactory, 
+			boolean failFast) {
+		this.clients = clients;
+		this.maximumInFlightBytes = maximumInFlightBytes;
+		this.progress = progress;
+		this.progressFactory = progressFactory;
+		this.failFast = failFast;
+		this.workers = new Thread[concurrency];
+		
+		int engine = engineNumber.getAndIncrement();
+		for(int i = 0; i < workers.length; i++) {
+			final SftpClient client = clients[i % clients.length];
+			workers[i] = new Thread(() -> work(client), 
+					String.format("sftp-transfer-%d-%d", engine, i + 1));
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+	
+	/**
+	 * Queue a transfer.
+	 * 
+	 * @param file the file reported in the failures of this engine.
+	 * @param path the path of the file passed to the progress factory.
+	 * @param size the number of bytes the transfer is expected to move.
+	 * @param transfer
+	 */
+	synchronized void submit(Object file, String path, long size, Transfer transfer) {
+		if(cancelled) {
+			return;
+		}
+		queue.add(new Job(file, path, Math.max(0, size), sequence++, transfer));
+		notifyAll();
+	}
+	
+	/**
+	 * Wait for every queued transfer to finish. 
+	 * 
+	 * @return the files that failed and the reason why, in the order they failed.
+	 * @throws TransferCancelledException if the progress cancelled the operation.
+	 */
+	Map<Object,Exception> await() throws SftpStatusException, SshException, 
+			TransferCancelledException, IOException, PermissionDeniedException {
+		
+		synchronized(this) {
+			finished = true;
+			notifyAll();
+			while(running > 0 || (!queue.isEmpty() && !cancelled)) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					cancel();
+					Thread.currentThread().interrupt();
+					throw new TransferCancelledException();
+				}
+			}
+		}
+		
+		for(Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		
+		if(failures.isEmpty()) {
+			return failures;
+		}
+		
+		// When failing fast the first failure is the cause, any after it were cancelled by it
+		Exception first = failures.values().iterator().next();
+		if(!failFast) {
+			for(Exception ex : failures.values()) {
+				if(ex instanceof TransferCancelledException) {
+					throw (TransferCancelledException) ex;
+				}
+			}
+		} else {
+			rethrow(first);
+		}
+		
+		return failures;
+	}
+	
+	/**
+	 * Throw the failure of a transfer as the exception type it was thrown as.
+	 * 
+	 * @param ex
+	 */
+	static void rethrow(Exception ex) throws SftpStatusException, SshException, 
+			TransferCancelledException, IOException, PermissionDeniedException {
+		if(ex instanceof TransferCancelledException) {
+			throw (TransferCancelledException) ex;
+		} else if(ex instanceof SftpStatusException) {
+			throw (SftpStatusException) ex;
+		} else if(ex instanceof SshException) {
+			throw (SshException) ex;
+		} else if(ex instanceof PermissionDeniedException) {
+			throw (PermissionDeniedException) ex;
+		} else if(ex instanceof IOException) {
+			throw (IOException) ex;
+		}
+		throw new SshException(ex);
+	}
+	
+	/**
+	 * Stop starting new transfers and ask those running to stop.
+	 */
+	synchronized void cancel() {
+		cancelled = true;
+		queue.clear();
+		notifyAll();
+	}
+	
+	synchronized boolean isCancelled() {
+		return cancelled;
+	}
+	
+	/**
+	 * Cancel any transfers that have not completed and wait for the workers to exit. This is
+	 * called once the operation is over, whether or not it failed before {@link #await()}, 
+	 * so that no worker is left waiting for more transfers.
+	 */
+	void shutdown() {
+		synchronized(this) {
+			cancel();
+			finished = true;
+		}
+		for(Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+	
+	private synchronized Job take() throws InterruptedException {
+		while(true) {
+			if(cancelled) {
+				return null;
+			}
+			Job job = queue.peek();
+			if(Objects.nonNull(job)) {
+				// The smallest job is at the head so if it does not fit nothing else will
+				long reserve = Math.min(job.size, maximumInFlightBytes);
+				if(running == 0 || inFlightBytes + reserve <= maximumInFlightBytes) {
+					queue.poll();
+					inFlightBytes += reserve;
+					running++;
+					return job;
+				}
+			} else if(finished) {
+				return null;
+			}
+			wait();
+		}
+	}
+	
+	private synchronized void done(Job job, Exception ex) {
+		inFlightBytes -= Math.min(job.size, maximumInFlightBytes);
+		running--;
+		if(Objects.nonNull(ex)) {
+			failures.put(job.file, ex);
+			if(failFast || ex instanceof TransferCancelledException) {
+				cancel();
+			}
+		}
+		notifyAll();
+	}
+	
+	private void work(SftpClient client) {
+		try {
+			Job job;
+			while(Objects.nonNull(job = take())) {
+				Exception failure = null;
+				try {
+					job.transfer.transfer(client, createProgress(job));
+				} catch(Exception ex) {
+					if(Log.isDebugEnabled()) {
+						Log.debug("Transfer of %s failed", ex, job.file);
+					}
+					failure = ex;
+				} 
+				done(job, failure);
+			}
+		} catch (InterruptedException e) {
+			cancel();
+		}
+	}
+	
+	private FileTransferProgress createProgress(Job job) {
+		if(Objects.nonNull(progressFactory)) {
+			FileTransferProgress fileProgress = progressFactory.apply(job.path);
+			if(Objects.nonNull(fileProgress)) {
+				return new FileProgress(fileProgress);
+			}
+		}
+		return Objects.isNull(progress) ? null : new FileProgress(progress);
+	}
+	
+	/**
+	 * Passes the callbacks of one file to its progress one at a time. The operations 
+	 * progress and the engine can still cancel a file that has its own progress.
+	 */
+	class FileProgress implements FileTransferProgress {
+
+		final FileTransferProgress target;
+		
+		FileProgress(FileTransferProgress target) {
+			this.target = target;
+		}
+		
+		@Override
+		public void started(long bytesTotal, String remoteFile) {
+			synchronized(target) {
+				target.started(bytesTotal, remoteFile);
+			}
+		}
+
+		@Override
+		public boolean isCancelled() {
+			synchronized(target) {
+				if(target.isCancelled()) {
+					return true;
+				}
+			}
+			if(Objects.nonNull(progress) && target!=progress) {
+				synchronized(progress) {
+					if(progress.isCancelled()) {
+						return true;
+					}
+				}
+			}
+			return TransferEngine.this.isCancelled();
+		}
+
+		@Override
+		public void progressed(long bytesSoFar) {
+			synchronized(target) {
+				target.progressed(bytesSoFar);
+			}
+		}
+
+		@Override
+		public void completed() {
+			synchronized(target) {
+				target.completed();
+			}
+		}
+		
+		@Override
+		public void statistics(TransferStatistics stats) {
+			synchronized(target) {
+				target.statistics(stats);
+			}
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sshtools.common.sftp.SftpStatusException;
+
+/**
+ * The outcome of an operation on a tree of remote paths, such as {@link SftpClient#removeTree(String)},
+ * {@link SftpClient#mkdirs(java.util.Collection)} or {@link SftpClient#chmod(int, String, boolean)}.
+ * 
+ * <p>
+ * A path that could not be processed is reported with the status returned by the server. Paths
+ * that depend on it, such as the parent of a file that could not be removed, are not attempted
+ * and are reported with an {@link SftpStatusException#SSH_FX_FAILURE} status.
+ * </p>
+ */
+public class TreeOperation {
+
+	final List<String> completedPaths = new ArrayList<String>();
+	final Map<String,SftpStatusException> failures = new LinkedHashMap<String,SftpStatusException>();
+	int requests;
+	
+	/**
+	 * The paths that were processed successfully, in the order the server confirmed them.
+	 * 
+	 * @return List<String>
+	 */
+	public List<String> getCompletedPaths() {
+		return Collections.unmodifiableList(completedPaths);
+	}
+	
+	/**
+	 * The paths that could not be processed, in the order they failed.
+	 * 
+	 * @return Map<String,SftpStatusException>
+	 */
+	public Map<String,SftpStatusException> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+	
+	/**
+	 * The number of requests that were sent to the server.
+	 * 
+	 * @return int
+	 */
+	public int getRequestCount() {
+		return requests;
+	}
+	
+	public boolean isSuccess() {
+		return failures.isEmpty();
+	}
+	
+	void add(TreeOperation op) {
+		completedPaths.addAll(op.completedPaths);
+		failures.putAll(op.failures);
+		requests += op.requests;
+	}
+	
+	/**
+	 * Throw the first failure, for callers that report a single error.
+	 */
+	void throwFailure() throws SftpStatusException {
+		if(!failures.isEmpty()) {
+			throw failures.values().iterator().next();
+		}
+	}
+}
@@ -0,0 +1,292 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.StringTokenizer;
+
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.UnsignedInteger32;
+
+/**
+ * Sends the requests of an operation on a tree of paths without waiting for each response. 
+ * Each path is a node whose request is sent once every node it depends on has completed, so 
+ * a directory is created before its children and removed after them, while all the siblings 
+ * are in flight at the same time.
+ */
+class TreePipeline {
+
+	/**
+	 * The request made for a single path.
+	 */
+	interface Request {
+		UnsignedInteger32 post() throws SftpStatusException, SshException;
+		
+		void complete(UnsignedInteger32 requestId) throws SftpStatusException, SshException;
+	}
+	
+	static class Node {
+		final String path;
+		final Request request;
+		final List<Node> dependents = new ArrayList<Node>();
+		int waiting;
+		boolean finished;
+		
+		Node(String path, Request request) {
+			this.path = path;
+			this.request = request;
+		}
+	}
+	
+	final SftpChannel sftp;
+	final int maximumRequests;
+	final List<Node> nodes = new ArrayList<Node>();
+	final TreeOperation op = new TreeOperation();
+	
+	TreePipeline(SftpChannel sftp, int maximumRequests) {
+		this.sftp = sftp;
+		this.maximumRequests = Math.max(1, maximumRequests);
+	}
+	
+	/**
+	 * Add a path. A <code>null</code> request completes the node without contacting the server.
+	 */
+	Node add(String path, Request request) {
+		Node node = new Node(path, request);
+		nodes.add(node);
+		return node;
+	}
+	
+	/**
+	 * Do not send the request for a node until another has completed.
+	 */
+	void dependsOn(Node node, Node dependency) {
+		if(dependency.finished) {
+			if(op.failures.containsKey(dependency.path)) {
+				skip(node, dependency);
+			}
+			return;
+		}
+		node.waiting++;
+		dependency.dependents.add(node);
+	}
+	
+	/**
+	 * Record a failure found before the request for a node was sent.
+	 */
+	void fail(Node node, SftpStatusException e) {
+		node.finished = true;
+		op.failures.put(node.path, e);
+		for(Node dependent : node.dependents) {
+			skip(dependent, node);
+		}
+	}
+	
+	private void skip(Node node, Node cause) {
+		if(!node.finished) {
+			fail(node, new SftpStatusException(SftpStatusException.SSH_FX_FAILURE, 
+					String.format("%s was not processed because %s failed", node.path, cause.path)));
+		}
+	}
+	
+	TreeOperation run() throws SshException {
+		
+		ArrayDeque<Node> ready = new ArrayDeque<Node>();
+		for(Node node : nodes) {
+			if(node.waiting == 0 && !node.finished) {
+				ready.add(node);
+			}
+		}
+		
+		ArrayDeque<Node> inFlight = new ArrayDeque<Node>();
+		ArrayDeque<UnsignedInteger32> requestIds = new ArrayDeque<UnsignedInteger32>();
+		
+		while(!ready.isEmpty() || !inFlight.isEmpty()) {
+			
+			while(!ready.isEmpty() && inFlight.size() < maximumRequests) {
+				Node node = ready.poll();
+				if(node.finished) {
+					continue;
+				}
+				if(Objects.isNull(node.request)) {
+					completed(node, ready);
+					continue;
+				}
+				try {
+					requestIds.add(node.request.post());
+				} catch(SftpStatusException e) {
+					fail(node, e);
+					continue;
+				}
+				inFlight.add(node);
+				op.requests++;
+			}
+			
+			if(inFlight.isEmpty()) {
+				continue;
+			}
+			
+			Node node = inFlight.poll();
+			try {
+				node.request.complete(requestIds.poll());
+				completed(node, ready);
+			} catch(SftpStatusException e) {
+				fail(node, e);
+			}
+		}
+		
+		return op;
+	}
+	
+	private void completed(Node node, ArrayDeque<Node> ready) {
+		node.finished = true;
+		op.completedPaths.add(node.path);
+		for(Node dependent : node.dependents) {
+			if(--dependent.waiting == 0 && !dependent.finished) {
+				ready.add(dependent);
+			}
+		}
+	}
+	
+	Request removeFile(String path) {
+		return new Request() {
+			public UnsignedInteger32 post() throws SshException {
+				return sftp.postRemoveFileRequest(path);
+			}
+			public void complete(UnsignedInteger32 requestId) throws SftpStatusException, SshException {
+				sftp.completeRemoveFile(path, requestId);
+			}
+		};
+	}
+	
+	Request removeDirectory(String path) {
+		return new Request() {
+			public UnsignedInteger32 post() throws SshException {
+				return sftp.postRemoveDirectoryRequest(path);
+			}
+			public void complete(UnsignedInteger32 requestId) throws SftpStatusException, SshException {
+				sftp.completeRemoveDirectory(path, requestId);
+			}
+		};
+	}
+	
+	Request setAttributes(String path, SftpFileAttributes attrs) {
+		return new Request() {
+			public UnsignedInteger32 post() throws SshException {
+				return sftp.postSetAttributesRequest(path, attrs);
+			}
+			public void complete(UnsignedInteger32 requestId) throws SftpStatusException, SshException {
+				sftp.completeSetAttributes(path, requestId);
+			}
+		};
+	}
+	
+	/**
+	 * Create each of the directories and any of their parents that do not exist. The parents 
+	 * of every directory are checked at the same time, then the missing ones are created with
+	 * each level waiting only for its own parent.
+	 */
+	static TreeOperation makeDirectories(SftpChannel sftp, Collection<String> paths, 
+			SftpFileAttributes attrs, int maximumRequests) throws SshException {
+		
+		Map<String,String> parents = new LinkedHashMap<String,String>();
+		for(String path : paths) {
+			StringTokenizer tokens = new StringTokenizer(path, "/");
+			String dir = path.startsWith("/") ? "/" : "";
+			String parent = null;
+			while(tokens.hasMoreTokens()) {
+				dir += tokens.nextToken();
+				if(!parents.containsKey(dir)) {
+					parents.put(dir, parent);
+				}
+				parent = dir;
+				dir += "/";
+			}
+		}
+		
+		TreePipeline check = new TreePipeline(sftp, maximumRequests);
+		List<String> missing = new ArrayList<String>();
+		for(String dir : parents.keySet()) {
+			check.add(dir, new Request() {
+				public UnsignedInteger32 post() throws SftpStatusException, SshException {
+					return sftp.postAttributesRequest(dir, SftpChannel.SSH_FXP_STAT);
+				}
+				public void complete(UnsignedInteger32 requestId) throws SftpStatusException, SshException {
+					try {
+						if(!sftp.completeAttributes(dir, SftpChannel.SSH_FXP_STAT, requestId).isDirectory()) {
+							throw new SftpStatusException(SftpStatusException.SSH_FX_FILE_ALREADY_EXISTS, 
+									String.format("%s exists and is not a directory", dir));
+						}
+					} catch(SftpStatusException e) {
+						if(e.getStatus() != SftpStatusException.SSH_FX_NO_SUCH_FILE
+								&& e.getStatus() != SftpStatusException.SSH_FX_NO_SUCH_PATH) {
+							throw e;
+						}
+						missing.add(dir);
+					}
+				}
+			});
+		}
+		
+		TreeOperation op = check.run();
+		op.completedPaths.removeAll(missing);
+		
+		// A parent that could not be examined, such as one without read permission, exists if a child does
+		for(Iterator<String> it = op.failures.keySet().iterator(); it.hasNext(); ) {
+			String dir = it.next();
+			String prefix = dir.endsWith("/") ? dir : dir + "/";
+			for(String found : op.completedPaths) {
+				if(found.startsWith(prefix)) {
+					it.remove();
+					break;
+				}
+			}
+		}
+		
+		TreePipeline create = new TreePipeline(sftp, maximumRequests);
+		Map<String,Node> created = new LinkedHashMap<String,Node>();
+		for(String dir : missing) {
+			Node node = create.add(dir, new Request() {
+				public UnsignedInteger32 post() throws SshException {
+					return sftp.postMakeDirectoryRequest(dir, attrs);
+				}
+				public void complete(UnsignedInteger32 requestId) throws SftpStatusException, SshException {
+					sftp.completeMakeDirectory(dir, requestId);
+				}
+			});
+			Node parent = created.get(parents.get(dir));
+			if(Objects.nonNull(parent)) {
+				create.dependsOn(node, parent);
+			}
+			created.put(dir, node);
+		}
+		
+		op.add(create.run());
+		return op;
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp.nio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sshtools.client.sftp.AttributeCache;
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.SshIOException;
+
+/**
+ * A fixed number of SFTP channels on one connection. Requests on a channel are already 
+ * matched to their responses by id, so each channel can be used by any number of threads 
+ * at once; spreading the work over several channels lets the server process them in 
+ * parallel. Channels are opened the first time they are needed and reopened if they close.
+ */
+class SftpChannelPool implements Closeable {
+
+	final SshConnection con;
+	final SftpClient[] clients;
+	final AttributeCache attributeCache;
+	final AtomicInteger next = new AtomicInteger();
+	
+	SftpChannelPool(SshConnection con, int size, AttributeCache attributeCache) {
+		if (size < 1) {
+			throw new IllegalArgumentException("There must be at least one channel");
+		}
+		this.con = con;
+		this.clients = new SftpClient[size];
+		this.attributeCache = attributeCache;
+	}
+	
+	SftpClient getClient() throws IOException {
+		int idx = Math.floorMod(next.getAndIncrement(), clients.length);
+		synchronized (clients) {
+			SftpClient client = clients[idx];
+			if (Objects.isNull(client) || client.isClosed()) {
+				try {
+					client = new SftpClient(con);
+				} catch (SshException e) {
+					throw new SshIOException(e);
+				} catch (PermissionDeniedException e) {
+					throw new IOException(e.getMessage(), e);
+				}
+				client.setAttributeCache(attributeCache);
+				clients[idx] = client;
+			}
+			return client;
+		}
+	}
+
+	@Override
+	public void close() {
+		synchronized (clients) {
+			for (int i = 0; i < clients.length; i++) {
+				if (Objects.nonNull(clients[i])) {
+					try {
+						clients[i].exit();
+					} catch (SshException e) {
+						Log.error("Failed to close SFTP channel", e);
+					}
+					clients[i] = null;
+				}
+			}
+		}
+	}
+}
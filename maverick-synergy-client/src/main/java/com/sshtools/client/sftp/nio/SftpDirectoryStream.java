@@ -0,0 +1,111 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp.nio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedDirectoryStreamException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+import com.sshtools.client.sftp.SftpFile;
+
+/**
+ * A {@link DirectoryStream} over a directory listing that is read with prefetching READDIR 
+ * requests as the stream is iterated. The attributes of each entry are placed in the file 
+ * system's attribute cache, so reading them while walking the directory does not need a 
+ * further request.
+ */
+public class SftpDirectoryStream implements DirectoryStream<Path> {
+	private final DirectoryStream.Filter<? super Path> filter;
+	private final SftpPath path;
+	private final Iterator<SftpFile> files;
+	private volatile boolean open = true;
+	private boolean iterated;
+
+	SftpDirectoryStream(SftpPath path, Iterator<SftpFile> files, DirectoryStream.Filter<? super Path> filter) {
+		this.path = path;
+		this.files = files;
+		this.filter = filter;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (open) {
+			open = false;
+			if (files instanceof Closeable) {
+				((Closeable) files).close();
+			}
+		}
+	}
+
+	@Override
+	public synchronized Iterator<Path> iterator() {
+		if (!open)
+			throw new ClosedDirectoryStreamException();
+		if (iterated)
+			throw new IllegalStateException("Iterator already obtained");
+		iterated = true;
+		
+		return new Iterator<Path>() {
+			
+			Path next;
+			
+			@Override
+			public boolean hasNext() {
+				synchronized (SftpDirectoryStream.this) {
+					while (Objects.isNull(next) && open && files.hasNext()) {
+						SftpFile file = files.next();
+						String name = file.getFilename();
+						if (name.equals(".") || name.equals("..")) {
+							continue;
+						}
+						Path entry = path.resolve(name);
+						try {
+							if (Objects.isNull(filter) || filter.accept(entry)) {
+								next = entry;
+							}
+						} catch (IOException e) {
+							throw new DirectoryIteratorException(e);
+						}
+					}
+					return Objects.nonNull(next);
+				}
+			}
+
+			@Override
+			public Path next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				Path result = next;
+				next = null;
+				return result;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -0,0 +1,245 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp.nio;
+
+import java.io.IOException;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserPrincipal;
+import java.nio.file.attribute.UserPrincipalNotFoundException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.sshtools.client.sftp.SftpChannel;
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.UnsignedInteger32;
+import com.sshtools.common.util.UnsignedInteger64;
+
+/**
+ * The <code>basic</code> and <code>posix</code> attribute views of a file on a {@link SftpFileSystem}.
+ */
+public class SftpFileAttributeView implements PosixFileAttributeView {
+	
+	private static enum Attribute {
+		size, creationTime, lastAccessTime, lastModifiedTime, isDirectory, isRegularFile, isSymbolicLink, isOther, fileKey, 
+		owner, group, permissions
+	};
+	
+	static SftpFileAttributeView get(SftpPath path, String type, boolean followLinks) {
+		if (type.equals("basic") || type.equals("posix"))
+			return new SftpFileAttributeView(path, type, followLinks);
+		throw new UnsupportedOperationException("View '" + type + "' not supported");
+	}
+
+	private final SftpPath path;
+	private final String name;
+	private final boolean followLinks;
+	
+	SftpFileAttributeView(SftpPath path, String name, boolean followLinks) {
+		this.path = path;
+		this.name = name;
+		this.followLinks = followLinks;
+	}
+
+	@Override
+	public String name() {
+		return name;
+	}
+
+	@Override
+	public SftpPosixFileAttributes readAttributes() throws IOException {
+		return path.readAttributes(followLinks);
+	}
+
+	@Override
+	public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) throws IOException {
+		if (Objects.isNull(lastModifiedTime) && Objects.isNull(lastAccessTime)) {
+			return;
+		}
+		// Both times are always sent, so fill in any that are not changing
+		if (Objects.isNull(lastModifiedTime) || Objects.isNull(lastAccessTime)) {
+			SftpPosixFileAttributes current = readAttributes();
+			lastModifiedTime = Objects.isNull(lastModifiedTime) ? current.lastModifiedTime() : lastModifiedTime;
+			lastAccessTime = Objects.isNull(lastAccessTime) ? current.lastAccessTime() : lastAccessTime;
+		}
+		SftpChannel channel = path.getFileSystem().getChannel();
+		SftpFileAttributes attrs = newAttributes(channel);
+		attrs.setTimes(new UnsignedInteger64(lastAccessTime.to(TimeUnit.SECONDS)), 
+				new UnsignedInteger64(lastModifiedTime.to(TimeUnit.SECONDS)));
+		setAttributes(channel, attrs);
+	}
+
+	@Override
+	public UserPrincipal getOwner() throws IOException {
+		return readAttributes().owner();
+	}
+
+	@Override
+	public void setOwner(UserPrincipal owner) throws IOException {
+		setOwnerAndGroup(owner.getName(), readAttributes().group().getName());
+	}
+
+	@Override
+	public void setGroup(GroupPrincipal group) throws IOException {
+		setOwnerAndGroup(readAttributes().owner().getName(), group.getName());
+	}
+	
+	private void setOwnerAndGroup(String owner, String group) throws IOException {
+		SftpChannel channel = path.getFileSystem().getChannel();
+		if (channel.getVersion() <= 3) {
+			// Version 3 only carries numeric ids, anything else would be sent as zero
+			checkNumeric(owner);
+			checkNumeric(group);
+		}
+		SftpFileAttributes attrs = newAttributes(channel);
+		attrs.setUID(owner);
+		attrs.setGID(group);
+		setAttributes(channel, attrs);
+	}
+	
+	private static void checkNumeric(String id) throws UserPrincipalNotFoundException {
+		try {
+			Long.parseLong(id);
+		} catch (NumberFormatException e) {
+			throw new UserPrincipalNotFoundException(id);
+		}
+	}
+
+	@Override
+	public void setPermissions(Set<PosixFilePermission> perms) throws IOException {
+		SftpChannel channel = path.getFileSystem().getChannel();
+		SftpFileAttributes attrs = newAttributes(channel);
+		attrs.setPermissions(new UnsignedInteger32(SftpPosixFileAttributes.toMode(perms)));
+		setAttributes(channel, attrs);
+	}
+	
+	private SftpFileAttributes newAttributes(SftpChannel channel) {
+		return new SftpFileAttributes(SftpFileAttributes.SSH_FILEXFER_TYPE_UNKNOWN, channel.getCharsetEncoding());
+	}
+	
+	private void setAttributes(SftpChannel channel, SftpFileAttributes attrs) throws IOException {
+		try {
+			channel.setAttributes(path.getRemotePath(), attrs);
+		} catch (SftpStatusException e) {
+			throw SftpFileSystemProvider.translate(e, path, null);
+		} catch (SshException e) {
+			throw SftpFileSystemProvider.translate(e);
+		}
+	}
+
+	Object attribute(Attribute id, SftpPosixFileAttributes attributes) {
+		switch (id) {
+		case size:
+			return attributes.size();
+		case creationTime:
+			return attributes.creationTime();
+		case lastAccessTime:
+			return attributes.lastAccessTime();
+		case lastModifiedTime:
+			return attributes.lastModifiedTime();
+		case isDirectory:
+			return attributes.isDirectory();
+		case isRegularFile:
+			return attributes.isRegularFile();
+		case isSymbolicLink:
+			return attributes.isSymbolicLink();
+		case isOther:
+			return attributes.isOther();
+		case fileKey:
+			return attributes.fileKey();
+		case owner:
+			return attributes.owner();
+		case group:
+			return attributes.group();
+		case permissions:
+			return attributes.permissions();
+		default:
+		}
+		return null;
+	}
+	
+	private boolean isPosix(Attribute id) {
+		return id.ordinal() >= Attribute.owner.ordinal();
+	}
+
+	Map<String, Object> readAttributes(String attributes) throws IOException {
+		SftpPosixFileAttributes attrs = readAttributes();
+		LinkedHashMap<String, Object> map = new LinkedHashMap<>();
+		if ("*".equals(attributes)) {
+			for (Attribute id : Attribute.values()) {
+				if (name.equals("posix") || !isPosix(id)) {
+					map.put(id.name(), attribute(id, attrs));
+				}
+			}
+		} else {
+			for (String a : attributes.split(",")) {
+				Attribute id;
+				try {
+					id = Attribute.valueOf(a);
+				} catch (IllegalArgumentException x) {
+					throw new IllegalArgumentException("'" + a + "' not recognized");
+				}
+				if (isPosix(id) && !name.equals("posix")) {
+					throw new IllegalArgumentException("'" + a + "' not recognized");
+				}
+				map.put(a, attribute(id, attrs));
+			}
+		}
+		return map;
+	}
+
+	@SuppressWarnings("unchecked")
+	void setAttribute(String attribute, Object value) throws IOException {
+		Attribute id;
+		try {
+			id = Attribute.valueOf(attribute);
+		} catch (IllegalArgumentException x) {
+			throw new IllegalArgumentException("'" + attribute + "' not recognized");
+		}
+		switch (id) {
+		case lastModifiedTime:
+			setTimes((FileTime) value, null, null);
+			break;
+		case lastAccessTime:
+			setTimes(null, (FileTime) value, null);
+			break;
+		case creationTime:
+			// SFTP cannot change the creation time
+			break;
+		case permissions:
+			setPermissions((Set<PosixFilePermission>) value);
+			break;
+		case owner:
+			setOwner((UserPrincipal) value);
+			break;
+		case group:
+			setGroup((GroupPrincipal) value);
+			break;
+		default:
+			throw new UnsupportedOperationException("'" + attribute + "' is unknown or read-only attribute");
+		}
+	}
+}
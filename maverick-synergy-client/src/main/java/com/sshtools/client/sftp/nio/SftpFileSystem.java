@@ -0,0 +1,210 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp.nio;
+
+import java.io.IOException;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.sftp.SftpChannel;
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+
+/**
+ * A remote file system accessed over SFTP, created by {@link SftpFileSystemProvider}.
+ */
+public class SftpFileSystem extends FileSystem {
+
+	static final Set<String> supportedViews = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("basic", "posix")));
+	
+	final SftpFileSystemProvider provider;
+	final String authority;
+	final SftpChannelPool pool;
+	final SshClient ssh;
+	final int blockSize;
+	final int maximumRequests;
+	
+	String defaultDirectory;
+	volatile boolean open = true;
+	
+	SftpFileSystem(SftpFileSystemProvider provider, String authority, SftpChannelPool pool, 
+			SshClient ssh, int blockSize, int maximumRequests) {
+		this.provider = provider;
+		this.authority = authority;
+		this.pool = pool;
+		this.ssh = ssh;
+		this.blockSize = blockSize;
+		this.maximumRequests = maximumRequests;
+	}
+
+	@Override
+	public SftpFileSystemProvider provider() {
+		return provider;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(!open) {
+			return;
+		}
+		open = false;
+		provider.removeFileSystem(this);
+		try {
+			pool.close();
+		} finally {
+			if(Objects.nonNull(ssh)) {
+				ssh.close();
+			}
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return false;
+	}
+
+	@Override
+	public String getSeparator() {
+		return SftpPath.SEPARATOR;
+	}
+
+	@Override
+	public Iterable<Path> getRootDirectories() {
+		return new ArrayList<Path>(Arrays.asList(getRootPath()));
+	}
+
+	@Override
+	public Iterable<FileStore> getFileStores() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Set<String> supportedFileAttributeViews() {
+		return supportedViews;
+	}
+
+	@Override
+	public SftpPath getPath(String first, String... more) {
+		
+		StringBuilder path = new StringBuilder(first);
+		for(String element : more) {
+			path.append(SftpPath.SEPARATOR);
+			path.append(element);
+		}
+		
+		List<String> elements = new ArrayList<>();
+		for(String element : path.toString().split(SftpPath.SEPARATOR)) {
+			if(!element.isEmpty()) {
+				elements.add(element);
+			}
+		}
+		return new SftpPath(this, elements, path.toString().startsWith(SftpPath.SEPARATOR));
+	}
+
+	@Override
+	public PathMatcher getPathMatcher(String syntaxAndPattern) {
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher(syntaxAndPattern);
+		return (path) -> matcher.matches(Paths.get(path.toString()));
+	}
+
+	@Override
+	public UserPrincipalLookupService getUserPrincipalLookupService() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public WatchService newWatchService() throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	void assertOpen() {
+		if(!open) {
+			throw new ClosedFileSystemException();
+		}
+	}
+
+	SftpPath getRootPath() {
+		return new SftpPath(this, new ArrayList<>(), true);
+	}
+	
+	String getAuthority() {
+		return authority;
+	}
+	
+	int getBlockSize() {
+		return blockSize;
+	}
+	
+	int getMaximumRequests() {
+		return maximumRequests;
+	}
+	
+	/**
+	 * Get the next client from the pool.
+	 */
+	SftpClient getClient() throws IOException {
+		assertOpen();
+		return pool.getClient();
+	}
+	
+	/**
+	 * Get the channel of the next client from the pool.
+	 */
+	SftpChannel getChannel() throws IOException {
+		return getClient().getSubsystemChannel();
+	}
+	
+	/**
+	 * The directory relative paths are resolved against, which is the directory the server 
+	 * starts the SFTP session in.
+	 */
+	synchronized String getDefaultDirectory() throws IOException {
+		if(Objects.isNull(defaultDirectory)) {
+			try {
+				defaultDirectory = getChannel().getDefaultDirectory();
+			} catch (SftpStatusException e) {
+				throw SftpFileSystemProvider.translate(e, null, null);
+			} catch (SshException e) {
+				throw SftpFileSystemProvider.translate(e);
+			}
+		}
+		return defaultDirectory;
+	}
+}
@@ -0,0 +1,711 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.DirectoryStream.Filter;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.sftp.AttributeCache;
+import com.sshtools.client.sftp.SftpChannel;
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpFile;
+import com.sshtools.client.sftp.SftpFileInputStream;
+import com.sshtools.client.sftp.SftpFileOutputStream;
+import com.sshtools.client.sftp.SftpSeekableByteChannel;
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.SshIOException;
+import com.sshtools.common.util.UnsignedInteger32;
+import com.sshtools.common.util.UnsignedInteger64;
+
+/**
+ * A {@link FileSystemProvider} for the <code>sftp</code> URI scheme, giving access to a remote
+ * file system through the standard {@link java.nio.file.Files} API. A file system is created with
+ * a URI of the form <code>sftp://user@host:port/</code> and an environment that supplies either
+ * an existing connection or the credentials to make one.
+ * 
+ * <p>
+ * File contents are read and written through {@link SftpSeekableByteChannel}, so sequential
+ * access is pipelined in the same way as {@link SftpClient#get(String)} and 
+ * {@link SftpClient#put(String, String)}. Directory streams are backed by prefetching READDIR 
+ * requests, attributes are served from an {@link AttributeCache} shared by the file system, and 
+ * operations are spread over a small pool of SFTP channels so the file system can be used by 
+ * several threads at once.
+ * </p>
+ */
+public class SftpFileSystemProvider extends FileSystemProvider {
+
+	public static final String URI_SCHEME = "sftp";
+	
+	/**
+	 * Environment key for an existing {@link SshConnection} to open the SFTP channels on.
+	 */
+	public static final String CONNECTION = "connection";
+	
+	/**
+	 * Environment key for an existing {@link SshClient} to open the SFTP channels on.
+	 */
+	public static final String CLIENT = "client";
+	
+	/**
+	 * Environment key for the password used to connect when no connection or client is supplied, 
+	 * as a <code>String</code> or <code>char[]</code>. The connection is closed with the file system.
+	 */
+	public static final String PASSWORD = "password";
+	
+	/**
+	 * Environment key for the number of SFTP channels in the pool, defaults to 4.
+	 */
+	public static final String CHANNELS = "channels";
+	
+	/**
+	 * Environment key for the number of milliseconds attributes are cached for, defaults to 2000.
+	 * A value of zero disables the cache.
+	 */
+	public static final String ATTRIBUTE_CACHE_TIME = "attributeCacheTime";
+	
+	/**
+	 * Environment key for the number of bytes in each read or write request, defaults to the 
+	 * largest the server supports.
+	 */
+	public static final String BLOCK_SIZE = "blockSize";
+	
+	/**
+	 * Environment key for the maximum number of read or write requests outstanding on a 
+	 * channel, defaults to {@link SftpFileInputStream#DEFAULT_MAXIMUM_REQUESTS}.
+	 */
+	public static final String MAXIMUM_REQUESTS = "maximumRequests";
+	
+	static final int DEFAULT_CHANNELS = 4;
+	static final long DEFAULT_ATTRIBUTE_CACHE_TIME = 2000;
+	static final String COPY_FILE = "copy-file";
+	
+	final Map<String,SftpFileSystem> fileSystems = new HashMap<>();
+	
+	public SftpFileSystemProvider() {}
+	
+	@Override
+	public String getScheme() {
+		return URI_SCHEME;
+	}
+
+	@Override
+	public FileSystem newFileSystem(URI uri, Map<String, ?> env) throws IOException {
+		
+		String authority = checkUri(uri);
+		
+		synchronized(fileSystems) {
+			if(fileSystems.containsKey(authority)) {
+				throw new FileSystemAlreadyExistsException(authority);
+			}
+			
+			SshClient ssh = null;
+			SshConnection con = (SshConnection) env.get(CONNECTION);
+			if(Objects.isNull(con)) {
+				SshClient client = (SshClient) env.get(CLIENT);
+				if(Objects.isNull(client)) {
+					ssh = client = connect(uri, env.get(PASSWORD));
+				}
+				con = client.getConnection();
+			}
+			
+			try {
+				long cacheTime = longValue(env, ATTRIBUTE_CACHE_TIME, DEFAULT_ATTRIBUTE_CACHE_TIME);
+				SftpChannelPool pool = new SftpChannelPool(con, 
+						(int) longValue(env, CHANNELS, DEFAULT_CHANNELS),
+						cacheTime > 0 ? new AttributeCache(10000, cacheTime) : null);
+				// Open the first channel now so that a failure is reported here
+				pool.getClient();
+				SftpFileSystem fs = new SftpFileSystem(this, authority, pool, ssh,
+						(int) longValue(env, BLOCK_SIZE, 0),
+						(int) longValue(env, MAXIMUM_REQUESTS, SftpFileInputStream.DEFAULT_MAXIMUM_REQUESTS));
+				fileSystems.put(authority, fs);
+				return fs;
+			} catch(IOException | RuntimeException e) {
+				if(Objects.nonNull(ssh)) {
+					ssh.close();
+				}
+				throw e;
+			}
+		}
+	}
+	
+	@Override
+	public FileSystem getFileSystem(URI uri) {
+		synchronized(fileSystems) {
+			SftpFileSystem fs = fileSystems.get(checkUri(uri));
+			if(Objects.isNull(fs)) {
+				throw new FileSystemNotFoundException(uri.toString());
+			}
+			return fs;
+		}
+	}
+
+	@Override
+	public Path getPath(URI uri) {
+		return getFileSystem(uri).getPath(uri.getPath());
+	}
+	
+	void removeFileSystem(SftpFileSystem fs) {
+		synchronized(fileSystems) {
+			fileSystems.remove(fs.getAuthority(), fs);
+		}
+	}
+	
+	private static String checkUri(URI uri) {
+		if(!URI_SCHEME.equals(uri.getScheme())) {
+			throw new IllegalArgumentException("URI must have " + URI_SCHEME + " scheme");
+		}
+		if(Objects.isNull(uri.getHost())) {
+			throw new IllegalArgumentException("URI must have a host");
+		}
+		if(Objects.isNull(uri.getUserInfo())) {
+			throw new IllegalArgumentException("URI must have a user");
+		}
+		return uri.getUserInfo() + "@" + uri.getHost() + ":" + (uri.getPort() == -1 ? 22 : uri.getPort());
+	}
+	
+	private static SshClient connect(URI uri, Object password) throws IOException {
+		if(Objects.isNull(password)) {
+			throw new IOException("Missing connection, client or password in file system environment");
+		}
+		try {
+			return new SshClient(uri.getHost(), uri.getPort() == -1 ? 22 : uri.getPort(), uri.getUserInfo(), 
+					password instanceof char[] ? (char[]) password : password.toString().toCharArray());
+		} catch (SshException e) {
+			throw new SshIOException(e);
+		}
+	}
+	
+	private static long longValue(Map<String,?> env, String key, long defaultValue) {
+		Object value = env.get(key);
+		if(Objects.isNull(value)) {
+			return defaultValue;
+		}
+		return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+	}
+
+	static SftpPath toSftpPath(Path path) {
+		if (Objects.isNull(path))
+			throw new NullPointerException();
+		if (!(path instanceof SftpPath))
+			throw new ProviderMismatchException();
+		SftpPath sftpPath = (SftpPath) path;
+		sftpPath.getFileSystem().assertOpen();
+		return sftpPath;
+	}
+	
+	/**
+	 * Convert a status returned by the server into the closest matching {@link FileSystemException}.
+	 */
+	static IOException translate(SftpStatusException ex, Path path, Path other) {
+		String file = Objects.isNull(path) ? null : path.toString();
+		String otherFile = Objects.isNull(other) ? null : other.toString();
+		FileSystemException result;
+		switch(ex.getStatus()) {
+		case SftpStatusException.SSH_FX_NO_SUCH_FILE:
+		case SftpStatusException.SSH_FX_NO_SUCH_PATH:
+			result = new NoSuchFileException(file, otherFile, ex.getMessage());
+			break;
+		case SftpStatusException.SSH_FX_FILE_ALREADY_EXISTS:
+			result = new FileAlreadyExistsException(file, otherFile, ex.getMessage());
+			break;
+		case SftpStatusException.SSH_FX_PERMISSION_DENIED:
+		case SftpStatusException.SSH_FX_WRITE_PROTECT:
+			result = new AccessDeniedException(file, otherFile, ex.getMessage());
+			break;
+		case SftpStatusException.SSH_FX_DIR_NOT_EMPTY:
+			result = new DirectoryNotEmptyException(file);
+			break;
+		case SftpStatusException.SSH_FX_NOT_A_DIRECTORY:
+			result = new NotDirectoryException(file);
+			break;
+		default:
+			result = new FileSystemException(file, otherFile, ex.getMessage());
+			break;
+		}
+		result.initCause(ex);
+		return result;
+	}
+	
+	static IOException translate(SshException ex) {
+		return new SshIOException(ex);
+	}
+	
+	@Override
+	public InputStream newInputStream(Path path, OpenOption... options) throws IOException {
+		for(OpenOption opt : options) {
+			if(opt == StandardOpenOption.APPEND || opt == StandardOpenOption.WRITE) {
+				throw new UnsupportedOperationException("'" + opt + "' not allowed");
+			}
+		}
+		SftpPath p = toSftpPath(path);
+		SftpFileSystem fs = p.getFileSystem();
+		try {
+			return new SftpFileInputStream(openFile(p, SftpChannel.OPEN_READ),
+					0, fs.getBlockSize(), fs.getMaximumRequests());
+		} catch (SftpStatusException e) {
+			throw translate(e, path, null);
+		} catch (SshException e) {
+			throw translate(e);
+		}
+	}
+
+	@Override
+	public OutputStream newOutputStream(Path path, OpenOption... options) throws IOException {
+		if(options.length > 0 && Arrays.asList(options).contains(StandardOpenOption.APPEND)) {
+			return super.newOutputStream(path, options);
+		}
+		SftpPath p = toSftpPath(path);
+		SftpFileSystem fs = p.getFileSystem();
+		int flags = options.length == 0 
+				? SftpChannel.OPEN_WRITE | SftpChannel.OPEN_CREATE | SftpChannel.OPEN_TRUNCATE 
+				: openFlags(Arrays.asList(options), true);
+		try {
+			return new SftpFileOutputStream(openFile(p, flags),
+					fs.getBlockSize(), fs.getMaximumRequests());
+		} catch (SftpStatusException e) {
+			throw translate(e, path, null);
+		} catch (SshException e) {
+			throw translate(e);
+		}
+	}
+	
+	@Override
+	public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs)
+			throws IOException {
+		SftpPath p = toSftpPath(path);
+		SftpFileSystem fs = p.getFileSystem();
+		int flags = openFlags(options, false);
+		return new SftpSeekableByteChannel(openFile(p, flags, attrs), flags, 
+				fs.getBlockSize(), fs.getMaximumRequests());
+	}
+	
+	private static SftpFile openFile(SftpPath path, int flags, FileAttribute<?>... attrs) throws IOException {
+		SftpChannel channel = path.getFileSystem().getChannel();
+		try {
+			return channel.openFile(path.getRemotePath(), flags, toAttributes(channel, attrs));
+		} catch (SftpStatusException e) {
+			// Older servers report FAILURE when an exclusive create finds an existing file
+			if(e.getStatus() == SftpStatusException.SSH_FX_FAILURE 
+					&& (flags & SftpChannel.OPEN_EXCLUSIVE) == SftpChannel.OPEN_EXCLUSIVE && path.exists()) {
+				throw new FileAlreadyExistsException(path.toString());
+			}
+			throw translate(e, path, null);
+		} catch (SshException e) {
+			throw translate(e);
+		}
+	}
+	
+	private static int openFlags(Iterable<? extends OpenOption> options, boolean write) {
+		boolean read = false;
+		boolean append = false;
+		boolean truncate = false;
+		boolean create = false;
+		boolean createNew = false;
+		for(OpenOption opt : options) {
+			if(opt == StandardOpenOption.READ) {
+				read = true;
+			} else if(opt == StandardOpenOption.WRITE) {
+				write = true;
+			} else if(opt == StandardOpenOption.APPEND) {
+				write = append = true;
+			} else if(opt == StandardOpenOption.TRUNCATE_EXISTING) {
+				truncate = true;
+			} else if(opt == StandardOpenOption.CREATE) {
+				create = true;
+			} else if(opt == StandardOpenOption.CREATE_NEW) {
+				createNew = true;
+			} else if(opt == StandardOpenOption.DELETE_ON_CLOSE) {
+				throw new UnsupportedOperationException("'" + opt + "' not supported");
+			} else if(Objects.isNull(opt)) {
+				throw new NullPointerException();
+			}
+		}
+		if(append && (read || truncate)) {
+			throw new IllegalArgumentException("APPEND not allowed with READ or TRUNCATE_EXISTING");
+		}
+		
+		if(!write) {
+			return SftpChannel.OPEN_READ;
+		}
+		
+		int flags = SftpChannel.OPEN_WRITE;
+		if(read) {
+			flags |= SftpChannel.OPEN_READ;
+		}
+		if(append) {
+			flags |= SftpChannel.OPEN_APPEND;
+		}
+		if(truncate) {
+			flags |= SftpChannel.OPEN_TRUNCATE;
+		}
+		if(createNew) {
+			flags |= SftpChannel.OPEN_CREATE | SftpChannel.OPEN_EXCLUSIVE;
+		} else if(create) {
+			flags |= SftpChannel.OPEN_CREATE;
+		}
+		return flags;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static SftpFileAttributes toAttributes(SftpChannel channel, FileAttribute<?>... attrs) {
+		SftpFileAttributes result = new SftpFileAttributes(
+				SftpFileAttributes.SSH_FILEXFER_TYPE_UNKNOWN, channel.getCharsetEncoding());
+		for(FileAttribute<?> attr : attrs) {
+			if(attr.name().equals("posix:permissions") || attr.name().equals("unix:permissions")) {
+				result.setPermissions(new UnsignedInteger32(
+						SftpPosixFileAttributes.toMode((Set<PosixFilePermission>) attr.value())));
+			} else {
+				throw new UnsupportedOperationException("'" + attr.name() + "' not supported as initial attribute");
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public DirectoryStream<Path> newDirectoryStream(Path dir, Filter<? super Path> filter) throws IOException {
+		SftpPath p = toSftpPath(dir);
+		SftpClient client = p.getFileSystem().getClient();
+		try {
+			return new SftpDirectoryStream(p, client.lsIterator(p.getRemotePath()), filter);
+		} catch (SftpStatusException e) {
+			if(e.getStatus() != SftpStatusException.SSH_FX_NO_SUCH_FILE
+					&& e.getStatus() != SftpStatusException.SSH_FX_NO_SUCH_PATH
+					&& !p.readAttributes(true).isDirectory()) {
+				throw new NotDirectoryException(dir.toString());
+			}
+			throw translate(e, dir, null);
+		} catch (SshException e) {
+			throw translate(e);
+		}
+	}
+
+	@Override
+	public void createDirectory(Path dir, FileAttribute<?>... attrs) throws IOException {
+		SftpPath p = toSftpPath(dir);
+		SftpChannel channel = p.getFileSystem().getChannel();
+		SftpFileAttributes dirAttrs = toAttributes(channel, attrs);
+		try {
+			channel.makeDirectory(p.getRemotePath(), dirAttrs);
+		} catch (SftpStatusException e) {
+			// Version 3 servers report FAILURE for an existing path
+			if(e.getStatus() == SftpStatusException.SSH_FX_FAILURE && p.exists()) {
+				throw new FileAlreadyExistsException(dir.toString());
+			}
+			throw translate(e, dir, null);
+		} catch (SshException e) {
+			throw translate(e);
+		}
+	}
+
+	@Override
+	public void delete(Path path) throws IOException {
+		SftpPath p = toSftpPath(path);
+		SftpChannel channel = p.getFileSystem().getChannel();
+		SftpPosixFileAttributes attrs = p.readAttributes(false);
+		try {
+			if(attrs.isDirectory()) {
+				channel.removeDirectory(p.getRemotePath());
+			} else {
+				channel.removeFile(p.getRemotePath());
+			}
+		} catch (SftpStatusException e) {
+			// Version 3 servers report FAILURE for a directory that is not empty
+			if(e.getStatus() == SftpStatusException.SSH_FX_FAILURE && attrs.isDirectory() && hasChildren(p)) {
+				throw new DirectoryNotEmptyException(path.toString());
+			}
+			throw translate(e, path, null);
+		} catch (SshException e) {
+			throw translate(e);
+		}
+	}
+	
+	private static boolean hasChildren(SftpPath dir) throws IOException {
+		try(DirectoryStream<Path> stream = dir.getFileSystem().provider().newDirectoryStream(dir, null)) {
+			return stream.iterator().hasNext();
+		}
+	}
+
+	@Override
+	public void copy(Path source, Path target, CopyOption... options) throws IOException {
+		SftpPath from = toSftpPath(source);
+		SftpPath to = toSftpPath(target);
+		List<CopyOption> opts = Arrays.asList(options);
+		
+		SftpPosixFileAttributes attrs = from.readAttributes(!opts.contains(LinkOption.NOFOLLOW_LINKS));
+		if(prepareTarget(to, opts)) {
+			if(from.isSameFile(to)) {
+				return;
+			}
+			delete(to);
+		}
+		
+		SftpFileSystem fs = to.getFileSystem();
+		SftpChannel channel = fs.getChannel();
+		try {
+			if(attrs.isDirectory()) {
+				channel.makeDirectory(to.getRemotePath());
+			} else if(attrs.isSymbolicLink()) {
+				channel.createSymbolicLink(channel.getSymbolicLinkTarget(from.getRemotePath()), to.getRemotePath());
+			} else {
+				copyContent(from, to);
+			}
+			
+			if(opts.contains(StandardCopyOption.COPY_ATTRIBUTES) && !attrs.isSymbolicLink()) {
+				SftpFileAttributes copy = new SftpFileAttributes(
+						SftpFileAttributes.SSH_FILEXFER_TYPE_UNKNOWN, channel.getCharsetEncoding());
+				copy.setPermissions(attrs.getAttributes().getPermissions());
+				copy.setTimes(attrs.getAttributes().getAccessedTime(), attrs.getAttributes().getModifiedTime());
+				channel.setAttributes(to.getRemotePath(), copy);
+			}
+		} catch (SftpStatusException e) {
+			throw translate(e, source, target);
+		} catch (SshException e) {
+			throw translate(e);
+		}
+	}
+	
+	private void copyContent(SftpPath from, SftpPath to) throws IOException, SftpStatusException, SshException {
+		SftpFileSystem fs = from.getFileSystem();
+		SftpClient client = fs.getClient();
+		SftpChannel channel = client.getSubsystemChannel();
+		
+		if(channel.supportsExtension(COPY_FILE)) {
+			// The data never leaves the server
+			client.copyRemoteFile(from.getRemotePath(), to.getRemotePath(), false);
+			return;
+		}
+		
+		/**
+		 * Read one block at a time rather than ahead. The server handles the requests of every
+		 * channel on a connection in turn, so unread data waiting on a write that cannot be sent
+		 * would stop both.
+		 */
+		byte[] buf = new byte[fs.getBlockSize() > 0 ? fs.getBlockSize() : channel.getMaximumReadLength()];
+		SftpFile source = channel.openFile(from.getRemotePath(), SftpChannel.OPEN_READ);
+		try {
+			try(OutputStream out = new SftpFileOutputStream(
+						channel.openFile(to.getRemotePath(), SftpChannel.OPEN_WRITE | SftpChannel.OPEN_CREATE | SftpChannel.OPEN_TRUNCATE),
+						fs.getBlockSize(), fs.getMaximumRequests())) {
+				long offset = 0;
+				int r;
+				while((r = channel.readFile(source.getHandle(), new UnsignedInteger64(offset), buf, 0, buf.length)) > -1) {
+					out.write(buf, 0, r);
+					offset += r;
+				}
+			}
+		} finally {
+			source.close();
+		}
+	}
+	
+	/**
+	 * Check the target of a copy or move may be written, deleting it if it exists and 
+	 * REPLACE_EXISTING was requested. Returns <code>true</code> if the target existed.
+	 */
+	private boolean prepareTarget(SftpPath target, List<CopyOption> options) throws IOException {
+		if(!target.exists()) {
+			return false;
+		}
+		if(!options.contains(StandardCopyOption.REPLACE_EXISTING)) {
+			throw new FileAlreadyExistsException(target.toString());
+		}
+		return true;
+	}
+
+	@Override
+	public void move(Path source, Path target, CopyOption... options) throws IOException {
+		SftpPath from = toSftpPath(source);
+		SftpPath to = toSftpPath(target);
+		List<CopyOption> opts = Arrays.asList(options);
+		SftpFileSystem fs = from.getFileSystem();
+		
+		try {
+			if(opts.contains(StandardCopyOption.ATOMIC_MOVE)) {
+				// posix-rename replaces any existing target in a single operation
+				try {
+					fs.getClient().rename(from.getRemotePath(), to.getRemotePath(), true);
+				} catch(SftpStatusException e) {
+					if(e.getStatus() == SftpStatusException.SSH_FX_OP_UNSUPPORTED) {
+						throw new AtomicMoveNotSupportedException(source.toString(), target.toString(), e.getMessage());
+					}
+					throw e;
+				}
+				return;
+			}
+			
+			if(prepareTarget(to, opts)) {
+				if(from.isSameFile(to)) {
+					return;
+				}
+				delete(to);
+			}
+			fs.getChannel().renameFile(from.getRemotePath(), to.getRemotePath());
+		} catch (SftpStatusException e) {
+			throw translate(e, source, target);
+		} catch (SshException e) {
+			throw translate(e);
+		}
+	}
+
+	@Override
+	public boolean isSameFile(Path path, Path path2) throws IOException {
+		if(path.equals(path2)) {
+			return true;
+		}
+		if(!(path2 instanceof SftpPath) || path.getFileSystem() != path2.getFileSystem()) {
+			return false;
+		}
+		return toSftpPath(path).isSameFile(toSftpPath(path2));
+	}
+
+	@Override
+	public boolean isHidden(Path path) throws IOException {
+		Path name = toSftpPath(path).getFileName();
+		return Objects.nonNull(name) && name.toString().startsWith(".");
+	}
+
+	@Override
+	public FileStore getFileStore(Path path) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Check the file exists. SFTP does not report the access the user has, so the access 
+	 * modes are only checked when the file is used.
+	 */
+	@Override
+	public void checkAccess(Path path, AccessMode... modes) throws IOException {
+		toSftpPath(path).readAttributes(true);
+	}
+	
+	@Override
+	public void createSymbolicLink(Path link, Path target, FileAttribute<?>... attrs) throws IOException {
+		if(attrs.length > 0) {
+			throw new UnsupportedOperationException("Initial attributes not supported for links");
+		}
+		SftpPath p = toSftpPath(link);
+		try {
+			p.getFileSystem().getChannel().createSymbolicLink(target.toString(), p.getRemotePath());
+		} catch (SftpStatusException e) {
+			throw translate(e, link, target);
+		} catch (SshException e) {
+			throw translate(e);
+		}
+	}
+
+	@Override
+	public Path readSymbolicLink(Path link) throws IOException {
+		SftpPath p = toSftpPath(link);
+		try {
+			return p.getFileSystem().getPath(p.getFileSystem().getChannel().getSymbolicLinkTarget(p.getRemotePath()));
+		} catch (SftpStatusException e) {
+			throw translate(e, link, null);
+		} catch (SshException e) {
+			throw translate(e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+		if (type == BasicFileAttributeView.class || type == PosixFileAttributeView.class) {
+			return (V) new SftpFileAttributeView(toSftpPath(path), 
+					type == BasicFileAttributeView.class ? "basic" : "posix", followLinks(options));
+		}
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
+			throws IOException {
+		if (type == BasicFileAttributes.class || type == PosixFileAttributes.class || type == SftpPosixFileAttributes.class) {
+			return (A) toSftpPath(path).readAttributes(followLinks(options));
+		}
+		throw new UnsupportedOperationException("'" + type.getName() + "' not supported");
+	}
+
+	@Override
+	public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException {
+		int idx = attributes.indexOf(':');
+		String view = idx == -1 ? "basic" : attributes.substring(0, idx);
+		return SftpFileAttributeView.get(toSftpPath(path), view, followLinks(options))
+				.readAttributes(attributes.substring(idx + 1));
+	}
+
+	@Override
+	public void setAttribute(Path path, String attribute, Object value, LinkOption... options) throws IOException {
+		int idx = attribute.indexOf(':');
+		String view = idx == -1 ? "basic" : attribute.substring(0, idx);
+		SftpFileAttributeView.get(toSftpPath(path), view, followLinks(options))
+				.setAttribute(attribute.substring(idx + 1), value);
+	}
+	
+	static boolean followLinks(LinkOption... options) {
+		for(LinkOption opt : options) {
+			if(opt == LinkOption.NOFOLLOW_LINKS) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,402 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp.nio;
+
+import java.io.File;
+import java.io.IOError;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
+
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+
+/**
+ * A path on a {@link SftpFileSystem}.
+ */
+public class SftpPath implements Path {
+
+	private static final String CURRENT_DIR = ".";
+	private static final String PARENT_DIR = "..";
+	public static final String SEPARATOR = "/";
+	
+	private final SftpFileSystem fileSystem;
+	private final List<String> elements;
+	private final boolean absolute;
+	
+	SftpPath(SftpFileSystem fileSystem, List<String> elements, boolean absolute) {
+		this.fileSystem = Objects.requireNonNull(fileSystem);
+		this.elements = Collections.unmodifiableList(elements);
+		this.absolute = absolute;
+	}
+
+	static SftpPath cast(Path path) {
+		return SftpFileSystemProvider.toSftpPath(path);
+	}
+
+	@Override
+	public SftpFileSystem getFileSystem() {
+		return fileSystem;
+	}
+
+	@Override
+	public boolean isAbsolute() {
+		return absolute;
+	}
+
+	@Override
+	public SftpPath getRoot() {
+		return absolute ? fileSystem.getRootPath() : null;
+	}
+
+	@Override
+	public SftpPath getFileName() {
+		int elementCount = getNameCount();
+		if (elementCount == 0) {
+			return null;
+		} else {
+			return getName(elementCount - 1);
+		}
+	}
+
+	@Override
+	public SftpPath getParent() {
+		int elementCount = getNameCount();
+		if (elementCount > 1) {
+			List<String> elems = elements.subList(0, elementCount - 1);
+			return copyWithElements(elems);
+		} else if (elementCount == 1) {
+			return getRoot();
+		} else {
+			return null; // only root and the "empty" path don't have a parent
+		}
+	}
+
+	@Override
+	public int getNameCount() {
+		return elements.size();
+	}
+
+	@Override
+	public SftpPath getName(int index) {
+		return subpath(index, index + 1);
+	}
+
+	@Override
+	public SftpPath subpath(int beginIndex, int endIndex) {
+		return new SftpPath(fileSystem, elements.subList(beginIndex, endIndex), false);
+	}
+
+	@Override
+	public boolean startsWith(Path path) {
+		if (!this.getFileSystem().equals(path.getFileSystem())) {
+			return false;
+		}
+		SftpPath other = cast(path);
+		boolean matchesAbsolute = this.isAbsolute() == other.isAbsolute();
+		if (matchesAbsolute && other.elements.size() <= this.elements.size()) {
+			return this.elements.subList(0, other.elements.size()).equals(other.elements);
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean startsWith(String other) {
+		return startsWith(fileSystem.getPath(other));
+	}
+
+	@Override
+	public boolean endsWith(Path path) {
+		if (!this.getFileSystem().equals(path.getFileSystem())) {
+			return false;
+		}
+		SftpPath other = cast(path);
+		if (other.isAbsolute()) {
+			return this.equals(other);
+		}
+		if (other.elements.size() <= this.elements.size()) {
+			return this.elements.subList(this.elements.size() - other.elements.size(), this.elements.size()).equals(other.elements);
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean endsWith(String other) {
+		return endsWith(fileSystem.getPath(other));
+	}
+
+	@Override
+	public SftpPath normalize() {
+		LinkedList<String> normalized = new LinkedList<>();
+		for (String elem : elements) {
+			String lastElem = normalized.peekLast();
+			if (elem.isEmpty() || CURRENT_DIR.equals(elem)) {
+				continue;
+			} else if (PARENT_DIR.equals(elem) && lastElem != null && !PARENT_DIR.equals(lastElem)) {
+				normalized.removeLast();
+			} else if (PARENT_DIR.equals(elem) && absolute) {
+				continue; // the parent of the root is the root
+			} else {
+				normalized.add(elem);
+			}
+		}
+		return copyWithElements(normalized);
+	}
+
+	@Override
+	public SftpPath resolve(Path path) {
+		SftpPath other = cast(path);
+		if (other.isAbsolute()) {
+			return other;
+		} else {
+			List<String> joined = new ArrayList<>();
+			joined.addAll(this.elements);
+			joined.addAll(other.elements);
+			return copyWithElements(joined);
+		}
+	}
+
+	@Override
+	public SftpPath resolve(String other) {
+		return resolve(fileSystem.getPath(other));
+	}
+
+	@Override
+	public SftpPath resolveSibling(Path path) {
+		SftpPath parent = getParent();
+		SftpPath other = cast(path);
+		if (parent == null || other.isAbsolute()) {
+			return other;
+		} else {
+			return parent.resolve(other);
+		}
+	}
+
+	@Override
+	public SftpPath resolveSibling(String other) {
+		return resolveSibling(fileSystem.getPath(other));
+	}
+
+	@Override
+	public SftpPath relativize(Path path) {
+		SftpPath normalized = this.normalize();
+		SftpPath other = cast(path).normalize();
+		if (normalized.isAbsolute() == other.isAbsolute()) {
+			int commonPrefix = countCommonPrefixElements(normalized, other);
+			int stepsUp = normalized.getNameCount() - commonPrefix;
+			List<String> elems = new ArrayList<>();
+			elems.addAll(Collections.nCopies(stepsUp, PARENT_DIR));
+			elems.addAll(other.elements.subList(commonPrefix, other.getNameCount()));
+			return copyWithElementsAndAbsolute(elems, false);
+		} else {
+			throw new IllegalArgumentException("Can't relativize an absolute path relative to a relative path.");
+		}
+	}
+
+	private int countCommonPrefixElements(SftpPath p1, SftpPath p2) {
+		int n = Math.min(p1.getNameCount(), p2.getNameCount());
+		for (int i = 0; i < n; i++) {
+			if (!p1.elements.get(i).equals(p2.elements.get(i))) {
+				return i;
+			}
+		}
+		return n;
+	}
+
+	@Override
+	public URI toUri() {
+		try {
+			return new URI(SftpFileSystemProvider.URI_SCHEME, fileSystem.getAuthority(), 
+					toAbsolutePath().toString(), null, null);
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException("Can not create URI from given input", e);
+		}
+	}
+
+	@Override
+	public SftpPath toAbsolutePath() {
+		if (isAbsolute()) {
+			return this;
+		} else {
+			try {
+				return fileSystem.getPath(fileSystem.getDefaultDirectory()).resolve(this);
+			} catch (IOException e) {
+				throw new IOError(e);
+			}
+		}
+	}
+
+	@Override
+	public SftpPath toRealPath(LinkOption... options) throws IOException {
+		SftpPath normalized = toAbsolutePath().normalize();
+		if (SftpFileSystemProvider.followLinks(options)) {
+			try {
+				normalized = fileSystem.getPath(fileSystem.getChannel().getAbsolutePath(normalized.toString()));
+			} catch (SftpStatusException e) {
+				throw SftpFileSystemProvider.translate(e, this, null);
+			} catch (SshException e) {
+				throw SftpFileSystemProvider.translate(e);
+			}
+		}
+		// The real path must exist
+		normalized.readAttributes(false);
+		return normalized;
+	}
+
+	@Override
+	public File toFile() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) throws IOException {
+		throw new UnsupportedOperationException("Method not implemented.");
+	}
+
+	@Override
+	public WatchKey register(WatchService watcher, WatchEvent.Kind<?>... events) throws IOException {
+		throw new UnsupportedOperationException("Method not implemented.");
+	}
+
+	@Override
+	public Iterator<Path> iterator() {
+		return new Iterator<Path>() {
+
+			private int idx = 0;
+
+			@Override
+			public boolean hasNext() {
+				return idx < getNameCount();
+			}
+
+			@Override
+			public Path next() {
+				return getName(idx++);
+			}
+		};
+	}
+
+	@Override
+	public int compareTo(Path path) {
+		SftpPath other = (SftpPath) path;
+		if (this.isAbsolute() != other.isAbsolute()) {
+			return this.isAbsolute() ? -1 : 1;
+		}
+		for (int i = 0; i < Math.min(this.getNameCount(), other.getNameCount()); i++) {
+			int result = this.elements.get(i).compareTo(other.elements.get(i));
+			if (result != 0) {
+				return result;
+			}
+		}
+		return this.getNameCount() - other.getNameCount();
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 0;
+		hash = 31 * hash + fileSystem.hashCode();
+		hash = 31 * hash + elements.hashCode();
+		hash = 31 * hash + (absolute ? 1 : 0);
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof SftpPath) {
+			SftpPath other = (SftpPath) obj;
+			return this.fileSystem.equals(other.fileSystem) //
+					&& this.compareTo(other) == 0;
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public String toString() {
+		String prefix = absolute ? SEPARATOR : "";
+		return prefix + String.join(SEPARATOR, elements);
+	}
+
+	private SftpPath copyWithElements(List<String> elements) {
+		return new SftpPath(fileSystem, elements, absolute);
+	}
+
+	private SftpPath copyWithElementsAndAbsolute(List<String> elements, boolean absolute) {
+		return new SftpPath(fileSystem, elements, absolute);
+	}
+	
+	/**
+	 * The absolute path to send to the server.
+	 */
+	String getRemotePath() throws IOException {
+		if (isAbsolute()) {
+			return toString();
+		}
+		String dir = fileSystem.getDefaultDirectory();
+		if (elements.isEmpty()) {
+			return dir;
+		}
+		return (dir.endsWith(SEPARATOR) ? dir : dir + SEPARATOR) + toString();
+	}
+	
+	/**
+	 * Read the attributes of the file, which are served from the file system's attribute cache 
+	 * when they have been read recently.
+	 */
+	SftpPosixFileAttributes readAttributes(boolean followLinks) throws IOException {
+		try {
+			if (followLinks) {
+				return new SftpPosixFileAttributes(fileSystem.getChannel().getAttributes(getRemotePath()));
+			} else {
+				return new SftpPosixFileAttributes(fileSystem.getChannel().getLinkAttributes(getRemotePath()));
+			}
+		} catch (SftpStatusException e) {
+			throw SftpFileSystemProvider.translate(e, this, null);
+		} catch (SshException e) {
+			throw SftpFileSystemProvider.translate(e);
+		}
+	}
+	
+	boolean exists() throws IOException {
+		try {
+			readAttributes(false);
+			return true;
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+	}
+	
+	boolean isSameFile(SftpPath other) throws IOException {
+		return toRealPath().equals(other.toRealPath());
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp.nio;
+
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.sshtools.common.sftp.SftpFileAttributes;
+
+/**
+ * The attributes of a file on a {@link SftpFileSystem}.
+ */
+public class SftpPosixFileAttributes implements PosixFileAttributes {
+	
+	private final SftpFileAttributes attrs;
+
+	SftpPosixFileAttributes(SftpFileAttributes attrs) {
+		this.attrs = attrs;
+	}
+	
+	/**
+	 * Get the SFTP attributes these attributes were read from.
+	 * 
+	 * @return attributes
+	 */
+	public SftpFileAttributes getAttributes() {
+		return attrs;
+	}
+
+	@Override
+	public FileTime lastModifiedTime() {
+		return FileTime.from(attrs.getModifiedTime().longValue(), TimeUnit.SECONDS);
+	}
+
+	@Override
+	public FileTime lastAccessTime() {
+		return attrs.hasAccessTime() ? FileTime.from(attrs.getAccessedTime().longValue(), TimeUnit.SECONDS) : lastModifiedTime();
+	}
+
+	@Override
+	public FileTime creationTime() {
+		return attrs.hasCreateTime() ? FileTime.from(attrs.getCreationTime().longValue(), TimeUnit.SECONDS) : lastModifiedTime();
+	}
+
+	@Override
+	public boolean isRegularFile() {
+		return attrs.isFile();
+	}
+
+	@Override
+	public boolean isDirectory() {
+		return attrs.isDirectory();
+	}
+
+	@Override
+	public boolean isSymbolicLink() {
+		return attrs.isLink();
+	}
+
+	@Override
+	public boolean isOther() {
+		return !isRegularFile() && !isDirectory() && !isSymbolicLink();
+	}
+
+	@Override
+	public long size() {
+		return attrs.hasSize() ? attrs.getSize().longValue() : 0;
+	}
+
+	@Override
+	public Object fileKey() {
+		return null;
+	}
+
+	@Override
+	public UserPrincipal owner() {
+		return new SftpPrincipal(attrs.getUID());
+	}
+
+	@Override
+	public GroupPrincipal group() {
+		return new SftpPrincipal(attrs.getGID());
+	}
+
+	@Override
+	public Set<PosixFilePermission> permissions() {
+		Set<PosixFilePermission> perms = EnumSet.noneOf(PosixFilePermission.class);
+		if (Objects.isNull(attrs.getPermissions())) {
+			return perms;
+		}
+		long mode = attrs.getPermissions().longValue();
+		for (PosixFilePermission perm : PosixFilePermission.values()) {
+			if ((mode & toMode(perm)) != 0) {
+				perms.add(perm);
+			}
+		}
+		return perms;
+	}
+	
+	/**
+	 * The permission bit for a permission. The permissions are declared in the same order as 
+	 * the bits, from owner read (0400) down to others execute (0001).
+	 */
+	static int toMode(PosixFilePermission perm) {
+		return 0400 >> perm.ordinal();
+	}
+	
+	static int toMode(Set<PosixFilePermission> perms) {
+		int mode = 0;
+		for (PosixFilePermission perm : perms) {
+			mode |= toMode(perm);
+		}
+		return mode;
+	}
+	
+	static class SftpPrincipal implements GroupPrincipal {
+		
+		private final String name;
+		
+		SftpPrincipal(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+		
+		@Override
+		public int hashCode() {
+			return name.hashCode();
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof SftpPrincipal && ((SftpPrincipal) obj).name.equals(name);
+		}
+		
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+}
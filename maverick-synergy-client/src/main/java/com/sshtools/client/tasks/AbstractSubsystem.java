@@ -82,6 +82,15 @@ public abstract class AbstractSubsystem {
 	protected abstract int getMaximumWindowSize();
 
 	protected abstract int getMaximumPacketSize();
+	
+	/**
+	 * The maximum length of a single message that will be accepted from the subsystem.
+	 * 
+	 * @return int
+	 */
+	protected int getMaximumMessageLength() {
+		return con.getContext().getMaximumPacketLength();
+	}
 
 	protected SessionChannelNG getSession() {
 		return (SessionChannelNG) con.getProperty(taskUUID.toString());
@@ -97,11 +106,15 @@ public abstract class AbstractSubsystem {
 	            throw new SshException("Negative message length in SFTP protocol.",
 	                                   SshException.PROTOCOL_VIOLATION);
 
-	        if(len > con.getContext().getMaximumPacketLength())
+	        if(len > getMaximumMessageLength())
 	            throw new SshException("Invalid message length in SFTP protocol [" + len + "]",
 	                                   SshException.PROTOCOL_VIOLATION);
 
 	        byte[] msg = ByteArrays.getInstance().getByteArray();
+	        if(msg.length < len) {
+	        	ByteArrays.getInstance().releaseByteArray(msg);
+	        	msg = new byte[len];
+	        }
 	        in.readFully(msg, 0, len);
 
 	        return msg;
@@ -59,4 +59,13 @@ public interface FileTransferProgress {
    * The transfer has completed.
    */
   public void completed();
+  
+  /**
+   * The number of outstanding requests or the block size of an adaptive transfer 
+   * has changed, or the transfer has finished.
+   * 
+   * @param stats
+   */
+  default void statistics(TransferStatistics stats) {
+  }
 }
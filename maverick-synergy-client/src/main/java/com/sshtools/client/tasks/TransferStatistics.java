@@ -0,0 +1,69 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tasks;
+
+/**
+ * Measurements taken during a file transfer that adapts to the network. 
+ * 
+ * @see FileTransferProgress#statistics(TransferStatistics)
+ */
+public interface TransferStatistics {
+
+	/**
+	 * The number of requests currently allowed to be outstanding.
+	 * 
+	 * @return int
+	 */
+	int getOutstandingRequests();
+	
+	/**
+	 * The current size of each read or write request.
+	 * 
+	 * @return int
+	 */
+	int getBlockSize();
+	
+	/**
+	 * The smoothed time taken for a request to be answered, in microseconds.
+	 * 
+	 * @return long
+	 */
+	long getRoundTripTime();
+	
+	/**
+	 * The shortest time taken for a request to be answered, in microseconds.
+	 * 
+	 * @return long
+	 */
+	long getMinimumRoundTripTime();
+	
+	/**
+	 * The number of bytes acknowledged by the server so far.
+	 * 
+	 * @return long
+	 */
+	long getBytesTransferred();
+	
+	/**
+	 * The average rate at which bytes have been acknowledged by the server.
+	 * 
+	 * @return long
+	 */
+	long getBytesPerSecond();
+}
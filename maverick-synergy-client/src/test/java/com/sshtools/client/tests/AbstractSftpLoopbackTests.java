@@ -0,0 +1,145 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.common.files.AbstractFileFactory;
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.policy.FileFactory;
+import com.sshtools.common.policy.FileSystemPolicy;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.sftp.extensions.DefaultSftpExtensionFactory;
+import com.sshtools.common.sftp.extensions.SupportedSftpExtensions;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.server.InMemoryPasswordAuthenticator;
+import com.sshtools.server.SshServer;
+import com.sshtools.server.SshServerContext;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs SFTP tests against an in-process server on a loopback connection. By default the server
+ * supports every SFTP extension. It serves a temporary directory, and the client 
+ * resolves local paths against a second temporary directory.
+ */
+public abstract class AbstractSftpLoopbackTests extends TestCase {
+
+	File home;
+	File local;
+	SshServer server;
+	List<SshClient> clients = new ArrayList<SshClient>();
+	SftpClient sftp;
+	
+	@Override
+	protected void setUp() throws Exception {
+		
+		home = Files.createTempDirectory("sftp-home").toFile();
+		local = Files.createTempDirectory("sftp-local").toFile();
+		
+		server = new SshServer("127.0.0.1", 0) {
+			@Override
+			protected void configure(SshServerContext sshContext, SocketChannel sc) throws IOException, SshException {
+				super.configure(sshContext, sc);
+				sshContext.getPolicy(FileSystemPolicy.class).getSFTPExtensionFactories().add(
+						new DefaultSftpExtensionFactory(getSupportedExtensions()));
+				configureServer(sshContext);
+			}
+		};
+		server.addAuthenticator(new InMemoryPasswordAuthenticator().addUser("test", "test".toCharArray()));
+		server.addHostKey(SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ECDSA, 256));
+		server.setFileFactory(new FileFactory() {
+			@Override
+			public AbstractFileFactory<?> getFileFactory(SshConnection con) {
+				return new DirectFileFactory(home);
+			}
+		});
+		server.start();
+		
+		sftp = createClient();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		for(SshClient ssh : clients) {
+			ssh.disconnect();
+		}
+		server.close();
+		delete(home);
+		delete(local);
+	}
+	
+	/**
+	 * Override to change the configuration of each server connection.
+	 * 
+	 * @param sshContext
+	 */
+	protected void configureServer(SshServerContext sshContext) {
+	}
+	
+	/**
+	 * Override to change the SFTP extensions the server supports.
+	 */
+	protected SupportedSftpExtensions[] getSupportedExtensions() {
+		return SupportedSftpExtensions.values();
+	}
+	
+	/**
+	 * Open another connection to the server.
+	 */
+	protected SftpClient createClient() throws Exception {
+		SshClient ssh = new SshClient("127.0.0.1", server.getPort(), "test", "test".toCharArray());
+		clients.add(ssh);
+		return new SftpClient(ssh, new DirectFileFactory(local));
+	}
+	
+	protected static byte[] randomBytes(int length, long seed) {
+		byte[] data = new byte[length];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+	
+	protected static byte[] read(File file) throws IOException {
+		return Files.readAllBytes(file.toPath());
+	}
+	
+	protected static void write(File file, byte[] data) throws IOException {
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), data);
+	}
+	
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if(children!=null) {
+			for(File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,201 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.sshtools.client.sftp.AdaptivePipeline;
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.client.tasks.TransferStatistics;
+
+/**
+ * Transfers files with an {@link AdaptivePipeline} and with fixed size blocks and checks
+ * the data arrives intact and that each transfer reports its own statistics.
+ */
+public class AdaptivePipelineTests extends AbstractSftpLoopbackTests {
+
+	static final int SIZE = 4 * 1024 * 1024 + 12345;
+	
+	byte[] data;
+	StatisticsProgress progress;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		data = randomBytes(SIZE, 1);
+		progress = new StatisticsProgress();
+	}
+	
+	public void testAdaptiveDownload() throws Exception {
+		
+		write(new File(home, "download.bin"), data);
+		sftp.setAdaptivePipeline(new AdaptivePipeline());
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		sftp.get("download.bin", out, progress);
+		
+		assertTrue(Arrays.equals(data, out.toByteArray()));
+		assertAdapted(new AdaptivePipeline());
+	}
+	
+	public void testAdaptiveUpload() throws Exception {
+		
+		sftp.setAdaptivePipeline(new AdaptivePipeline());
+		sftp.put(new ByteArrayInputStream(data), "upload.bin", progress);
+		
+		assertTrue(Arrays.equals(data, read(new File(home, "upload.bin"))));
+		assertAdapted(new AdaptivePipeline());
+	}
+	
+	public void testAdaptiveDownloadFromPosition() throws Exception {
+		
+		write(new File(home, "download.bin"), data);
+		sftp.setAdaptivePipeline(new AdaptivePipeline());
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		sftp.get("download.bin", out, progress, 1000000);
+		
+		assertTrue(Arrays.equals(Arrays.copyOfRange(data, 1000000, SIZE), out.toByteArray()));
+	}
+	
+	public void testBoundsRespected() throws Exception {
+		
+		AdaptivePipeline pipeline = new AdaptivePipeline();
+		pipeline.setMaximumRequests(8);
+		pipeline.setMaximumBlockSize(16384);
+		pipeline.setMinimumBlockSize(8192);
+		write(new File(home, "download.bin"), data);
+		sftp.setAdaptivePipeline(pipeline);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		sftp.get("download.bin", out, progress);
+		
+		assertTrue(Arrays.equals(data, out.toByteArray()));
+		assertAdapted(pipeline);
+	}
+	
+	public void testFixedTransferReportsStatistics() throws Exception {
+		
+		write(new File(home, "download.bin"), data);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		sftp.get("download.bin", out, progress);
+		
+		assertTrue(Arrays.equals(data, out.toByteArray()));
+		assertFalse(progress.stats.isEmpty());
+		assertTrue(progress.stats.get(0).getBlockSize() > 0);
+		assertNull(System.getProperty("maverick.read.optimizedBlock"));
+		assertNull(System.getProperty("maverick.read.blockRoundtrip"));
+		
+		progress.stats.clear();
+		sftp.put(new ByteArrayInputStream(data), "upload.bin", progress);
+		
+		assertTrue(Arrays.equals(data, read(new File(home, "upload.bin"))));
+		assertFalse(progress.stats.isEmpty());
+		assertNull(System.getProperty("maverick.write.optimizedBlock"));
+	}
+	
+	private void assertAdapted(AdaptivePipeline bounds) {
+		
+		assertFalse(progress.stats.isEmpty());
+		for(Snapshot s : progress.stats) {
+			assertTrue(s.getOutstandingRequests() >= bounds.getMinimumRequests());
+			assertTrue(s.getOutstandingRequests() <= bounds.getMaximumRequests());
+			if(bounds.getMaximumBlockSize() > 0) {
+				assertTrue(s.getBlockSize() <= bounds.getMaximumBlockSize());
+			}
+		}
+		assertEquals(SIZE, progress.stats.get(progress.stats.size() - 1).getBytesTransferred());
+	}
+	
+	static class Snapshot implements TransferStatistics {
+		
+		final int outstandingRequests;
+		final int blockSize;
+		final long bytesTransferred;
+		
+		Snapshot(TransferStatistics stats) {
+			outstandingRequests = stats.getOutstandingRequests();
+			blockSize = stats.getBlockSize();
+			bytesTransferred = stats.getBytesTransferred();
+		}
+
+		@Override
+		public int getOutstandingRequests() {
+			return outstandingRequests;
+		}
+
+		@Override
+		public int getBlockSize() {
+			return blockSize;
+		}
+
+		@Override
+		public long getRoundTripTime() {
+			return 0;
+		}
+
+		@Override
+		public long getMinimumRoundTripTime() {
+			return 0;
+		}
+
+		@Override
+		public long getBytesTransferred() {
+			return bytesTransferred;
+		}
+
+		@Override
+		public long getBytesPerSecond() {
+			return 0;
+		}
+	}
+	
+	static class StatisticsProgress implements FileTransferProgress {
+
+		List<Snapshot> stats = new ArrayList<Snapshot>();
+		
+		@Override
+		public void started(long bytesTotal, String remoteFile) {
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public void progressed(long bytesSoFar) {
+		}
+
+		@Override
+		public void completed() {
+		}
+		
+		@Override
+		public void statistics(TransferStatistics stats) {
+			this.stats.add(new Snapshot(stats));
+		}
+	}
+}
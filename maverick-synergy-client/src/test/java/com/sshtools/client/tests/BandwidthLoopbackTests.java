@@ -0,0 +1,158 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.common.files.AbstractFileFactory;
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.policy.BandwidthPolicy;
+import com.sshtools.common.policy.FileFactory;
+import com.sshtools.common.policy.FileSystemPolicy;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.server.InMemoryPasswordAuthenticator;
+import com.sshtools.server.SshServer;
+import com.sshtools.server.SshServerContext;
+
+import junit.framework.TestCase;
+
+/**
+ * Transfers a fixed payload over a loopback connection to a server with a
+ * {@link BandwidthPolicy} and checks the transfer takes at least as long as the
+ * limit requires, without stalling.
+ */
+public class BandwidthLoopbackTests extends TestCase {
+
+	static final int BYTES_PER_SECOND = 1024 * 1024;
+	static final int BURST = 65536;
+	static final int WINDOW_SIZE = 262144;
+	static final int PAYLOAD = 3 * 1024 * 1024;
+	
+	File home;
+	BandwidthPolicy bandwidthPolicy;
+	SshServer server;
+	SshClient ssh;
+	SftpClient sftp;
+	byte[] payload;
+	
+	@Override
+	protected void setUp() throws Exception {
+		
+		home = Files.createTempDirectory("bandwidth").toFile();
+		payload = new byte[PAYLOAD];
+		new Random(1).nextBytes(payload);
+		
+		bandwidthPolicy = new BandwidthPolicy();
+		bandwidthPolicy.getConnectionInboundLimit().setBytesPerSecond(BYTES_PER_SECOND);
+		bandwidthPolicy.getConnectionInboundLimit().setBurst(BURST);
+		bandwidthPolicy.getConnectionOutboundLimit().setBytesPerSecond(BYTES_PER_SECOND);
+		bandwidthPolicy.getConnectionOutboundLimit().setBurst(BURST);
+		
+		server = new SshServer("127.0.0.1", 0) {
+			@Override
+			protected void configure(SshServerContext sshContext, SocketChannel sc) throws IOException, SshException {
+				super.configure(sshContext, sc);
+				sshContext.setPolicy(BandwidthPolicy.class, bandwidthPolicy);
+				/* Keep the window that may be used before the first adjustment small */
+				sshContext.getPolicy(FileSystemPolicy.class).setSftpMaxWindowSize(WINDOW_SIZE);
+				sshContext.getPolicy(FileSystemPolicy.class).setSftpMinWindowSize(WINDOW_SIZE / 2);
+			}
+		};
+		server.addAuthenticator(new InMemoryPasswordAuthenticator().addUser("test", "test".toCharArray()));
+		server.addHostKey(SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ECDSA, 256));
+		server.setFileFactory(new FileFactory() {
+			@Override
+			public AbstractFileFactory<?> getFileFactory(SshConnection con) {
+				return new DirectFileFactory(home);
+			}
+		});
+		server.start();
+		
+		ssh = new SshClient("127.0.0.1", server.getPort(), "test", "test".toCharArray());
+		sftp = new SftpClient(ssh);
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		ssh.disconnect();
+		server.close();
+		bandwidthPolicy.shutdown();
+		for(File f : home.listFiles()) {
+			f.delete();
+		}
+		home.delete();
+	}
+	
+	public void testOutboundLimit() throws Exception {
+		
+		Files.write(new File(home, "download.bin").toPath(), payload);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		long started = System.currentTimeMillis();
+		sftp.get("download.bin", out);
+		long elapsed = System.currentTimeMillis() - started;
+		
+		assertTrue(Arrays.equals(payload, out.toByteArray()));
+		assertWithinLimit(elapsed, PAYLOAD - BURST);
+	}
+	
+	public void testInboundLimit() throws Exception {
+		
+		long started = System.currentTimeMillis();
+		sftp.put(new ByteArrayInputStream(payload), "upload.bin");
+		long elapsed = System.currentTimeMillis() - started;
+		
+		assertTrue(Arrays.equals(payload, Files.readAllBytes(new File(home, "upload.bin").toPath())));
+		/* Data inside the initial window is not held back */
+		assertWithinLimit(elapsed, PAYLOAD - BURST - WINDOW_SIZE);
+	}
+	
+	public void testUserBucketsReleased() throws Exception {
+		
+		assertEquals(1, bandwidthPolicy.getActiveUsers());
+		sftp.exit();
+		ssh.disconnect();
+		
+		long timeout = System.currentTimeMillis() + 10000;
+		while(bandwidthPolicy.getActiveUsers() > 0 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(50);
+		}
+		assertEquals(0, bandwidthPolicy.getActiveUsers());
+	}
+	
+	private void assertWithinLimit(long elapsed, long shapedBytes) {
+		
+		long minimum = shapedBytes * 1000L / BYTES_PER_SECOND;
+		assertTrue("Transfer took " + elapsed + "ms, faster than the " + minimum + "ms the limit allows", 
+				elapsed >= minimum * 9 / 10);
+		assertTrue("Transfer took " + elapsed + "ms, the limit allows it in " + minimum + "ms", 
+				elapsed <= minimum * 3);
+	}
+}
@@ -0,0 +1,176 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sshtools.client.sftp.DirectoryOperation;
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpFile;
+import com.sshtools.client.tasks.FileTransferProgress;
+
+/**
+ * Transfers many files at the same time across several channels.
+ */
+public class ConcurrentTransferTests extends AbstractSftpLoopbackTests {
+
+	Map<String,byte[]> files;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		
+		Random r = new Random(3);
+		files = new TreeMap<String,byte[]>();
+		for(int d = 0; d < 3; d++) {
+			for(int i = 0; i < 40; i++) {
+				byte[] data = new byte[r.nextInt(20000)];
+				r.nextBytes(data);
+				files.put("d" + d + "/f" + i, data);
+			}
+		}
+		files.put("big", randomBytes(2 * 1024 * 1024, 4));
+		for(Map.Entry<String,byte[]> e : files.entrySet()) {
+			write(new File(local, "src/" + e.getKey()), e.getValue());
+		}
+		
+		sftp.setConcurrentTransfers(6);
+		sftp.setTransferChannels(2);
+	}
+	
+	public void testDirectoryRoundTrip() throws Exception {
+		
+		DirectoryOperation put = sftp.putLocalDirectory(new File(local, "src").getAbsolutePath(), 
+				"up", true, false, true, null);
+		assertTrue(put.getFailedTransfers().isEmpty());
+		assertTreeEquals(new File(home, "up"));
+		
+		DirectoryOperation get = sftp.getRemoteDirectory("up", new File(local, "down").getAbsolutePath(), 
+				true, false, true, null);
+		assertTrue(get.getFailedTransfers().isEmpty());
+		assertTreeEquals(new File(local, "down"));
+		assertNoWorkers();
+	}
+	
+	public void testProgressForEachFile() throws Exception {
+		
+		Map<String,FileProgress> progress = new ConcurrentHashMap<String,FileProgress>();
+		sftp.setTransferProgressFactory((path) -> {
+			FileProgress p = new FileProgress();
+			assertNull(progress.put(path, p));
+			return p;
+		});
+		
+		sftp.setRegularExpressionSyntax(SftpClient.GlobSyntax);
+		sftp.lcd(new File(local, "src/d1").getAbsolutePath());
+		sftp.mkdir("files");
+		sftp.putFiles("f*", "files");
+		
+		assertEquals(40, progress.size());
+		for(int i = 0; i < 40; i++) {
+			byte[] data = files.get("d1/f" + i);
+			assertTrue(Arrays.equals(data, read(new File(home, "files/f" + i))));
+			FileProgress p = progress.get("f" + i);
+			assertNotNull("No progress for f" + i, p);
+			assertTrue(p.completed);
+			assertEquals(data.length, p.total);
+			assertEquals(data.length, p.last);
+		}
+		
+		progress.clear();
+		File down = new File(local, "files");
+		down.mkdirs();
+		SftpFile[] got = sftp.getFiles("files/f*", down.getAbsolutePath());
+		
+		assertEquals(40, got.length);
+		assertEquals(40, progress.size());
+		for(SftpFile file : got) {
+			assertTrue(progress.get(file.getAbsolutePath()).completed);
+			assertTrue(Arrays.equals(files.get("d1/" + file.getFilename()), 
+					read(new File(down, file.getFilename()))));
+		}
+		assertNoWorkers();
+	}
+	
+	public void testFailureStopsWorkers() throws Exception {
+		
+		sftp.putLocalDirectory(new File(local, "src").getAbsolutePath(), "up", true, false, true, null);
+		
+		/* A directory in the way of a file fails its download and stops the others */
+		new File(local, "blocked/f7/f7").mkdirs();
+		sftp.setRegularExpressionSyntax(SftpClient.GlobSyntax);
+		try {
+			sftp.getFiles("up/d1/f*", new File(local, "blocked").getAbsolutePath());
+			fail("The download should have failed");
+		} catch(Exception e) {
+		}
+		assertNoWorkers();
+		
+		/* A file in the way of the target directory fails each upload, which is recorded rather than thrown */
+		write(new File(home, "walk"), new byte[0]);
+		DirectoryOperation op = sftp.putLocalDirectory(new File(local, "src").getAbsolutePath(), "walk", true, false, true, null);
+		assertFalse("The uploads should have failed", op.getFailedTransfers().isEmpty());
+		assertNoWorkers();
+	}
+	
+	private void assertTreeEquals(File root) throws Exception {
+		for(Map.Entry<String,byte[]> e : files.entrySet()) {
+			assertTrue(e.getKey() + " differs", Arrays.equals(e.getValue(), read(new File(root, e.getKey()))));
+		}
+	}
+	
+	private void assertNoWorkers() {
+		for(Thread t : Thread.getAllStackTraces().keySet()) {
+			assertFalse(t.getName() + " is still running", t.isAlive() && t.getName().startsWith("sftp-transfer-"));
+		}
+	}
+	
+	static class FileProgress implements FileTransferProgress {
+
+		long total = -1;
+		long last;
+		boolean completed;
+		
+		@Override
+		public void started(long bytesTotal, String remoteFile) {
+			total = bytesTotal;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public void progressed(long bytesSoFar) {
+			assertTrue(bytesSoFar >= last);
+			last = bytesSoFar;
+		}
+
+		@Override
+		public void completed() {
+			completed = true;
+		}
+	}
+}
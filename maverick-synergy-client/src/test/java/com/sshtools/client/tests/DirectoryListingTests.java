@@ -0,0 +1,126 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import com.sshtools.client.sftp.SftpFile;
+import com.sshtools.common.sftp.SftpStatusException;
+
+/**
+ * Lists directories with different numbers of READDIR requests in flight.
+ */
+public class DirectoryListingTests extends AbstractSftpLoopbackTests {
+
+	static final int FILES = 3000;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		File dir = new File(home, "many");
+		dir.mkdirs();
+		for(int i = 0; i < FILES; i++) {
+			new File(dir, "file-" + i).createNewFile();
+		}
+		new File(home, "empty").mkdirs();
+	}
+	
+	public void testPrefetch() throws Exception {
+		
+		for(int prefetch : new int[] { 1, 2, 4, 16 }) {
+			sftp.setDirectoryPrefetch(prefetch);
+			
+			Set<String> names = new HashSet<String>();
+			Iterator<SftpFile> it = sftp.lsIterator("many");
+			while(it.hasNext()) {
+				SftpFile file = it.next();
+				assertEquals("many/" + file.getFilename(), file.getAbsolutePath());
+				if(file.getFilename().startsWith("file-")) {
+					assertTrue("Duplicate " + file.getFilename(), names.add(file.getFilename()));
+				}
+			}
+			assertEquals("Prefetch of " + prefetch, FILES, names.size());
+			
+			names.clear();
+			for(SftpFile file : sftp.ls("many")) {
+				if(file.getFilename().startsWith("file-")) {
+					assertTrue("Duplicate " + file.getFilename(), names.add(file.getFilename()));
+				}
+			}
+			assertEquals("Prefetch of " + prefetch, FILES, names.size());
+		}
+	}
+	
+	public void testEmptyDirectory() throws Exception {
+		
+		sftp.setDirectoryPrefetch(8);
+		for(SftpFile file : sftp.ls("empty")) {
+			assertTrue(file.getFilename(), file.getFilename().equals(".") || file.getFilename().equals(".."));
+		}
+	}
+	
+	public void testMissingDirectory() throws Exception {
+		
+		try {
+			sftp.lsIterator("missing");
+			fail("Listing a missing directory should fail");
+		} catch(SftpStatusException e) {
+			assertEquals(SftpStatusException.SSH_FX_NO_SUCH_FILE, e.getStatus());
+		}
+		try {
+			sftp.ls("missing");
+			fail("Listing a missing directory should fail");
+		} catch(SftpStatusException e) {
+			assertEquals(SftpStatusException.SSH_FX_NO_SUCH_FILE, e.getStatus());
+		}
+	}
+	
+	public void testCloseBeforeEnd() throws Exception {
+		
+		sftp.setDirectoryPrefetch(16);
+		
+		/* Requests still in flight are drained so later requests get their own responses */
+		for(int i = 0; i < 20; i++) {
+			Iterator<SftpFile> it = sftp.lsIterator("many");
+			it.next();
+			it.next();
+			((Closeable) it).close();
+			assertFalse(it.hasNext());
+			assertTrue(sftp.stat("many").isDirectory());
+		}
+		
+		int count = 0;
+		for(Iterator<SftpFile> it = sftp.lsIterator("many"); it.hasNext(); it.next()) {
+			count++;
+		}
+		assertTrue(count >= FILES);
+	}
+	
+	public void testInvalidPrefetch() throws Exception {
+		try {
+			sftp.setDirectoryPrefetch(0);
+			fail("A prefetch of zero should be refused");
+		} catch(IllegalArgumentException e) {
+		}
+	}
+}
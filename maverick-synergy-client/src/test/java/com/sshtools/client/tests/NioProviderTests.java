@@ -0,0 +1,319 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.sshtools.client.sftp.nio.SftpFileSystemProvider;
+
+/**
+ * Uses the sftp:// file system provider through {@link Files}.
+ */
+public class NioProviderTests extends AbstractSftpLoopbackTests {
+
+	URI uri;
+	FileSystem fs;
+	Path root;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		uri = URI.create("sftp://test@127.0.0.1:" + server.getPort() + "/");
+		Map<String,Object> env = new HashMap<String,Object>();
+		env.put(SftpFileSystemProvider.PASSWORD, "test");
+		fs = FileSystems.newFileSystem(uri, env);
+		root = fs.getPath("").toAbsolutePath();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		fs.close();
+		super.tearDown();
+	}
+	
+	public void testCopy() throws Exception {
+		
+		byte[] data = randomBytes(3 * 1024 * 1024 + 17, 1);
+		Path source = new File(local, "source").toPath();
+		Files.write(source, data);
+		
+		Path remote = root.resolve("copied");
+		Files.copy(source, remote);
+		assertTrue(Arrays.equals(data, read(new File(home, "copied"))));
+		assertEquals(data.length, Files.size(remote));
+		
+		Path back = new File(local, "back").toPath();
+		Files.copy(remote, back);
+		assertTrue(Arrays.equals(data, Files.readAllBytes(back)));
+		
+		try {
+			Files.copy(source, remote);
+			fail("Copying over an existing file should fail");
+		} catch(FileAlreadyExistsException e) {
+		}
+		
+		/* A copy between two remote paths */
+		Files.copy(remote, root.resolve("again"), StandardCopyOption.COPY_ATTRIBUTES);
+		assertTrue(Arrays.equals(data, read(new File(home, "again"))));
+	}
+	
+	public void testUri() throws Exception {
+		
+		Path remote = root.resolve("file");
+		assertEquals(SftpFileSystemProvider.URI_SCHEME, fs.provider().getScheme());
+		assertEquals(remote, Paths.get(remote.toUri()));
+		assertSame(fs, FileSystems.getFileSystem(uri));
+		
+		Path relative = fs.getPath("d", "f");
+		assertFalse(relative.isAbsolute());
+		assertEquals(root.resolve("d/f"), relative.toAbsolutePath());
+	}
+	
+	public void testByteChannel() throws Exception {
+		
+		byte[] data = randomBytes(2 * 1024 * 1024, 2);
+		write(new File(home, "data"), data);
+		Path remote = root.resolve("data");
+		
+		try(SeekableByteChannel ch = Files.newByteChannel(remote, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			assertEquals(data.length, ch.size());
+			
+			ByteBuffer buf = ByteBuffer.allocate(100);
+			ch.position(1000000);
+			readFully(ch, buf);
+			assertTrue(Arrays.equals(Arrays.copyOfRange(data, 1000000, 1000100), buf.array()));
+			
+			buf.clear();
+			ch.position(10);
+			readFully(ch, buf);
+			assertTrue(Arrays.equals(Arrays.copyOfRange(data, 10, 110), buf.array()));
+			
+			/* Writes in place are seen by the next read */
+			ch.position(20);
+			ch.write(ByteBuffer.wrap("hello".getBytes(StandardCharsets.US_ASCII)));
+			assertEquals(25, ch.position());
+			
+			buf = ByteBuffer.allocateDirect(5);
+			ch.position(20);
+			readFully(ch, buf);
+			buf.flip();
+			byte[] got = new byte[5];
+			buf.get(got);
+			assertEquals("hello", new String(got, StandardCharsets.US_ASCII));
+			
+			/* Past the end */
+			ch.position(data.length + 1000);
+			ch.write(ByteBuffer.wrap(new byte[] { 1 }));
+			assertEquals(data.length + 1001, ch.size());
+		}
+		
+		byte[] expected = Arrays.copyOf(data, data.length + 1001);
+		System.arraycopy("hello".getBytes(StandardCharsets.US_ASCII), 0, expected, 20, 5);
+		expected[expected.length - 1] = 1;
+		assertTrue(Arrays.equals(expected, read(new File(home, "data"))));
+		
+		try(SeekableByteChannel ch = Files.newByteChannel(remote, StandardOpenOption.APPEND)) {
+			ch.write(ByteBuffer.wrap("end".getBytes(StandardCharsets.US_ASCII)));
+		}
+		assertEquals(data.length + 1004, new File(home, "data").length());
+		
+		try(SeekableByteChannel ch = Files.newByteChannel(remote, StandardOpenOption.READ)) {
+			ch.write(ByteBuffer.allocate(1));
+			fail("A channel opened for reading should not write");
+		} catch(NonWritableChannelException e) {
+		}
+	}
+	
+	public void testReadAndWriteAll() throws Exception {
+		
+		Path small = root.resolve("small");
+		Files.write(small, "abc".getBytes(StandardCharsets.US_ASCII));
+		assertEquals("abc", new String(Files.readAllBytes(small), StandardCharsets.US_ASCII));
+		
+		try {
+			Files.write(small, "x".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.CREATE_NEW);
+			fail("The file already exists");
+		} catch(FileAlreadyExistsException e) {
+		}
+		
+		try {
+			Files.readAllBytes(root.resolve("missing"));
+			fail("The file does not exist");
+		} catch(NoSuchFileException e) {
+		}
+	}
+	
+	public void testDirectoryStream() throws Exception {
+		
+		Path dir = root.resolve("d");
+		Files.createDirectory(dir);
+		assertTrue(Files.isDirectory(dir));
+		try {
+			Files.createDirectory(dir);
+			fail("The directory already exists");
+		} catch(FileAlreadyExistsException e) {
+		}
+		
+		for(int i = 0; i < 300; i++) {
+			Files.write(dir.resolve("f" + i), new byte[i]);
+		}
+		
+		Set<String> names = new HashSet<String>();
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for(Path path : stream) {
+				assertEquals(dir, path.getParent());
+				assertTrue(names.add(path.getFileName().toString()));
+			}
+		}
+		assertEquals(300, names.size());
+		
+		int matched = 0;
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "f1*")) {
+			for(Path path : stream) {
+				assertTrue(path.getFileName().toString().startsWith("f1"));
+				matched++;
+			}
+		}
+		/* f1, f10 to f19 and f100 to f199 */
+		assertEquals(111, matched);
+		
+		try {
+			Files.newDirectoryStream(dir.resolve("f1"));
+			fail("A file is not a directory");
+		} catch(NotDirectoryException e) {
+		}
+	}
+	
+	public void testAttributes() throws Exception {
+		
+		Path dir = root.resolve("d");
+		Files.createDirectory(dir);
+		Path file = dir.resolve("f");
+		Files.write(file, new byte[42]);
+		
+		BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+		assertEquals(42, attrs.size());
+		assertTrue(attrs.isRegularFile());
+		assertFalse(attrs.isDirectory());
+		
+		Map<String,Object> map = Files.readAttributes(dir, "posix:*");
+		assertEquals(Boolean.TRUE, map.get("isDirectory"));
+		assertTrue(map.containsKey("permissions"));
+		
+		FileTime time = FileTime.fromMillis(1500000000000L);
+		Files.setLastModifiedTime(file, time);
+		assertEquals(time, Files.getLastModifiedTime(file));
+		assertEquals(1500000000000L, new File(home, "d/f").lastModified());
+		
+		assertTrue(Files.exists(file));
+		assertFalse(Files.exists(dir.resolve("missing")));
+		assertTrue(Files.isSameFile(root.resolve("d/./f"), file));
+	}
+	
+	public void testMoveAndDelete() throws Exception {
+		
+		Path dir = root.resolve("d");
+		Files.createDirectory(dir);
+		for(int i = 0; i < 10; i++) {
+			Files.write(dir.resolve("f" + i), new byte[i]);
+		}
+		
+		Files.move(dir.resolve("f5"), dir.resolve("g5"));
+		assertFalse(Files.exists(dir.resolve("f5")));
+		assertEquals(5, Files.size(dir.resolve("g5")));
+		
+		try {
+			Files.move(dir.resolve("f6"), dir.resolve("g5"));
+			fail("The target already exists");
+		} catch(FileAlreadyExistsException e) {
+		}
+		Files.move(dir.resolve("f6"), dir.resolve("g5"), StandardCopyOption.REPLACE_EXISTING);
+		assertEquals(6, Files.size(dir.resolve("g5")));
+		
+		try {
+			Files.delete(dir);
+			fail("The directory is not empty");
+		} catch(DirectoryNotEmptyException e) {
+		}
+		try {
+			Files.delete(dir.resolve("missing"));
+			fail("The file does not exist");
+		} catch(NoSuchFileException e) {
+		}
+		
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for(Path path : stream) {
+				Files.delete(path);
+			}
+		}
+		Files.delete(dir);
+		assertFalse(new File(home, "d").exists());
+	}
+	
+	public void testClose() throws Exception {
+		
+		fs.close();
+		assertFalse(fs.isOpen());
+		try {
+			FileSystems.getFileSystem(uri);
+			fail("The file system was closed");
+		} catch(FileSystemNotFoundException e) {
+		}
+		
+		/* Another may be opened for the same host once the first has closed */
+		Map<String,Object> env = new HashMap<String,Object>();
+		env.put(SftpFileSystemProvider.PASSWORD, "test");
+		fs = FileSystems.newFileSystem(uri, env);
+		assertTrue(Files.isDirectory(fs.getPath("").toAbsolutePath()));
+	}
+	
+	private static void readFully(SeekableByteChannel ch, ByteBuffer buf) throws IOException {
+		while(buf.hasRemaining()) {
+			if(ch.read(buf) == -1) {
+				throw new IOException("Unexpected end of file");
+			}
+		}
+	}
+}
@@ -0,0 +1,40 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.sshtools.common.sftp.extensions.SupportedSftpExtensions;
+
+/**
+ * Runs the file system provider tests against a server without the copy-file extension,
+ * so that remote copies pass the data through the client.
+ */
+public class NioProviderWithoutCopyFileTests extends NioProviderTests {
+
+	@Override
+	protected SupportedSftpExtensions[] getSupportedExtensions() {
+		List<SupportedSftpExtensions> extensions = new ArrayList<SupportedSftpExtensions>(
+				Arrays.asList(SupportedSftpExtensions.values()));
+		extensions.remove(SupportedSftpExtensions.COPY_FILE);
+		return extensions.toArray(new SupportedSftpExtensions[0]);
+	}
+}
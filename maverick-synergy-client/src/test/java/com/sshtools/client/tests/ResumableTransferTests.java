@@ -0,0 +1,226 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import com.sshtools.client.sftp.ResumableTransfer;
+import com.sshtools.client.sftp.TransferCancelledException;
+import com.sshtools.client.tasks.FileTransferProgress;
+
+/**
+ * Interrupts transfers part way through and resumes them from their checkpoint.
+ */
+public class ResumableTransferTests extends AbstractSftpLoopbackTests {
+
+	static final int CHUNK = 64 * 1024;
+	
+	byte[] data;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		data = randomBytes(2 * 1024 * 1024 + 99, 1);
+		write(new File(home, "remote"), data);
+		write(new File(local, "local"), data);
+	}
+	
+	public void testResumeDownload() throws Exception {
+		
+		File file = new File(local, "down");
+		File checkpoint = new File(local, "down.checkpoint");
+		
+		interruptDownload(file);
+		assertTrue(checkpoint.exists());
+		
+		/* A chunk that was recorded but no longer matches is transferred again */
+		corrupt(file, 3 * CHUNK + 10);
+		
+		ResumeProgress progress = new ResumeProgress(0);
+		newTransfer().download("remote", file.getAbsolutePath(), progress);
+		
+		assertTrue(Arrays.equals(data, read(file)));
+		assertFalse(checkpoint.exists());
+		assertTrue("The download started over", progress.first > 0);
+		assertEquals(data.length, progress.last);
+	}
+	
+	public void testResumeUpload() throws Exception {
+		
+		File remote = new File(home, "up");
+		File checkpoint = new File(local, "local.checkpoint");
+		
+		try {
+			newTransfer().upload(new File(local, "local").getAbsolutePath(), "up", new ResumeProgress(data.length / 2));
+			fail("The upload should have been cancelled");
+		} catch(TransferCancelledException e) {
+		}
+		assertTrue(checkpoint.exists());
+		
+		corrupt(remote, 2 * CHUNK + 10);
+		
+		ResumeProgress progress = new ResumeProgress(0);
+		newTransfer().upload(new File(local, "local").getAbsolutePath(), "up", progress);
+		
+		assertTrue(Arrays.equals(data, read(remote)));
+		assertFalse(checkpoint.exists());
+		assertTrue("The upload started over", progress.first > 0);
+		assertEquals(data.length, progress.last);
+	}
+	
+	public void testTruncatedCheckpoint() throws Exception {
+		
+		File file = new File(local, "down");
+		File checkpoint = new File(local, "down.checkpoint");
+		
+		interruptDownload(file);
+		
+		/* Cut the last chunk index short as a crash part way through writing it would */
+		List<String> lines = Files.readAllLines(checkpoint.toPath());
+		String last = lines.get(lines.size() - 1);
+		assertTrue("Expected chunks in " + lines, last.length() > 1);
+		truncate(checkpoint, checkpoint.length() - 2);
+		
+		ResumeProgress progress = new ResumeProgress(0);
+		newTransfer().download("remote", file.getAbsolutePath(), progress);
+		
+		assertTrue(Arrays.equals(data, read(file)));
+		assertFalse(checkpoint.exists());
+		assertTrue("The download started over", progress.first > 0);
+	}
+	
+	public void testTruncatedCheckpointHeader() throws Exception {
+		
+		File file = new File(local, "down");
+		File checkpoint = new File(local, "down.checkpoint");
+		
+		interruptDownload(file);
+		
+		/* Without a complete header nothing can be resumed */
+		String text = new String(read(checkpoint), StandardCharsets.UTF_8);
+		truncate(checkpoint, text.indexOf("length="));
+		corrupt(file, 0);
+		
+		ResumeProgress progress = new ResumeProgress(0);
+		newTransfer().download("remote", file.getAbsolutePath(), progress);
+		
+		assertTrue(Arrays.equals(data, read(file)));
+		assertEquals(0, progress.first);
+	}
+	
+	public void testChangedSourceStartsOver() throws Exception {
+		
+		File file = new File(local, "down");
+		interruptDownload(file);
+		
+		byte[] changed = data.clone();
+		changed[0]++;
+		File remote = new File(home, "remote");
+		write(remote, changed);
+		remote.setLastModified(remote.lastModified() + 5000);
+		
+		ResumeProgress progress = new ResumeProgress(0);
+		newTransfer().download("remote", file.getAbsolutePath(), progress);
+		
+		assertTrue(Arrays.equals(changed, read(file)));
+		assertEquals(0, progress.first);
+	}
+	
+	public void testDiscard() throws Exception {
+		
+		File file = new File(local, "down");
+		interruptDownload(file);
+		
+		ResumableTransfer transfer = newTransfer();
+		transfer.discard(file.getAbsolutePath());
+		assertFalse(new File(local, "down.checkpoint").exists());
+		
+		ResumeProgress progress = new ResumeProgress(0);
+		transfer.download("remote", file.getAbsolutePath(), progress);
+		assertTrue(Arrays.equals(data, read(file)));
+		assertEquals(0, progress.first);
+	}
+	
+	private void interruptDownload(File file) throws Exception {
+		try {
+			newTransfer().download("remote", file.getAbsolutePath(), new ResumeProgress(data.length / 2));
+			fail("The download should have been cancelled");
+		} catch(TransferCancelledException e) {
+		}
+	}
+	
+	/**
+	 * Each attempt uses a new connection, as a transfer resumed after a failure would.
+	 */
+	private ResumableTransfer newTransfer() throws Exception {
+		ResumableTransfer transfer = new ResumableTransfer(createClient());
+		transfer.setChunkSize(CHUNK);
+		return transfer;
+	}
+	
+	private static void corrupt(File file, long offset) throws Exception {
+		try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(offset);
+			raf.write(new byte[] { 1, 2, 3, 4, 5 });
+		}
+	}
+	
+	private static void truncate(File file, long length) throws Exception {
+		try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(length);
+		}
+	}
+	
+	static class ResumeProgress implements FileTransferProgress {
+
+		final long cancelAt;
+		long first = -1;
+		long last;
+		
+		ResumeProgress(long cancelAt) {
+			this.cancelAt = cancelAt;
+		}
+		
+		@Override
+		public void started(long bytesTotal, String remoteFile) {
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return cancelAt > 0 && last >= cancelAt;
+		}
+
+		@Override
+		public void progressed(long bytesSoFar) {
+			if(first == -1) {
+				first = bytesSoFar;
+			}
+			last = bytesSoFar;
+		}
+
+		@Override
+		public void completed() {
+		}
+	}
+}
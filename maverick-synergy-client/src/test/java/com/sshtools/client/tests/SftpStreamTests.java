@@ -0,0 +1,191 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.sshtools.client.sftp.SftpChannel;
+import com.sshtools.client.sftp.SftpFile;
+import com.sshtools.client.sftp.SftpFileInputStream;
+import com.sshtools.client.sftp.SftpFileOutputStream;
+
+/**
+ * Reads ahead and writes behind through the SFTP file streams.
+ */
+public class SftpStreamTests extends AbstractSftpLoopbackTests {
+
+	byte[] data;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		data = randomBytes(4 * 1024 * 1024 + 123, 1);
+		write(new File(home, "data"), data);
+	}
+	
+	public void testWriteAndRead() throws Exception {
+		
+		/* Writes of every size, smaller and larger than a block */
+		try(OutputStream out = sftp.getOutputStream("written")) {
+			Random r = new Random(2);
+			for(int off = 0; off < data.length; ) {
+				int n = Math.min(data.length - off, 1 + r.nextInt(100000));
+				out.write(data, off, n);
+				off += n;
+			}
+		}
+		assertTrue(Arrays.equals(data, read(new File(home, "written"))));
+		
+		ByteArrayOutputStream got = new ByteArrayOutputStream();
+		try(InputStream in = sftp.getInputStream("written")) {
+			byte[] buf = new byte[8192];
+			int n;
+			while((n = in.read(buf)) > -1) {
+				got.write(buf, 0, n);
+			}
+		}
+		assertTrue(Arrays.equals(data, got.toByteArray()));
+	}
+	
+	public void testSingleBytes() throws Exception {
+		
+		try(OutputStream out = sftp.getOutputStream("small")) {
+			for(int i = 0; i < 100000; i++) {
+				out.write(data[i]);
+			}
+		}
+		try(InputStream in = sftp.getInputStream("small")) {
+			for(int i = 0; i < 100000; i++) {
+				assertEquals("Byte " + i, data[i] & 0xFF, in.read());
+			}
+			assertEquals(-1, in.read());
+		}
+	}
+	
+	public void testEmptyFile() throws Exception {
+		
+		try(OutputStream out = sftp.getOutputStream("empty")) {
+		}
+		assertEquals(0, new File(home, "empty").length());
+		try(InputStream in = sftp.getInputStream("empty")) {
+			assertEquals(-1, in.read());
+			assertEquals(-1, in.read(new byte[10]));
+		}
+	}
+	
+	public void testSkipAndPosition() throws Exception {
+		
+		byte[] buf = new byte[100];
+		try(InputStream in = sftp.getInputStream("data")) {
+			assertEquals(10, in.read(new byte[10]));
+			
+			/* Past the requests already in flight */
+			assertEquals(3000000, in.skip(3000000));
+			readFully(in, buf);
+			assertTrue(Arrays.equals(Arrays.copyOfRange(data, 3000010, 3000110), buf));
+			
+			/* Within the data already read ahead */
+			assertEquals(10, in.skip(10));
+			readFully(in, buf);
+			assertTrue(Arrays.equals(Arrays.copyOfRange(data, 3000120, 3000220), buf));
+		}
+		
+		try(InputStream in = sftp.getInputStream("data", 1234567)) {
+			readFully(in, buf);
+			assertTrue(Arrays.equals(Arrays.copyOfRange(data, 1234567, 1234667), buf));
+		}
+	}
+	
+	public void testCloseBeforeEnd() throws Exception {
+		
+		/* Reads still in flight must not be taken as the responses to later requests */
+		for(int i = 0; i < 10; i++) {
+			try(InputStream in = sftp.getInputStream("data")) {
+				in.read();
+			}
+			assertEquals(data.length, sftp.stat("data").getSize().longValue());
+		}
+	}
+	
+	public void testSmallBlocks() throws Exception {
+		
+		SftpFile file = sftp.getSubsystemChannel().openFile("data", SftpChannel.OPEN_READ);
+		ByteArrayOutputStream got = new ByteArrayOutputStream();
+		try(InputStream in = new SftpFileInputStream(file, 0, 1000, 8)) {
+			byte[] buf = new byte[65536];
+			int n;
+			while((n = in.read(buf)) > -1) {
+				got.write(buf, 0, n);
+			}
+		}
+		assertTrue(Arrays.equals(data, got.toByteArray()));
+	}
+	
+	public void testDeferredWriteError() throws Exception {
+		
+		/* Writes to a handle opened only for reading fail once the server replies */
+		SftpFile file = sftp.getSubsystemChannel().openFile("data", SftpChannel.OPEN_READ);
+		OutputStream out = new SftpFileOutputStream(file);
+		IOException first = null;
+		try {
+			out.write(data, 0, 100000);
+			out.flush();
+		} catch(IOException e) {
+			first = e;
+		}
+		assertNotNull("The failed write was not reported", first);
+		
+		try {
+			out.close();
+			fail("Close should report the failed write");
+		} catch(IOException e) {
+			assertSame(first, e);
+		}
+		assertTrue(Arrays.equals(data, read(new File(home, "data"))));
+	}
+	
+	public void testDeferredWriteErrorOnClose() throws Exception {
+		
+		/* A failure still in flight when the stream is closed */
+		SftpFile file = sftp.getSubsystemChannel().openFile("data", SftpChannel.OPEN_READ);
+		OutputStream out = new SftpFileOutputStream(file);
+		out.write(data, 0, 1000);
+		try {
+			out.close();
+			fail("Close should report the failed write");
+		} catch(IOException e) {
+		}
+	}
+	
+	private static void readFully(InputStream in, byte[] buf) throws IOException {
+		for(int off = 0; off < buf.length; ) {
+			int n = in.read(buf, off, buf.length - off);
+			if(n == -1) {
+				throw new IOException("Unexpected end of stream");
+			}
+			off += n;
+		}
+	}
+}
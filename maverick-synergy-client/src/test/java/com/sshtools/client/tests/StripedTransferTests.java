@@ -0,0 +1,182 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.sshtools.client.sftp.StripedTransfer;
+import com.sshtools.client.sftp.TransferCancelledException;
+import com.sshtools.client.tasks.FileTransferProgress;
+
+/**
+ * Transfers single files in ranges over several channels and connections.
+ */
+public class StripedTransferTests extends AbstractSftpLoopbackTests {
+
+	public void testStripedChannels() throws Exception {
+		
+		/* Just over twice the default minimum stripe so each channel gets a range */
+		byte[] data = randomBytes(4 * 8 * 1024 * 1024 + 333, 1);
+		write(new File(local, "big"), data);
+		write(new File(home, "big"), data);
+		
+		for(int stripes : new int[] { 1, 2, 4 }) {
+			StripeProgress progress = new StripeProgress();
+			sftp.getStriped("big", new File(local, "get" + stripes).getAbsolutePath(), stripes, progress);
+			assertTrue("Download over " + stripes + " channels differs", 
+					Arrays.equals(data, read(new File(local, "get" + stripes))));
+			progress.assertCompleted(data.length, stripes);
+			
+			progress = new StripeProgress();
+			sftp.putStriped(new File(local, "big").getAbsolutePath(), "put" + stripes, stripes, progress);
+			assertTrue("Upload over " + stripes + " channels differs", 
+					Arrays.equals(data, read(new File(home, "put" + stripes))));
+			progress.assertCompleted(data.length, stripes);
+		}
+	}
+	
+	public void testStripedConnections() throws Exception {
+		
+		byte[] data = randomBytes(1024 * 1024 + 77, 2);
+		write(new File(local, "big"), data);
+		write(new File(home, "big"), data);
+		
+		StripedTransfer transfer = new StripedTransfer(sftp, createClient(), createClient());
+		transfer.setMinimumStripeSize(64 * 1024);
+		assertTrue(transfer.isVerify());
+		
+		StripeProgress progress = new StripeProgress();
+		transfer.download("big", new File(local, "down").getAbsolutePath(), progress);
+		assertTrue(Arrays.equals(data, read(new File(local, "down"))));
+		progress.assertCompleted(data.length, 3);
+		
+		progress = new StripeProgress();
+		transfer.upload(new File(local, "big").getAbsolutePath(), "up", progress);
+		assertTrue(Arrays.equals(data, read(new File(home, "up"))));
+		progress.assertCompleted(data.length, 3);
+	}
+	
+	public void testSmallFilesUseOneStripe() throws Exception {
+		
+		byte[] data = randomBytes(1000, 3);
+		write(new File(local, "small"), data);
+		write(new File(home, "empty"), new byte[0]);
+		
+		StripedTransfer transfer = new StripedTransfer(sftp, createClient());
+		
+		StripeProgress progress = new StripeProgress();
+		transfer.upload(new File(local, "small").getAbsolutePath(), "small", progress);
+		assertTrue(Arrays.equals(data, read(new File(home, "small"))));
+		progress.assertCompleted(data.length, 1);
+		
+		File empty = new File(local, "empty");
+		write(empty, new byte[] { 1, 2, 3 });
+		transfer.download("empty", empty.getAbsolutePath(), null);
+		assertEquals(0, empty.length());
+	}
+	
+	public void testDirectoryTargets() throws Exception {
+		
+		byte[] data = randomBytes(300 * 1024, 4);
+		write(new File(local, "src/file"), data);
+		write(new File(home, "remote/file"), data);
+		new File(local, "dest").mkdirs();
+		
+		StripedTransfer transfer = new StripedTransfer(sftp, createClient());
+		transfer.setMinimumStripeSize(100 * 1024);
+		
+		/* A directory on either side receives a file of the same name */
+		transfer.download("remote/file", new File(local, "dest").getAbsolutePath(), null);
+		assertTrue(Arrays.equals(data, read(new File(local, "dest/file"))));
+		
+		sftp.mkdir("uploads");
+		transfer.upload(new File(local, "src/file").getAbsolutePath(), "uploads", null);
+		assertTrue(Arrays.equals(data, read(new File(home, "uploads/file"))));
+	}
+	
+	public void testCancelled() throws Exception {
+		
+		byte[] data = randomBytes(2 * 1024 * 1024, 5);
+		write(new File(home, "big"), data);
+		
+		StripedTransfer transfer = new StripedTransfer(sftp, createClient());
+		transfer.setMinimumStripeSize(256 * 1024);
+		
+		StripeProgress progress = new StripeProgress() {
+			@Override
+			public boolean isCancelled() {
+				return last > 0;
+			}
+		};
+		try {
+			transfer.download("big", new File(local, "big").getAbsolutePath(), progress);
+			fail("The download should have been cancelled");
+		} catch(TransferCancelledException e) {
+		}
+		assertFalse(progress.completed);
+		
+		for(Thread t : Thread.getAllStackTraces().keySet()) {
+			assertFalse(t.getName() + " is still running", t.isAlive() && t.getName().startsWith("sftp-stripe-"));
+		}
+		
+		/* The clients are still usable */
+		sftp.get("big", new File(local, "again").getAbsolutePath());
+		assertTrue(Arrays.equals(data, read(new File(local, "again"))));
+	}
+	
+	static class StripeProgress implements FileTransferProgress {
+
+		long total = -1;
+		volatile long last;
+		boolean completed;
+		Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+		
+		@Override
+		public void started(long bytesTotal, String remoteFile) {
+			total = bytesTotal;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public void progressed(long bytesSoFar) {
+			last = bytesSoFar;
+			threads.add(Thread.currentThread().getName());
+		}
+
+		@Override
+		public void completed() {
+			completed = true;
+		}
+		
+		void assertCompleted(long length, int stripes) {
+			assertTrue(completed);
+			assertEquals(length, total);
+			assertEquals(length, last);
+			assertEquals("Ranges reported from " + threads, stripes, threads.size());
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.tests;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.sshtools.client.sftp.TreeOperation;
+import com.sshtools.common.sftp.SftpStatusException;
+
+/**
+ * Creates, changes and removes directory trees with pipelined requests.
+ */
+public class TreeOperationTests extends AbstractSftpLoopbackTests {
+
+	public void testMkdirs() throws Exception {
+		
+		List<String> dirs = new ArrayList<String>();
+		for(int i = 0; i < 10; i++) {
+			for(int j = 0; j < 5; j++) {
+				dirs.add("m/a" + i + "/b" + j);
+			}
+		}
+		
+		TreeOperation op = sftp.mkdirs(dirs);
+		assertTrue(op.getFailures().toString(), op.isSuccess());
+		for(String dir : dirs) {
+			assertTrue(dir, new File(home, dir).isDirectory());
+		}
+		/* m, each a and each b */
+		int created = op.getCompletedPaths().size();
+		assertTrue("Only " + created + " paths completed", created >= 1 + 10 + 50);
+		assertTrue(op.getRequestCount() > 0);
+		
+		/* Directories that already exist are reported as completed */
+		op = sftp.mkdirs(dirs);
+		assertTrue(op.getFailures().toString(), op.isSuccess());
+		assertEquals(created, op.getCompletedPaths().size());
+		
+		sftp.mkdirs("m/a1/b1/c/d/e");
+		assertTrue(new File(home, "m/a1/b1/c/d/e").isDirectory());
+	}
+	
+	public void testMkdirsPartialFailure() throws Exception {
+		
+		write(new File(home, "file"), new byte[0]);
+		
+		TreeOperation op = sftp.mkdirs(Arrays.asList("file/x/y", "ok/z"));
+		assertFalse(op.isSuccess());
+		assertTrue(new File(home, "ok/z").isDirectory());
+		assertTrue(new File(home, "file").isFile());
+		
+		/* The file in the way fails along with the directories beneath it */
+		boolean failed = false;
+		for(String path : op.getFailures().keySet()) {
+			assertTrue(path, path.contains("file"));
+			failed |= path.endsWith("file");
+		}
+		assertTrue(op.getFailures().toString(), failed);
+		for(String path : op.getCompletedPaths()) {
+			assertFalse(path, path.contains("file"));
+		}
+	}
+	
+	public void testRemoveTree() throws Exception {
+		
+		int paths = build(new File(home, "tree"), 6, 8);
+		
+		TreeOperation op = sftp.removeTree("tree");
+		assertTrue(op.getFailures().toString(), op.isSuccess());
+		assertEquals(paths, op.getCompletedPaths().size());
+		assertEquals(paths, op.getRequestCount());
+		assertFalse(new File(home, "tree").exists());
+		
+		/* A single file */
+		write(new File(home, "single"), new byte[] { 1 });
+		op = sftp.removeTree("single");
+		assertTrue(op.isSuccess());
+		assertEquals(1, op.getCompletedPaths().size());
+		assertFalse(new File(home, "single").exists());
+		
+		try {
+			sftp.removeTree("missing");
+			fail("Removing a missing path should fail");
+		} catch(SftpStatusException e) {
+			assertEquals(SftpStatusException.SSH_FX_NO_SUCH_FILE, e.getStatus());
+		}
+	}
+	
+	public void testRm() throws Exception {
+		
+		build(new File(home, "tree"), 2, 2);
+		try {
+			sftp.rm("tree", true, false);
+			fail("A directory with sub-directories should not be removed without recurse");
+		} catch(SftpStatusException e) {
+		}
+		assertTrue(new File(home, "tree").exists());
+		
+		sftp.rm("tree", true, true);
+		assertFalse(new File(home, "tree").exists());
+	}
+	
+	public void testChmodRecursive() throws Exception {
+		
+		int paths = build(new File(home, "tree"), 4, 5);
+		
+		/* The direct file system only applies times, so check the requests rather than the modes */
+		TreeOperation op = sftp.chmod(0700, "tree", true);
+		assertTrue(op.getFailures().toString(), op.isSuccess());
+		assertEquals(paths, op.getCompletedPaths().size());
+		assertEquals(paths, op.getRequestCount());
+		
+		/* Without recurse only the directory itself changes */
+		op = sftp.chmod(0755, "tree", false);
+		assertTrue(op.isSuccess());
+		assertEquals(1, op.getRequestCount());
+		assertEquals(1, op.getCompletedPaths().size());
+	}
+	
+	/**
+	 * Build a tree of directories each holding some files and a sub-directory with one file.
+	 * 
+	 * @return the number of paths in the tree, including the root
+	 */
+	private static int build(File root, int dirs, int files) throws Exception {
+		for(int d = 0; d < dirs; d++) {
+			File dir = new File(root, "d" + d);
+			new File(dir, "sub").mkdirs();
+			new File(dir, "sub/x").createNewFile();
+			for(int f = 0; f < files; f++) {
+				new File(dir, "f" + f).createNewFile();
+			}
+		}
+		return 1 + dirs * (files + 3);
+	}
+}
@@ -33,6 +33,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.nio.IdleStateListener;
 import com.sshtools.common.nio.WriteOperationRequest;
+import com.sshtools.common.policy.BandwidthPolicy;
+import com.sshtools.common.policy.TokenBucket;
 import com.sshtools.common.sshd.SshMessage;
 
 /**
@@ -86,6 +88,13 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 	private ChannelInputStream channelIn;
 	private ChannelOutputStream channelOut = new ChannelOutputStream(this);
 	
+	BandwidthPolicy bandwidthPolicy;
+	TokenBucket[] inboundBuckets;
+	TokenBucket[] outboundBuckets;
+	int pendingWindowAdjust;
+	boolean windowAdjustScheduled;
+	final Runnable windowAdjustTask = this::sendPendingWindowAdjust;
+	
 	/**
 	 * Construct a channel with the specified settings.
 	 * 
@@ -317,6 +326,7 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 	}
 
 	void confirmOpen() {
+		initBandwidthShaping();
 		state = CHANNEL_OPEN;
 		openFuture.done(true);
 		onChannelOpenConfirmation();
@@ -520,6 +530,10 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 
 				remoteWindow.consume(count);
 
+				if(Objects.nonNull(outboundBuckets)) {
+					waitForBandwidth(BandwidthPolicy.consume(outboundBuckets, count));
+				}
+				
 				if(buf.remaining() > count) {
 					ByteBuffer processedBuffer = buf.slice();
 					processedBuffer.limit(count);
@@ -862,6 +876,11 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		if (eventListeners != null) {
 			eventListeners.clear();
 		}
+		
+		if(Objects.nonNull(bandwidthPolicy)) {
+			bandwidthPolicy.releaseBuckets(con, inboundBuckets);
+			bandwidthPolicy.releaseBuckets(con, outboundBuckets);
+		}
 
 		onChannelFree();
 	}
@@ -1013,10 +1032,70 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 			if(Log.isTraceEnabled()) {
 				log("Increasing", "window space by " + String.valueOf(count) + " bytes");
 			}
+			if(Objects.nonNull(inboundBuckets)) {
+				long delay = BandwidthPolicy.consume(inboundBuckets, count);
+				if(delay > 0 || windowAdjustScheduled) {
+					// Hold back the adjustment so the remote cannot send faster than the limit allows
+					localWindow.adjust(count);
+					pendingWindowAdjust += count;
+					if(!windowAdjustScheduled) {
+						windowAdjustScheduled = true;
+						bandwidthPolicy.schedule(windowAdjustTask, delay);
+					}
+					return;
+				}
+			}
 			connection.sendMessage(new WindowAdjust(this, count, localWindow.getWindowSpace()));
 			localWindow.adjust(count);		
 		}
 	}
+	
+	private void initBandwidthShaping() {
+		if(getContext().hasPolicy(BandwidthPolicy.class)) {
+			bandwidthPolicy = getContext().getPolicy(BandwidthPolicy.class);
+			inboundBuckets = bandwidthPolicy.getInboundBuckets(con);
+			outboundBuckets = bandwidthPolicy.getOutboundBuckets(con);
+		}
+	}
+	
+	private void sendPendingWindowAdjust() {
+		synchronized (localWindow) {
+			if(!isOpen()) {
+				windowAdjustScheduled = false;
+				pendingWindowAdjust = 0;
+				return;
+			}
+			long delay = BandwidthPolicy.getDelay(inboundBuckets);
+			if(delay > 0) {
+				bandwidthPolicy.schedule(windowAdjustTask, delay);
+				return;
+			}
+			windowAdjustScheduled = false;
+			if(pendingWindowAdjust > 0) {
+				connection.sendMessage(new WindowAdjust(this, pendingWindowAdjust, localWindow.getWindowSpace()));
+				pendingWindowAdjust = 0;
+			}
+		}
+	}
+	
+	/**
+	 * Wait for the time required to stay within the bandwidth limits. The
+	 * caller must hold the channel lock, which is released while waiting.
+	 */
+	private void waitForBandwidth(long delay) throws IOException {
+		long deadline = System.nanoTime() + delay;
+		while(delay > 0) {
+			if(isClosed()) {
+				throw new IOException("Channel has been closed");
+			}
+			try {
+				wait(delay / 1000000L, (int) (delay % 1000000L));
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			delay = deadline - System.nanoTime();
+		}
+	}
 
 	class ChannelRequest implements SshMessage {
 
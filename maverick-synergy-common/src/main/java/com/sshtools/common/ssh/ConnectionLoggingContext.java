@@ -23,11 +23,11 @@ import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.sshtools.common.events.Event;
 import com.sshtools.common.events.EventCodes;
@@ -42,7 +42,7 @@ import com.sshtools.common.util.Utils;
 public class ConnectionLoggingContext implements LoggerContext, EventListener {
 
 	Level defaultLevel;
-	Map<SshConnection, FileLoggingContext> activeLoggers = new HashMap<>();
+	Map<SshConnection, FileLoggingContext> activeLoggers = new ConcurrentHashMap<>();
 	ConnectionManager<?> cm;
 	
 	ConnectionLoggingContext(Level level, ConnectionManager<?> cm) {
@@ -53,10 +53,11 @@ public class ConnectionLoggingContext implements LoggerContext, EventListener {
 	@Override
 	public boolean isLogging(Level level) {
 		SshConnection currentConnection = cm.getCurrentConnection();
-		if(activeLoggers.containsKey(currentConnection)) {
-			return activeLoggers.get(currentConnection).getLevel().ordinal() >= level.ordinal();
-		} 
-		return false;
+		if(Objects.isNull(currentConnection)) {
+			return false;
+		}
+		FileLoggingContext ctx = activeLoggers.get(currentConnection);
+		return !Objects.isNull(ctx) && ctx.isLogging(level);
 	}
 
 	@Override
@@ -108,7 +109,24 @@ public class ConnectionLoggingContext implements LoggerContext, EventListener {
 		startLogging(con, Level.valueOf(getProperty(".level", defaultLevel.name())));
 	}
 	
-	public void startLogging(SshConnection con, Level level) throws IOException {
+	/**
+	 * Change the level of a connection's log, starting the log if the connection
+	 * is not already being logged.
+	 * 
+	 * @param con
+	 * @param level
+	 * @throws IOException
+	 */
+	public void setLevel(SshConnection con, Level level) throws IOException {
+		FileLoggingContext ctx = activeLoggers.get(con);
+		if(Objects.isNull(ctx)) {
+			startLogging(con, level);
+		} else {
+			ctx.setLevel(level);
+		}
+	}
+	
+	public synchronized void startLogging(SshConnection con, Level level) throws IOException {
 	
 		if(activeLoggers.containsKey(con)) {
 			return;
@@ -132,7 +150,9 @@ public class ConnectionLoggingContext implements LoggerContext, EventListener {
 				.replace("${ident}", Utils.defaultString(con.getRemoteIdentification().trim(), ""))
 				.replace("${user}", Utils.defaultString(con.getUsername(), ""));
 		
-		activeLoggers.put(con, new FileLoggingContext(level, new File(filename), maxFiles, maxSize));
+		boolean async = "true".equalsIgnoreCase(getProperty(".async", "true"));
+		
+		activeLoggers.put(con, new FileLoggingContext(level, new File(filename), maxFiles, maxSize, async));
 	}
 
 	private boolean isLoggingConnection(Connection<?> con) {
@@ -101,6 +101,10 @@ public class Main {
 			
 			long timeout = Long.parseLong(properties.getProperty("authentication.timeout", "30000"));
 			long retryInterval = Long.parseLong(properties.getProperty("retry.interval", "5000"));
+			long readCacheSize = Long.parseLong(properties.getProperty("read.cache.size",
+					String.valueOf(FuseSFTP.DEFAULT_READ_CACHE_SIZE)));
+			int readAheadRequests = Integer.parseInt(properties.getProperty("read.ahead.requests",
+					String.valueOf(FuseSFTP.DEFAULT_READ_AHEAD_REQUESTS)));
 			
 			boolean authenticated = false;
 			
@@ -151,7 +155,7 @@ public class Main {
 							@Override
 							protected void doSftp() {
 								
-								try(FuseSFTP fuseFs = new FuseSFTP(this)) {
+								try(FuseSFTP fuseFs = new FuseSFTP(this, readCacheSize, readAheadRequests)) {
 									
 									
 									if(Log.isInfoEnabled()) {
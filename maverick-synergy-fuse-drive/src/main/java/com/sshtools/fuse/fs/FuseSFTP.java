@@ -49,16 +49,30 @@ import ru.serce.jnrfuse.struct.FuseFileInfo;
 
 public class FuseSFTP extends FuseStubFS implements Closeable {
 
-	private static final int MAX_READ_BUFFER_SIZE = 65536;
+	public static final long DEFAULT_READ_CACHE_SIZE = 32 * 1024 * 1024;
+	public static final int DEFAULT_READ_AHEAD_REQUESTS = 16;
+	private static final int READ_PAGE_SIZE = 65536;
 	private static final int MAX_WRITE_BUFFER_SIZE = 65536;
 	private AtomicLong fileHandle = new AtomicLong();
 	private Map<Long, SftpFile> handles = new ConcurrentHashMap<>();
 	private Map<Long, Integer> flags = new ConcurrentHashMap<>();
 	private Map<String, List<Long>> handlesByPath = new ConcurrentHashMap<>();
 	private SftpClientTask sftp;
+	private ReadCache readCache;
 
 	public FuseSFTP(SftpClientTask sftp) throws SftpStatusException, IOException, SshException {
+		this(sftp, DEFAULT_READ_CACHE_SIZE, DEFAULT_READ_AHEAD_REQUESTS);
+	}
+
+	/**
+	 * Create the file system with a read cache of the given size. Files read
+	 * sequentially have up to <code>readAheadRequests</code> reads outstanding
+	 * ahead of the current position.
+	 */
+	public FuseSFTP(SftpClientTask sftp, long readCacheSize, int readAheadRequests)
+			throws SftpStatusException, IOException, SshException {
 		this.sftp = sftp;
+		this.readCache = new ReadCache(readCacheSize, READ_PAGE_SIZE, readAheadRequests);
 	}
 	
 	@Override
@@ -109,7 +123,11 @@ public class FuseSFTP extends FuseStubFS implements Closeable {
 	@Override
 	public int getattr(String path, FileStat stat) {
 		try {
-			return fillStat(stat, sftp.stat(path), path);
+			SftpFileAttributes attrs = sftp.stat(path);
+			if (attrs.hasSize() && attrs.hasModifiedTime()) {
+				readCache.attributes(path, attrs.getSize().longValue(), attrs.getModifiedTime().longValue());
+			}
+			return fillStat(stat, attrs, path);
 		} catch (SftpStatusException sftpse) {
 			if (Log.isDebugEnabled() && (Log.isTraceEnabled() || sftpse.getStatus() != SftpStatusException.SSH_FX_NO_SUCH_FILE))
 				Log.debug(String.format("Error retrieving attributes for %s.", path), sftpse);
@@ -210,6 +228,7 @@ public class FuseSFTP extends FuseStubFS implements Closeable {
 				SftpFile file = sftp.openFile(path, SftpChannel.OPEN_TRUNCATE | SftpChannel.OPEN_CREATE);
 				file.close();
 			}
+			readCache.invalidate(path);
 			
 			return 0;
 		} catch (SftpStatusException e) {
@@ -227,11 +246,8 @@ public class FuseSFTP extends FuseStubFS implements Closeable {
 			SftpFile file = handles.get(fi.fh.longValue());
 			if (file == null)
 				return -ErrorCodes.ESTALE();
-			byte[] b = new byte[Math.min(MAX_READ_BUFFER_SIZE, (int) size)];
-			int read;
-			read = file.read(offset, b, 0, b.length);
-			buf.put(0, b, 0, read);
-			return read;
+			return readCache.read(fi.fh.longValue(), path, file, offset, (int) Math.min(Integer.MAX_VALUE, size),
+					(destinationOffset, data, off, len) -> buf.put(destinationOffset, data, off, len));
 		} catch (SftpStatusException e) {
 			Log.error(String.format("Failed to open %s", path), e);
 			return toErr(e);
@@ -353,6 +369,7 @@ public class FuseSFTP extends FuseStubFS implements Closeable {
 			}
 			if (file == null)
 				return -ErrorCodes.ESTALE();
+			readCache.release(fi.fh.longValue(), file.getSFTPChannel());
 			file.close();
 			return 0;
 			
@@ -373,6 +390,8 @@ public class FuseSFTP extends FuseStubFS implements Closeable {
 			return ex;
 		try {
 			sftp.rename(oldpath, newpath);
+			readCache.invalidate(oldpath);
+			readCache.invalidate(newpath);
 			return 0;
 		} catch (SftpStatusException e) {
 			Log.error(String.format("Failed to rename %s to %s", oldpath, newpath), e);
@@ -412,6 +431,7 @@ public class FuseSFTP extends FuseStubFS implements Closeable {
 			return ex;
 		try {
 			sftp.rm(path);
+			readCache.invalidate(path);
 			return 0;
 		} catch (SftpStatusException e) {
 			Log.error(String.format("Failed to remove %s", path), e);
@@ -431,6 +451,7 @@ public class FuseSFTP extends FuseStubFS implements Closeable {
 			byte[] b = new byte[Math.min(MAX_WRITE_BUFFER_SIZE, (int) size)];
 			buf.get(0, b, 0, b.length);
 			file.write(offset, b, 0, b.length);
+			readCache.invalidate(path);
 			return b.length;
 		} catch (SftpStatusException e) {
 			Log.error(String.format("Failed to open %s", path), e);
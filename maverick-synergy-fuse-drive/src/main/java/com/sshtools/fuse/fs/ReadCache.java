@@ -0,0 +1,458 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.fuse.fs;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sshtools.client.sftp.SftpChannel;
+import com.sshtools.client.sftp.SftpFile;
+import com.sshtools.client.sftp.SftpMessage;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.SshIOException;
+import com.sshtools.common.util.UnsignedInteger32;
+
+/**
+ * A block cache for file reads. Pages of a fixed size are shared by every handle
+ * open on a path and evicted least recently used first once the cache grows past
+ * its memory limit. A handle that reads sequentially has the pages ahead of it
+ * requested before they are needed, with the number of outstanding requests
+ * doubling on each sequential read up to the configured maximum.
+ */
+class ReadCache {
+
+	interface PageConsumer {
+		void accept(int destinationOffset, byte[] data, int offset, int length);
+	}
+
+	private final int pageSize;
+	private final int maximumRequests;
+	private final int maximumPages;
+	private final ArrayDeque<byte[]> pool = new ArrayDeque<>();
+	private final LinkedHashMap<PageKey, Page> pages = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, PathState> paths = new HashMap<>();
+	private final Map<Long, HandleState> handles = new ConcurrentHashMap<>();
+
+	ReadCache(long maximumSize, int pageSize, int maximumRequests) {
+		this.pageSize = pageSize;
+		this.maximumRequests = Math.max(0, maximumRequests);
+		this.maximumPages = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maximumSize / pageSize));
+	}
+
+	/**
+	 * Read up to <code>length</code> bytes at <code>offset</code>, passing each
+	 * cached range to the consumer as it becomes available.
+	 * 
+	 * @return the number of bytes read, 0 at the end of the file
+	 */
+	int read(long handle, String path, SftpFile file, long offset, int length, PageConsumer consumer)
+			throws SftpStatusException, SshException {
+
+		HandleState state = handles.computeIfAbsent(handle, (h) -> new HandleState(path));
+
+		synchronized (state) {
+			if (offset == state.position) {
+				state.window = Math.min(maximumRequests, Math.max(1, state.window * 2));
+			} else {
+				state.window = 0;
+				collect(state, path, file);
+			}
+
+			int read = 0;
+			while (read < length) {
+				long position = offset + read;
+				long index = position / pageSize;
+				int pageOffset = (int) (position % pageSize);
+
+				request(state, path, file, index, index + state.window);
+
+				int count = copy(path, index, pageOffset, length - read, read, consumer);
+				if (count < 0) {
+					fetch(state, path, file, index);
+					count = copy(path, index, pageOffset, length - read, read, consumer);
+				}
+				if (count <= 0) {
+					break;
+				}
+				read += count;
+				if (pageOffset + count < pageSize) {
+					/* Either the read is complete or this is a short page at the end of the file */
+					break;
+				}
+			}
+
+			state.position = offset + read;
+			return read;
+		}
+	}
+
+	/**
+	 * Discard the cached pages of a path, and any read ahead in progress for it,
+	 * because the file has been written to, truncated or replaced.
+	 */
+	void invalidate(String path) {
+		synchronized (pages) {
+			PathState pathState = paths.get(path);
+			if (Objects.isNull(pathState)) {
+				return;
+			}
+			pathState.generation++;
+			pathState.lastIndex = Long.MAX_VALUE;
+			for (Long index : pathState.indexes) {
+				pool(pages.remove(new PageKey(path, index)).data);
+			}
+			pathState.indexes.clear();
+			removeIfUnused(path, pathState);
+		}
+	}
+
+	/**
+	 * Record the size and modification time last seen for a path, discarding its
+	 * cached pages if either has changed since the pages were read.
+	 */
+	void attributes(String path, long size, long modifiedTime) {
+		synchronized (pages) {
+			PathState pathState = paths.get(path);
+			if (Objects.isNull(pathState)) {
+				return;
+			}
+			if (pathState.size != size || pathState.modifiedTime != modifiedTime) {
+				if (pathState.size != -1) {
+					invalidate(path);
+				}
+				pathState.size = size;
+				pathState.modifiedTime = modifiedTime;
+			}
+		}
+	}
+
+	/**
+	 * Forget a handle, collecting any responses still outstanding for it.
+	 */
+	void release(long handle, SftpChannel channel) {
+		HandleState state = handles.remove(handle);
+		if (Objects.isNull(state)) {
+			return;
+		}
+		synchronized (state) {
+			for (PendingPage pending : state.pending.values()) {
+				try {
+					channel.getResponse(pending.requestId).release();
+				} catch (SshException e) {
+					Log.debug("Failed to collect read ahead response for %s", e, state.path);
+				}
+				pool(pending.data);
+			}
+			state.pending.clear();
+		}
+		synchronized (pages) {
+			PathState pathState = paths.get(state.path);
+			if (Objects.nonNull(pathState)) {
+				pathState.handles--;
+				removeIfUnused(state.path, pathState);
+			}
+		}
+	}
+
+	/**
+	 * Post read requests for the pages from <code>first</code> to <code>last</code>
+	 * that are neither cached nor already requested.
+	 */
+	private void request(HandleState state, String path, SftpFile file, long first, long last)
+			throws SftpStatusException, SshException {
+		long generation = generation(path);
+		long lastIndex = lastIndex(path);
+		for (long index = first; index <= Math.min(last, lastIndex); index++) {
+			if (index > first && state.pending.size() >= maximumRequests) {
+				break;
+			}
+			PendingPage pending = state.pending.get(index);
+			if (Objects.nonNull(pending)) {
+				if (pending.generation == generation) {
+					continue;
+				}
+				discard(state, file.getSFTPChannel(), index);
+			} else if (isCached(path, index)) {
+				continue;
+			}
+			state.pending.put(index, post(file, index, generation));
+		}
+	}
+
+	/**
+	 * Collect every outstanding response for a handle into the cache.
+	 */
+	private void collect(HandleState state, String path, SftpFile file) throws SftpStatusException, SshException {
+		long generation = generation(path);
+		for (Long index : state.pending.keySet().toArray(new Long[0])) {
+			if (state.pending.get(index).generation == generation) {
+				fetch(state, path, file, index);
+			} else {
+				discard(state, file.getSFTPChannel(), index);
+			}
+		}
+	}
+
+	private void fetch(HandleState state, String path, SftpFile file, long index)
+			throws SftpStatusException, SshException {
+		SftpChannel channel = file.getSFTPChannel();
+		long generation = generation(path);
+		PendingPage pending = state.pending.remove(index);
+		if (Objects.nonNull(pending) && pending.generation != generation) {
+			channel.getResponse(pending.requestId).release();
+			pool(pending.data);
+			pending = null;
+		}
+		if (Objects.isNull(pending)) {
+			pending = post(file, index, generation);
+		}
+
+		try {
+			while (!receive(channel, file, pending)) {
+				pending.requestId = channel.postReadRequest(file.getHandle(),
+						index * pageSize + pending.length, pageSize - pending.length);
+			}
+		} catch (SftpStatusException | SshException e) {
+			pool(pending.data);
+			throw e;
+		}
+
+		store(path, index, pending);
+	}
+
+	/**
+	 * Wait for the response to a read request.
+	 * 
+	 * @return false when the server returned less data than asked for and the rest
+	 *         must be requested
+	 */
+	private boolean receive(SftpChannel channel, SftpFile file, PendingPage pending)
+			throws SftpStatusException, SshException {
+		SftpMessage msg = channel.getResponse(pending.requestId);
+		try {
+			if (msg.getType() == SftpChannel.SSH_FXP_DATA) {
+				int count = (int) msg.readInt();
+				System.arraycopy(msg.array(), msg.getPosition(), pending.data, pending.length, count);
+				pending.length += count;
+				return count == 0 || pending.length == pageSize;
+			} else if (msg.getType() == SftpChannel.SSH_FXP_STATUS) {
+				int status = (int) msg.readInt();
+				if (status == SftpStatusException.SSH_FX_EOF) {
+					return true;
+				}
+				if (channel.getVersion() >= 3) {
+					throw new SftpStatusException(status, msg.readString());
+				}
+				throw new SftpStatusException(status);
+			} else {
+				throw new SshException("The server responded with an unexpected SFTP protocol message! type="
+						+ msg.getType(), SshException.CHANNEL_FAILURE);
+			}
+		} catch (SshIOException e) {
+			throw e.getRealException();
+		} catch (IOException e) {
+			throw new SshException(e);
+		} finally {
+			msg.release();
+		}
+	}
+
+	private PendingPage post(SftpFile file, long index, long generation) throws SftpStatusException, SshException {
+		byte[] data = allocate();
+		try {
+			return new PendingPage(file.getSFTPChannel().postReadRequest(file.getHandle(), index * pageSize, pageSize),
+					data, generation);
+		} catch (SftpStatusException | SshException e) {
+			pool(data);
+			throw e;
+		}
+	}
+
+	private void discard(HandleState state, SftpChannel channel, long index) throws SshException {
+		PendingPage pending = state.pending.remove(index);
+		channel.getResponse(pending.requestId).release();
+		pool(pending.data);
+	}
+
+	private int copy(String path, long index, int offset, int length, int destinationOffset, PageConsumer consumer) {
+		synchronized (pages) {
+			Page page = pages.get(new PageKey(path, index));
+			if (Objects.isNull(page)) {
+				return -1;
+			}
+			int count = Math.max(0, Math.min(length, page.length - offset));
+			if (count > 0) {
+				consumer.accept(destinationOffset, page.data, offset, count);
+			}
+			return count;
+		}
+	}
+
+	private long lastIndex(String path) {
+		synchronized (pages) {
+			PathState pathState = paths.get(path);
+			return Objects.isNull(pathState) ? Long.MAX_VALUE : pathState.lastIndex;
+		}
+	}
+
+	private boolean isCached(String path, long index) {
+		synchronized (pages) {
+			return pages.containsKey(new PageKey(path, index));
+		}
+	}
+
+	private long generation(String path) {
+		synchronized (pages) {
+			return paths.computeIfAbsent(path, (p) -> new PathState()).generation;
+		}
+	}
+
+	private void store(String path, long index, PendingPage pending) {
+		synchronized (pages) {
+			PathState pathState = paths.computeIfAbsent(path, (p) -> new PathState());
+			if (pathState.generation != pending.generation) {
+				/* Invalidated while the request was outstanding */
+				pool(pending.data);
+				return;
+			}
+			Page previous = pages.put(new PageKey(path, index), new Page(pending.data, pending.length));
+			if (Objects.nonNull(previous)) {
+				pool(previous.data);
+			}
+			pathState.indexes.add(index);
+			if (pending.length < pageSize) {
+				pathState.lastIndex = Math.min(pathState.lastIndex, index);
+			}
+
+			Iterator<Map.Entry<PageKey, Page>> it = pages.entrySet().iterator();
+			while (pages.size() > maximumPages && it.hasNext()) {
+				Map.Entry<PageKey, Page> eldest = it.next();
+				if (eldest.getKey().path.equals(path) && eldest.getKey().index == index) {
+					continue;
+				}
+				it.remove();
+				pool(eldest.getValue().data);
+				PathState eldestState = paths.get(eldest.getKey().path);
+				eldestState.indexes.remove(eldest.getKey().index);
+				removeIfUnused(eldest.getKey().path, eldestState);
+			}
+		}
+	}
+
+	private void removeIfUnused(String path, PathState pathState) {
+		if (pathState.indexes.isEmpty() && pathState.handles == 0) {
+			paths.remove(path);
+		}
+	}
+
+	private byte[] allocate() {
+		synchronized (pages) {
+			byte[] data = pool.poll();
+			return Objects.isNull(data) ? new byte[pageSize] : data;
+		}
+	}
+
+	private void pool(byte[] data) {
+		synchronized (pages) {
+			if (pool.size() < Math.max(1, maximumRequests) * 2) {
+				pool.push(data);
+			}
+		}
+	}
+
+	class HandleState {
+		final String path;
+		final Map<Long, PendingPage> pending = new HashMap<>();
+		long position;
+		int window;
+
+		HandleState(String path) {
+			this.path = path;
+			synchronized (pages) {
+				paths.computeIfAbsent(path, (p) -> new PathState()).handles++;
+			}
+		}
+	}
+
+	static class PathState {
+		final Set<Long> indexes = new HashSet<>();
+		long generation;
+		long lastIndex = Long.MAX_VALUE;
+		long size = -1;
+		long modifiedTime = -1;
+		int handles;
+	}
+
+	static class PendingPage {
+		final byte[] data;
+		final long generation;
+		UnsignedInteger32 requestId;
+		int length;
+
+		PendingPage(UnsignedInteger32 requestId, byte[] data, long generation) {
+			this.requestId = requestId;
+			this.data = data;
+			this.generation = generation;
+		}
+	}
+
+	static class Page {
+		final byte[] data;
+		final int length;
+
+		Page(byte[] data, int length) {
+			this.data = data;
+			this.length = length;
+		}
+	}
+
+	static class PageKey {
+		final String path;
+		final long index;
+
+		PageKey(String path, long index) {
+			this.path = path;
+			this.index = index;
+		}
+
+		@Override
+		public int hashCode() {
+			return path.hashCode() * 31 + Long.hashCode(index);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof PageKey)) {
+				return false;
+			}
+			PageKey other = (PageKey) obj;
+			return index == other.index && path.equals(other.path);
+		}
+	}
+}
@@ -21,6 +21,8 @@ package com.sshtools.common.files.vfs;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
@@ -28,19 +30,24 @@ import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.files.AbstractFileAsynchronousChannel;
+import com.sshtools.common.files.AbstractFileChannel;
 import com.sshtools.common.files.AbstractFileFactory;
 import com.sshtools.common.files.AbstractFileRandomAccess;
 import com.sshtools.common.permissions.PermissionDeniedException;
 import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.util.IOUtils;
 import com.sshtools.common.util.UnsignedInteger32;
 import com.sshtools.common.util.UnsignedInteger64;
 
-public class PathFile implements AbstractFile {
+public class PathFile implements AbstractFile, AbstractFileAsynchronousChannel, AbstractFileChannel {
 	private Path path;
 	private PathFileFactory factory;
 
@@ -51,6 +58,17 @@ public class PathFile implements AbstractFile {
 
 	@Override
 	public void copyFrom(AbstractFile src) throws IOException, PermissionDeniedException {
+		if(src instanceof AbstractFileChannel) {
+			try(FileChannel in = ((AbstractFileChannel)src).openFileChannel(false)) {
+				if(in!=null) {
+					/* Like Files.copy this fails if the target already exists */
+					try(FileChannel out = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+						IOUtils.transfer(in, 0, in.size(), out, 0);
+					}
+					return;
+				}
+			}
+		}
 		Files.copy(src.getInputStream(), path);
 	}
 
@@ -265,6 +283,21 @@ public class PathFile implements AbstractFile {
 		return new PathRandomAccessImpl(path, writeAccess);
 	}
 
+	@Override
+	public AsynchronousFileChannel openAsynchronousChannel(boolean writeAccess, ExecutorService executor) throws IOException {
+		Set<StandardOpenOption> options = writeAccess 
+				? EnumSet.of(StandardOpenOption.READ, StandardOpenOption.WRITE) 
+				: EnumSet.of(StandardOpenOption.READ);
+		return AsynchronousFileChannel.open(path, options, executor);
+	}
+	
+	@Override
+	public FileChannel openFileChannel(boolean writeAccess) throws IOException {
+		return writeAccess
+				? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)
+				: FileChannel.open(path, StandardOpenOption.READ);
+	}
+
 	@Override
 	public void refresh() {
 	}